@@ -0,0 +1,44 @@
+package nl.andrewlalis.threadripper.benchmark;
+
+import nl.andrewlalis.threadripper.engine.ParticleStore;
+import nl.andrewlalis.threadripper.engine.Vec2;
+import nl.andrewlalis.threadripper.particle.Particle;
+import nl.andrewlalis.threadripper.particle.ParticleFactory;
+
+import java.util.SplittableRandom;
+
+/**
+ * Shared source of reproducible particles for the benchmarks, using the same
+ * ranges as the application.
+ */
+final class BenchmarkParticles {
+	static final long SEED = 42L;
+
+	private static final ParticleFactory FACTORY = new ParticleFactory(
+			0.1, 100000000000000.0,
+			-0.001, 0.001,
+			0.5, 5,
+			new Vec2(0, 0), new Vec2(800, 800),
+			new Vec2(-50, -50), new Vec2(50, 50)
+	);
+
+	private BenchmarkParticles() {
+	}
+
+	static Particle[] particles(int count) {
+		final SplittableRandom random = new SplittableRandom(SEED);
+		final Particle[] particles = new Particle[count];
+		for (int i = 0; i < count; i++) {
+			particles[i] = FACTORY.build(random);
+		}
+		return particles;
+	}
+
+	static ParticleStore store(int count) {
+		final ParticleStore store = new ParticleStore(count);
+		for (Particle particle : particles(count)) {
+			store.add(particle);
+		}
+		return store;
+	}
+}
@@ -0,0 +1,64 @@
+package nl.andrewlalis.threadripper.benchmark;
+
+import nl.andrewlalis.threadripper.engine.ForceSolverType;
+import nl.andrewlalis.threadripper.engine.ParticleChamber;
+import nl.andrewlalis.threadripper.particle.Particle;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures one full step of a {@link ParticleChamber}: force computation,
+ * integration, and collision detection and merging. The chamber is rebuilt
+ * for every iteration, so that merges during one iteration don't shrink the
+ * workload of the next.
+ * <p>
+ *     The exact O(n^2) solvers take a very long time per step at the upper
+ *     end of the particle counts, so restrict them with, for example,
+ *     "-p solver=DIRECT -p particleCount=1000,10000".
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChamberStepBenchmark {
+	private static final double DELTA_TIME = 1.0 / 60.0;
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int particleCount;
+
+	@Param({"1", "4"})
+	public int threadCount;
+
+	@Param({"DIRECT", "SYMMETRIC", "BARNES_HUT"})
+	public ForceSolverType solver;
+
+	private Particle[] particles;
+	private ParticleChamber chamber;
+
+	@Setup(Level.Trial)
+	public void generateParticles() {
+		this.particles = BenchmarkParticles.particles(this.particleCount);
+	}
+
+	@Setup(Level.Iteration)
+	public void setUp() {
+		this.chamber = new ParticleChamber();
+		this.chamber.setThreadCount(this.threadCount);
+		this.chamber.setForceSolver(this.solver.create());
+		this.chamber.addParticle(this.particles);
+	}
+
+	@TearDown(Level.Iteration)
+	public void tearDown() {
+		this.chamber.shutdown();
+	}
+
+	@Benchmark
+	public void step() {
+		this.chamber.updateParticles(DELTA_TIME);
+	}
+}
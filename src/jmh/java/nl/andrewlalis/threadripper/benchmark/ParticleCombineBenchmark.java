@@ -0,0 +1,53 @@
+package nl.andrewlalis.threadripper.benchmark;
+
+import nl.andrewlalis.threadripper.engine.StepExecutor;
+import nl.andrewlalis.threadripper.particle.Particle;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Particle#combine(Particle)}, by combining every particle
+ * with its neighbour in an array.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParticleCombineBenchmark {
+	private static final int CHUNK_SIZE = 4096;
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int particleCount;
+
+	@Param({"1", "4"})
+	public int threadCount;
+
+	private StepExecutor executor;
+	private Particle[] particles;
+	private Particle[] combined;
+
+	@Setup
+	public void setUp() {
+		this.particles = BenchmarkParticles.particles(this.particleCount);
+		this.combined = new Particle[this.particleCount - 1];
+		this.executor = new StepExecutor(this.threadCount);
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.executor.shutdown();
+	}
+
+	@Benchmark
+	public Particle[] combine() {
+		this.executor.forEach(this.combined.length, CHUNK_SIZE, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				this.combined[i] = this.particles[i].combine(this.particles[i + 1]);
+			}
+		});
+		return this.combined;
+	}
+}
@@ -0,0 +1,52 @@
+package nl.andrewlalis.threadripper.benchmark;
+
+import nl.andrewlalis.threadripper.engine.ParticleStore;
+import nl.andrewlalis.threadripper.engine.ParticleUpdater;
+import nl.andrewlalis.threadripper.engine.StepExecutor;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ParticleUpdater}, and so computeAcceleration, by computing
+ * the acceleration of a fixed number of focus particles against every
+ * particle in the store. Each operation evaluates
+ * {@value #FOCUS_PARTICLES} * particleCount pairs, so ops/sec can be
+ * converted to pairs/sec.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParticleUpdaterBenchmark {
+	private static final int FOCUS_PARTICLES = 256;
+	private static final int CHUNK_SIZE = 16;
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int particleCount;
+
+	@Param({"1", "4"})
+	public int threadCount;
+
+	private StepExecutor executor;
+	private ParticleUpdater updater;
+
+	@Setup
+	public void setUp() {
+		final ParticleStore store = BenchmarkParticles.store(this.particleCount);
+		this.executor = new StepExecutor(this.threadCount);
+		this.updater = new ParticleUpdater(store);
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.executor.shutdown();
+	}
+
+	@Benchmark
+	public void computeAccelerations() {
+		this.executor.forEach(FOCUS_PARTICLES, CHUNK_SIZE, this.updater);
+	}
+}
@@ -0,0 +1,65 @@
+package nl.andrewlalis.threadripper.benchmark;
+
+import nl.andrewlalis.threadripper.engine.StepExecutor;
+import nl.andrewlalis.threadripper.engine.Vec2;
+import nl.andrewlalis.threadripper.particle.Particle;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link Vec2} arithmetic that particles use to move, by
+ * advancing every position by its velocity and measuring each distance it
+ * moved. Run with "-prof gc" to see the allocation which this causes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Vec2Benchmark {
+	private static final int CHUNK_SIZE = 4096;
+	private static final double DELTA_TIME = 1.0 / 60.0;
+
+	@Param({"1000", "10000", "100000", "1000000"})
+	public int particleCount;
+
+	@Param({"1", "4"})
+	public int threadCount;
+
+	private StepExecutor executor;
+	private Vec2[] positions;
+	private Vec2[] velocities;
+	private double[] distances;
+
+	@Setup
+	public void setUp() {
+		final Particle[] particles = BenchmarkParticles.particles(this.particleCount);
+		this.positions = new Vec2[this.particleCount];
+		this.velocities = new Vec2[this.particleCount];
+		this.distances = new double[this.particleCount];
+		for (int i = 0; i < this.particleCount; i++) {
+			this.positions[i] = particles[i].getPosition();
+			this.velocities[i] = particles[i].getVelocity();
+		}
+		this.executor = new StepExecutor(this.threadCount);
+	}
+
+	@TearDown
+	public void tearDown() {
+		this.executor.shutdown();
+	}
+
+	@Benchmark
+	public double[] move() {
+		this.executor.forEach(this.particleCount, CHUNK_SIZE, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				final Vec2 next = this.positions[i].add(this.velocities[i].multiply(DELTA_TIME));
+				this.distances[i] = next.distance(this.positions[i]);
+				this.positions[i] = next;
+			}
+		});
+		return this.distances;
+	}
+}
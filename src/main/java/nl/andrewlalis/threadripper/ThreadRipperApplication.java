@@ -1,54 +1,91 @@
 package nl.andrewlalis.threadripper;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.beans.value.ChangeListener;
 import javafx.scene.Scene;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
+import javafx.scene.control.Slider;
 import javafx.scene.control.TextField;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.stage.Stage;
 import lombok.extern.slf4j.Slf4j;
 import nl.andrewlalis.threadripper.engine.ParticleChamber;
+import nl.andrewlalis.threadripper.engine.SnapshotSource;
 import nl.andrewlalis.threadripper.engine.Vec2;
+import nl.andrewlalis.threadripper.io.TrajectoryPlayer;
+import nl.andrewlalis.threadripper.io.TrajectoryReader;
+import nl.andrewlalis.threadripper.io.TrajectoryRecorder;
 import nl.andrewlalis.threadripper.particle.ParticleFactory;
 import nl.andrewlalis.threadripper.render.ParticleChamberRenderer;
 
+import java.nio.file.Path;
+import java.util.Map;
+
 /**
  * Main application starting point.
  */
 @Slf4j
 public class ThreadRipperApplication extends Application {
+	private static final double ZOOM_PER_SCROLL_UNIT = 1.002;
 
 	private final Canvas canvas;
 
-	private final ParticleChamber chamber;
-	private final Thread chamberThread;
-	private final ParticleChamberRenderer renderer;
-	private final Thread renderThread;
+	private ParticleChamber chamber;
+	private Thread chamberThread;
+	private TrajectoryRecorder recorder;
+	private TrajectoryReader reader;
+	private TrajectoryPlayer player;
+	private Thread playerThread;
+	private ParticleChamberRenderer renderer;
+	private Thread renderThread;
 
 	public ThreadRipperApplication() {
 		this.canvas = new Canvas(800, 800);
-		this.chamber = new ParticleChamber();
-		this.renderer = new ParticleChamberRenderer(chamber, canvas);
+	}
 
+	/**
+	 * Starts either a new simulation, or the replay of a recorded one. The
+	 * named parameters "--replay=file" and "--record=file" choose a
+	 * trajectory to replay, or to record the new simulation to.
+	 */
+	@Override
+	public void init() throws Exception {
+		final Map<String, String> parameters = this.getParameters().getNamed();
+		final SnapshotSource source;
+		if (parameters.containsKey("replay")) {
+			this.reader = new TrajectoryReader(Path.of(parameters.get("replay")));
+			this.player = new TrajectoryPlayer(this.reader);
+			this.playerThread = new Thread(this.player);
+			this.playerThread.start();
+			source = this.player;
+		} else {
+			this.chamber = new ParticleChamber();
+			this.chamber.getStepMetrics().registerMBean("application");
+			ParticleFactory factory = new ParticleFactory(
+					0.1, 100000000000000.0,
+					0, 0,
+					0.5, 5,
+					new Vec2(0, 0), new Vec2(800, 800),
+					new Vec2(-50, -50), new Vec2(50, 50)
+			);
+			for (int i = 0; i < 50; i++) {
+				this.chamber.addParticle(factory.build());
+			}
+			if (parameters.containsKey("record")) {
+				this.recorder = new TrajectoryRecorder(Path.of(parameters.get("record")), 1);
+				this.chamber.addStepListener(this.recorder);
+			}
 
-		ParticleFactory factory = new ParticleFactory(
-				0.1, 100000000000000.0,
-				0, 0,
-				0.5, 5,
-				new Vec2(0, 0), new Vec2(800, 800),
-				new Vec2(-50, -50), new Vec2(50, 50)
-		);
-		for (int i = 0; i < 50; i++) {
-			this.chamber.addParticle(factory.build());
+			this.chamberThread = new Thread(this.chamber);
+			this.chamberThread.start();
+			source = this.chamber;
 		}
 
-		this.chamberThread = new Thread(this.chamber);
-		this.chamberThread.start();
-
+		this.renderer = new ParticleChamberRenderer(source, this.canvas);
 		this.renderThread = new Thread(this.renderer);
 		this.renderThread.start();
 	}
@@ -64,7 +101,57 @@ public class ThreadRipperApplication extends Application {
 
 		BorderPane borderPane = new BorderPane();
 		borderPane.setCenter(this.canvas);
+		this.addViewControls();
 
+		HBox bottomPanel = this.player != null ? this.buildReplayPanel() : this.buildSimulationPanel();
+		borderPane.setBottom(bottomPanel);
+
+		Scene scene = new Scene(borderPane);
+
+		ChangeListener<Number> sceneSizeListener = (observable, oldValue, newValue) -> {
+			this.canvas.setWidth(scene.getWidth());
+			this.canvas.setHeight(scene.getHeight());
+		};
+		scene.widthProperty().addListener(sceneSizeListener);
+		scene.heightProperty().addListener(sceneSizeListener);
+
+		stage.setScene(scene);
+		stage.setMaximized(true);
+		stage.show();
+	}
+
+	/**
+	 * Lets the view be dragged around with the mouse, and zoomed with the
+	 * scroll wheel, keeping the point under the cursor in place.
+	 */
+	private void addViewControls() {
+		final double[] dragPosition = new double[2];
+		this.canvas.setOnMousePressed(mouseEvent -> {
+			dragPosition[0] = mouseEvent.getX();
+			dragPosition[1] = mouseEvent.getY();
+		});
+		this.canvas.setOnMouseDragged(mouseEvent -> {
+			final double scale = this.renderer.getScale();
+			this.renderer.setOffset(this.renderer.getOffset().add(new Vec2(
+					(mouseEvent.getX() - dragPosition[0]) / scale,
+					(mouseEvent.getY() - dragPosition[1]) / scale
+			)));
+			dragPosition[0] = mouseEvent.getX();
+			dragPosition[1] = mouseEvent.getY();
+		});
+		this.canvas.setOnScroll(scrollEvent -> {
+			final double oldScale = this.renderer.getScale();
+			final double newScale = oldScale * Math.pow(ZOOM_PER_SCROLL_UNIT, scrollEvent.getDeltaY());
+			final Vec2 offset = this.renderer.getOffset();
+			this.renderer.setOffset(new Vec2(
+					offset.getX() + scrollEvent.getX() / newScale - scrollEvent.getX() / oldScale,
+					offset.getY() + scrollEvent.getY() / newScale - scrollEvent.getY() / oldScale
+			));
+			this.renderer.setScale(newScale);
+		});
+	}
+
+	private HBox buildSimulationPanel() {
 		TextField simRateField = new TextField(Double.toString(this.chamber.getSimulationRate()));
 		Button simRateUpdate = new Button("Apply");
 		simRateUpdate.setOnMouseClicked(mouseEvent -> {
@@ -76,31 +163,64 @@ public class ThreadRipperApplication extends Application {
 			}
 			this.chamber.setSimulationRate(simRate);
 		});
-		HBox bottomPanel = new HBox(
+		return new HBox(
 				new Label("Simulation Rate"),
 				simRateField,
 				simRateUpdate
 		);
-		borderPane.setBottom(bottomPanel);
-
-		Scene scene = new Scene(borderPane);
-
-		ChangeListener<Number> sceneSizeListener = (observable, oldValue, newValue) -> {
-			this.canvas.setWidth(scene.getWidth());
-			this.canvas.setHeight(scene.getHeight());
-		};
-		scene.widthProperty().addListener(sceneSizeListener);
-		scene.heightProperty().addListener(sceneSizeListener);
+	}
 
-		stage.setScene(scene);
-		stage.setMaximized(true);
-		stage.show();
+	/**
+	 * Builds the replay controls: a play button, and a slider to scrub
+	 * through the recording's frames, which follows the player while it
+	 * plays.
+	 */
+	private HBox buildReplayPanel() {
+		Button playButton = new Button("Play");
+		playButton.setOnMouseClicked(mouseEvent -> this.player.setPlaying(!this.player.isPlaying()));
+		Slider frameSlider = new Slider(0, Math.max(0, this.player.getFrameCount() - 1), 0);
+		frameSlider.setPrefWidth(600);
+		Label frameLabel = new Label();
+		final boolean[] updatingSlider = {false};
+		frameSlider.valueProperty().addListener((observable, oldValue, newValue) -> {
+			if (!updatingSlider[0]) {
+				this.player.seek(newValue.intValue());
+			}
+		});
+		new AnimationTimer() {
+			@Override
+			public void handle(long now) {
+				final int frame = player.getCurrentFrame();
+				playButton.setText(player.isPlaying() ? "Pause" : "Play");
+				if (frame >= 0 && !frameSlider.isValueChanging()) {
+					updatingSlider[0] = true;
+					frameSlider.setValue(frame);
+					updatingSlider[0] = false;
+					frameLabel.setText(String.format("Step %d, %.3f s", reader.getStepCount(frame), reader.getSimulationTime(frame)));
+				}
+			}
+		}.start();
+		return new HBox(
+				playButton,
+				frameSlider,
+				frameLabel
+		);
 	}
 
 	@Override
 	public void stop() throws Exception {
-		this.chamber.setRunning(false);
-		this.chamberThread.join();
+		if (this.chamber != null) {
+			this.chamber.setRunning(false);
+			this.chamberThread.join();
+		}
+		if (this.recorder != null) {
+			this.recorder.close();
+		}
+		if (this.player != null) {
+			this.player.setRunning(false);
+			this.playerThread.join();
+			this.reader.close();
+		}
 		this.renderer.setRunning(false);
 		this.renderThread.join();
 		super.stop();
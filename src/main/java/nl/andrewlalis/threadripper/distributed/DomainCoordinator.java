@@ -0,0 +1,441 @@
+package nl.andrewlalis.threadripper.distributed;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.andrewlalis.threadripper.engine.ChamberSnapshot;
+import nl.andrewlalis.threadripper.engine.ForceSolverType;
+import nl.andrewlalis.threadripper.engine.ParticleStore;
+import nl.andrewlalis.threadripper.particle.Particle;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a simulation across several {@link DomainWorker} processes, each of
+ * which owns one vertical strip of the plane. The coordinator hands out the
+ * initial particles, tells the workers to run batches of steps, and between
+ * batches moves the strips' bounds so that every worker takes about as long
+ * per step. It takes no part in the steps themselves: the workers trade
+ * particles directly with each other.
+ * <p>
+ *     Rebalancing is load-aware rather than count-aware: each worker reports
+ *     how long its forces took, and a histogram of where its particles are,
+ *     so a strip whose particles are more expensive, for example because
+ *     they're more clustered for the Barnes-Hut solver, is made narrower.
+ * </p>
+ */
+@Slf4j
+public class DomainCoordinator implements Closeable {
+	private static final int DEFAULT_REBALANCE_INTERVAL = 50;
+	/**
+	 * Strips are only moved when the slowest worker takes this much longer
+	 * than the average, since every move makes workers reorder particles.
+	 */
+	private static final double REBALANCE_THRESHOLD = 1.05;
+	private static final long WORKER_EXIT_TIMEOUT_SECONDS = 10;
+
+	private final int workerCount;
+	private final ServerSocketChannel server;
+	private final List<Process> processes;
+	private final SocketChannel[] workers;
+
+	private ForceSolverType solverType = ForceSolverType.DIRECT;
+	private double theta = 0.5;
+	private int threadsPerWorker;
+	private double deltaTime = 1.0 / 60.0;
+	private boolean allowCollision = true;
+	private int rebalanceInterval = DEFAULT_REBALANCE_INTERVAL;
+
+	private StripDecomposition decomposition;
+	private long stepCount;
+	private double simulationTime;
+	private long interactionCount;
+	private long exchangedBytes;
+	private int rebalanceCount;
+	private int particleCount;
+	private double lastImbalance = 1.0;
+	private final long[] computeNanos;
+	private final long[] exchangeNanos;
+	private final long[] collisionNanos;
+
+	/**
+	 * Opens the coordinator's server socket, which workers connect to.
+	 * @param workerCount The number of workers.
+	 * @param address The address to listen on, where a port of 0 picks any
+	 *                free port.
+	 * @throws IOException If the socket could not be opened.
+	 */
+	public DomainCoordinator(int workerCount, InetSocketAddress address) throws IOException {
+		if (workerCount < 1) {
+			throw new IllegalArgumentException("There must be at least one worker.");
+		}
+		this.workerCount = workerCount;
+		this.server = ServerSocketChannel.open().bind(address, workerCount);
+		this.processes = new ArrayList<>(workerCount);
+		this.workers = new SocketChannel[workerCount];
+		this.threadsPerWorker = Math.max(1, Runtime.getRuntime().availableProcessors() / workerCount);
+		this.computeNanos = new long[workerCount];
+		this.exchangeNanos = new long[workerCount];
+		this.collisionNanos = new long[workerCount];
+	}
+
+	/**
+	 * Opens a coordinator which only listens on the loopback address.
+	 * @param workerCount The number of workers.
+	 * @throws IOException If the socket could not be opened.
+	 */
+	public DomainCoordinator(int workerCount) throws IOException {
+		this(workerCount, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+	}
+
+	/**
+	 * @param solverType The solver which every worker uses, which must be
+	 *                   {@linkplain #supports(ForceSolverType) supported}.
+	 * @param theta The opening angle, for the Barnes-Hut solver.
+	 */
+	public synchronized void setForceSolver(ForceSolverType solverType, double theta) {
+		if (!supports(solverType)) {
+			throw new IllegalArgumentException("Distributed runs don't support the " + solverType + " solver.");
+		}
+		this.solverType = solverType;
+		this.theta = theta;
+	}
+
+	/**
+	 * Tells whether a solver can split its work across workers. Each worker
+	 * only computes the forces on its own particles, through the solver's
+	 * subset method, so that method must cost less for fewer targets. The
+	 * particle-mesh solver still deposits and transforms the whole grid on
+	 * every worker, and the neighbour-list solver's cutoff doesn't fit the
+	 * setup message, so neither is supported.
+	 * @param solverType The solver type.
+	 * @return Whether distributed runs may use it.
+	 */
+	public static boolean supports(ForceSolverType solverType) {
+		return solverType != ForceSolverType.PARTICLE_MESH && solverType != ForceSolverType.NEIGHBOUR_LIST;
+	}
+
+	public synchronized void setThreadsPerWorker(int threadsPerWorker) {
+		if (threadsPerWorker > 0) {
+			this.threadsPerWorker = threadsPerWorker;
+		}
+	}
+
+	public synchronized void setDeltaTime(double deltaTime) {
+		if (deltaTime > 0) {
+			this.deltaTime = deltaTime;
+		}
+	}
+
+	public synchronized void setAllowCollision(boolean allowCollision) {
+		this.allowCollision = allowCollision;
+	}
+
+	/**
+	 * @param rebalanceInterval The number of steps in each batch, after which
+	 *                          the strips may be moved.
+	 */
+	public synchronized void setRebalanceInterval(int rebalanceInterval) {
+		if (rebalanceInterval > 0) {
+			this.rebalanceInterval = rebalanceInterval;
+		}
+	}
+
+	/**
+	 * @return The address which workers should connect to.
+	 * @throws IOException If the server socket is closed.
+	 */
+	public InetSocketAddress getAddress() throws IOException {
+		return (InetSocketAddress) this.server.getLocalAddress();
+	}
+
+	/**
+	 * Starts every worker as a separate JVM on this machine, with the same
+	 * class path and heap settings as this one.
+	 * @throws IOException If a process could not be started.
+	 */
+	public void spawnWorkers() throws IOException {
+		final String java = ProcessHandle.current().info().command().orElse("java");
+		final InetSocketAddress address = this.getAddress();
+		for (int i = 0; i < this.workerCount; i++) {
+			final List<String> command = new ArrayList<>();
+			command.add(java);
+			for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+				if (argument.startsWith("-Xmx") || argument.startsWith("-Xms") || argument.startsWith("-Xss")) {
+					command.add(argument);
+				}
+			}
+			command.add("-cp");
+			command.add(workerClassPath());
+			command.add(DomainWorker.class.getName());
+			command.add("--coordinator");
+			command.add(address.getAddress().getHostAddress() + ":" + address.getPort());
+			this.processes.add(new ProcessBuilder(command).inheritIO().start());
+		}
+	}
+
+	/**
+	 * Builds the class path for worker processes. When running under a tool
+	 * like Maven's exec plugin, the application's classes aren't on this
+	 * JVM's own class path, so the locations of the worker and logging
+	 * classes are added to it.
+	 */
+	private static String workerClassPath() {
+		final StringJoiner classPath = new StringJoiner(File.pathSeparator);
+		classPath.add(System.getProperty("java.class.path"));
+		for (Class<?> type : new Class<?>[] {DomainWorker.class, LoggerFactory.class}) {
+			final CodeSource source = type.getProtectionDomain().getCodeSource();
+			if (source == null) continue;
+			try {
+				classPath.add(Path.of(source.getLocation().toURI()).toString());
+			} catch (URISyntaxException | IllegalArgumentException e) {
+				log.debug("Could not find where {} was loaded from.", type.getName(), e);
+			}
+		}
+		return classPath.toString();
+	}
+
+	/**
+	 * Waits for every worker to connect, and sends each of them the run's
+	 * settings and all of the initial particles, which are split into strips
+	 * with equal numbers of particles.
+	 * @param snapshot The initial particles and clock.
+	 * @throws IOException If a worker could not be set up.
+	 */
+	public void start(ChamberSnapshot snapshot) throws IOException {
+		final String[] hosts = new String[this.workerCount];
+		final int[] ports = new int[this.workerCount];
+		for (int rank = 0; rank < this.workerCount; rank++) {
+			final SocketChannel channel = this.server.accept();
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			this.workers[rank] = channel;
+			ports[rank] = Messages.receive(channel, Messages.HELLO).getInt();
+			hosts[rank] = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+		}
+		this.stepCount = snapshot.getStepCount();
+		this.simulationTime = snapshot.getSimulationTime();
+		this.particleCount = snapshot.getSize();
+		this.decomposition = StripDecomposition.balanced(snapshot.getX(), snapshot.getSize(), this.workerCount);
+		final ParticleStore particles = new ParticleStore(
+				snapshot.getSize(), snapshot.getIds(), snapshot.getX(), snapshot.getY(), snapshot.getVx(),
+				snapshot.getVy(), snapshot.getMass(), snapshot.getCharge(), snapshot.getRadius()
+		);
+
+		int settingsSize = 2 * Integer.BYTES;
+		for (String host : hosts) {
+			settingsSize += Messages.stringSize(host) + Integer.BYTES;
+		}
+		settingsSize += Double.BYTES + Integer.BYTES + Messages.stringSize(this.solverType.name())
+				+ Double.BYTES + Integer.BYTES + 2 * Long.BYTES + (this.workerCount - 1) * Double.BYTES;
+		final ByteBuffer setup = Messages.allocate(settingsSize + Messages.blockSize(particles.getSize()));
+		setup.position(setup.position() + Integer.BYTES);
+		setup.putInt(this.workerCount);
+		for (int i = 0; i < this.workerCount; i++) {
+			Messages.putString(setup, hosts[i]);
+			setup.putInt(ports[i]);
+		}
+		setup.putDouble(this.deltaTime);
+		setup.putInt(this.allowCollision ? 1 : 0);
+		Messages.putString(setup, this.solverType.name());
+		setup.putDouble(this.theta);
+		setup.putInt(this.threadsPerWorker);
+		setup.putLong(Particle.peekNextId());
+		setup.putLong(this.stepCount);
+		for (double bound : this.decomposition.getBounds()) {
+			setup.putDouble(bound);
+		}
+		Messages.putBlock(setup, particles, 0, particles.getSize());
+		Messages.finish(setup, Messages.SETUP);
+		for (int rank = 0; rank < this.workerCount; rank++) {
+			setup.putInt(Messages.HEADER_SIZE, rank);
+			Messages.send(this.workers[rank], setup.duplicate());
+		}
+		log.info("Started {} workers with {} particles.", this.workerCount, particles.getSize());
+	}
+
+	/**
+	 * Runs a number of steps, in batches, rebalancing the strips after each
+	 * batch if the workers' loads have drifted apart.
+	 * @param steps The number of steps to run.
+	 * @throws IOException If a worker failed.
+	 */
+	public void run(long steps) throws IOException {
+		long remaining = steps;
+		while (remaining > 0) {
+			final int batch = (int) Math.min(remaining, this.rebalanceInterval);
+			final ByteBuffer command = Messages.allocate(Integer.BYTES + (this.workerCount - 1) * Double.BYTES);
+			command.putInt(batch);
+			for (double bound : this.decomposition.getBounds()) {
+				command.putDouble(bound);
+			}
+			Messages.finish(command, Messages.RUN);
+			for (SocketChannel worker : this.workers) {
+				Messages.send(worker, command.duplicate());
+			}
+
+			final DomainLoad[] loads = new DomainLoad[this.workerCount];
+			int particleCount = 0;
+			for (int rank = 0; rank < this.workerCount; rank++) {
+				loads[rank] = DomainLoad.read(Messages.receive(this.workers[rank], Messages.REPORT));
+				particleCount += loads[rank].particleCount;
+				this.interactionCount += loads[rank].interactionCount;
+				this.exchangedBytes += loads[rank].exchangedBytes;
+				this.computeNanos[rank] += loads[rank].computeNanos;
+				this.exchangeNanos[rank] += loads[rank].exchangeNanos;
+				this.collisionNanos[rank] += loads[rank].collisionNanos;
+			}
+			this.particleCount = particleCount;
+			this.stepCount += batch;
+			this.simulationTime += batch * this.deltaTime;
+			remaining -= batch;
+
+			this.lastImbalance = StripDecomposition.imbalanceOf(loads);
+			if (this.lastImbalance > REBALANCE_THRESHOLD && remaining > 0) {
+				this.decomposition = this.decomposition.rebalance(loads);
+				this.rebalanceCount++;
+				log.debug("Rebalanced at step {}, with an imbalance of {}.", this.stepCount, this.lastImbalance);
+			}
+		}
+	}
+
+	/**
+	 * Tells the workers to stop, and collects all of their particles.
+	 * @return The particles, in domain order.
+	 * @throws IOException If a worker failed.
+	 */
+	public ParticleStore finish() throws IOException {
+		final ByteBuffer command = Messages.finish(Messages.allocate(0), Messages.FINISH);
+		for (SocketChannel worker : this.workers) {
+			Messages.send(worker, command.duplicate());
+		}
+		final ParticleStore particles = new ParticleStore(this.particleCount);
+		for (SocketChannel worker : this.workers) {
+			final ByteBuffer result = Messages.receive(worker, Messages.RESULT);
+			Particle.advanceNextId(result.getLong());
+			Messages.getBlock(result, particles);
+		}
+		return particles;
+	}
+
+	/**
+	 * Closes the connections to the workers, and waits for any workers which
+	 * this coordinator started to exit.
+	 */
+	@Override
+	public void close() throws IOException {
+		for (SocketChannel worker : this.workers) {
+			if (worker != null) {
+				worker.close();
+			}
+		}
+		this.server.close();
+		for (Process process : this.processes) {
+			try {
+				if (!process.waitFor(WORKER_EXIT_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+					log.warn("Worker process {} did not exit, so it is being killed.", process.pid());
+					process.destroyForcibly();
+				}
+			} catch (InterruptedException e) {
+				process.destroyForcibly();
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	public int getWorkerCount() {
+		return this.workerCount;
+	}
+
+	/**
+	 * @return The number of steps which have been simulated.
+	 */
+	public long getStepCount() {
+		return this.stepCount;
+	}
+
+	/**
+	 * @return The total amount of simulated time, in seconds.
+	 */
+	public double getSimulationTime() {
+		return this.simulationTime;
+	}
+
+	/**
+	 * @return The total number of interactions which the workers' force
+	 * solvers evaluated.
+	 */
+	public long getInteractionCount() {
+		return this.interactionCount;
+	}
+
+	/**
+	 * @return The total number of bytes which the workers sent each other.
+	 */
+	public long getExchangedBytes() {
+		return this.exchangedBytes;
+	}
+
+	/**
+	 * @return The number of times the strips were moved.
+	 */
+	public int getRebalanceCount() {
+		return this.rebalanceCount;
+	}
+
+	/**
+	 * @return The slowest worker's force time over the average, in the last
+	 * batch.
+	 */
+	public double getLastImbalance() {
+		return this.lastImbalance;
+	}
+
+	/**
+	 * @return The current bounds between the workers' strips.
+	 */
+	public double[] getBounds() {
+		return this.decomposition.getBounds();
+	}
+
+	/**
+	 * @param rank A worker's rank.
+	 * @return The total time which the worker spent computing forces and
+	 * moving particles, in nanoseconds.
+	 */
+	public long getComputeNanos(int rank) {
+		return this.computeNanos[rank];
+	}
+
+	/**
+	 * @param rank A worker's rank.
+	 * @return The total time which the worker spent trading particles,
+	 * including waiting for its peers, in nanoseconds.
+	 */
+	public long getExchangeNanos(int rank) {
+		return this.exchangeNanos[rank];
+	}
+
+	/**
+	 * @param rank A worker's rank.
+	 * @return The total time which the worker spent on collisions and
+	 * migration, in nanoseconds.
+	 */
+	public long getCollisionNanos(int rank) {
+		return this.collisionNanos[rank];
+	}
+}
@@ -0,0 +1,76 @@
+package nl.andrewlalis.threadripper.distributed;
+
+import java.nio.ByteBuffer;
+
+/**
+ * What a worker measured while running a batch of steps: how long its share
+ * of the work took, and where along the x axis its particles lie, which is
+ * what the coordinator needs to move the domain bounds.
+ */
+class DomainLoad {
+	/**
+	 * The number of bins in the histogram of particle positions.
+	 */
+	static final int BIN_COUNT = 64;
+	static final int SIZE = Integer.BYTES + 5 * Long.BYTES + 2 * Double.BYTES + BIN_COUNT * Integer.BYTES;
+
+	/**
+	 * The number of particles in the worker's domain at the end of the batch.
+	 */
+	int particleCount;
+	/**
+	 * The time spent computing forces and moving the domain's particles.
+	 */
+	long computeNanos;
+	/**
+	 * The time spent sending and waiting for particles, which includes any
+	 * time spent waiting for slower peers.
+	 */
+	long exchangeNanos;
+	/**
+	 * The time spent detecting collisions, merging and repartitioning.
+	 */
+	long collisionNanos;
+	long interactionCount;
+	long exchangedBytes;
+	/**
+	 * The range of x covered by the histogram.
+	 */
+	double minX;
+	double maxX;
+	/**
+	 * The number of the domain's particles in each of {@value #BIN_COUNT}
+	 * equal parts of the range from minX to maxX.
+	 */
+	final int[] bins = new int[BIN_COUNT];
+
+	void write(ByteBuffer buffer) {
+		buffer.putInt(this.particleCount);
+		buffer.putLong(this.computeNanos);
+		buffer.putLong(this.exchangeNanos);
+		buffer.putLong(this.collisionNanos);
+		buffer.putLong(this.interactionCount);
+		buffer.putLong(this.exchangedBytes);
+		buffer.putDouble(this.minX);
+		buffer.putDouble(this.maxX);
+		for (int bin : this.bins) {
+			buffer.putInt(bin);
+		}
+	}
+
+	static DomainLoad read(ByteBuffer buffer) {
+		final DomainLoad load = new DomainLoad();
+		load.particleCount = buffer.getInt();
+		load.computeNanos = buffer.getLong();
+		load.exchangeNanos = buffer.getLong();
+		load.collisionNanos = buffer.getLong();
+		load.interactionCount = buffer.getLong();
+		load.exchangedBytes = buffer.getLong();
+		load.minX = buffer.getDouble();
+		load.maxX = buffer.getDouble();
+		for (int i = 0; i < BIN_COUNT; i++) {
+			load.bins[i] = buffer.getInt();
+		}
+		return load;
+	}
+}
@@ -0,0 +1,498 @@
+package nl.andrewlalis.threadripper.distributed;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.andrewlalis.threadripper.engine.BarnesHutForceSolver;
+import nl.andrewlalis.threadripper.engine.CollisionDetector;
+import nl.andrewlalis.threadripper.engine.CollisionMerger;
+import nl.andrewlalis.threadripper.engine.ForceSolver;
+import nl.andrewlalis.threadripper.engine.ForceSolverType;
+import nl.andrewlalis.threadripper.engine.ParticleStore;
+import nl.andrewlalis.threadripper.engine.StepExecutor;
+import nl.andrewlalis.threadripper.particle.Particle;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A worker process of a distributed run, which owns one strip of the plane,
+ * and moves only the particles in it. The coordinator tells it to run
+ * batches of steps, and rebalances the strips in between.
+ * <p>
+ *     The chamber's forces have no cutoff, so every particle feels every
+ *     other one, and the halo which a domain needs from its neighbours is
+ *     really all of their particles. Every worker therefore keeps all of the
+ *     particles, as one block per domain, in domain order. Each step, a
+ *     worker computes the forces on its own block only, moves it, and then
+ *     sends it to every peer while it receives theirs in place, over
+ *     non-blocking socket channels with a single selector. This costs O(n)
+ *     bytes per worker per step, against O(n^2 / workers) for the forces
+ *     with the exact solvers, which is why only solvers whose subset method
+ *     costs less for fewer targets are
+ *     {@linkplain DomainCoordinator#supports supported}. Since every worker
+ *     keeps all the particles, the run doesn't need any less memory per
+ *     worker than a single process does.
+ * </p>
+ * <p>
+ *     After the exchange, every worker holds bit-for-bit the same particles,
+ *     in the same order. Collisions are then merged and particles which have
+ *     crossed into another strip migrate to its block, by the same
+ *     deterministic code on every worker, so they stay identical without any
+ *     further messages. This also means every worker detects and merges
+ *     collisions among all n particles. Merged particles get the same new ids everywhere,
+ *     since every worker starts from the coordinator's next id.
+ * </p>
+ * <p>
+ *     Only the symplectic Euler integrator is supported, since it needs the
+ *     forces only once per step, at positions which every worker already has.
+ * </p>
+ */
+@Slf4j
+public class DomainWorker {
+	private static final int CHUNK_SIZE = 4096;
+
+	private final InetSocketAddress coordinatorAddress;
+
+	private int rank;
+	private int workerCount;
+	private SocketChannel coordinator;
+	private SocketChannel[] peers;
+	private Selector selector;
+
+	private double deltaTime;
+	private boolean allowCollision;
+	private ForceSolver solver;
+	private StepExecutor executor;
+	private final CollisionDetector collisionDetector;
+	private final CollisionMerger collisionMerger;
+
+	private StripDecomposition decomposition;
+	private ParticleStore particles;
+	private ParticleStore spareParticles;
+	/**
+	 * The index at which each domain's block of particles starts, with the
+	 * total number of particles at the end.
+	 */
+	private int[] blockStart;
+	private int[] ownIndices;
+	private int[] particleDomains;
+	private int[] order;
+	private long stepCount;
+
+	private ByteBuffer[] peerHeaders;
+	private ByteBuffer[] peerPayloads;
+	private DomainLoad load;
+
+	public DomainWorker(InetSocketAddress coordinatorAddress) {
+		this.coordinatorAddress = coordinatorAddress;
+		this.collisionDetector = new CollisionDetector();
+		this.collisionMerger = new CollisionMerger();
+		this.particles = new ParticleStore();
+		this.spareParticles = new ParticleStore();
+		this.particleDomains = new int[0];
+		this.order = new int[0];
+		this.ownIndices = new int[0];
+	}
+
+	/**
+	 * Starts a worker, which connects to a coordinator and runs until it's
+	 * told to stop.
+	 * @param args "--coordinator host:port".
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2 || !args[0].equals("--coordinator") || args[1].lastIndexOf(':') < 0) {
+			System.err.println("Usage: DomainWorker --coordinator <host:port>");
+			System.exit(1);
+			return;
+		}
+		final String address = args[1];
+		final int separator = address.lastIndexOf(':');
+		final DomainWorker worker = new DomainWorker(new InetSocketAddress(
+				address.substring(0, separator),
+				Integer.parseInt(address.substring(separator + 1))
+		));
+		try {
+			worker.run();
+		} catch (IOException | RuntimeException e) {
+			log.error("Worker failed.", e);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Connects to the coordinator and the other workers, and runs whatever
+	 * the coordinator asks for, until it's told to stop.
+	 * @throws IOException If any connection fails.
+	 */
+	public void run() throws IOException {
+		try {
+			this.connect();
+			while (true) {
+				final ByteBuffer message = Messages.receive(this.coordinator);
+				if (Messages.typeOf(message) == Messages.RUN) {
+					this.runBatch(message);
+				} else if (Messages.typeOf(message) == Messages.FINISH) {
+					this.sendResult();
+					break;
+				} else {
+					throw new IOException("Unexpected message of type " + Messages.typeOf(message) + ".");
+				}
+			}
+		} finally {
+			this.close();
+		}
+	}
+
+	/**
+	 * Greets the coordinator, reads the run's settings, and then connects to
+	 * every peer: each worker connects to those with a lower rank, and
+	 * accepts connections from those with a higher rank.
+	 */
+	private void connect() throws IOException {
+		this.coordinator = SocketChannel.open(this.coordinatorAddress);
+		this.coordinator.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		final InetSocketAddress localAddress = (InetSocketAddress) this.coordinator.getLocalAddress();
+		try (ServerSocketChannel peerServer = ServerSocketChannel.open()) {
+			peerServer.bind(new InetSocketAddress(localAddress.getAddress(), 0));
+			final ByteBuffer hello = Messages.allocate(Integer.BYTES);
+			hello.putInt(((InetSocketAddress) peerServer.getLocalAddress()).getPort());
+			Messages.send(this.coordinator, Messages.finish(hello, Messages.HELLO));
+
+			final InetSocketAddress[] peerAddresses = this.readSetup(Messages.receive(this.coordinator, Messages.SETUP));
+			this.peers = new SocketChannel[this.workerCount];
+			for (int peer = 0; peer < this.rank; peer++) {
+				final SocketChannel channel = SocketChannel.open(peerAddresses[peer]);
+				final ByteBuffer greeting = Messages.allocate(Integer.BYTES);
+				greeting.putInt(this.rank);
+				Messages.send(channel, Messages.finish(greeting, Messages.PEER));
+				this.peers[peer] = channel;
+			}
+			for (int i = this.rank + 1; i < this.workerCount; i++) {
+				final SocketChannel channel = peerServer.accept();
+				final int peer = Messages.receive(channel, Messages.PEER).getInt();
+				if (peer <= this.rank || peer >= this.workerCount || this.peers[peer] != null) {
+					throw new IOException("Unexpected connection from worker " + peer + ".");
+				}
+				this.peers[peer] = channel;
+			}
+		}
+
+		this.selector = Selector.open();
+		this.peerHeaders = new ByteBuffer[this.workerCount];
+		this.peerPayloads = new ByteBuffer[this.workerCount];
+		for (int peer = 0; peer < this.workerCount; peer++) {
+			if (peer == this.rank) continue;
+			this.peers[peer].setOption(StandardSocketOptions.TCP_NODELAY, true);
+			this.peers[peer].configureBlocking(false);
+			this.peers[peer].register(this.selector, 0, peer);
+			this.peerHeaders[peer] = ByteBuffer.allocate(Messages.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			this.peerPayloads[peer] = ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		log.info("Worker {} of {} is connected, with {} particles and {} threads.",
+				this.rank, this.workerCount, this.particles.getSize(), this.executor.getThreadCount());
+	}
+
+	/**
+	 * Reads the settings and initial particles from the coordinator's setup
+	 * message.
+	 * @return The addresses of every worker's peer server.
+	 */
+	private InetSocketAddress[] readSetup(ByteBuffer setup) {
+		this.rank = setup.getInt();
+		this.workerCount = setup.getInt();
+		final InetSocketAddress[] peerAddresses = new InetSocketAddress[this.workerCount];
+		for (int i = 0; i < this.workerCount; i++) {
+			final String host = Messages.getString(setup);
+			peerAddresses[i] = new InetSocketAddress(host, setup.getInt());
+		}
+		this.deltaTime = setup.getDouble();
+		this.allowCollision = setup.getInt() != 0;
+		this.solver = ForceSolverType.fromName(Messages.getString(setup)).create();
+		final double theta = setup.getDouble();
+		if (this.solver instanceof BarnesHutForceSolver) {
+			((BarnesHutForceSolver) this.solver).setTheta(theta);
+		}
+		this.executor = new StepExecutor(setup.getInt());
+		Particle.advanceNextId(setup.getLong());
+		this.stepCount = setup.getLong();
+		final double[] bounds = new double[this.workerCount - 1];
+		for (int i = 0; i < bounds.length; i++) {
+			bounds[i] = setup.getDouble();
+		}
+		this.decomposition = new StripDecomposition(bounds);
+		Messages.getBlock(setup, this.particles);
+		this.partition();
+		return peerAddresses;
+	}
+
+	/**
+	 * Runs the number of steps which the coordinator asked for, with its new
+	 * domain bounds, and reports back how long they took.
+	 */
+	private void runBatch(ByteBuffer message) throws IOException {
+		final int steps = message.getInt();
+		final double[] bounds = new double[this.workerCount - 1];
+		for (int i = 0; i < bounds.length; i++) {
+			bounds[i] = message.getDouble();
+		}
+		this.decomposition = new StripDecomposition(bounds);
+		this.partition();
+		this.load = new DomainLoad();
+		for (int i = 0; i < steps; i++) {
+			this.step();
+		}
+		this.measurePositions();
+		final ByteBuffer report = Messages.allocate(DomainLoad.SIZE);
+		this.load.write(report);
+		Messages.send(this.coordinator, Messages.finish(report, Messages.REPORT));
+	}
+
+	/**
+	 * Advances the domain's particles by one step, trades them for every
+	 * other domain's, and then merges collisions and lets particles migrate.
+	 */
+	private void step() throws IOException {
+		final long startNanos = System.nanoTime();
+		final int from = this.blockStart[this.rank];
+		final int ownCount = this.blockStart[this.rank + 1] - from;
+		this.load.interactionCount += this.solver.computeAccelerations(this.particles, this.ownIndices, ownCount, this.executor);
+		final double deltaTime = this.deltaTime;
+		final double[] x = this.particles.getX();
+		final double[] y = this.particles.getY();
+		final double[] vx = this.particles.getVx();
+		final double[] vy = this.particles.getVy();
+		final double[] ax = this.particles.getAx();
+		final double[] ay = this.particles.getAy();
+		this.executor.forEach(ownCount, CHUNK_SIZE, (start, end) -> {
+			for (int i = from + start; i < from + end; i++) {
+				vx[i] += ax[i] * deltaTime;
+				vy[i] += ay[i] * deltaTime;
+				x[i] += vx[i] * deltaTime;
+				y[i] += vy[i] * deltaTime;
+			}
+		});
+		final long computedNanos = System.nanoTime();
+		this.load.computeNanos += computedNanos - startNanos;
+
+		this.stepCount++;
+		this.exchange();
+		final long exchangedNanos = System.nanoTime();
+		this.load.exchangeNanos += exchangedNanos - computedNanos;
+
+		boolean merged = false;
+		if (this.allowCollision) {
+			this.collisionDetector.detect(this.particles, this.executor);
+			merged = this.collisionMerger.merge(this.particles, this.collisionDetector, this.executor) > 0;
+		}
+		if (merged || this.hasMigrants()) {
+			this.partition();
+		}
+		this.load.collisionNanos += System.nanoTime() - exchangedNanos;
+	}
+
+	/**
+	 * Sends this domain's block to every peer, and overwrites each peer's
+	 * block with what it sent, handling all peers at once with a selector.
+	 */
+	private void exchange() throws IOException {
+		if (this.workerCount == 1) return;
+		final int from = this.blockStart[this.rank];
+		final int to = this.blockStart[this.rank + 1];
+		final ByteBuffer outgoing = Messages.allocate(Long.BYTES + Messages.blockSize(to - from));
+		outgoing.putLong(this.stepCount);
+		Messages.putBlock(outgoing, this.particles, from, to);
+		Messages.finish(outgoing, Messages.EXCHANGE);
+
+		final ByteBuffer[] sending = new ByteBuffer[this.workerCount];
+		int pendingCount = 0;
+		for (int peer = 0; peer < this.workerCount; peer++) {
+			if (peer == this.rank) continue;
+			sending[peer] = outgoing.duplicate();
+			this.peerHeaders[peer].clear();
+			this.peerPayloads[peer].limit(0);
+			pendingCount += 2;
+		}
+		while (pendingCount > 0) {
+			for (SelectionKey key : this.selector.keys()) {
+				final int peer = (Integer) key.attachment();
+				final boolean receiving = this.peerHeaders[peer].hasRemaining() || this.peerPayloads[peer].hasRemaining();
+				key.interestOps((sending[peer].hasRemaining() ? SelectionKey.OP_WRITE : 0)
+						| (receiving ? SelectionKey.OP_READ : 0));
+			}
+			this.selector.select();
+			for (SelectionKey key : this.selector.selectedKeys()) {
+				final int peer = (Integer) key.attachment();
+				final SocketChannel channel = (SocketChannel) key.channel();
+				if (key.isWritable()) {
+					channel.write(sending[peer]);
+					if (!sending[peer].hasRemaining()) {
+						this.load.exchangedBytes += outgoing.limit();
+						pendingCount--;
+					}
+				}
+				if (key.isReadable() && this.receiveFrom(peer, channel)) {
+					pendingCount--;
+				}
+			}
+			this.selector.selectedKeys().clear();
+		}
+
+		for (int peer = 0; peer < this.workerCount; peer++) {
+			if (peer == this.rank) continue;
+			final ByteBuffer payload = this.peerPayloads[peer].flip();
+			final long peerStep = payload.getLong();
+			if (peerStep != this.stepCount) {
+				throw new IllegalStateException("Worker " + peer + " is at step " + peerStep + ", but this worker is at step " + this.stepCount + ".");
+			}
+			Messages.getBlockInto(payload, this.particles, this.blockStart[peer], this.blockStart[peer + 1] - this.blockStart[peer]);
+		}
+	}
+
+	/**
+	 * Reads as much of a peer's message as is available.
+	 * @return True if the message is now complete.
+	 */
+	private boolean receiveFrom(int peer, SocketChannel channel) throws IOException {
+		final ByteBuffer header = this.peerHeaders[peer];
+		if (header.hasRemaining()) {
+			if (channel.read(header) < 0) {
+				throw new IOException("Worker " + peer + " closed its connection.");
+			}
+			if (header.hasRemaining()) return false;
+			if (header.getInt(0) != Messages.EXCHANGE) {
+				throw new IOException("Expected particles from worker " + peer + ", but got a message of type " + header.getInt(0) + ".");
+			}
+			final int length = header.getInt(4);
+			if (this.peerPayloads[peer].capacity() < length) {
+				this.peerPayloads[peer] = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			this.peerPayloads[peer].clear().limit(length);
+		}
+		final ByteBuffer payload = this.peerPayloads[peer];
+		if (payload.hasRemaining() && channel.read(payload) < 0) {
+			throw new IOException("Worker " + peer + " closed its connection.");
+		}
+		return !payload.hasRemaining();
+	}
+
+	/**
+	 * @return True if any particle has left its domain's strip.
+	 */
+	private boolean hasMigrants() {
+		final double[] x = this.particles.getX();
+		for (int domain = 0; domain < this.workerCount; domain++) {
+			for (int i = this.blockStart[domain]; i < this.blockStart[domain + 1]; i++) {
+				if (this.decomposition.domainOf(x[i]) != domain) return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reorders the particles into one block per domain, keeping their
+	 * relative order within each block, with a counting sort.
+	 */
+	private void partition() {
+		final ParticleStore store = this.particles;
+		final int size = store.getSize();
+		if (this.particleDomains.length < size) {
+			this.particleDomains = new int[size];
+			this.order = new int[size];
+		}
+		final int[] counts = new int[this.workerCount + 1];
+		final double[] x = store.getX();
+		for (int i = 0; i < size; i++) {
+			this.particleDomains[i] = this.decomposition.domainOf(x[i]);
+			counts[this.particleDomains[i] + 1]++;
+		}
+		for (int domain = 0; domain < this.workerCount; domain++) {
+			counts[domain + 1] += counts[domain];
+		}
+		this.blockStart = counts.clone();
+		for (int i = 0; i < size; i++) {
+			this.order[counts[this.particleDomains[i]]++] = i;
+		}
+
+		final ParticleStore sorted = this.spareParticles;
+		sorted.clear();
+		for (int k = 0; k < size; k++) {
+			final int i = this.order[k];
+			sorted.add(store.getIds()[i], x[i], store.getY()[i], store.getVx()[i], store.getVy()[i],
+					store.getMass()[i], store.getCharge()[i], store.getRadius()[i]);
+		}
+		this.spareParticles = store;
+		this.particles = sorted;
+
+		final int from = this.blockStart[this.rank];
+		final int ownCount = this.blockStart[this.rank + 1] - from;
+		if (this.ownIndices.length < ownCount) {
+			this.ownIndices = new int[Math.max(ownCount, this.ownIndices.length * 2)];
+		}
+		for (int k = 0; k < ownCount; k++) {
+			this.ownIndices[k] = from + k;
+		}
+	}
+
+	/**
+	 * Records the domain's particle count and a histogram of its particles'
+	 * x coordinates, for the coordinator to rebalance with.
+	 */
+	private void measurePositions() {
+		final int from = this.blockStart[this.rank];
+		final int to = this.blockStart[this.rank + 1];
+		final double[] x = this.particles.getX();
+		double minX = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		for (int i = from; i < to; i++) {
+			minX = Math.min(minX, x[i]);
+			maxX = Math.max(maxX, x[i]);
+		}
+		this.load.particleCount = to - from;
+		if (to == from) return;
+		this.load.minX = minX;
+		this.load.maxX = maxX;
+		final double binWidth = (maxX - minX) / DomainLoad.BIN_COUNT;
+		for (int i = from; i < to; i++) {
+			final int bin = binWidth > 0.0 ? (int) ((x[i] - minX) / binWidth) : 0;
+			this.load.bins[Math.min(bin, DomainLoad.BIN_COUNT - 1)]++;
+		}
+	}
+
+	/**
+	 * Sends this domain's particles to the coordinator, together with the
+	 * next free particle id.
+	 */
+	private void sendResult() throws IOException {
+		final int from = this.blockStart[this.rank];
+		final int to = this.blockStart[this.rank + 1];
+		final ByteBuffer result = Messages.allocate(Long.BYTES + Messages.blockSize(to - from));
+		result.putLong(Particle.peekNextId());
+		Messages.putBlock(result, this.particles, from, to);
+		Messages.send(this.coordinator, Messages.finish(result, Messages.RESULT));
+	}
+
+	private void close() throws IOException {
+		if (this.executor != null) {
+			this.executor.shutdown();
+		}
+		if (this.selector != null) {
+			this.selector.close();
+		}
+		if (this.peers != null) {
+			for (SocketChannel peer : this.peers) {
+				if (peer != null) {
+					peer.close();
+				}
+			}
+		}
+		if (this.coordinator != null) {
+			this.coordinator.close();
+		}
+	}
+}
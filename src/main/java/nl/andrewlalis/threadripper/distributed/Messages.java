@@ -0,0 +1,242 @@
+package nl.andrewlalis.threadripper.distributed;
+
+import nl.andrewlalis.threadripper.engine.ParticleStore;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The messages which the coordinator and workers of a distributed run send
+ * each other, and how particles are packed into them. Every message is a
+ * frame with an 8-byte header, followed by its payload, with all values
+ * little-endian:
+ * <pre>
+ *     0   int     message type
+ *     4   int     payload length, in bytes
+ * </pre>
+ * <p>
+ *     A block of particles is packed as an int count n, followed by n ids as
+ *     longs, and then n doubles each of x, y, vx, vy, mass, charge and
+ *     radius, the same columns as a checkpoint.
+ * </p>
+ */
+final class Messages {
+	static final int HEADER_SIZE = 8;
+
+	/**
+	 * A worker's greeting to the coordinator, with the port on which it
+	 * accepts connections from its peers.
+	 */
+	static final int HELLO = 1;
+	/**
+	 * The coordinator's reply to a greeting, with the worker's rank, its
+	 * peers' addresses, the run's settings and the initial particles.
+	 */
+	static final int SETUP = 2;
+	/**
+	 * A worker's greeting to a peer, with its rank.
+	 */
+	static final int PEER = 3;
+	/**
+	 * Tells the workers to run a number of steps, with new domain bounds.
+	 */
+	static final int RUN = 4;
+	/**
+	 * A worker's measurements of the steps it was told to run.
+	 */
+	static final int REPORT = 5;
+	/**
+	 * One step's particles of a worker's domain, sent to each of its peers.
+	 */
+	static final int EXCHANGE = 6;
+	/**
+	 * Tells the workers to send their particles and stop.
+	 */
+	static final int FINISH = 7;
+	/**
+	 * A worker's particles, in reply to {@link #FINISH}.
+	 */
+	static final int RESULT = 8;
+
+	private static final int DOUBLE_COLUMNS = 7;
+
+	private Messages() {
+	}
+
+	/**
+	 * @return A new little-endian buffer with room for a header and payload,
+	 * positioned at the start of the payload.
+	 */
+	static ByteBuffer allocate(int payloadLength) {
+		return ByteBuffer.allocate(HEADER_SIZE + payloadLength).order(ByteOrder.LITTLE_ENDIAN).position(HEADER_SIZE);
+	}
+
+	/**
+	 * Fills in the header of a message whose payload has been written after
+	 * it, and flips the buffer so that it's ready to be sent.
+	 */
+	static ByteBuffer finish(ByteBuffer buffer, int type) {
+		buffer.flip();
+		buffer.putInt(0, type);
+		buffer.putInt(4, buffer.limit() - HEADER_SIZE);
+		return buffer;
+	}
+
+	/**
+	 * Writes a whole message to a blocking channel.
+	 */
+	static void send(SocketChannel channel, ByteBuffer message) throws IOException {
+		while (message.hasRemaining()) {
+			channel.write(message);
+		}
+	}
+
+	/**
+	 * Reads a whole message from a blocking channel.
+	 * @return The message, positioned at the start of its payload.
+	 * @throws IOException If the channel was closed.
+	 */
+	static ByteBuffer receive(SocketChannel channel) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, header);
+		final ByteBuffer message = ByteBuffer.allocate(HEADER_SIZE + header.getInt(4)).order(ByteOrder.LITTLE_ENDIAN);
+		message.put(header.flip());
+		readFully(channel, message);
+		return message.position(HEADER_SIZE);
+	}
+
+	/**
+	 * Reads a whole message of a given type from a blocking channel.
+	 * @param expectedType The type of message to expect.
+	 * @return The message, positioned at the start of its payload.
+	 * @throws IOException If the channel was closed, or another type of
+	 * message arrived.
+	 */
+	static ByteBuffer receive(SocketChannel channel, int expectedType) throws IOException {
+		final ByteBuffer message = receive(channel);
+		if (typeOf(message) != expectedType) {
+			throw new IOException("Expected a message of type " + expectedType + ", but got " + typeOf(message) + ".");
+		}
+		return message;
+	}
+
+	static int typeOf(ByteBuffer message) {
+		return message.getInt(0);
+	}
+
+	private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("The connection was closed.");
+			}
+		}
+	}
+
+	/**
+	 * @return The number of bytes which a block of particles takes up.
+	 */
+	static int blockSize(int count) {
+		return Integer.BYTES + count * Long.BYTES * (1 + DOUBLE_COLUMNS);
+	}
+
+	/**
+	 * Packs a range of a store's particles.
+	 * @param buffer The buffer to write to, at its position.
+	 * @param store The particles.
+	 * @param from The first index to pack, inclusive.
+	 * @param to The last index to pack, exclusive.
+	 */
+	static void putBlock(ByteBuffer buffer, ParticleStore store, int from, int to) {
+		final int count = to - from;
+		buffer.putInt(count);
+		buffer.asLongBuffer().put(store.getIds(), from, count);
+		buffer.position(buffer.position() + count * Long.BYTES);
+		putColumn(buffer, store.getX(), from, count);
+		putColumn(buffer, store.getY(), from, count);
+		putColumn(buffer, store.getVx(), from, count);
+		putColumn(buffer, store.getVy(), from, count);
+		putColumn(buffer, store.getMass(), from, count);
+		putColumn(buffer, store.getCharge(), from, count);
+		putColumn(buffer, store.getRadius(), from, count);
+	}
+
+	/**
+	 * Unpacks a block of particles, and adds them to the end of a store.
+	 * @param buffer The buffer to read from, at its position.
+	 * @param store The store to add the particles to.
+	 * @return The number of particles which were added.
+	 */
+	static int getBlock(ByteBuffer buffer, ParticleStore store) {
+		final int count = buffer.getInt();
+		final int from = store.getSize();
+		for (int i = 0; i < count; i++) {
+			store.add(0L, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0);
+		}
+		getBlockColumns(buffer, store, from, count);
+		return count;
+	}
+
+	/**
+	 * Unpacks a block of particles over a range of a store's particles,
+	 * which must be exactly as long as the block.
+	 * @param buffer The buffer to read from, at its position.
+	 * @param store The store to write the particles to.
+	 * @param from The first index to overwrite.
+	 * @param count The number of particles which the block must hold.
+	 * @throws IllegalStateException If the block holds a different number of
+	 * particles.
+	 */
+	static void getBlockInto(ByteBuffer buffer, ParticleStore store, int from, int count) {
+		final int blockCount = buffer.getInt(buffer.position());
+		if (blockCount != count) {
+			throw new IllegalStateException("Expected a block of " + count + " particles, but got " + blockCount + ".");
+		}
+		buffer.position(buffer.position() + Integer.BYTES);
+		getBlockColumns(buffer, store, from, count);
+	}
+
+	private static void getBlockColumns(ByteBuffer buffer, ParticleStore store, int from, int count) {
+		buffer.asLongBuffer().get(store.getIds(), from, count);
+		buffer.position(buffer.position() + count * Long.BYTES);
+		getColumn(buffer, store.getX(), from, count);
+		getColumn(buffer, store.getY(), from, count);
+		getColumn(buffer, store.getVx(), from, count);
+		getColumn(buffer, store.getVy(), from, count);
+		getColumn(buffer, store.getMass(), from, count);
+		getColumn(buffer, store.getCharge(), from, count);
+		getColumn(buffer, store.getRadius(), from, count);
+	}
+
+	static void putString(ByteBuffer buffer, String value) {
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		buffer.putInt(bytes.length);
+		buffer.put(bytes);
+	}
+
+	static String getString(ByteBuffer buffer) {
+		final byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return The number of bytes which a string takes up.
+	 */
+	static int stringSize(String value) {
+		return Integer.BYTES + value.getBytes(StandardCharsets.UTF_8).length;
+	}
+
+	private static void putColumn(ByteBuffer buffer, double[] values, int from, int count) {
+		buffer.asDoubleBuffer().put(values, from, count);
+		buffer.position(buffer.position() + count * Double.BYTES);
+	}
+
+	private static void getColumn(ByteBuffer buffer, double[] values, int from, int count) {
+		buffer.asDoubleBuffer().get(values, from, count);
+		buffer.position(buffer.position() + count * Double.BYTES);
+	}
+}
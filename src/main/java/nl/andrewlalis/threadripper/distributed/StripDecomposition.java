@@ -0,0 +1,128 @@
+package nl.andrewlalis.threadripper.distributed;
+
+import java.util.Arrays;
+
+/**
+ * Splits the plane into vertical strips, one per domain, which are
+ * separated by ascending x bounds. Domain k holds the particles with
+ * bounds[k - 1] &lt;= x &lt; bounds[k], where the first and last domains
+ * extend to infinity.
+ */
+public class StripDecomposition {
+	private final double[] bounds;
+
+	/**
+	 * @param bounds The bounds between neighbouring domains, in ascending
+	 *               order, one fewer than the number of domains.
+	 */
+	public StripDecomposition(double[] bounds) {
+		for (int i = 1; i < bounds.length; i++) {
+			if (!(bounds[i - 1] <= bounds[i])) {
+				throw new IllegalArgumentException("Domain bounds must be in ascending order.");
+			}
+		}
+		this.bounds = bounds.clone();
+	}
+
+	/**
+	 * Splits the particles into domains with equal numbers of particles.
+	 * @param x The particles' x coordinates.
+	 * @param size The number of particles.
+	 * @param domainCount The number of domains.
+	 * @return The decomposition.
+	 */
+	public static StripDecomposition balanced(double[] x, int size, int domainCount) {
+		final double[] sorted = Arrays.copyOf(x, size);
+		Arrays.sort(sorted);
+		final double[] bounds = new double[domainCount - 1];
+		for (int i = 0; i < bounds.length; i++) {
+			final int rank = (int) ((long) size * (i + 1) / domainCount);
+			bounds[i] = size == 0 ? 0.0 : rank < size ? sorted[rank] : Math.nextUp(sorted[size - 1]);
+		}
+		return new StripDecomposition(bounds);
+	}
+
+	public int getDomainCount() {
+		return this.bounds.length + 1;
+	}
+
+	public double[] getBounds() {
+		return this.bounds.clone();
+	}
+
+	/**
+	 * @param x A particle's x coordinate.
+	 * @return The domain which the particle belongs to.
+	 */
+	public int domainOf(double x) {
+		int low = 0;
+		int high = this.bounds.length;
+		// Find the number of bounds which are at most x.
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (this.bounds[middle] <= x) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Moves the bounds so that each domain would have taken equally long to
+	 * run the measured steps. Each domain's particles are weighed by how long
+	 * that domain took per particle, and the bounds are placed at equal
+	 * quantiles of the total weight, interpolating within the histogram bins.
+	 * @param loads Each domain's measurements, in order.
+	 * @return The new decomposition.
+	 */
+	StripDecomposition rebalance(DomainLoad[] loads) {
+		double totalWeight = 0.0;
+		for (DomainLoad load : loads) {
+			totalWeight += load.computeNanos;
+		}
+		if (totalWeight <= 0.0) return this;
+		final double[] newBounds = new double[this.bounds.length];
+		int bound = 0;
+		double cumulativeWeight = 0.0;
+		for (DomainLoad load : loads) {
+			if (load.particleCount == 0) continue;
+			final double weightPerParticle = (double) load.computeNanos / load.particleCount;
+			final double binWidth = (load.maxX - load.minX) / DomainLoad.BIN_COUNT;
+			for (int bin = 0; bin < DomainLoad.BIN_COUNT; bin++) {
+				final double weight = load.bins[bin] * weightPerParticle;
+				while (bound < newBounds.length && cumulativeWeight + weight >= totalWeight * (bound + 1) / loads.length) {
+					final double fraction = weight > 0.0
+							? (totalWeight * (bound + 1) / loads.length - cumulativeWeight) / weight
+							: 0.0;
+					newBounds[bound++] = load.minX + (bin + fraction) * binWidth;
+				}
+				cumulativeWeight += weight;
+			}
+		}
+		// Rounding may leave the last bounds unplaced, at the far end.
+		for (; bound < newBounds.length; bound++) {
+			newBounds[bound] = bound > 0 ? newBounds[bound - 1] : this.bounds[bound];
+		}
+		for (int i = 1; i < newBounds.length; i++) {
+			newBounds[i] = Math.max(newBounds[i], newBounds[i - 1]);
+		}
+		return new StripDecomposition(newBounds);
+	}
+
+	/**
+	 * @param loads Each domain's measurements.
+	 * @return How much longer the slowest domain took than the average, as
+	 * a ratio, where 1 is perfectly balanced.
+	 */
+	static double imbalanceOf(DomainLoad[] loads) {
+		long max = 0L;
+		long total = 0L;
+		for (DomainLoad load : loads) {
+			max = Math.max(max, load.computeNanos);
+			total += load.computeNanos;
+		}
+		return total == 0L ? 1.0 : (double) max * loads.length / total;
+	}
+}
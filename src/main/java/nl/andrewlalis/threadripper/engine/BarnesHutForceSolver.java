@@ -0,0 +1,292 @@
+package nl.andrewlalis.threadripper.engine;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Force solver which approximates the contribution of distant groups of
+ * particles by their total mass and charge, using a Barnes-Hut quadtree. This
+ * costs O(n log n) per step.
+ * <p>
+ *     The tree is rebuilt every step. The root is split into its four
+ *     quadrants, and each quadrant's subtree is built in parallel.
+ * </p>
+ */
+public class BarnesHutForceSolver implements ForceSolver {
+	public static final double DEFAULT_THETA = 0.5;
+	private static final int CHUNK_SIZE = 256;
+
+	/**
+	 * The opening angle. A node is approximated as a single body when its
+	 * width divided by its distance is less than this value, so smaller values
+	 * are more accurate, and 0 is equivalent to direct summation.
+	 */
+	private double theta;
+
+	private final Quadtree[] quadrants;
+	private final BuildTask[] buildTasks;
+	private final ThreadLocal<int[]> walkStacks;
+
+	private final int[] quadrantCounts = new int[4];
+	private final int[] quadrantOffsets = new int[5];
+	private final int[] quadrantPositions = new int[4];
+	private int[] order;
+	private int[] next;
+
+	public BarnesHutForceSolver() {
+		this(DEFAULT_THETA);
+	}
+
+	public BarnesHutForceSolver(double theta) {
+		this.theta = theta;
+		this.quadrants = new Quadtree[4];
+		this.buildTasks = new BuildTask[4];
+		for (int i = 0; i < 4; i++) {
+			this.quadrants[i] = new Quadtree();
+			this.buildTasks[i] = new BuildTask(this.quadrants[i]);
+		}
+		this.walkStacks = ThreadLocal.withInitial(() -> new int[4 * Quadtree.MAX_DEPTH + 8]);
+		this.order = new int[0];
+		this.next = new int[0];
+	}
+
+	public synchronized void setTheta(double theta) {
+		if (theta >= 0) {
+			this.theta = theta;
+		}
+	}
+
+	public double getTheta() {
+		return this.theta;
+	}
+
+	@Override
+	public long computeAccelerations(ParticleStore store, StepExecutor executor) {
+		final int size = store.getSize();
+		if (size == 0) return 0;
+		this.buildTree(store, executor);
+		final LongAdder interactions = new LongAdder();
+		executor.forEach(size, CHUNK_SIZE, (from, to) -> {
+			long chunkInteractions = 0;
+			for (int i = from; i < to; i++) {
+				chunkInteractions += this.walk(store, i);
+			}
+			interactions.add(chunkInteractions);
+		});
+		return interactions.sum();
+	}
+
+	/**
+	 * Builds the tree from all particles, but only walks it for the targets.
+	 */
+	@Override
+	public long computeAccelerations(ParticleStore store, int[] targets, int targetCount, StepExecutor executor) {
+		if (store.getSize() == 0 || targetCount == 0) return 0;
+		this.buildTree(store, executor);
+		final LongAdder interactions = new LongAdder();
+		executor.forEach(targetCount, CHUNK_SIZE, (from, to) -> {
+			long chunkInteractions = 0;
+			for (int k = from; k < to; k++) {
+				chunkInteractions += this.walk(store, targets[k]);
+			}
+			interactions.add(chunkInteractions);
+		});
+		return interactions.sum();
+	}
+
+	/**
+	 * Sorts the particles into the four quadrants of a square that bounds all
+	 * of them, and then builds each quadrant's subtree in parallel.
+	 */
+	private void buildTree(ParticleStore store, StepExecutor executor) {
+		final int size = store.getSize();
+		if (this.order.length < size) {
+			this.order = new int[size];
+			this.next = new int[size];
+		}
+		final double[] x = store.getX();
+		final double[] y = store.getY();
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < size; i++) {
+			minX = Math.min(minX, x[i]);
+			minY = Math.min(minY, y[i]);
+			maxX = Math.max(maxX, x[i]);
+			maxY = Math.max(maxY, y[i]);
+		}
+		final double centerX = (minX + maxX) / 2.0;
+		final double centerY = (minY + maxY) / 2.0;
+		// Pad the root slightly, so that particles on the edge are inside it.
+		final double half = Math.max(Math.max(maxX - minX, maxY - minY) / 2.0, 1.0) * 1.0001;
+
+		final int[] counts = this.quadrantCounts;
+		final int[] offsets = this.quadrantOffsets;
+		final int[] positions = this.quadrantPositions;
+		Arrays.fill(counts, 0);
+		for (int i = 0; i < size; i++) {
+			counts[quadrantOf(x[i], y[i], centerX, centerY)]++;
+		}
+		for (int q = 0; q < 4; q++) {
+			offsets[q + 1] = offsets[q] + counts[q];
+			positions[q] = offsets[q];
+		}
+		for (int i = 0; i < size; i++) {
+			this.order[positions[quadrantOf(x[i], y[i], centerX, centerY)]++] = i;
+		}
+
+		final double quarter = half / 2.0;
+		for (int q = 0; q < 4; q++) {
+			this.buildTasks[q].prepare(
+					store,
+					offsets[q],
+					offsets[q + 1],
+					(q & 1) == 0 ? centerX - quarter : centerX + quarter,
+					(q & 2) == 0 ? centerY - quarter : centerY + quarter,
+					quarter
+			);
+		}
+		executor.forEach(4, 1, (from, to) -> {
+			for (int q = from; q < to; q++) {
+				this.buildTasks[q].run();
+			}
+		});
+	}
+
+	private static int quadrantOf(double x, double y, double centerX, double centerY) {
+		return (x >= centerX ? 1 : 0) | (y >= centerY ? 2 : 0);
+	}
+
+	/**
+	 * Builds the subtree for one of the root's quadrants.
+	 */
+	private class BuildTask implements Runnable {
+		private final Quadtree tree;
+		private ParticleStore store;
+		private int from;
+		private int to;
+		private double centerX;
+		private double centerY;
+		private double halfSize;
+
+		BuildTask(Quadtree tree) {
+			this.tree = tree;
+		}
+
+		void prepare(ParticleStore store, int from, int to, double centerX, double centerY, double halfSize) {
+			this.store = store;
+			this.from = from;
+			this.to = to;
+			this.centerX = centerX;
+			this.centerY = centerY;
+			this.halfSize = halfSize;
+		}
+
+		@Override
+		public void run() {
+			this.tree.build(this.store, order, this.from, this.to, this.centerX, this.centerY, this.halfSize, next);
+		}
+	}
+
+	/**
+	 * Walks the tree to compute a single particle's acceleration.
+	 * @param store The particles.
+	 * @param i The index of the particle.
+	 * @return The number of bodies and nodes which acted on the particle.
+	 */
+	private long walk(ParticleStore store, int i) {
+		int[] stack = this.walkStacks.get();
+		final double[] x = store.getX();
+		final double[] y = store.getY();
+		final double[] mass = store.getMass();
+		final double[] charge = store.getCharge();
+		final double xi = x[i];
+		final double yi = y[i];
+		final double massI = mass[i];
+		final double absChargeI = Math.abs(charge[i]);
+		final double thetaSquared = theta * theta;
+		double accelerationX = 0.0;
+		double accelerationY = 0.0;
+		long interactions = 0;
+
+		// Stack entries are encoded as (node << 2) | quadrant.
+		int top = 0;
+		for (int q = 0; q < 4; q++) {
+			if (quadrants[q].nodeCount > 0) {
+				stack[top++] = q;
+			}
+		}
+		while (top > 0) {
+			final int entry = stack[--top];
+			final Quadtree tree = quadrants[entry & 3];
+			final int node = entry >>> 2;
+
+			if (!tree.internal[node]) {
+				for (int body = tree.firstBody[node]; body != -1; body = next[body]) {
+					if (body == i) continue;
+					interactions++;
+					final double dX = x[body] - xi;
+					final double dY = y[body] - yi;
+					final double distanceSquared = dX * dX + dY * dY;
+					// Coincident particles exert no well-defined force on each other.
+					if (distanceSquared > 0.0) {
+						final double inverseCube = 1.0 / (distanceSquared * Math.sqrt(distanceSquared));
+						final double magnitude = Constants.G * mass[body]
+								+ Constants.Ke * absChargeI * Math.abs(charge[body]) / massI;
+						accelerationX += magnitude * dX * inverseCube;
+						accelerationY += magnitude * dY * inverseCube;
+					}
+				}
+				continue;
+			}
+
+			final double width = 2.0 * tree.halfSize[node];
+			final double widthSquared = width * width;
+			final double massDX = tree.massX[node] - xi;
+			final double massDY = tree.massY[node] - yi;
+			final double massDistanceSquared = massDX * massDX + massDY * massDY;
+			final double chargeDX = tree.chargeX[node] - xi;
+			final double chargeDY = tree.chargeY[node] - yi;
+			final double chargeDistanceSquared = chargeDX * chargeDX + chargeDY * chargeDY;
+			final boolean usesCharge = absChargeI > 0.0 && tree.absCharge[node] > 0.0;
+
+			// Any node which contains the particle is always opened.
+			final boolean open = widthSquared >= thetaSquared * massDistanceSquared
+					|| (usesCharge && widthSquared >= thetaSquared * chargeDistanceSquared)
+					|| (Math.abs(xi - tree.centerX[node]) <= tree.halfSize[node]
+							&& Math.abs(yi - tree.centerY[node]) <= tree.halfSize[node]);
+
+			if (open) {
+				if (top + 4 > stack.length) {
+					stack = Arrays.copyOf(stack, stack.length * 2);
+					this.walkStacks.set(stack);
+				}
+				for (int quadrant = 0; quadrant < 4; quadrant++) {
+					final int child = tree.children[node * 4 + quadrant];
+					if (child != -1) {
+						stack[top++] = (child << 2) | (entry & 3);
+					}
+				}
+			} else {
+				interactions++;
+				if (massDistanceSquared > 0.0) {
+					final double gravity = Constants.G * tree.mass[node]
+							/ (massDistanceSquared * Math.sqrt(massDistanceSquared));
+					accelerationX += gravity * massDX;
+					accelerationY += gravity * massDY;
+				}
+				if (usesCharge && chargeDistanceSquared > 0.0) {
+					final double em = Constants.Ke * absChargeI * tree.absCharge[node]
+							/ (massI * chargeDistanceSquared * Math.sqrt(chargeDistanceSquared));
+					accelerationX += em * chargeDX;
+					accelerationY += em * chargeDY;
+				}
+			}
+		}
+
+		store.getAx()[i] = accelerationX;
+		store.getAy()[i] = accelerationY;
+		return interactions;
+	}
+}
@@ -0,0 +1,186 @@
+package nl.andrewlalis.threadripper.engine;
+
+/**
+ * A velocity Verlet integrator which gives each particle its own time step,
+ * so that a few particles in close encounters can take many small steps
+ * while all the others take one large one.
+ * <p>
+ *     Each particle is placed on a level k, and steps by deltaTime / 2^k. Its
+ *     ideal step is accuracy * sqrt(radius / |a|), which shrinks as its
+ *     acceleration grows, and it is given the coarsest level whose step is no
+ *     longer than that. Steps on each level line up with the steps on all
+ *     coarser levels, so at every sub-step only the particles whose own step
+ *     ends need new accelerations; the rest only drift. A particle may always
+ *     move to a finer level, but only moves to a coarser one when the
+ *     coarser level's steps line up with the current time.
+ * </p>
+ * <p>
+ *     Every particle is synchronized again at the end of each call, so the
+ *     chamber still sees whole steps of deltaTime.
+ * </p>
+ */
+public class BlockTimestepIntegrator implements Integrator {
+	public static final double DEFAULT_ACCURACY = 0.1;
+
+	/**
+	 * The finest level, whose steps are deltaTime / 2^MAX_LEVEL.
+	 */
+	public static final int MAX_LEVEL = 10;
+
+	private static final long TICKS_PER_STEP = 1L << MAX_LEVEL;
+	private static final int CHUNK_SIZE = 4096;
+	private static final int ACTIVE_CHUNK_SIZE = 256;
+
+	private double accuracy;
+
+	private int[] levels;
+	private int[] active;
+
+	/**
+	 * The store, solver and store modification count for which the levels and
+	 * cached accelerations were computed.
+	 */
+	private ParticleStore cachedStore;
+	private ForceSolver cachedSolver;
+	private long cachedModificationCount;
+
+	public BlockTimestepIntegrator() {
+		this(DEFAULT_ACCURACY);
+	}
+
+	public BlockTimestepIntegrator(double accuracy) {
+		this.accuracy = accuracy;
+		this.levels = new int[0];
+		this.active = new int[0];
+	}
+
+	/**
+	 * Sets the factor which scales each particle's ideal time step. Smaller
+	 * values are more accurate, and put more particles on finer levels.
+	 * @param accuracy The accuracy factor, which must be positive.
+	 */
+	public synchronized void setAccuracy(double accuracy) {
+		if (accuracy > 0) {
+			this.accuracy = accuracy;
+		}
+	}
+
+	public double getAccuracy() {
+		return this.accuracy;
+	}
+
+	@Override
+	public long step(ParticleStore store, ForceSolver solver, StepExecutor executor, double deltaTime) {
+		final int size = store.getSize();
+		if (this.levels.length < size) {
+			this.levels = new int[size];
+			this.active = new int[size];
+		}
+		final int[] levels = this.levels;
+		final int[] active = this.active;
+		final double accuracy = this.accuracy;
+		long interactions = 0;
+		if (store != this.cachedStore
+				|| solver != this.cachedSolver
+				|| store.getModificationCount() != this.cachedModificationCount) {
+			interactions += solver.computeAccelerations(store, executor);
+			executor.forEach(size, CHUNK_SIZE, (from, to) -> {
+				for (int i = from; i < to; i++) {
+					levels[i] = idealLevel(store, i, deltaTime, accuracy);
+				}
+			});
+		}
+
+		// Every particle starts a new step, with half a kick.
+		executor.forEach(size, CHUNK_SIZE, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				kick(store, i, levelDeltaTime(deltaTime, levels[i]) / 2.0);
+			}
+		});
+
+		final double tickDeltaTime = deltaTime / TICKS_PER_STEP;
+		final double[] x = store.getX();
+		final double[] y = store.getY();
+		final double[] vx = store.getVx();
+		final double[] vy = store.getVy();
+		int finestLevel = maxLevel(levels, size);
+		long tick = 0;
+		while (tick < TICKS_PER_STEP) {
+			// The next time at which any particle's step ends.
+			final long finestPeriod = TICKS_PER_STEP >> finestLevel;
+			final long nextTick = (tick / finestPeriod + 1) * finestPeriod;
+
+			final double driftTime = (nextTick - tick) * tickDeltaTime;
+			executor.forEach(size, CHUNK_SIZE, (from, to) -> {
+				for (int i = from; i < to; i++) {
+					x[i] += vx[i] * driftTime;
+					y[i] += vy[i] * driftTime;
+				}
+			});
+
+			int activeCount = 0;
+			for (int i = 0; i < size; i++) {
+				if (nextTick % (TICKS_PER_STEP >> levels[i]) == 0) {
+					active[activeCount++] = i;
+				}
+			}
+			interactions += solver.computeAccelerations(store, active, activeCount, executor);
+
+			// Finish each active particle's step, and start its next one.
+			final boolean last = nextTick == TICKS_PER_STEP;
+			executor.forEach(activeCount, ACTIVE_CHUNK_SIZE, (from, to) -> {
+				for (int k = from; k < to; k++) {
+					final int i = active[k];
+					kick(store, i, levelDeltaTime(deltaTime, levels[i]) / 2.0);
+					int level = idealLevel(store, i, deltaTime, accuracy);
+					while (level < levels[i] && nextTick % (TICKS_PER_STEP >> level) != 0) {
+						level++;
+					}
+					levels[i] = level;
+					if (!last) {
+						kick(store, i, levelDeltaTime(deltaTime, level) / 2.0);
+					}
+				}
+			});
+			finestLevel = maxLevel(levels, size);
+			tick = nextTick;
+		}
+
+		this.cachedStore = store;
+		this.cachedSolver = solver;
+		this.cachedModificationCount = store.getModificationCount();
+		return interactions;
+	}
+
+	/**
+	 * @return The coarsest level whose step is no longer than the particle's
+	 * ideal step, according to its current acceleration.
+	 */
+	private static int idealLevel(ParticleStore store, int i, double deltaTime, double accuracy) {
+		final double ax = store.getAx()[i];
+		final double ay = store.getAy()[i];
+		final double acceleration = Math.sqrt(ax * ax + ay * ay);
+		if (acceleration == 0.0) return 0;
+		final double idealDeltaTime = accuracy * Math.sqrt(store.getRadius()[i] / acceleration);
+		if (idealDeltaTime >= deltaTime) return 0;
+		final int level = (int) Math.ceil(Math.log(deltaTime / idealDeltaTime) / Math.log(2.0));
+		return Math.min(MAX_LEVEL, level);
+	}
+
+	private static double levelDeltaTime(double deltaTime, int level) {
+		return deltaTime / (1L << level);
+	}
+
+	private static void kick(ParticleStore store, int i, double time) {
+		store.getVx()[i] += store.getAx()[i] * time;
+		store.getVy()[i] += store.getAy()[i] * time;
+	}
+
+	private static int maxLevel(int[] levels, int size) {
+		int max = 0;
+		for (int i = 0; i < size; i++) {
+			max = Math.max(max, levels[i]);
+		}
+		return max;
+	}
+}
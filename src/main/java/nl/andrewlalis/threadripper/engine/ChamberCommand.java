@@ -0,0 +1,119 @@
+package nl.andrewlalis.threadripper.engine;
+
+import nl.andrewlalis.threadripper.particle.Particle;
+
+/**
+ * A change to a chamber's particles, which any thread may submit with
+ * {@link ParticleChamber#submit(ChamberCommand)}, and which the chamber
+ * applies between two steps, in the order in which commands were submitted.
+ * Commands for a particle which no longer exists, for example because it
+ * merged with another one, are ignored.
+ */
+public final class ChamberCommand {
+	private enum Kind {
+		ADD,
+		REMOVE,
+		APPLY_IMPULSE,
+		SET_MASS,
+		SET_CHARGE
+	}
+
+	private final Kind kind;
+	private final Particle particle;
+	private final long id;
+	private final double a;
+	private final double b;
+
+	private ChamberCommand(Kind kind, Particle particle, long id, double a, double b) {
+		this.kind = kind;
+		this.particle = particle;
+		this.id = id;
+		this.a = a;
+		this.b = b;
+	}
+
+	/**
+	 * @param particle The particle to add, which keeps its id.
+	 * @return A command which adds a particle.
+	 */
+	public static ChamberCommand add(Particle particle) {
+		return new ChamberCommand(Kind.ADD, particle, particle.getId(), 0.0, 0.0);
+	}
+
+	/**
+	 * @param id The id of the particle to remove.
+	 * @return A command which removes a particle.
+	 */
+	public static ChamberCommand remove(long id) {
+		return new ChamberCommand(Kind.REMOVE, null, id, 0.0, 0.0);
+	}
+
+	/**
+	 * @param id The id of the particle to push.
+	 * @param impulse The impulse, in newton-seconds, which changes the
+	 *                particle's velocity by impulse / mass.
+	 * @return A command which applies an impulse to a particle.
+	 */
+	public static ChamberCommand applyImpulse(long id, Vec2 impulse) {
+		return new ChamberCommand(Kind.APPLY_IMPULSE, null, id, impulse.getX(), impulse.getY());
+	}
+
+	/**
+	 * @param id The id of the particle to change.
+	 * @param mass The particle's new mass, in kilograms, which must be
+	 *             positive.
+	 * @return A command which sets a particle's mass.
+	 */
+	public static ChamberCommand setMass(long id, double mass) {
+		if (!(mass > 0)) {
+			throw new IllegalArgumentException("The mass must be positive.");
+		}
+		return new ChamberCommand(Kind.SET_MASS, null, id, mass, 0.0);
+	}
+
+	/**
+	 * @param id The id of the particle to change.
+	 * @param charge The particle's new charge, in coulombs.
+	 * @return A command which sets a particle's charge.
+	 */
+	public static ChamberCommand setCharge(long id, double charge) {
+		return new ChamberCommand(Kind.SET_CHARGE, null, id, charge, 0.0);
+	}
+
+	/**
+	 * Applies this command to a store. Removed particles are only marked, so
+	 * that the caller can compact the store once for a whole batch.
+	 * @param store The store to change.
+	 * @param index The index which finds particles in the store.
+	 * @return Whether a particle was marked as removed.
+	 */
+	boolean apply(ParticleStore store, ParticleIndex index) {
+		if (this.kind == Kind.ADD) {
+			index.added(store, store.add(this.particle));
+			return false;
+		}
+		final int i = index.indexOf(store, this.id);
+		if (i < 0) return false;
+		switch (this.kind) {
+			case REMOVE:
+				store.markRemoved(i);
+				index.changed(store);
+				return true;
+			case APPLY_IMPULSE:
+				store.getVx()[i] += this.a / store.getMass()[i];
+				store.getVy()[i] += this.b / store.getMass()[i];
+				break;
+			case SET_MASS:
+				store.setMass(i, this.a);
+				index.changed(store);
+				break;
+			case SET_CHARGE:
+				store.setCharge(i, this.a);
+				index.changed(store);
+				break;
+			default:
+				throw new IllegalStateException("Unknown command " + this.kind + ".");
+		}
+		return false;
+	}
+}
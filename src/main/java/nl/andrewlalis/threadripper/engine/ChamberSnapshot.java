@@ -0,0 +1,122 @@
+package nl.andrewlalis.threadripper.engine;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A consistent copy of a chamber's particles, as they were at the end of one
+ * step. Snapshots are published by a {@link SnapshotPublisher}, and are
+ * recycled once no reader holds them any more, so a reader must release its
+ * snapshot when it is done with it, ideally with a try-with-resources block.
+ * <p>
+ *     The arrays are shared with every other reader, and must not be
+ *     modified. Only the first {@link #getSize()} elements are valid.
+ * </p>
+ */
+@Getter
+public class ChamberSnapshot implements AutoCloseable {
+	/**
+	 * The number of readers holding this snapshot, or -1 while the publisher
+	 * is writing to it.
+	 */
+	@Getter(AccessLevel.NONE)
+	private final AtomicInteger references;
+
+	private int size;
+	private long stepCount;
+	private double simulationTime;
+
+	/**
+	 * The value of {@link System#nanoTime()} when this snapshot was published.
+	 */
+	private long publishedNanos;
+
+	private long[] ids;
+	private double[] x;
+	private double[] y;
+	private double[] vx;
+	private double[] vy;
+	private double[] mass;
+	private double[] charge;
+	private double[] radius;
+
+	ChamberSnapshot() {
+		this.references = new AtomicInteger(0);
+		this.ids = new long[0];
+		this.x = new double[0];
+		this.y = new double[0];
+		this.vx = new double[0];
+		this.vy = new double[0];
+		this.mass = new double[0];
+		this.charge = new double[0];
+		this.radius = new double[0];
+	}
+
+	/**
+	 * Tries to take a reference to this snapshot.
+	 * @return True if the reference was taken, or false if the publisher is
+	 * currently rewriting this snapshot.
+	 */
+	boolean tryAcquire() {
+		while (true) {
+			final int references = this.references.get();
+			if (references < 0) return false;
+			if (this.references.compareAndSet(references, references + 1)) return true;
+		}
+	}
+
+	/**
+	 * Releases a reference which was taken by a reader, so that the snapshot
+	 * may be reused once every reader has released it.
+	 */
+	public void release() {
+		this.references.decrementAndGet();
+	}
+
+	@Override
+	public void close() {
+		this.release();
+	}
+
+	/**
+	 * Claims this snapshot for rewriting, which only succeeds if no reader
+	 * holds it.
+	 */
+	boolean tryClaim() {
+		return this.references.compareAndSet(0, -1);
+	}
+
+	/**
+	 * Copies the store's particles into this snapshot, which must have been
+	 * claimed, and then makes it available to readers again.
+	 */
+	void fill(ParticleStore store, long stepCount, double simulationTime) {
+		final int size = store.getSize();
+		if (this.ids.length < size) {
+			final int capacity = Math.max(size, this.ids.length + (this.ids.length >> 1));
+			this.ids = new long[capacity];
+			this.x = new double[capacity];
+			this.y = new double[capacity];
+			this.vx = new double[capacity];
+			this.vy = new double[capacity];
+			this.mass = new double[capacity];
+			this.charge = new double[capacity];
+			this.radius = new double[capacity];
+		}
+		System.arraycopy(store.getIds(), 0, this.ids, 0, size);
+		System.arraycopy(store.getX(), 0, this.x, 0, size);
+		System.arraycopy(store.getY(), 0, this.y, 0, size);
+		System.arraycopy(store.getVx(), 0, this.vx, 0, size);
+		System.arraycopy(store.getVy(), 0, this.vy, 0, size);
+		System.arraycopy(store.getMass(), 0, this.mass, 0, size);
+		System.arraycopy(store.getCharge(), 0, this.charge, 0, size);
+		System.arraycopy(store.getRadius(), 0, this.radius, 0, size);
+		this.size = size;
+		this.stepCount = stepCount;
+		this.simulationTime = simulationTime;
+		this.publishedNanos = System.nanoTime();
+		this.references.set(0);
+	}
+}
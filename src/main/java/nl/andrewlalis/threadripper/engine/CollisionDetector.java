@@ -0,0 +1,248 @@
+package nl.andrewlalis.threadripper.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Broad-phase collision detection, which bins particles into a uniform grid
+ * whose cells are as wide as the largest possible collision distance, so that
+ * each particle only needs to be tested against particles in its own and
+ * neighbouring cells. The grid's rows are split into horizontal stripes which
+ * are searched in parallel.
+ * <p>
+ *     Each colliding pair is reported exactly once, with the lower index
+ *     first, and pairs are sorted so that the result does not depend on the
+ *     number of stripes.
+ * </p>
+ */
+public class CollisionDetector {
+	private static final int STRIPES_PER_PROCESSOR = 4;
+	private static final int MIN_ROWS_PER_STRIPE = 2;
+
+	/**
+	 * Cells are enlarged when needed so that there are at most this many
+	 * cells per particle, which bounds the grid's memory for sparse systems.
+	 */
+	private static final int MAX_CELLS_PER_PARTICLE = 4;
+
+	private final List<StripeTask> stripeTasks;
+
+	private int[] cellStart;
+	private int[] cellCursor;
+	private int[] cellParticles;
+	private int[] particleCell;
+
+	private double minX;
+	private double minY;
+	private double cellSize;
+	private int columns;
+	private int rows;
+
+	/**
+	 * The detected pairs, each packed as (i << 32) | j, with i < j.
+	 */
+	private long[] pairs;
+	private int pairCount;
+
+	public CollisionDetector() {
+		this.stripeTasks = new ArrayList<>();
+		this.cellStart = new int[0];
+		this.cellCursor = new int[0];
+		this.cellParticles = new int[0];
+		this.particleCell = new int[0];
+		this.pairs = new long[16];
+	}
+
+	/**
+	 * Finds all pairs of colliding particles in the store.
+	 * @param store The particles to check.
+	 * @param executor The executor to run the stripe searches on.
+	 */
+	public void detect(ParticleStore store, StepExecutor executor) {
+		this.pairCount = 0;
+		final int size = store.getSize();
+		if (size < 2) return;
+		this.buildGrid(store);
+
+		final int stripeCount = Math.max(1, Math.min(
+				this.rows / MIN_ROWS_PER_STRIPE,
+				Runtime.getRuntime().availableProcessors() * STRIPES_PER_PROCESSOR
+		));
+		while (this.stripeTasks.size() < stripeCount) {
+			this.stripeTasks.add(new StripeTask());
+		}
+		final List<StripeTask> tasks = this.stripeTasks.subList(0, stripeCount);
+		for (int s = 0; s < stripeCount; s++) {
+			tasks.get(s).prepare(store, this.rows * s / stripeCount, this.rows * (s + 1) / stripeCount);
+		}
+		executor.forEach(stripeCount, 1, (from, to) -> {
+			for (int s = from; s < to; s++) {
+				tasks.get(s).run();
+			}
+		});
+
+		for (StripeTask task : tasks) {
+			this.ensurePairCapacity(this.pairCount + task.pairCount);
+			System.arraycopy(task.pairs, 0, this.pairs, this.pairCount, task.pairCount);
+			this.pairCount += task.pairCount;
+		}
+		Arrays.sort(this.pairs, 0, this.pairCount);
+	}
+
+	public int getPairCount() {
+		return this.pairCount;
+	}
+
+	/**
+	 * @param pair The index of a detected pair.
+	 * @return The lower particle index of the pair.
+	 */
+	public int getFirst(int pair) {
+		return (int) (this.pairs[pair] >>> 32);
+	}
+
+	/**
+	 * @param pair The index of a detected pair.
+	 * @return The higher particle index of the pair.
+	 */
+	public int getSecond(int pair) {
+		return (int) this.pairs[pair];
+	}
+
+	/**
+	 * Sorts the particles' indices by grid cell, using a counting sort.
+	 */
+	private void buildGrid(ParticleStore store) {
+		final int size = store.getSize();
+		final double[] x = store.getX();
+		final double[] y = store.getY();
+		final double[] radius = store.getRadius();
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		double maxRadius = 0.0;
+		for (int i = 0; i < size; i++) {
+			minX = Math.min(minX, x[i]);
+			minY = Math.min(minY, y[i]);
+			maxX = Math.max(maxX, x[i]);
+			maxY = Math.max(maxY, y[i]);
+			maxRadius = Math.max(maxRadius, radius[i]);
+		}
+		final double width = maxX - minX;
+		final double height = maxY - minY;
+		// Two particles can only collide if they are at most two maximum radii apart.
+		double cellSize = Math.max(2.0 * maxRadius, Double.MIN_NORMAL);
+		final double maxCells = (double) size * MAX_CELLS_PER_PARTICLE;
+		if ((width / cellSize + 1) * (height / cellSize + 1) > maxCells) {
+			cellSize = Math.max(cellSize, Math.sqrt(width * height / maxCells));
+			cellSize = Math.max(cellSize, Math.max(width, height) / maxCells);
+		}
+		this.minX = minX;
+		this.minY = minY;
+		this.cellSize = cellSize;
+		this.columns = (int) (width / cellSize) + 1;
+		this.rows = (int) (height / cellSize) + 1;
+
+		final int cellCount = this.columns * this.rows;
+		if (this.cellStart.length < cellCount + 1) {
+			this.cellStart = new int[cellCount + 1];
+			this.cellCursor = new int[cellCount];
+		}
+		if (this.cellParticles.length < size) {
+			this.cellParticles = new int[size];
+			this.particleCell = new int[size];
+		}
+		Arrays.fill(this.cellStart, 0, cellCount + 1, 0);
+		for (int i = 0; i < size; i++) {
+			final int cell = this.cellOf(x[i], y[i]);
+			this.particleCell[i] = cell;
+			this.cellStart[cell + 1]++;
+		}
+		for (int cell = 0; cell < cellCount; cell++) {
+			this.cellStart[cell + 1] += this.cellStart[cell];
+		}
+		System.arraycopy(this.cellStart, 0, this.cellCursor, 0, cellCount);
+		for (int i = 0; i < size; i++) {
+			this.cellParticles[this.cellCursor[this.particleCell[i]]++] = i;
+		}
+	}
+
+	private int cellOf(double x, double y) {
+		final int column = Math.min(this.columns - 1, (int) ((x - this.minX) / this.cellSize));
+		final int row = Math.min(this.rows - 1, (int) ((y - this.minY) / this.cellSize));
+		return row * this.columns + column;
+	}
+
+	private void ensurePairCapacity(int capacity) {
+		if (capacity > this.pairs.length) {
+			this.pairs = Arrays.copyOf(this.pairs, Math.max(capacity, this.pairs.length * 2));
+		}
+	}
+
+	/**
+	 * Searches a range of grid rows for colliding pairs. Each cell is compared
+	 * with itself and with the four neighbours that come after it, so that
+	 * every pair of neighbouring cells is visited exactly once overall.
+	 */
+	private class StripeTask implements Runnable {
+		private long[] pairs = new long[16];
+		private int pairCount;
+		private ParticleStore store;
+		private int fromRow;
+		private int toRow;
+
+		void prepare(ParticleStore store, int fromRow, int toRow) {
+			this.store = store;
+			this.fromRow = fromRow;
+			this.toRow = toRow;
+		}
+
+		@Override
+		public void run() {
+			this.pairCount = 0;
+			for (int row = this.fromRow; row < this.toRow; row++) {
+				for (int column = 0; column < columns; column++) {
+					final int cell = row * columns + column;
+					if (cellStart[cell] == cellStart[cell + 1]) continue;
+					this.searchCell(cell, cell, true);
+					if (column + 1 < columns) {
+						this.searchCell(cell, cell + 1, false);
+					}
+					if (row + 1 < rows) {
+						if (column > 0) {
+							this.searchCell(cell, cell + columns - 1, false);
+						}
+						this.searchCell(cell, cell + columns, false);
+						if (column + 1 < columns) {
+							this.searchCell(cell, cell + columns + 1, false);
+						}
+					}
+				}
+			}
+		}
+
+		private void searchCell(int cell, int otherCell, boolean sameCell) {
+			final int start = cellStart[cell];
+			final int end = cellStart[cell + 1];
+			final int otherEnd = cellStart[otherCell + 1];
+			for (int a = start; a < end; a++) {
+				final int i = cellParticles[a];
+				for (int b = sameCell ? a + 1 : cellStart[otherCell]; b < otherEnd; b++) {
+					final int j = cellParticles[b];
+					if (this.store.collides(i, j)) {
+						this.addPair(Math.min(i, j), Math.max(i, j));
+					}
+				}
+			}
+		}
+
+		private void addPair(int i, int j) {
+			if (this.pairCount == this.pairs.length) {
+				this.pairs = Arrays.copyOf(this.pairs, this.pairs.length * 2);
+			}
+			this.pairs[this.pairCount++] = ((long) i << 32) | j;
+		}
+	}
+}
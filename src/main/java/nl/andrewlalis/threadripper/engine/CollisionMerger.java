@@ -0,0 +1,196 @@
+package nl.andrewlalis.threadripper.engine;
+
+import nl.andrewlalis.threadripper.particle.Particle;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Merges every cluster of colliding particles into a single particle. Two
+ * particles are in the same cluster if they collide, directly or through a
+ * chain of other collisions, so a chain of collisions always gives the same
+ * result no matter the order in which its pairs were found.
+ * <p>
+ *     Clusters are found with a lock-free union-find over particle indices,
+ *     in which the lower index always becomes the root, so each cluster ends
+ *     up rooted at its lowest index. Clusters are then combined in parallel,
+ *     each into its root's place, and the store is compacted.
+ * </p>
+ * <p>
+ *     A merged particle's position and velocity are the mass-weighted
+ *     averages of its cluster's, so mass and momentum are conserved, while
+ *     charges and radii are added up.
+ * </p>
+ */
+public class CollisionMerger {
+	private static final int PAIR_CHUNK_SIZE = 1024;
+	private static final int CLUSTER_CHUNK_SIZE = 64;
+	private static final int INIT_CHUNK_SIZE = 8192;
+
+	private AtomicIntegerArray parent;
+	private int[] clusterStart;
+	private int[] clusterMembers;
+	private int[] clusterCursor;
+	private int[] roots;
+
+	public CollisionMerger() {
+		this.parent = new AtomicIntegerArray(0);
+		this.clusterStart = new int[1];
+		this.clusterMembers = new int[0];
+		this.clusterCursor = new int[0];
+		this.roots = new int[0];
+	}
+
+	/**
+	 * Merges all the clusters of colliding pairs which a detector found.
+	 * @param store The particles, which are compacted afterwards.
+	 * @param detector The detector holding the colliding pairs.
+	 * @param executor The executor to run parallel work on.
+	 * @return The number of particles which were absorbed into others.
+	 */
+	public int merge(ParticleStore store, CollisionDetector detector, StepExecutor executor) {
+		final int pairCount = detector.getPairCount();
+		if (pairCount == 0) return 0;
+		final int size = store.getSize();
+		this.ensureCapacity(size);
+		final AtomicIntegerArray parent = this.parent;
+		executor.forEach(size, INIT_CHUNK_SIZE, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				parent.set(i, i);
+			}
+		});
+		executor.forEach(pairCount, PAIR_CHUNK_SIZE, (from, to) -> {
+			for (int pair = from; pair < to; pair++) {
+				union(parent, detector.getFirst(pair), detector.getSecond(pair));
+			}
+		});
+
+		// Group the members of each cluster, in order of their indices.
+		final int[] counts = this.clusterCursor;
+		Arrays.fill(counts, 0, size, 0);
+		for (int i = 0; i < size; i++) {
+			final int root = find(parent, i);
+			if (root != i) {
+				counts[root]++;
+			}
+		}
+		int clusterCount = 0;
+		int memberCount = 0;
+		for (int i = 0; i < size; i++) {
+			if (counts[i] == 0) continue;
+			this.roots[clusterCount] = i;
+			this.clusterStart[clusterCount] = memberCount;
+			// The root itself is the first member, and wasn't counted.
+			memberCount += counts[i] + 1;
+			counts[i] = this.clusterStart[clusterCount] + 1;
+			this.clusterMembers[this.clusterStart[clusterCount]] = i;
+			clusterCount++;
+		}
+		this.clusterStart[clusterCount] = memberCount;
+		for (int i = 0; i < size; i++) {
+			final int root = find(parent, i);
+			if (root != i) {
+				this.clusterMembers[counts[root]++] = i;
+			}
+		}
+
+		// Give out ids in a fixed order, since that's not thread-safe.
+		final long[] ids = store.getIds();
+		for (int cluster = 0; cluster < clusterCount; cluster++) {
+			ids[this.roots[cluster]] = Particle.nextId();
+		}
+		final int[] clusterStart = this.clusterStart;
+		final int[] clusterMembers = this.clusterMembers;
+		executor.forEach(clusterCount, CLUSTER_CHUNK_SIZE, (from, to) -> {
+			for (int cluster = from; cluster < to; cluster++) {
+				combine(store, clusterMembers, clusterStart[cluster], clusterStart[cluster + 1]);
+			}
+		});
+		for (int cluster = 0; cluster < clusterCount; cluster++) {
+			for (int m = clusterStart[cluster] + 1; m < clusterStart[cluster + 1]; m++) {
+				store.markRemoved(clusterMembers[m]);
+			}
+		}
+		store.compact();
+		return memberCount - clusterCount;
+	}
+
+	/**
+	 * Combines a cluster into its first member, which is its root.
+	 */
+	private static void combine(ParticleStore store, int[] members, int from, int to) {
+		final double[] x = store.getX();
+		final double[] y = store.getY();
+		final double[] vx = store.getVx();
+		final double[] vy = store.getVy();
+		final double[] mass = store.getMass();
+		final double[] charge = store.getCharge();
+		final double[] radius = store.getRadius();
+		double totalMass = 0.0;
+		double totalCharge = 0.0;
+		double totalRadius = 0.0;
+		double weightedX = 0.0;
+		double weightedY = 0.0;
+		double momentumX = 0.0;
+		double momentumY = 0.0;
+		for (int m = from; m < to; m++) {
+			final int i = members[m];
+			totalMass += mass[i];
+			totalCharge += charge[i];
+			totalRadius += radius[i];
+			weightedX += mass[i] * x[i];
+			weightedY += mass[i] * y[i];
+			momentumX += mass[i] * vx[i];
+			momentumY += mass[i] * vy[i];
+		}
+		final int root = members[from];
+		x[root] = weightedX / totalMass;
+		y[root] = weightedY / totalMass;
+		vx[root] = momentumX / totalMass;
+		vy[root] = momentumY / totalMass;
+		mass[root] = totalMass;
+		charge[root] = totalCharge;
+		radius[root] = totalRadius;
+	}
+
+	/**
+	 * Joins the sets of two particles, always linking the higher root below
+	 * the lower one. This is retried if another thread changes either root
+	 * in the meantime.
+	 */
+	private static void union(AtomicIntegerArray parent, int a, int b) {
+		while (true) {
+			final int rootA = find(parent, a);
+			final int rootB = find(parent, b);
+			if (rootA == rootB) return;
+			final int low = Math.min(rootA, rootB);
+			final int high = Math.max(rootA, rootB);
+			if (parent.compareAndSet(high, high, low)) return;
+		}
+	}
+
+	/**
+	 * Finds the root of a particle's set, halving the path on the way.
+	 */
+	private static int find(AtomicIntegerArray parent, int i) {
+		while (true) {
+			final int p = parent.get(i);
+			if (p == i) return i;
+			final int grandparent = parent.get(p);
+			if (grandparent != p) {
+				parent.compareAndSet(i, p, grandparent);
+			}
+			i = grandparent;
+		}
+	}
+
+	private void ensureCapacity(int size) {
+		if (this.parent.length() < size) {
+			this.parent = new AtomicIntegerArray(size);
+			this.clusterStart = new int[size + 1];
+			this.clusterMembers = new int[size];
+			this.clusterCursor = new int[size];
+			this.roots = new int[size];
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package nl.andrewlalis.threadripper.engine;
+
+/**
+ * Force solver which sums the contribution of every other particle directly,
+ * using a {@link ParticleUpdater} for each chunk of particles. This is exact,
+ * but costs O(n^2) per step.
+ */
+public class DirectForceSolver implements ForceSolver {
+	/**
+	 * Each particle in a chunk visits every other particle, so even small
+	 * chunks carry plenty of work.
+	 */
+	private static final int CHUNK_SIZE = 64;
+
+	private ParticleUpdater updater;
+
+	@Override
+	public long computeAccelerations(ParticleStore store, StepExecutor executor) {
+		final ParticleUpdater updater = this.getUpdater(store);
+		final long size = store.getSize();
+		executor.forEach(store.getSize(), CHUNK_SIZE, updater);
+		return size * (size - 1);
+	}
+
+	@Override
+	public long computeAccelerations(ParticleStore store, int[] targets, int targetCount, StepExecutor executor) {
+		final ParticleUpdater updater = this.getUpdater(store);
+		executor.forEach(targetCount, CHUNK_SIZE, (from, to) -> {
+			for (int k = from; k < to; k++) {
+				updater.run(targets[k], targets[k] + 1);
+			}
+		});
+		return (long) targetCount * (store.getSize() - 1);
+	}
+
+	private ParticleUpdater getUpdater(ParticleStore store) {
+		if (this.updater == null || this.updater.getStore() != store) {
+			this.updater = new ParticleUpdater(store);
+		}
+		return this.updater;
+	}
+}
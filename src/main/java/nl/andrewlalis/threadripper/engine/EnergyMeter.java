@@ -0,0 +1,71 @@
+package nl.andrewlalis.threadripper.engine;
+
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Measures the total energy of the particles in a store, which should stay
+ * constant while no particles merge. The potential energy matches the
+ * chamber's force law, under which both gravity and the electromagnetic
+ * force attract, so every pair contributes -(G*mi*mj + Ke*|qi*qj|) / r.
+ * <p>
+ *     The potential is summed exactly over all pairs, which is as expensive
+ *     as one step of the {@link SymmetricForceSolver}.
+ * </p>
+ */
+public class EnergyMeter {
+	private static final int ROW_CHUNK_SIZE = 64;
+
+	/**
+	 * @param store The particles to measure.
+	 * @return The total kinetic energy, in joules.
+	 */
+	public double computeKineticEnergy(ParticleStore store) {
+		final double[] vx = store.getVx();
+		final double[] vy = store.getVy();
+		final double[] mass = store.getMass();
+		double energy = 0.0;
+		for (int i = 0; i < store.getSize(); i++) {
+			energy += 0.5 * mass[i] * (vx[i] * vx[i] + vy[i] * vy[i]);
+		}
+		return energy;
+	}
+
+	/**
+	 * @param store The particles to measure.
+	 * @param executor The executor to run parallel work on.
+	 * @return The total potential energy, in joules.
+	 */
+	public double computePotentialEnergy(ParticleStore store, StepExecutor executor) {
+		final double[] x = store.getX();
+		final double[] y = store.getY();
+		final double[] mass = store.getMass();
+		final double[] charge = store.getCharge();
+		final int size = store.getSize();
+		final DoubleAdder energy = new DoubleAdder();
+		executor.forEach(size, ROW_CHUNK_SIZE, (from, to) -> {
+			double sum = 0.0;
+			for (int i = from; i < to; i++) {
+				final double gravityI = Constants.G * mass[i];
+				final double chargeI = Constants.Ke * Math.abs(charge[i]);
+				for (int j = i + 1; j < size; j++) {
+					final double dX = x[j] - x[i];
+					final double dY = y[j] - y[i];
+					final double distance = Math.sqrt(dX * dX + dY * dY);
+					if (distance == 0.0) continue;
+					sum -= (gravityI * mass[j] + chargeI * Math.abs(charge[j])) / distance;
+				}
+			}
+			energy.add(sum);
+		});
+		return energy.sum();
+	}
+
+	/**
+	 * @param store The particles to measure.
+	 * @param executor The executor to run parallel work on.
+	 * @return The sum of the kinetic and potential energy, in joules.
+	 */
+	public double computeTotalEnergy(ParticleStore store, StepExecutor executor) {
+		return this.computeKineticEnergy(store) + this.computePotentialEnergy(store, executor);
+	}
+}
@@ -0,0 +1,31 @@
+package nl.andrewlalis.threadripper.engine;
+
+/**
+ * The explicit (forward) Euler method, which moves each particle with the
+ * velocity it had at the start of the step, and then updates the velocity.
+ * It is first-order accurate, and steadily gains energy on closed orbits, so
+ * it is mainly useful as a reference.
+ */
+public class ExplicitEulerIntegrator implements Integrator {
+	private static final int CHUNK_SIZE = 4096;
+
+	@Override
+	public long step(ParticleStore store, ForceSolver solver, StepExecutor executor, double deltaTime) {
+		final long interactions = solver.computeAccelerations(store, executor);
+		final double[] x = store.getX();
+		final double[] y = store.getY();
+		final double[] vx = store.getVx();
+		final double[] vy = store.getVy();
+		final double[] ax = store.getAx();
+		final double[] ay = store.getAy();
+		executor.forEach(store.getSize(), CHUNK_SIZE, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				x[i] += vx[i] * deltaTime;
+				y[i] += vy[i] * deltaTime;
+				vx[i] += ax[i] * deltaTime;
+				vy[i] += ay[i] * deltaTime;
+			}
+		});
+		return interactions;
+	}
+}
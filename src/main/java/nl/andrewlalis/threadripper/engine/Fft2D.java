@@ -0,0 +1,118 @@
+package nl.andrewlalis.threadripper.engine;
+
+/**
+ * An in-place, two-dimensional complex fast Fourier transform over a square
+ * grid whose side is a power of two, for use by the
+ * {@link ParticleMeshForceSolver}. The grid is stored row by row, with the
+ * real and imaginary parts in separate arrays. The rows are transformed in
+ * parallel, and then the columns.
+ */
+class Fft2D {
+	private static final int ROW_CHUNK_SIZE = 8;
+
+	private final int size;
+	private final double[] cos;
+	private final double[] sin;
+	private final int[] reversed;
+
+	/**
+	 * Scratch space for copying out one column at a time.
+	 */
+	private final ThreadLocal<double[][]> columns;
+
+	Fft2D(int size) {
+		if (size < 2 || Integer.bitCount(size) != 1) {
+			throw new IllegalArgumentException("The size must be a power of two, but was " + size);
+		}
+		this.size = size;
+		this.cos = new double[size / 2];
+		this.sin = new double[size / 2];
+		for (int k = 0; k < size / 2; k++) {
+			final double angle = 2.0 * Math.PI * k / size;
+			this.cos[k] = Math.cos(angle);
+			this.sin[k] = Math.sin(angle);
+		}
+		final int bits = Integer.numberOfTrailingZeros(size);
+		this.reversed = new int[size];
+		for (int i = 0; i < size; i++) {
+			this.reversed[i] = Integer.reverse(i) >>> (32 - bits);
+		}
+		this.columns = ThreadLocal.withInitial(() -> new double[][]{new double[size], new double[size]});
+	}
+
+	int getSize() {
+		return this.size;
+	}
+
+	/**
+	 * Transforms a grid in place.
+	 * @param re The real parts, row by row.
+	 * @param im The imaginary parts, row by row.
+	 * @param inverse Whether to do the inverse transform, which includes
+	 *                dividing by the number of cells.
+	 * @param executor The executor to run parallel work on.
+	 */
+	void transform(double[] re, double[] im, boolean inverse, StepExecutor executor) {
+		final int size = this.size;
+		executor.forEach(size, ROW_CHUNK_SIZE, (from, to) -> {
+			for (int row = from; row < to; row++) {
+				this.transform(re, im, row * size, inverse);
+			}
+		});
+		final double scale = inverse ? 1.0 / ((double) size * size) : 1.0;
+		executor.forEach(size, ROW_CHUNK_SIZE, (from, to) -> {
+			final double[][] column = this.columns.get();
+			final double[] columnRe = column[0];
+			final double[] columnIm = column[1];
+			for (int col = from; col < to; col++) {
+				for (int row = 0; row < size; row++) {
+					columnRe[row] = re[row * size + col];
+					columnIm[row] = im[row * size + col];
+				}
+				this.transform(columnRe, columnIm, 0, inverse);
+				for (int row = 0; row < size; row++) {
+					re[row * size + col] = columnRe[row] * scale;
+					im[row * size + col] = columnIm[row] * scale;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Transforms one contiguous sequence of values in place, using the
+	 * iterative radix-2 Cooley-Tukey algorithm.
+	 */
+	private void transform(double[] re, double[] im, int offset, boolean inverse) {
+		final int size = this.size;
+		for (int i = 0; i < size; i++) {
+			final int j = this.reversed[i];
+			if (i < j) {
+				final double tempRe = re[offset + i];
+				final double tempIm = im[offset + i];
+				re[offset + i] = re[offset + j];
+				im[offset + i] = im[offset + j];
+				re[offset + j] = tempRe;
+				im[offset + j] = tempIm;
+			}
+		}
+		final double sign = inverse ? 1.0 : -1.0;
+		for (int length = 2; length <= size; length <<= 1) {
+			final int half = length >> 1;
+			final int step = size / length;
+			for (int start = 0; start < size; start += length) {
+				for (int k = 0; k < half; k++) {
+					final double wRe = this.cos[k * step];
+					final double wIm = sign * this.sin[k * step];
+					final int a = offset + start + k;
+					final int b = a + half;
+					final double tRe = re[b] * wRe - im[b] * wIm;
+					final double tIm = re[b] * wIm + im[b] * wRe;
+					re[b] = re[a] - tRe;
+					im[b] = im[a] - tIm;
+					re[a] += tRe;
+					im[a] += tIm;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package nl.andrewlalis.threadripper.engine;
+
+/**
+ * Exact force solver which runs the {@link ScalarForceSolver}'s kernel in
+ * single precision. Before each evaluation, the positions and the strengths
+ * of the sources are copied into float arrays, so the all-pairs loop streams
+ * 16 bytes per particle instead of 32, and fits twice as many particles in
+ * cache. The chamber's own storage stays in double precision, since the
+ * integrators add small increments to positions and velocities every step.
+ * <p>
+ *     Positions are stored relative to the center of the particles' bounding
+ *     box, which keeps the most precision for their differences. Each
+ *     particle's acceleration is summed in float over blocks of sources, and
+ *     the blocks' sums are added up in double, so that the rounding error
+ *     doesn't grow with the number of particles. Accelerations are typically
+ *     within about 1e-6 of those of the double precision solvers, relative
+ *     to their magnitude, but very close pairs are less accurate.
+ * </p>
+ */
+public class FloatForceSolver implements ForceSolver {
+	private static final int CHUNK_SIZE = 64;
+
+	/**
+	 * The number of sources which are summed in float, before the sum is
+	 * added to the double accumulator.
+	 */
+	private static final int BLOCK_SIZE = 256;
+
+	private float[] x;
+	private float[] y;
+	/**
+	 * Each particle's gravitational strength, G times its mass.
+	 */
+	private float[] gravity;
+	private float[] absCharge;
+
+	public FloatForceSolver() {
+		this.x = new float[0];
+		this.y = new float[0];
+		this.gravity = new float[0];
+		this.absCharge = new float[0];
+	}
+
+	@Override
+	public long computeAccelerations(ParticleStore store, StepExecutor executor) {
+		this.pack(store, executor);
+		executor.forEach(store.getSize(), CHUNK_SIZE, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				this.computeAcceleration(store, i);
+			}
+		});
+		final long size = store.getSize();
+		return size * (size - 1);
+	}
+
+	@Override
+	public long computeAccelerations(ParticleStore store, int[] targets, int targetCount, StepExecutor executor) {
+		this.pack(store, executor);
+		executor.forEach(targetCount, CHUNK_SIZE, (from, to) -> {
+			for (int k = from; k < to; k++) {
+				this.computeAcceleration(store, targets[k]);
+			}
+		});
+		return (long) targetCount * (store.getSize() - 1);
+	}
+
+	/**
+	 * Copies the store's positions, masses and charges into the float arrays.
+	 */
+	private void pack(ParticleStore store, StepExecutor executor) {
+		final int size = store.getSize();
+		if (this.x.length < size) {
+			this.x = new float[size];
+			this.y = new float[size];
+			this.gravity = new float[size];
+			this.absCharge = new float[size];
+		}
+		final double[] x = store.getX();
+		final double[] y = store.getY();
+		final double[] mass = store.getMass();
+		final double[] charge = store.getCharge();
+		double minX = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < size; i++) {
+			minX = Math.min(minX, x[i]);
+			maxX = Math.max(maxX, x[i]);
+			minY = Math.min(minY, y[i]);
+			maxY = Math.max(maxY, y[i]);
+		}
+		final double originX = size > 0 ? (minX + maxX) / 2.0 : 0.0;
+		final double originY = size > 0 ? (minY + maxY) / 2.0 : 0.0;
+		executor.forEach(size, CHUNK_SIZE * 64, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				this.x[i] = (float) (x[i] - originX);
+				this.y[i] = (float) (y[i] - originY);
+				this.gravity[i] = (float) (Constants.G * mass[i]);
+				this.absCharge[i] = (float) Math.abs(charge[i]);
+			}
+		});
+	}
+
+	private void computeAcceleration(ParticleStore store, int i) {
+		final float[] x = this.x;
+		final float[] y = this.y;
+		final float[] gravity = this.gravity;
+		final float[] absCharge = this.absCharge;
+		final int size = store.getSize();
+		final float xi = x[i];
+		final float yi = y[i];
+		final float chargeFactor = (float) (Constants.Ke * Math.abs(store.getCharge()[i]) / store.getMass()[i]);
+		double accelerationX = 0.0;
+		double accelerationY = 0.0;
+		for (int blockStart = 0; blockStart < size; blockStart += BLOCK_SIZE) {
+			final int blockEnd = Math.min(size, blockStart + BLOCK_SIZE);
+			float blockX = 0.0f;
+			float blockY = 0.0f;
+			for (int j = blockStart; j < blockEnd; j++) {
+				final float dX = x[j] - xi;
+				final float dY = y[j] - yi;
+				final float distanceSquared = dX * dX + dY * dY;
+				// Coincident particles, including the particle itself, exert no force.
+				final float inverseDistance = distanceSquared > 0.0f
+						? 1.0f / (float) Math.sqrt(distanceSquared)
+						: 0.0f;
+				final float magnitude = (gravity[j] + chargeFactor * absCharge[j])
+						* inverseDistance * inverseDistance * inverseDistance;
+				blockX += magnitude * dX;
+				blockY += magnitude * dY;
+			}
+			accelerationX += blockX;
+			accelerationY += blockY;
+		}
+		store.getAx()[i] = accelerationX;
+		store.getAy()[i] = accelerationY;
+	}
+}
@@ -0,0 +1,33 @@
+package nl.andrewlalis.threadripper.engine;
+
+/**
+ * A force solver computes the acceleration which every particle in a store
+ * experiences due to all the other particles, and writes the results into the
+ * store's acceleration arrays.
+ */
+public interface ForceSolver {
+	/**
+	 * Computes the acceleration of every particle in the store.
+	 * @param store The particles to compute accelerations for.
+	 * @param executor The executor to run parallel work on.
+	 * @return The number of interactions which were evaluated, where each
+	 * interaction is the effect of one particle, or one group of particles,
+	 * on another particle.
+	 */
+	long computeAccelerations(ParticleStore store, StepExecutor executor);
+
+	/**
+	 * Computes the acceleration of only some of the particles in the store,
+	 * due to all the particles. The accelerations of other particles may or
+	 * may not be updated. By default, this computes every acceleration.
+	 * @param store The particles.
+	 * @param targets The indices of the particles to compute accelerations
+	 *                for.
+	 * @param targetCount The number of indices in the targets array to use.
+	 * @param executor The executor to run parallel work on.
+	 * @return The number of interactions which were evaluated.
+	 */
+	default long computeAccelerations(ParticleStore store, int[] targets, int targetCount, StepExecutor executor) {
+		return this.computeAccelerations(store, executor);
+	}
+}
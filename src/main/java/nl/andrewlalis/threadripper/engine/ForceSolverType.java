@@ -0,0 +1,70 @@
+package nl.andrewlalis.threadripper.engine;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.function.Supplier;
+
+/**
+ * The different kinds of force solver which are available to a chamber.
+ */
+@Slf4j
+public enum ForceSolverType {
+	DIRECT(DirectForceSolver::new),
+	SYMMETRIC(SymmetricForceSolver::new),
+	BARNES_HUT(BarnesHutForceSolver::new),
+	SCALAR(ScalarForceSolver::new),
+	PARTICLE_MESH(ParticleMeshForceSolver::new),
+	/**
+	 * The {@link ScalarForceSolver}'s kernel in single precision, which is
+	 * faster but less accurate.
+	 */
+	FLOAT(FloatForceSolver::new),
+	/**
+	 * Only nearby pairs of particles interact, found with Verlet neighbour
+	 * lists.
+	 */
+	NEIGHBOUR_LIST(NeighbourListForceSolver::new),
+	/**
+	 * The {@link ScalarForceSolver}'s kernel, vectorized with the incubating
+	 * Vector API. This is only available in builds with the "vector" profile,
+	 * and when the jdk.incubator.vector module is added at runtime; otherwise
+	 * the scalar solver is used instead.
+	 */
+	VECTOR(ForceSolverType::createVectorSolver);
+
+	private static final String VECTOR_SOLVER_CLASS = "nl.andrewlalis.threadripper.engine.VectorForceSolver";
+
+	private final Supplier<ForceSolver> constructor;
+
+	ForceSolverType(Supplier<ForceSolver> constructor) {
+		this.constructor = constructor;
+	}
+
+	/**
+	 * @return A new solver of this type, with default settings.
+	 */
+	public ForceSolver create() {
+		return this.constructor.get();
+	}
+
+	private static ForceSolver createVectorSolver() {
+		try {
+			return (ForceSolver) Class.forName(VECTOR_SOLVER_CLASS).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			log.warn("The vectorized force solver is not available, so the scalar solver is used instead: {}", e.toString());
+			return new ScalarForceSolver();
+		}
+	}
+
+	/**
+	 * Finds a solver type by name, ignoring case, and treating dashes the same
+	 * as underscores, so that "barnes-hut" names {@link #BARNES_HUT}.
+	 * @param name The name of the solver type.
+	 * @return The solver type.
+	 * @throws IllegalArgumentException If there is no solver type with the
+	 * given name.
+	 */
+	public static ForceSolverType fromName(String name) {
+		return valueOf(name.trim().toUpperCase().replace('-', '_'));
+	}
+}
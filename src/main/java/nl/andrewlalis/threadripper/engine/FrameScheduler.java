@@ -0,0 +1,115 @@
+package nl.andrewlalis.threadripper.engine;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Paces a loop to a fixed number of frames per second, using
+ * {@link System#nanoTime()} and parking the thread between frames instead of
+ * spinning. A scheduler is meant to be used by a single thread.
+ * <p>
+ *     A frame overruns when it finishes more than a whole frame period after
+ *     its deadline. What happens next depends on the {@link OverrunPolicy}.
+ * </p>
+ */
+public class FrameScheduler {
+	/**
+	 * The most frames which a {@link OverrunPolicy#CATCH_UP} scheduler will
+	 * try to make up for. Beyond this, the missed frames are dropped anyway.
+	 */
+	private static final int MAX_CATCH_UP_FRAMES = 10;
+
+	/**
+	 * What a scheduler does after a frame overruns.
+	 */
+	public enum OverrunPolicy {
+		/**
+		 * Skip the missed frames, and schedule the next frame one period
+		 * from now.
+		 */
+		DROP,
+		/**
+		 * Keep the original schedule, so the following frames start without
+		 * waiting until the loop has caught up.
+		 */
+		CATCH_UP
+	}
+
+	private volatile long framePeriodNanos;
+	private volatile OverrunPolicy overrunPolicy;
+
+	private boolean started;
+	private long previousFrameNanos;
+	private long nextFrameNanos;
+	private long overrunCount;
+
+	public FrameScheduler(double framesPerSecond, OverrunPolicy overrunPolicy) {
+		this.setFramesPerSecond(framesPerSecond);
+		this.overrunPolicy = overrunPolicy;
+	}
+
+	/**
+	 * Sets the frame rate, which takes effect from the next frame onwards.
+	 * @param framesPerSecond The number of frames per second, which must be
+	 *                        positive.
+	 */
+	public void setFramesPerSecond(double framesPerSecond) {
+		if (framesPerSecond > 0) {
+			this.framePeriodNanos = Math.max(1L, (long) (1_000_000_000.0 / framesPerSecond));
+		}
+	}
+
+	public void setOverrunPolicy(OverrunPolicy overrunPolicy) {
+		this.overrunPolicy = overrunPolicy;
+	}
+
+	public OverrunPolicy getOverrunPolicy() {
+		return this.overrunPolicy;
+	}
+
+	public long getFramePeriodNanos() {
+		return this.framePeriodNanos;
+	}
+
+	/**
+	 * @return The number of frames which have overrun so far.
+	 */
+	public long getOverrunCount() {
+		return this.overrunCount;
+	}
+
+	/**
+	 * Waits until the next frame is due. The first call only waits for one
+	 * frame period.
+	 * @return The number of nanoseconds since the previous frame started.
+	 */
+	public long awaitNextFrame() {
+		final long period = this.framePeriodNanos;
+		long now = System.nanoTime();
+		if (!this.started) {
+			this.started = true;
+			this.previousFrameNanos = now;
+			this.nextFrameNanos = now + period;
+		}
+		long remaining;
+		while ((remaining = this.nextFrameNanos - now) > 0) {
+			LockSupport.parkNanos(remaining);
+			now = System.nanoTime();
+		}
+
+		final long lateNanos = now - this.nextFrameNanos;
+		if (lateNanos >= period) {
+			this.overrunCount++;
+			if (this.overrunPolicy == OverrunPolicy.CATCH_UP && lateNanos < MAX_CATCH_UP_FRAMES * period) {
+				this.nextFrameNanos += period;
+			} else {
+				this.nextFrameNanos = now + period;
+			}
+		} else {
+			this.nextFrameNanos += period;
+		}
+
+		final long elapsedNanos = now - this.previousFrameNanos;
+		this.previousFrameNanos = now;
+		return elapsedNanos;
+	}
+}
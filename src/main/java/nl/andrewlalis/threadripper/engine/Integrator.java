@@ -0,0 +1,22 @@
+package nl.andrewlalis.threadripper.engine;
+
+/**
+ * An integrator advances the particles in a store by one time step, using a
+ * force solver to compute their accelerations. The fixed-step integrators
+ * evaluate the forces on all particles once per step, so they cost the same
+ * per step, and differ only in how accurately they follow the particles'
+ * true motion. The {@link BlockTimestepIntegrator} instead evaluates the
+ * forces on subsets of the particles at several sub-steps, so its cost per
+ * step depends on how many particles need small steps.
+ */
+public interface Integrator {
+	/**
+	 * Advances every particle in the store by one step.
+	 * @param store The particles to advance.
+	 * @param solver The solver to compute accelerations with.
+	 * @param executor The executor to run parallel work on.
+	 * @param deltaTime The length of the step, in seconds.
+	 * @return The number of interactions which the solver evaluated.
+	 */
+	long step(ParticleStore store, ForceSolver solver, StepExecutor executor, double deltaTime);
+}
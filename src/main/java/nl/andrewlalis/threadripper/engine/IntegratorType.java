@@ -0,0 +1,39 @@
+package nl.andrewlalis.threadripper.engine;
+
+import java.util.function.Supplier;
+
+/**
+ * The different kinds of integrator which are available to a chamber.
+ */
+public enum IntegratorType {
+	EXPLICIT_EULER(ExplicitEulerIntegrator::new),
+	SYMPLECTIC_EULER(SymplecticEulerIntegrator::new),
+	VELOCITY_VERLET(VelocityVerletIntegrator::new),
+	BLOCK_TIMESTEP(BlockTimestepIntegrator::new);
+
+	private final Supplier<Integrator> constructor;
+
+	IntegratorType(Supplier<Integrator> constructor) {
+		this.constructor = constructor;
+	}
+
+	/**
+	 * @return A new integrator of this type.
+	 */
+	public Integrator create() {
+		return this.constructor.get();
+	}
+
+	/**
+	 * Finds an integrator type by name, ignoring case, and treating dashes
+	 * the same as underscores, so that "velocity-verlet" names
+	 * {@link #VELOCITY_VERLET}.
+	 * @param name The name of the integrator type.
+	 * @return The integrator type.
+	 * @throws IllegalArgumentException If there is no integrator type with
+	 * the given name.
+	 */
+	public static IntegratorType fromName(String name) {
+		return valueOf(name.trim().toUpperCase().replace('-', '_'));
+	}
+}
@@ -0,0 +1,351 @@
+package nl.andrewlalis.threadripper.engine;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Force solver which ignores all pairs of particles further apart than a
+ * cutoff radius, for workloads like screened plasmas, where only nearby
+ * particles matter. This costs O(n k) per step, where k is the number of
+ * particles within the cutoff of each particle, instead of O(n^2).
+ * <p>
+ *     Each particle keeps a Verlet list of the particles within the cutoff
+ *     plus a skin distance, stored for all particles at once in compressed
+ *     rows. The lists are built with a hashed grid of cells as wide as the
+ *     cutoff plus the skin, so only the nine cells around a particle are
+ *     searched. As long as no particle has moved more than half the skin
+ *     since then, no pair outside the lists can have come within the cutoff,
+ *     so most steps reuse the lists, and only visit each particle's stored
+ *     neighbours. The lists are also rebuilt when particles are added,
+ *     merged or removed.
+ * </p>
+ * <p>
+ *     Both gravity and the electric force are cut off, and shifted so that
+ *     they fall to zero at the cutoff, instead of jumping there. The
+ *     chamber's energy measurements still use the full interactions.
+ * </p>
+ */
+public class NeighbourListForceSolver implements ForceSolver {
+	public static final double DEFAULT_CUTOFF = 25.0;
+	public static final double DEFAULT_SKIN = 5.0;
+	private static final int CHUNK_SIZE = 256;
+
+	private double cutoff;
+	private double skin;
+
+	/**
+	 * The index in {@link #neighbours} at which each particle's list starts,
+	 * with the total number of entries at the end.
+	 */
+	private int[] neighbourStart;
+	private int[] neighbours;
+	/**
+	 * The positions at which the lists were last built.
+	 */
+	private double[] builtX;
+	private double[] builtY;
+	private int builtSize;
+	private long builtModificationCount;
+	private double builtCutoff;
+	private double builtSkin;
+	private long rebuildCount;
+
+	private int[] cellStart;
+	private int[] cellParticles;
+	private int[] particleCells;
+
+	public NeighbourListForceSolver() {
+		this(DEFAULT_CUTOFF, DEFAULT_SKIN);
+	}
+
+	public NeighbourListForceSolver(double cutoff, double skin) {
+		this.cutoff = cutoff;
+		this.skin = skin;
+		this.neighbourStart = new int[1];
+		this.neighbours = new int[0];
+		this.builtX = new double[0];
+		this.builtY = new double[0];
+		this.builtSize = -1;
+		this.cellStart = new int[0];
+		this.cellParticles = new int[0];
+		this.particleCells = new int[0];
+	}
+
+	/**
+	 * @param cutoff The distance beyond which particles don't interact, in
+	 *               meters, which must be positive.
+	 */
+	public synchronized void setCutoff(double cutoff) {
+		if (cutoff > 0) {
+			this.cutoff = cutoff;
+		}
+	}
+
+	public double getCutoff() {
+		return this.cutoff;
+	}
+
+	/**
+	 * @param skin The extra distance, in meters, within which neighbours are
+	 *             listed, so that the lists stay valid for several steps.
+	 *             Larger skins mean longer lists, but fewer rebuilds.
+	 */
+	public synchronized void setSkin(double skin) {
+		if (skin >= 0) {
+			this.skin = skin;
+		}
+	}
+
+	public double getSkin() {
+		return this.skin;
+	}
+
+	/**
+	 * @return The number of times the neighbour lists have been built.
+	 */
+	public long getRebuildCount() {
+		return this.rebuildCount;
+	}
+
+	@Override
+	public long computeAccelerations(ParticleStore store, StepExecutor executor) {
+		final int size = store.getSize();
+		if (size == 0) return 0;
+		this.updateLists(store, executor);
+		final LongAdder interactions = new LongAdder();
+		executor.forEach(size, CHUNK_SIZE, (from, to) -> {
+			long chunkInteractions = 0;
+			for (int i = from; i < to; i++) {
+				chunkInteractions += this.computeAcceleration(store, i);
+			}
+			interactions.add(chunkInteractions);
+		});
+		return interactions.sum();
+	}
+
+	@Override
+	public long computeAccelerations(ParticleStore store, int[] targets, int targetCount, StepExecutor executor) {
+		if (store.getSize() == 0 || targetCount == 0) return 0;
+		this.updateLists(store, executor);
+		final LongAdder interactions = new LongAdder();
+		executor.forEach(targetCount, CHUNK_SIZE, (from, to) -> {
+			long chunkInteractions = 0;
+			for (int k = from; k < to; k++) {
+				chunkInteractions += this.computeAcceleration(store, targets[k]);
+			}
+			interactions.add(chunkInteractions);
+		});
+		return interactions.sum();
+	}
+
+	/**
+	 * Sums the forces of a particle's listed neighbours within the cutoff.
+	 * @return The number of neighbours which were within the cutoff.
+	 */
+	private int computeAcceleration(ParticleStore store, int i) {
+		final double[] x = store.getX();
+		final double[] y = store.getY();
+		final double[] mass = store.getMass();
+		final double[] charge = store.getCharge();
+		final int[] neighbours = this.neighbours;
+		final double cutoffSquared = this.builtCutoff * this.builtCutoff;
+		final double inverseCutoffSquared = 1.0 / cutoffSquared;
+		final double xi = x[i];
+		final double yi = y[i];
+		final double chargeFactor = Constants.Ke * Math.abs(charge[i]) / mass[i];
+		double accelerationX = 0.0;
+		double accelerationY = 0.0;
+		int interactions = 0;
+		for (int k = this.neighbourStart[i]; k < this.neighbourStart[i + 1]; k++) {
+			final int j = neighbours[k];
+			final double dX = x[j] - xi;
+			final double dY = y[j] - yi;
+			final double distanceSquared = dX * dX + dY * dY;
+			if (distanceSquared >= cutoffSquared || distanceSquared == 0.0) continue;
+			final double inverseDistance = 1.0 / Math.sqrt(distanceSquared);
+			// The force goes as 1/r^2 - 1/rc^2, along the unit vector d/r.
+			final double magnitude = (Constants.G * mass[j] + chargeFactor * Math.abs(charge[j]))
+					* (inverseDistance * inverseDistance - inverseCutoffSquared) * inverseDistance;
+			accelerationX += magnitude * dX;
+			accelerationY += magnitude * dY;
+			interactions++;
+		}
+		store.getAx()[i] = accelerationX;
+		store.getAy()[i] = accelerationY;
+		return interactions;
+	}
+
+	/**
+	 * Rebuilds the lists if the particles have changed, or if any particle
+	 * has moved more than half the skin since they were built.
+	 */
+	private void updateLists(ParticleStore store, StepExecutor executor) {
+		final double cutoff;
+		final double skin;
+		synchronized (this) {
+			cutoff = this.cutoff;
+			skin = this.skin;
+		}
+		if (store.getSize() != this.builtSize
+				|| store.getModificationCount() != this.builtModificationCount
+				|| cutoff != this.builtCutoff
+				|| skin != this.builtSkin
+				|| this.maxDisplacementSquared(store) > skin * skin / 4.0) {
+			this.buildLists(store, cutoff, skin, executor);
+		}
+	}
+
+	private double maxDisplacementSquared(ParticleStore store) {
+		final double[] x = store.getX();
+		final double[] y = store.getY();
+		double max = 0.0;
+		for (int i = 0; i < this.builtSize; i++) {
+			final double dX = x[i] - this.builtX[i];
+			final double dY = y[i] - this.builtY[i];
+			max = Math.max(max, dX * dX + dY * dY);
+		}
+		return max;
+	}
+
+	private void buildLists(ParticleStore store, double cutoff, double skin, StepExecutor executor) {
+		final int size = store.getSize();
+		final double[] x = store.getX();
+		final double[] y = store.getY();
+		final double listRadius = cutoff + skin;
+		final double listRadiusSquared = listRadius * listRadius;
+
+		// Cells are as wide as the list radius, and hashed into a table of
+		// about twice as many buckets as particles, so that particles which
+		// fly far away don't make the grid huge. Particles of different cells
+		// may share a bucket, which only adds candidates that are too far.
+		final double cellSize = listRadius;
+		int bucketCount = 16;
+		while (bucketCount < 2 * size) {
+			bucketCount <<= 1;
+		}
+		final int bucketMask = bucketCount - 1;
+		if (this.cellStart.length < bucketCount + 1) {
+			this.cellStart = new int[bucketCount + 1];
+		}
+		if (this.cellParticles.length < size) {
+			this.cellParticles = new int[size];
+			this.particleCells = new int[size];
+		}
+		final int[] cellStart = this.cellStart;
+		final int[] cellParticles = this.cellParticles;
+		final int[] particleCells = this.particleCells;
+		Arrays.fill(cellStart, 0, bucketCount + 1, 0);
+		for (int i = 0; i < size; i++) {
+			particleCells[i] = bucketOf(cell(x[i], cellSize), cell(y[i], cellSize), bucketMask);
+			cellStart[particleCells[i] + 1]++;
+		}
+		for (int bucket = 0; bucket < bucketCount; bucket++) {
+			cellStart[bucket + 1] += cellStart[bucket];
+		}
+		for (int i = size - 1; i >= 0; i--) {
+			cellParticles[--cellStart[particleCells[i] + 1]] = i;
+		}
+		// Each bucket's end was moved back to its start, one place too far on.
+		System.arraycopy(cellStart, 1, cellStart, 0, bucketCount);
+		cellStart[bucketCount] = size;
+
+		// Counts each particle's neighbours, then fills in the lists in a
+		// second pass, which both run in parallel.
+		if (this.neighbourStart.length < size + 1) {
+			this.neighbourStart = new int[size + 1];
+		}
+		final int[] neighbourStart = this.neighbourStart;
+		// Each task reuses one array for the buckets it has already visited.
+		executor.forEach(size, CHUNK_SIZE, (from, to) -> {
+			final int[] visited = new int[9];
+			for (int i = from; i < to; i++) {
+				neighbourStart[i + 1] = searchCells(x, y, i, cellSize, bucketMask, cellStart, cellParticles,
+						listRadiusSquared, visited, null, 0);
+			}
+		});
+		neighbourStart[0] = 0;
+		for (int i = 0; i < size; i++) {
+			neighbourStart[i + 1] += neighbourStart[i];
+		}
+		if (this.neighbours.length < neighbourStart[size]) {
+			this.neighbours = new int[neighbourStart[size] + neighbourStart[size] / 4];
+		}
+		final int[] neighbours = this.neighbours;
+		executor.forEach(size, CHUNK_SIZE, (from, to) -> {
+			final int[] visited = new int[9];
+			for (int i = from; i < to; i++) {
+				searchCells(x, y, i, cellSize, bucketMask, cellStart, cellParticles,
+						listRadiusSquared, visited, neighbours, neighbourStart[i]);
+			}
+		});
+
+		if (this.builtX.length < size) {
+			this.builtX = new double[x.length];
+			this.builtY = new double[y.length];
+		}
+		System.arraycopy(x, 0, this.builtX, 0, size);
+		System.arraycopy(y, 0, this.builtY, 0, size);
+		this.builtSize = size;
+		this.builtModificationCount = store.getModificationCount();
+		this.builtCutoff = cutoff;
+		this.builtSkin = skin;
+		this.rebuildCount++;
+	}
+
+	/**
+	 * Finds the particles within the list radius of particle i, in the
+	 * buckets of the nine cells around its own, visiting each bucket once.
+	 * @param visited Space for the nine buckets' indices, which is
+	 *                overwritten.
+	 * @param output The array to write the neighbours' indices to, starting
+	 *               at the offset, or null to only count them.
+	 * @return The number of neighbours.
+	 */
+	private static int searchCells(
+			double[] x, double[] y, int i,
+			double cellSize, int bucketMask,
+			int[] cellStart, int[] cellParticles,
+			double listRadiusSquared,
+			int[] visited, int[] output, int offset
+	) {
+		final long column = cell(x[i], cellSize);
+		final long row = cell(y[i], cellSize);
+		final double xi = x[i];
+		final double yi = y[i];
+		int visitedCount = 0;
+		int count = 0;
+		for (long r = row - 1; r <= row + 1; r++) {
+			for (long c = column - 1; c <= column + 1; c++) {
+				final int bucket = bucketOf(c, r, bucketMask);
+				boolean seen = false;
+				for (int v = 0; v < visitedCount; v++) {
+					seen |= visited[v] == bucket;
+				}
+				if (seen) continue;
+				visited[visitedCount++] = bucket;
+				for (int k = cellStart[bucket]; k < cellStart[bucket + 1]; k++) {
+					final int j = cellParticles[k];
+					if (j == i) continue;
+					final double dX = x[j] - xi;
+					final double dY = y[j] - yi;
+					if (dX * dX + dY * dY < listRadiusSquared) {
+						if (output != null) {
+							output[offset + count] = j;
+						}
+						count++;
+					}
+				}
+			}
+		}
+		return count;
+	}
+
+	private static long cell(double coordinate, double cellSize) {
+		return (long) Math.floor(coordinate / cellSize);
+	}
+
+	private static int bucketOf(long column, long row, int bucketMask) {
+		final long h = (column * 0x9E3779B97F4A7C15L) ^ (row * 0xC2B2AE3D27D4EB4FL);
+		return (int) (h ^ (h >>> 29)) & bucketMask;
+	}
+}
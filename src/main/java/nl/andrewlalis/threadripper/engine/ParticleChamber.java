@@ -1,44 +1,139 @@
 package nl.andrewlalis.threadripper.engine;
 
 import lombok.extern.slf4j.Slf4j;
+import nl.andrewlalis.threadripper.metrics.StepMetrics;
 import nl.andrewlalis.threadripper.particle.Particle;
+import nl.andrewlalis.threadripper.particle.ParticleDistribution;
+import nl.andrewlalis.threadripper.particle.ParticleFactory;
 
 import java.util.*;
-import java.util.concurrent.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 @Slf4j
-public class ParticleChamber implements Runnable {
-	private static final int DEFAULT_THREAD_POOL = 100;
+public class ParticleChamber implements Runnable, SnapshotSource {
 	private static final double DEFAULT_UPDATES_PER_SECOND = 60;
 
-	private final Set<Particle> particles;
-	private double simulationRate = 1.0;
-	private boolean allowCollision = true;
+	/**
+	 * When catching up, a frame may run this many times the sub-steps it
+	 * normally needs, which bounds the backlog after a slow frame.
+	 */
+	private static final int MAX_CATCH_UP_FACTOR = 4;
 
-	private int threadCount;
-	private final ExecutorService executorService;
-	private final CompletionService<ParticleUpdate> particleUpdateService;
+	/**
+	 * The most submitted commands which are applied before one step, so that
+	 * producers which submit faster than they can be applied don't hold up
+	 * the simulation. The rest wait for the following steps.
+	 */
+	private static final int MAX_COMMANDS_PER_STEP = 1 << 16;
 
-	private boolean running;
+	private final ParticleStore particles;
+	private ForceSolver forceSolver;
+	private Integrator integrator;
+	private final EnergyMeter energyMeter;
+	private final CollisionDetector collisionDetector;
+	private final CollisionMerger collisionMerger;
+	private final SnapshotPublisher snapshotPublisher;
+	private final List<StepListener> stepListeners;
+	private final Queue<ChamberCommand> commands;
+	private final ParticleIndex particleIndex;
+	private final StepMetrics stepMetrics;
+	private volatile double simulationRate = 1.0;
+	private volatile double timeStep = 1.0 / DEFAULT_UPDATES_PER_SECOND;
+	private volatile FrameScheduler.OverrunPolicy overrunPolicy = FrameScheduler.OverrunPolicy.DROP;
+	private volatile boolean allowCollision = true;
+
+	private final StepExecutor stepExecutor;
+
+	private volatile boolean running;
 	private double updateFps;
-	private double secondsSinceLastUpdate;
+	private volatile double secondsSinceLastUpdate;
+
+	private long stepCount;
+	private double simulationTime;
+	private long interactionCount;
 
 	public ParticleChamber() {
-		this.particles = new HashSet<>();
+		this.particles = new ParticleStore();
+		this.stepMetrics = new StepMetrics();
+		this.forceSolver = new TimedForceSolver(new DirectForceSolver(), this.stepMetrics);
+		this.integrator = new SymplecticEulerIntegrator();
+		this.energyMeter = new EnergyMeter();
+		this.collisionDetector = new CollisionDetector();
+		this.collisionMerger = new CollisionMerger();
+		this.snapshotPublisher = new SnapshotPublisher();
+		this.stepListeners = new CopyOnWriteArrayList<>();
+		this.commands = new ConcurrentLinkedQueue<>();
+		this.particleIndex = new ParticleIndex();
 
-		this.threadCount = DEFAULT_THREAD_POOL;
-		this.executorService = Executors.newFixedThreadPool(this.threadCount);
-		this.particleUpdateService = new ExecutorCompletionService<>(this.executorService);
+		this.stepExecutor = new StepExecutor();
 
 		this.updateFps = DEFAULT_UPDATES_PER_SECOND;
 	}
 
 	/**
-	 * Adds one or more particles to the chamber.
+	 * Adds one or more particles to the chamber. This must not be called
+	 * while the chamber's own thread is running; use
+	 * {@link #submit(ChamberCommand)} instead.
 	 * @param particles The particles to add.
 	 */
 	public void addParticle(Particle... particles) {
-		this.particles.addAll(Arrays.asList(particles));
+		for (Particle particle : particles) {
+			this.particles.add(particle);
+		}
+		this.snapshotPublisher.publish(this.particles, this.stepCount, this.simulationTime);
+	}
+
+	/**
+	 * Queues a change to the chamber's particles, which is applied at the
+	 * start of the next step. This is safe to call from any thread at any
+	 * time, never blocks, and never waits for a step to finish.
+	 * @param command The command to apply.
+	 */
+	public void submit(ChamberCommand command) {
+		this.commands.add(command);
+	}
+
+	/**
+	 * Generates many particles straight into the chamber's storage, in
+	 * parallel on the chamber's threads, and publishes them once. This must
+	 * not be called while the chamber's own thread is running.
+	 * @param factory The factory which sets the ranges of the particles'
+	 *                properties.
+	 * @param count The number of particles to generate.
+	 * @param distribution How to place the particles.
+	 * @param seed The seed, which alone decides which particles are made.
+	 */
+	public synchronized void generateParticles(ParticleFactory factory, int count, ParticleDistribution distribution, long seed) {
+		factory.generate(this.particles, count, distribution, seed, this.stepExecutor);
+		this.snapshotPublisher.publish(this.particles, this.stepCount, this.simulationTime);
+	}
+
+	/**
+	 * Replaces all of the chamber's particles and its clock, for example
+	 * with those from a checkpoint. This must not be called while the
+	 * chamber's own thread is running.
+	 * @param particles The particles to use, which the chamber takes over.
+	 * @param stepCount The number of steps which have been simulated.
+	 * @param simulationTime The amount of simulated time, in seconds.
+	 */
+	public synchronized void restore(ParticleStore particles, long stepCount, double simulationTime) {
+		this.particles.replaceWith(particles);
+		this.stepCount = stepCount;
+		this.simulationTime = simulationTime;
+		this.snapshotPublisher.publish(this.particles, this.stepCount, this.simulationTime);
+	}
+
+	/**
+	 * Adds a listener which is given the snapshot of every step from now on.
+	 * @param listener The listener to add.
+	 */
+	public void addStepListener(StepListener listener) {
+		this.stepListeners.add(listener);
+	}
+
+	public void removeStepListener(StepListener listener) {
+		this.stepListeners.remove(listener);
 	}
 
 	public synchronized void setRunning(boolean running) {
@@ -49,100 +144,263 @@ public class ParticleChamber implements Runnable {
 		this.simulationRate = simulationRate;
 	}
 
+	/**
+	 * Sets the fixed amount of simulated time which each step covers. The
+	 * simulation rate changes how many steps are run per frame, never the
+	 * size of a step.
+	 * @param timeStep The step size, in seconds, which must be positive.
+	 */
+	public synchronized void setTimeStep(double timeStep) {
+		if (timeStep > 0) {
+			this.timeStep = timeStep;
+		}
+	}
+
+	/**
+	 * Sets what happens when the chamber can't keep up with real time: with
+	 * {@link FrameScheduler.OverrunPolicy#DROP}, the simulation slows down,
+	 * and with {@link FrameScheduler.OverrunPolicy#CATCH_UP} it runs extra
+	 * steps on the following frames.
+	 * @param overrunPolicy The policy to use.
+	 */
+	public synchronized void setOverrunPolicy(FrameScheduler.OverrunPolicy overrunPolicy) {
+		this.overrunPolicy = overrunPolicy;
+	}
+
 	public synchronized void setAllowCollision(boolean allowCollision) {
 		this.allowCollision = allowCollision;
 	}
 
+	/**
+	 * Sets the number of threads which are used to update particles.
+	 * @param threadCount The number of threads, which must be positive.
+	 */
+	public void setThreadCount(int threadCount) {
+		this.stepExecutor.setThreadCount(threadCount);
+	}
+
+	/**
+	 * Sets the solver which is used to compute the forces between particles.
+	 * @param forceSolver The force solver to use from the next update onwards.
+	 */
+	public synchronized void setForceSolver(ForceSolver forceSolver) {
+		this.forceSolver = new TimedForceSolver(forceSolver, this.stepMetrics);
+	}
+
+	/**
+	 * Sets the integrator which is used to advance the particles each step.
+	 * @param integrator The integrator to use from the next update onwards.
+	 */
+	public synchronized void setIntegrator(Integrator integrator) {
+		this.integrator = integrator;
+	}
+
+	/**
+	 * Runs the simulation in real time, until it's stopped. Each frame adds
+	 * the elapsed time, scaled by the simulation rate, to an accumulator, and
+	 * then runs as many fixed-size steps as fit into it.
+	 */
 	@Override
 	public void run() {
 		this.running = true;
-		long previousTimeMilliseconds = System.currentTimeMillis();
-		long millisecondsSinceLastUpdate = 0L;
+		final FrameScheduler scheduler = new FrameScheduler(this.updateFps, this.overrunPolicy);
+		final double frameSeconds = 1.0 / this.updateFps;
+		double accumulator = 0.0;
 
 		log.info("Starting particle chamber.");
 		while (this.running) {
-			final long currentTimeMilliseconds = System.currentTimeMillis();
-			final long elapsedMilliseconds = currentTimeMilliseconds - previousTimeMilliseconds;
-
-			millisecondsSinceLastUpdate += elapsedMilliseconds;
-			this.secondsSinceLastUpdate = millisecondsSinceLastUpdate / 1000.0;
+			final double elapsedSeconds = scheduler.awaitNextFrame() / 1_000_000_000.0;
+			final double simulationRate = Math.max(0.0, this.simulationRate);
+			final double timeStep = this.timeStep;
+			final FrameScheduler.OverrunPolicy overrunPolicy = this.overrunPolicy;
+			scheduler.setOverrunPolicy(overrunPolicy);
+			accumulator += elapsedSeconds * simulationRate;
 
-			final double millisecondsPerFrame = 1000.0 / this.updateFps;
-
-			if (millisecondsSinceLastUpdate > millisecondsPerFrame) {
-				final double secondsSinceLastUpdate = millisecondsSinceLastUpdate / 1000.0;
-				millisecondsSinceLastUpdate = 0L;
-				//log.info("Updating particles after {} seconds elapsed.", secondsSinceLastUpdate);
-				this.updateParticles(secondsSinceLastUpdate * this.simulationRate);
+			// The number of sub-steps which one frame needs at this rate.
+			final int subSteps = Math.max(1, (int) Math.ceil(simulationRate * frameSeconds / timeStep));
+			final int maxSteps = overrunPolicy == FrameScheduler.OverrunPolicy.CATCH_UP
+					? subSteps * MAX_CATCH_UP_FACTOR
+					: subSteps;
+			int steps = 0;
+			while (accumulator >= timeStep && steps < maxSteps) {
+				try {
+					this.updateParticles(timeStep);
+				} catch (RuntimeException e) {
+					log.error("Could not update particles.", e);
+				}
+				accumulator -= timeStep;
+				steps++;
 			}
-
-			previousTimeMilliseconds = currentTimeMilliseconds;
+			if (accumulator >= timeStep) {
+				// The steps took longer than real time allows.
+				if (overrunPolicy == FrameScheduler.OverrunPolicy.DROP) {
+					accumulator %= timeStep;
+				} else {
+					accumulator = Math.min(accumulator, maxSteps * timeStep);
+				}
+			}
+			this.secondsSinceLastUpdate = simulationRate > 0 ? accumulator / simulationRate : 0.0;
 		}
-		this.executorService.shutdown();
+		this.shutdown();
 		log.info("Particle chamber stopped.");
 	}
 
 	/**
-	 * Updates all the particles in the simulation.
+	 * Releases the threads used to update particles. This is done
+	 * automatically when the chamber's own thread stops.
+	 */
+	public void shutdown() {
+		this.stepExecutor.shutdown();
+	}
+
+	/**
+	 * Updates all the particles in the simulation by one step. This is called
+	 * by the chamber's own thread while it's running, but may also be called
+	 * directly to drive the simulation without any frame pacing. A snapshot
+	 * of the particles is published at the end of each step, and handed to
+	 * any step listeners.
 	 * @param deltaTime The amount of seconds that have passed since the last update.
 	 */
-	private void updateParticles(double deltaTime) {
-		// First submit a new callable task for each particle.
-		for (Particle particle : this.particles) {
-			this.particleUpdateService.submit(new ParticleUpdater(particle, this.particles, this.allowCollision));
+	public void updateParticles(double deltaTime) {
+		this.applyCommands();
+		this.stepMetrics.beginStep();
+		final long interactions = this.integrator.step(this.particles, this.forceSolver, this.stepExecutor, deltaTime);
+		this.stepMetrics.endPhase(StepMetrics.Phase.INTEGRATION);
+		this.interactionCount += interactions;
+		this.stepCount++;
+		this.simulationTime += deltaTime;
+
+		// Merge each cluster of colliding particles.
+		if (this.allowCollision) {
+			this.collisionDetector.detect(this.particles, this.stepExecutor);
+			this.stepMetrics.endPhase(StepMetrics.Phase.COLLISION_DETECTION);
+			this.collisionMerger.merge(this.particles, this.collisionDetector, this.stepExecutor);
+			this.stepMetrics.endPhase(StepMetrics.Phase.MERGE);
 		}
 
-		int updatesReceived = 0;
-		boolean errorEncountered = false;
-		final List<ParticleUpdate> updates = new ArrayList<>(this.particles.size());
-
-		// Iterate until we've received the results of each particle updater's calculations.
-		while (updatesReceived < this.particles.size() && !errorEncountered) {
-			try {
-				Future<ParticleUpdate> updateFuture = this.particleUpdateService.take();
-				updates.add(updateFuture.get());
-				updatesReceived++;
-			} catch (Exception e) {
-				e.printStackTrace();
-				errorEncountered = true;
-			}
+		this.snapshotPublisher.publish(this.particles, this.stepCount, this.simulationTime);
+		for (StepListener listener : this.stepListeners) {
+			listener.stepCompleted(this.acquireSnapshot());
 		}
+		this.stepMetrics.endPhase(StepMetrics.Phase.PUBLISH);
+		this.stepMetrics.endStep(this.stepCount, this.particles.getSize(), interactions);
+	}
 
-		Set<Particle> particlesToRemove = new HashSet<>(this.particles.size());
-		Set<Particle> particlesToAdd = new HashSet<>(this.particles.size());
-		// Implement the updates for each particle.
-		for (ParticleUpdate update : updates) {
-			update.getFocusParticle().updateVelocity(update.getAcceleration(), deltaTime);
-			update.getFocusParticle().updatePosition(deltaTime);
-			if (!update.getCollidesWith().isEmpty() && !particlesToRemove.contains(update.getFocusParticle())) {
-				particlesToRemove.addAll(update.getCollidesWith());
-				particlesToRemove.add(update.getFocusParticle());
-				// Create a new particle as combination.
-				Particle p = update.getFocusParticle();
-				for (Particle collided : update.getCollidesWith()) {
-					p = p.combine(collided);
-				}
-				particlesToAdd.add(p);
-			}
+	/**
+	 * Applies a batch of the submitted commands, in order, compacting the
+	 * particles once at the end if any were removed.
+	 */
+	private void applyCommands() {
+		boolean removed = false;
+		for (int i = 0; i < MAX_COMMANDS_PER_STEP; i++) {
+			final ChamberCommand command = this.commands.poll();
+			if (command == null) break;
+			removed |= command.apply(this.particles, this.particleIndex);
 		}
+		if (removed) {
+			this.particles.compact();
+			this.particleIndex.invalidate();
+		}
+	}
 
-		this.particles.removeAll(particlesToRemove);
-		this.particles.addAll(particlesToAdd);
+	/**
+	 * Takes a reference to the snapshot of the chamber's particles which was
+	 * published most recently. This never blocks, and never waits for the
+	 * simulation. The snapshot must be released once it's no longer needed.
+	 * @return The latest snapshot.
+	 */
+	@Override
+	public ChamberSnapshot acquireSnapshot() {
+		return this.snapshotPublisher.acquire();
 	}
 
+	/**
+	 * @return The timings of the chamber's steps, broken down by phase.
+	 */
+	public StepMetrics getStepMetrics() {
+		return this.stepMetrics;
+	}
+
+	/**
+	 * @return The amount of real time which has passed but not yet been
+	 * simulated, in seconds.
+	 */
 	public double getSecondsSinceLastUpdate() {
 		return this.secondsSinceLastUpdate;
 	}
 
+	@Override
 	public double getSimulationRate() {
 		return simulationRate;
 	}
 
+	/**
+	 * @return The amount of simulated time which each step covers, in seconds.
+	 */
+	public double getTimeStep() {
+		return this.timeStep;
+	}
+
+	public boolean isAllowCollision() {
+		return this.allowCollision;
+	}
+
+	/**
+	 * @return The number of steps which have been simulated.
+	 */
+	public long getStepCount() {
+		return this.stepCount;
+	}
+
+	/**
+	 * @return The total amount of simulated time, in seconds.
+	 */
+	public double getSimulationTime() {
+		return this.simulationTime;
+	}
+
+	/**
+	 * @return The total number of interactions which have been evaluated by
+	 * the chamber's force solvers.
+	 */
+	public long getInteractionCount() {
+		return this.interactionCount;
+	}
+
+	/**
+	 * Computes the total kinetic and potential energy of all particles, which
+	 * can be compared over time to see how much energy the integrator gains
+	 * or loses. This takes as long as a step of an exact force solver, and
+	 * must not be called while the chamber's own thread is running.
+	 * @return The total energy, in joules.
+	 */
+	public double computeTotalEnergy() {
+		return this.energyMeter.computeTotalEnergy(this.particles, this.stepExecutor);
+	}
+
+	public int getParticleCount() {
+		return this.particles.getSize();
+	}
+
+	/**
+	 * Builds particle objects from the latest snapshot. This allocates, so
+	 * prefer {@link #acquireSnapshot()} for anything which runs every frame.
+	 * @return A set of particles, which keep their ids.
+	 */
 	public Set<Particle> getCopyOfParticles() {
-		Set<Particle> set = new HashSet<>(this.particles.size());
-		for (Particle p : this.particles) {
-			set.add(p.getCopy());
+		try (ChamberSnapshot snapshot = this.acquireSnapshot()) {
+			final Set<Particle> set = new HashSet<>(snapshot.getSize());
+			for (int i = 0; i < snapshot.getSize(); i++) {
+				set.add(new Particle(
+						snapshot.getIds()[i],
+						new Vec2(snapshot.getX()[i], snapshot.getY()[i]),
+						new Vec2(snapshot.getVx()[i], snapshot.getVy()[i]),
+						snapshot.getMass()[i],
+						snapshot.getCharge()[i],
+						snapshot.getRadius()[i]
+				));
+			}
+			return set;
 		}
-		return set;
 	}
 }
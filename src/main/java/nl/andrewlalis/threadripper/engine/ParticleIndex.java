@@ -0,0 +1,124 @@
+package nl.andrewlalis.threadripper.engine;
+
+import java.util.Arrays;
+
+/**
+ * Finds particles in a store by id, using an open-addressing hash table of
+ * primitive ids and indices. The table is only rebuilt when the store's
+ * modification count shows that particles were added, merged or removed
+ * since it was built, without the index being told, so looking up particles
+ * in a store which only moves, or only changes through
+ * {@link ChamberCommand}s, is cheap.
+ */
+class ParticleIndex {
+	private static final int EMPTY = -1;
+
+	private long[] keys;
+	private int[] values;
+	private int mask;
+	private int count;
+
+	/**
+	 * The store's modification count when the table last matched it, or -1
+	 * if it never did, or no longer does.
+	 */
+	private long modificationCount;
+
+	ParticleIndex() {
+		this.keys = new long[0];
+		this.values = new int[0];
+		this.modificationCount = -1L;
+	}
+
+	/**
+	 * @param store The store to search.
+	 * @param id The id of a particle.
+	 * @return The particle's index in the store, or -1 if it isn't there, or
+	 * has been marked as removed.
+	 */
+	int indexOf(ParticleStore store, long id) {
+		if (this.modificationCount != store.getModificationCount()) {
+			this.rebuild(store);
+		}
+		if (this.values.length == 0) return EMPTY;
+		int slot = hash(id) & this.mask;
+		while (this.values[slot] != EMPTY) {
+			if (this.keys[slot] == id) {
+				return store.isRemoved(this.values[slot]) ? EMPTY : this.values[slot];
+			}
+			slot = (slot + 1) & this.mask;
+		}
+		return EMPTY;
+	}
+
+	/**
+	 * Records a particle which was just added to a store that this index
+	 * was up to date with, without rebuilding the table.
+	 */
+	void added(ParticleStore store, int index) {
+		if (this.modificationCount + 1 != store.getModificationCount() || 2 * (this.count + 1) > this.values.length) {
+			this.modificationCount = -1L;
+			return;
+		}
+		this.put(store.getIds()[index], index);
+		this.modificationCount = store.getModificationCount();
+	}
+
+	/**
+	 * Records that a particle in a store that this index was up to date with
+	 * was just changed in place, like a new mass or charge, or being marked
+	 * as removed, which lookups already check for.
+	 */
+	void changed(ParticleStore store) {
+		if (this.modificationCount + 1 == store.getModificationCount()) {
+			this.modificationCount = store.getModificationCount();
+		} else {
+			this.modificationCount = -1L;
+		}
+	}
+
+	/**
+	 * Marks the index as out of date, for changes which move particles
+	 * without touching the store's modification count, like compaction.
+	 */
+	void invalidate() {
+		this.modificationCount = -1L;
+	}
+
+	private void rebuild(ParticleStore store) {
+		final int size = store.getSize();
+		int capacity = 16;
+		while (capacity < 2 * size + 2) {
+			capacity <<= 1;
+		}
+		if (this.values.length != capacity) {
+			this.keys = new long[capacity];
+			this.values = new int[capacity];
+			this.mask = capacity - 1;
+		}
+		Arrays.fill(this.values, EMPTY);
+		this.count = 0;
+		final long[] ids = store.getIds();
+		for (int i = 0; i < size; i++) {
+			this.put(ids[i], i);
+		}
+		this.modificationCount = store.getModificationCount();
+	}
+
+	private void put(long id, int index) {
+		int slot = hash(id) & this.mask;
+		while (this.values[slot] != EMPTY && this.keys[slot] != id) {
+			slot = (slot + 1) & this.mask;
+		}
+		if (this.values[slot] == EMPTY) {
+			this.count++;
+		}
+		this.keys[slot] = id;
+		this.values[slot] = index;
+	}
+
+	private static int hash(long id) {
+		final long h = id * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+}
@@ -0,0 +1,321 @@
+package nl.andrewlalis.threadripper.engine;
+
+import java.util.Arrays;
+
+/**
+ * Approximate force solver for large, dense systems, which spreads the
+ * particles' mass and charge over a grid, computes the field on the grid
+ * with fast Fourier transforms, and reads each particle's acceleration back
+ * from the grid. This costs O(n + M log M) per step for a grid of M cells,
+ * regardless of how the particles are distributed.
+ * <p>
+ *     Mass and charge are assigned to the four nearest cells with the
+ *     cloud-in-cell scheme, and the field is read back with the same
+ *     weights. The field is the convolution of the grid with the chamber's
+ *     inverse-square force law. The convolution is computed on a grid twice
+ *     as wide, padded with zeros, so the system is isolated instead of
+ *     periodic. This is used instead of a two-dimensional Poisson
+ *     equation, whose solution would give a 1/r force, and so different
+ *     physics from the other solvers.
+ * </p>
+ * <p>
+ *     Mass and the magnitude of charge are packed into the real and
+ *     imaginary parts of one complex grid, so one forward transform and two
+ *     inverse transforms are enough for both forces in both directions.
+ * </p>
+ * <p>
+ *     Forces between particles which are less than a few cells apart are
+ *     smoothed out by the grid, so the grid should be fine enough that
+ *     typical neighbours are several cells apart, or the results used only
+ *     where the long-range field dominates.
+ * </p>
+ */
+public class ParticleMeshForceSolver implements ForceSolver {
+	public static final int DEFAULT_GRID_SIZE = 256;
+	private static final int CHUNK_SIZE = 4096;
+	private static final int ROW_CHUNK_SIZE = 8;
+
+	/**
+	 * The number of grid rows in each band of particles which deposit in
+	 * parallel.
+	 */
+	private static final int BAND_ROWS = 4;
+
+	private int gridSize;
+
+	private Fft2D fft;
+	private double[] kernelXRe;
+	private double[] kernelXIm;
+	private double[] kernelYRe;
+	private double[] kernelYIm;
+
+	private double[] densityRe;
+	private double[] densityIm;
+	private double[] fieldXRe;
+	private double[] fieldXIm;
+	private double[] fieldYRe;
+	private double[] fieldYIm;
+
+	private int[] bandStart;
+	private int[] bandParticles;
+	private int[] particleBand;
+
+	public ParticleMeshForceSolver() {
+		this(DEFAULT_GRID_SIZE);
+	}
+
+	public ParticleMeshForceSolver(int gridSize) {
+		this.setGridSize(gridSize);
+		this.bandParticles = new int[0];
+		this.particleBand = new int[0];
+	}
+
+	/**
+	 * Sets the number of cells along each side of the grid which covers the
+	 * particles. The padded grid which is transformed is twice as wide. The
+	 * new size takes effect from the next step on, so this may be called
+	 * from any thread.
+	 * @param gridSize The number of cells, which must be a power of two, and
+	 *                 at least 4.
+	 */
+	public synchronized void setGridSize(int gridSize) {
+		if (gridSize < 4 || Integer.bitCount(gridSize) != 1) {
+			throw new IllegalArgumentException("The grid size must be a power of two, and at least 4.");
+		}
+		this.gridSize = gridSize;
+	}
+
+	public int getGridSize() {
+		return this.gridSize;
+	}
+
+	@Override
+	public long computeAccelerations(ParticleStore store, StepExecutor executor) {
+		return this.compute(store, null, store.getSize(), executor);
+	}
+
+	/**
+	 * Every particle still deposits its mass and charge, and the whole grid is
+	 * transformed, but only the targets read their accelerations from it.
+	 * The grid work doesn't depend on the number of targets, so this only
+	 * saves the interpolation.
+	 */
+	@Override
+	public long computeAccelerations(ParticleStore store, int[] targets, int targetCount, StepExecutor executor) {
+		return this.compute(store, targets, targetCount, executor);
+	}
+
+	/**
+	 * @param targets The indices of the particles to compute accelerations
+	 *                for, or null for all of them.
+	 */
+	private long compute(ParticleStore store, int[] targets, int targetCount, StepExecutor executor) {
+		final int size = store.getSize();
+		if (size == 0 || targetCount == 0) return 0;
+		// The grids are only replaced here, at the start of a step, so the
+		// rest of the step keeps using the size it started with.
+		final int gridSize;
+		synchronized (this) {
+			gridSize = this.gridSize;
+		}
+		if (this.fft == null || this.fft.getSize() != 2 * gridSize) {
+			this.prepare(gridSize, executor);
+		}
+
+		// Cover the particles with the grid, leaving a spare row and column
+		// so that every particle's four cells are inside it.
+		final double[] x = store.getX();
+		final double[] y = store.getY();
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < size; i++) {
+			minX = Math.min(minX, x[i]);
+			minY = Math.min(minY, y[i]);
+			maxX = Math.max(maxX, x[i]);
+			maxY = Math.max(maxY, y[i]);
+		}
+		final double cellSize = Math.max(Math.max(maxX - minX, maxY - minY), 1.0) / (gridSize - 2);
+
+		this.deposit(store, executor, gridSize, minX, minY, cellSize);
+		this.convolve(executor);
+		this.interpolate(store, targets, targetCount, executor, gridSize, minX, minY, cellSize);
+		return targetCount;
+	}
+
+	/**
+	 * Allocates the grids, and computes the transform of the force kernel,
+	 * which only depends on the grid size.
+	 */
+	private void prepare(int gridSize, StepExecutor executor) {
+		final int padded = 2 * gridSize;
+		final int cells = padded * padded;
+		this.fft = new Fft2D(padded);
+		this.kernelXRe = new double[cells];
+		this.kernelXIm = new double[cells];
+		this.kernelYRe = new double[cells];
+		this.kernelYIm = new double[cells];
+		this.densityRe = new double[cells];
+		this.densityIm = new double[cells];
+		this.fieldXRe = new double[cells];
+		this.fieldXIm = new double[cells];
+		this.fieldYRe = new double[cells];
+		this.fieldYIm = new double[cells];
+		this.bandStart = new int[gridSize / BAND_ROWS + 2];
+
+		// The field at a cell, due to a unit source which is (dx, dy) cells
+		// away from it, in units of one cell. Negative offsets wrap around.
+		for (int row = 0; row < padded; row++) {
+			final int dy = row < gridSize ? row : row - padded;
+			for (int col = 0; col < padded; col++) {
+				final int dx = col < gridSize ? col : col - padded;
+				final double distanceSquared = (double) dx * dx + (double) dy * dy;
+				if (distanceSquared == 0.0) continue;
+				final double inverseCube = 1.0 / (distanceSquared * Math.sqrt(distanceSquared));
+				this.kernelXRe[row * padded + col] = -dx * inverseCube;
+				this.kernelYRe[row * padded + col] = -dy * inverseCube;
+			}
+		}
+		this.fft.transform(this.kernelXRe, this.kernelXIm, false, executor);
+		this.fft.transform(this.kernelYRe, this.kernelYIm, false, executor);
+	}
+
+	/**
+	 * Assigns each particle's mass and the magnitude of its charge to its
+	 * four nearest cells. The particles are sorted into bands of rows, and
+	 * the even bands and then the odd bands deposit in parallel, so that no
+	 * two threads ever write to the same row.
+	 */
+	private void deposit(ParticleStore store, StepExecutor executor, int gridSize, double minX, double minY, double cellSize) {
+		final int size = store.getSize();
+		final int padded = 2 * gridSize;
+		final double[] x = store.getX();
+		final double[] y = store.getY();
+		final double[] mass = store.getMass();
+		final double[] charge = store.getCharge();
+		final double[] densityRe = this.densityRe;
+		final double[] densityIm = this.densityIm;
+		Arrays.fill(densityRe, 0.0);
+		Arrays.fill(densityIm, 0.0);
+
+		if (this.bandParticles.length < size) {
+			this.bandParticles = new int[size];
+			this.particleBand = new int[size];
+		}
+		final int bandCount = (gridSize + BAND_ROWS - 1) / BAND_ROWS;
+		final int[] bandStart = this.bandStart;
+		final int[] bandParticles = this.bandParticles;
+		Arrays.fill(bandStart, 0, bandCount + 1, 0);
+		for (int i = 0; i < size; i++) {
+			final int band = Math.min(gridSize - 2, (int) ((y[i] - minY) / cellSize)) / BAND_ROWS;
+			this.particleBand[i] = band;
+			bandStart[band + 1]++;
+		}
+		for (int band = 0; band < bandCount; band++) {
+			bandStart[band + 1] += bandStart[band];
+		}
+		final int[] cursor = Arrays.copyOf(bandStart, bandCount);
+		for (int i = 0; i < size; i++) {
+			bandParticles[cursor[this.particleBand[i]]++] = i;
+		}
+
+		for (int parity = 0; parity < 2; parity++) {
+			final int firstBand = parity;
+			executor.forEach((bandCount - firstBand + 1) / 2, 1, (from, to) -> {
+				for (int k = from; k < to; k++) {
+					final int band = firstBand + 2 * k;
+					for (int p = bandStart[band]; p < bandStart[band + 1]; p++) {
+						final int i = bandParticles[p];
+						final double u = (x[i] - minX) / cellSize;
+						final double v = (y[i] - minY) / cellSize;
+						final int col = Math.min(gridSize - 2, (int) u);
+						final int row = Math.min(gridSize - 2, (int) v);
+						final double fx = u - col;
+						final double fy = v - row;
+						final double absCharge = Math.abs(charge[i]);
+						final int cell = row * padded + col;
+						final double w00 = (1.0 - fx) * (1.0 - fy);
+						final double w01 = fx * (1.0 - fy);
+						final double w10 = (1.0 - fx) * fy;
+						final double w11 = fx * fy;
+						densityRe[cell] += w00 * mass[i];
+						densityRe[cell + 1] += w01 * mass[i];
+						densityRe[cell + padded] += w10 * mass[i];
+						densityRe[cell + padded + 1] += w11 * mass[i];
+						densityIm[cell] += w00 * absCharge;
+						densityIm[cell + 1] += w01 * absCharge;
+						densityIm[cell + padded] += w10 * absCharge;
+						densityIm[cell + padded + 1] += w11 * absCharge;
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Convolves the density grid with the force kernel in each direction, by
+	 * multiplying their transforms.
+	 */
+	private void convolve(StepExecutor executor) {
+		this.fft.transform(this.densityRe, this.densityIm, false, executor);
+		final int padded = this.fft.getSize();
+		executor.forEach(padded, ROW_CHUNK_SIZE, (from, to) -> {
+			for (int cell = from * padded; cell < to * padded; cell++) {
+				final double re = this.densityRe[cell];
+				final double im = this.densityIm[cell];
+				this.fieldXRe[cell] = re * this.kernelXRe[cell] - im * this.kernelXIm[cell];
+				this.fieldXIm[cell] = re * this.kernelXIm[cell] + im * this.kernelXRe[cell];
+				this.fieldYRe[cell] = re * this.kernelYRe[cell] - im * this.kernelYIm[cell];
+				this.fieldYIm[cell] = re * this.kernelYIm[cell] + im * this.kernelYRe[cell];
+			}
+		});
+		this.fft.transform(this.fieldXRe, this.fieldXIm, true, executor);
+		this.fft.transform(this.fieldYRe, this.fieldYIm, true, executor);
+	}
+
+	/**
+	 * Reads each target's acceleration from its four nearest cells. The
+	 * real parts of the fields hold the gravitational field, and the
+	 * imaginary parts the field due to charge.
+	 */
+	private void interpolate(ParticleStore store, int[] targets, int targetCount, StepExecutor executor,
+							int gridSize, double minX, double minY, double cellSize) {
+		final int padded = 2 * gridSize;
+		final double[] x = store.getX();
+		final double[] y = store.getY();
+		final double[] mass = store.getMass();
+		final double[] charge = store.getCharge();
+		final double[] ax = store.getAx();
+		final double[] ay = store.getAy();
+		// The kernel is in units of cells, so convert it to meters.
+		final double scale = 1.0 / (cellSize * cellSize);
+		executor.forEach(targetCount, CHUNK_SIZE, (from, to) -> {
+			for (int k = from; k < to; k++) {
+				final int i = targets == null ? k : targets[k];
+				final double u = (x[i] - minX) / cellSize;
+				final double v = (y[i] - minY) / cellSize;
+				final int col = Math.min(gridSize - 2, (int) u);
+				final int row = Math.min(gridSize - 2, (int) v);
+				final double fx = u - col;
+				final double fy = v - row;
+				final int cell = row * padded + col;
+				final double w00 = (1.0 - fx) * (1.0 - fy);
+				final double w01 = fx * (1.0 - fy);
+				final double w10 = (1.0 - fx) * fy;
+				final double w11 = fx * fy;
+				final double gravityX = w00 * this.fieldXRe[cell] + w01 * this.fieldXRe[cell + 1]
+						+ w10 * this.fieldXRe[cell + padded] + w11 * this.fieldXRe[cell + padded + 1];
+				final double gravityY = w00 * this.fieldYRe[cell] + w01 * this.fieldYRe[cell + 1]
+						+ w10 * this.fieldYRe[cell + padded] + w11 * this.fieldYRe[cell + padded + 1];
+				final double chargeX = w00 * this.fieldXIm[cell] + w01 * this.fieldXIm[cell + 1]
+						+ w10 * this.fieldXIm[cell + padded] + w11 * this.fieldXIm[cell + padded + 1];
+				final double chargeY = w00 * this.fieldYIm[cell] + w01 * this.fieldYIm[cell + 1]
+						+ w10 * this.fieldYIm[cell + padded] + w11 * this.fieldYIm[cell + padded + 1];
+				final double chargeFactor = Constants.Ke * Math.abs(charge[i]) / mass[i];
+				ax[i] = scale * (Constants.G * gravityX + chargeFactor * chargeX);
+				ay[i] = scale * (Constants.G * gravityY + chargeFactor * chargeY);
+			}
+		});
+	}
+}
@@ -0,0 +1,313 @@
+package nl.andrewlalis.threadripper.engine;
+
+import lombok.Getter;
+import nl.andrewlalis.threadripper.particle.Particle;
+
+import java.util.Arrays;
+
+/**
+ * Primitive, index-addressed storage for all particles in a chamber. Each
+ * particle property lives in its own array, so that the simulation's hot
+ * loops can stream over plain doubles instead of chasing object references.
+ * <p>
+ *     Indices are only stable between calls to {@link #compact()}; use the
+ *     particle's id to refer to a particle across steps.
+ * </p>
+ */
+@Getter
+public class ParticleStore {
+	private static final int DEFAULT_CAPACITY = 64;
+
+	/**
+	 * The number of particles currently in the store.
+	 */
+	private int size;
+
+	private long[] ids;
+	private double[] x;
+	private double[] y;
+	private double[] vx;
+	private double[] vy;
+	private double[] mass;
+	private double[] charge;
+	private double[] radius;
+
+	/**
+	 * The acceleration computed for each particle during the last step, in
+	 * meters per second squared.
+	 */
+	private double[] ax;
+	private double[] ay;
+
+	/**
+	 * Flags for particles which should be dropped on the next compaction.
+	 */
+	private boolean[] removed;
+
+	/**
+	 * Counts changes to the set of particles, such as additions, merges and
+	 * removals, and to their masses and charges, but not the regular motion
+	 * of particles during a step. This lets callers tell whether anything
+	 * they cached about the store, like accelerations, is still valid.
+	 */
+	private long modificationCount;
+
+	public ParticleStore() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public ParticleStore(int initialCapacity) {
+		final int capacity = Math.max(1, initialCapacity);
+		this.ids = new long[capacity];
+		this.x = new double[capacity];
+		this.y = new double[capacity];
+		this.vx = new double[capacity];
+		this.vy = new double[capacity];
+		this.mass = new double[capacity];
+		this.charge = new double[capacity];
+		this.radius = new double[capacity];
+		this.ax = new double[capacity];
+		this.ay = new double[capacity];
+		this.removed = new boolean[capacity];
+	}
+
+	/**
+	 * Constructs a store which takes ownership of the given arrays, which
+	 * must all have the same length, of at least size.
+	 * @param size The number of particles in the arrays.
+	 */
+	public ParticleStore(int size, long[] ids, double[] x, double[] y, double[] vx, double[] vy,
+						 double[] mass, double[] charge, double[] radius) {
+		final int capacity = ids.length;
+		if (size > capacity || x.length != capacity || y.length != capacity || vx.length != capacity
+				|| vy.length != capacity || mass.length != capacity || charge.length != capacity
+				|| radius.length != capacity) {
+			throw new IllegalArgumentException("All arrays must have the same length, of at least " + size + ".");
+		}
+		this.size = size;
+		this.ids = ids;
+		this.x = x;
+		this.y = y;
+		this.vx = vx;
+		this.vy = vy;
+		this.mass = mass;
+		this.charge = charge;
+		this.radius = radius;
+		this.ax = new double[capacity];
+		this.ay = new double[capacity];
+		this.removed = new boolean[capacity];
+	}
+
+	/**
+	 * Replaces all particles in this store with those of another store, which
+	 * should not be used afterwards, since the two share their arrays.
+	 * @param other The store to take the particles from.
+	 */
+	void replaceWith(ParticleStore other) {
+		this.size = other.size;
+		this.ids = other.ids;
+		this.x = other.x;
+		this.y = other.y;
+		this.vx = other.vx;
+		this.vy = other.vy;
+		this.mass = other.mass;
+		this.charge = other.charge;
+		this.radius = other.radius;
+		this.ax = other.ax;
+		this.ay = other.ay;
+		this.removed = other.removed;
+		this.modificationCount++;
+	}
+
+	/**
+	 * Removes all particles from the store, keeping its capacity.
+	 */
+	public void clear() {
+		this.size = 0;
+		this.modificationCount++;
+	}
+
+	/**
+	 * Adds a particle to the store, copying all of its properties.
+	 * @param particle The particle to add.
+	 * @return The index at which the particle was stored.
+	 */
+	public int add(Particle particle) {
+		return this.add(
+				particle.getId(),
+				particle.getPosition().getX(),
+				particle.getPosition().getY(),
+				particle.getVelocity().getX(),
+				particle.getVelocity().getY(),
+				particle.getMass(),
+				particle.getCharge(),
+				particle.getRadius()
+		);
+	}
+
+	/**
+	 * Adds a particle to the store.
+	 * @return The index at which the particle was stored.
+	 */
+	public int add(long id, double x, double y, double vx, double vy, double mass, double charge, double radius) {
+		this.ensureCapacity(this.size + 1);
+		final int index = this.size;
+		this.ids[index] = id;
+		this.x[index] = x;
+		this.y[index] = y;
+		this.vx[index] = vx;
+		this.vy[index] = vy;
+		this.mass[index] = mass;
+		this.charge[index] = charge;
+		this.radius[index] = radius;
+		this.ax[index] = 0.0;
+		this.ay[index] = 0.0;
+		this.removed[index] = false;
+		this.size++;
+		this.modificationCount++;
+		return index;
+	}
+
+	/**
+	 * Adds a number of particles to the end of the store at once, for callers
+	 * which fill in their properties directly in the arrays, possibly from
+	 * several threads. Only the accelerations and removal flags of the new
+	 * particles are reset; every other property must be set by the caller.
+	 * @param count The number of particles to add.
+	 * @return The index of the first new particle.
+	 */
+	public int append(int count) {
+		this.ensureCapacity(this.size + count);
+		final int first = this.size;
+		Arrays.fill(this.ax, first, first + count, 0.0);
+		Arrays.fill(this.ay, first, first + count, 0.0);
+		Arrays.fill(this.removed, first, first + count, false);
+		this.size += count;
+		this.modificationCount++;
+		return first;
+	}
+
+	/**
+	 * Gets a detached view of the particle at the given index. Changes to the
+	 * returned particle are not reflected in the store.
+	 * @param index The index of the particle.
+	 * @return A particle with the same id and properties.
+	 */
+	public Particle get(int index) {
+		return new Particle(
+				this.ids[index],
+				new Vec2(this.x[index], this.y[index]),
+				new Vec2(this.vx[index], this.vy[index]),
+				this.mass[index],
+				this.charge[index],
+				this.radius[index]
+		);
+	}
+
+	/**
+	 * Determines if two particles are touching, according to the chamber's
+	 * collision rule: their outlines must intersect.
+	 * @param i The index of the first particle.
+	 * @param j The index of the second particle.
+	 * @return True if the particles collide.
+	 */
+	public boolean collides(int i, int j) {
+		final double deltaX = this.x[i] - this.x[j];
+		final double deltaY = this.y[i] - this.y[j];
+		final double distance = Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+		return Math.abs(this.radius[i] - this.radius[j]) <= distance
+				&& distance <= (this.radius[i] + this.radius[j]);
+	}
+
+	/**
+	 * Combines the particle at index j into the one at index i, in the same
+	 * way as {@link Particle#combine(Particle)}. The result is given a new id
+	 * and takes the place of particle i, while particle j is marked as
+	 * removed.
+	 * @param i The index which receives the combined particle.
+	 * @param j The index of the particle to absorb.
+	 */
+	public void combine(int i, int j) {
+		final double totalMass = this.mass[i] + this.mass[j];
+		this.ids[i] = Particle.nextId();
+		this.x[i] = (this.mass[i] * this.x[i] + this.mass[j] * this.x[j]) / totalMass;
+		this.y[i] = (this.mass[i] * this.y[i] + this.mass[j] * this.y[j]) / totalMass;
+		this.vx[i] = (this.mass[i] * this.vx[i] + this.mass[j] * this.vx[j]) / totalMass;
+		this.vy[i] = (this.mass[i] * this.vy[i] + this.mass[j] * this.vy[j]) / totalMass;
+		this.mass[i] = totalMass;
+		this.charge[i] += this.charge[j];
+		this.radius[i] += this.radius[j];
+		this.removed[j] = true;
+		this.modificationCount++;
+	}
+
+	public void markRemoved(int index) {
+		this.removed[index] = true;
+		this.modificationCount++;
+	}
+
+	/**
+	 * Sets a particle's mass, which counts as a modification, since any
+	 * forces computed before no longer apply.
+	 */
+	public void setMass(int index, double mass) {
+		this.mass[index] = mass;
+		this.modificationCount++;
+	}
+
+	/**
+	 * Sets a particle's charge, which counts as a modification, since any
+	 * forces computed before no longer apply.
+	 */
+	public void setCharge(int index, double charge) {
+		this.charge[index] = charge;
+		this.modificationCount++;
+	}
+
+	public boolean isRemoved(int index) {
+		return this.removed[index];
+	}
+
+	/**
+	 * Removes all particles which have been marked as removed, shifting the
+	 * remaining ones down so that they occupy a contiguous range of indices.
+	 * The relative order of the remaining particles is preserved.
+	 */
+	public void compact() {
+		int target = 0;
+		for (int source = 0; source < this.size; source++) {
+			if (this.removed[source]) continue;
+			if (target != source) {
+				this.ids[target] = this.ids[source];
+				this.x[target] = this.x[source];
+				this.y[target] = this.y[source];
+				this.vx[target] = this.vx[source];
+				this.vy[target] = this.vy[source];
+				this.mass[target] = this.mass[source];
+				this.charge[target] = this.charge[source];
+				this.radius[target] = this.radius[source];
+				this.ax[target] = this.ax[source];
+				this.ay[target] = this.ay[source];
+			}
+			target++;
+		}
+		Arrays.fill(this.removed, 0, this.size, false);
+		this.size = target;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= this.ids.length) return;
+		final int newCapacity = Math.max(capacity, this.ids.length * 2);
+		this.ids = Arrays.copyOf(this.ids, newCapacity);
+		this.x = Arrays.copyOf(this.x, newCapacity);
+		this.y = Arrays.copyOf(this.y, newCapacity);
+		this.vx = Arrays.copyOf(this.vx, newCapacity);
+		this.vy = Arrays.copyOf(this.vy, newCapacity);
+		this.mass = Arrays.copyOf(this.mass, newCapacity);
+		this.charge = Arrays.copyOf(this.charge, newCapacity);
+		this.radius = Arrays.copyOf(this.radius, newCapacity);
+		this.ax = Arrays.copyOf(this.ax, newCapacity);
+		this.ay = Arrays.copyOf(this.ay, newCapacity);
+		this.removed = Arrays.copyOf(this.removed, newCapacity);
+	}
+}
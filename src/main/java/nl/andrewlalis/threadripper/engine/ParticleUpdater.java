@@ -1,83 +1,70 @@
 package nl.andrewlalis.threadripper.engine;
 
-import lombok.extern.slf4j.Slf4j;
-import nl.andrewlalis.threadripper.particle.Particle;
-
-import java.util.HashSet;
-import java.util.Set;
-import java.util.concurrent.Callable;
+import lombok.Getter;
 
 /**
- * Callable which is dedicated to finding the net force which is applied to a
- * particular particle of interest, with respect to all other particles.
+ * Task which is dedicated to finding the net force which is applied to each
+ * particle in a range of focus particles, with respect to all other particles.
+ * The result is written directly into the particle store's acceleration
+ * arrays. An updater holds no per-particle state, so one instance can be used
+ * by many threads at once, for disjoint ranges.
  */
-@Slf4j
-public class ParticleUpdater implements Callable<ParticleUpdate> {
-	private final Particle focusParticle;
-	private final Set<Particle> particles;
-	private final boolean allowCollision;
+public class ParticleUpdater implements StepExecutor.RangeTask {
+	@Getter
+	private final ParticleStore store;
 
-	public ParticleUpdater(
-			Particle focusParticle,
-			Set<Particle> particles,
-			boolean allowCollision
-	) {
-		this.focusParticle = focusParticle;
-		this.particles = particles;
-		this.allowCollision = allowCollision;
+	public ParticleUpdater(ParticleStore store) {
+		this.store = store;
 	}
 
 	@Override
-	public ParticleUpdate call() throws Exception {
-		double accelerationX = 0L;
-		double accelerationY = 0L;
-		Set<Particle> collidesWith = new HashSet<>();
-		for (Particle particle : this.particles) {
-			if (!particle.equals(this.focusParticle)) {
-				Vec2 partialAcceleration = this.computeAcceleration(particle);
-				accelerationX += partialAcceleration.getX();
-				accelerationY += partialAcceleration.getY();
-
-				// Collision detection:
-				final double distance = this.focusParticle.getPosition().distance(particle.getPosition());
-				if (
-						Math.abs(this.focusParticle.getRadius() - particle.getRadius()) <= distance
-						&& distance <= (this.focusParticle.getRadius() + particle.getRadius())
-				) {
-					collidesWith.add(particle);
+	public void run(int from, int to) {
+		final double[] ax = this.store.getAx();
+		final double[] ay = this.store.getAy();
+		final int size = this.store.getSize();
+		for (int focus = from; focus < to; focus++) {
+			ax[focus] = 0.0;
+			ay[focus] = 0.0;
+			for (int other = 0; other < size; other++) {
+				if (other != focus) {
+					this.computeAcceleration(focus, other);
 				}
 			}
 		}
-		return new ParticleUpdate(this.focusParticle, new Vec2(accelerationX, accelerationY), collidesWith);
 	}
 
 	/**
-	 * Computes the acceleration which another particle imparts on this updater's
-	 * focus particle.
-	 * @param other The other particle which is acting upon the focus particle.
-	 * @return The acceleration, in m/s^2, which the focus particle experiences
-	 * from this particle.
+	 * Computes the acceleration which another particle imparts on a focus
+	 * particle, and adds it to the focus particle's acceleration.
+	 * @param focus The index of the focus particle.
+	 * @param other The index of the other particle which is acting upon the
+	 *              focus particle.
 	 */
-	private Vec2 computeAcceleration(Particle other) {
-		final double radius = this.focusParticle.getPosition().distance(other.getPosition());
-		final double dY = other.getPosition().getY() - this.focusParticle.getPosition().getY();
-		final double dX = other.getPosition().getX() - this.focusParticle.getPosition().getX();
+	private void computeAcceleration(int focus, int other) {
+		final double[] x = this.store.getX();
+		final double[] y = this.store.getY();
+		final double[] mass = this.store.getMass();
+		final double[] charge = this.store.getCharge();
+
+		final double dY = y[other] - y[focus];
+		final double dX = x[other] - x[focus];
+		final double radius = Math.sqrt(Math.pow(dX, 2) + Math.pow(dY, 2));
 
 		final double angle = Math.atan2(dY, dX);
+		final double cos = Math.cos(angle);
+		final double sin = Math.sin(angle);
 
-		final double gravityNewtons = Constants.G * (this.focusParticle.getMass() * other.getMass()) / Math.pow(radius, 2);
-		final double gravityAcceleration = gravityNewtons / this.focusParticle.getMass();
-		final Vec2 gravityAccelerationVector = Vec2.fromPolar(gravityAcceleration, angle);
+		final double gravityNewtons = Constants.G * (mass[focus] * mass[other]) / Math.pow(radius, 2);
+		final double gravityAcceleration = gravityNewtons / mass[focus];
 
-		final double emNewtons = Constants.Ke * (this.focusParticle.getCharge() * other.getCharge()) / Math.pow(radius, 2);
+		final double emNewtons = Constants.Ke * (charge[focus] * charge[other]) / Math.pow(radius, 2);
 		final boolean isRepulsion = emNewtons < 0.0;
-		double emAcceleration = emNewtons / this.focusParticle.getMass();
+		double emAcceleration = emNewtons / mass[focus];
 		if (isRepulsion) {
 			emAcceleration *= -1.0;
 		}
-		final Vec2 emAccelerationVector = Vec2.fromPolar(emAcceleration, angle);
 
-		final Vec2 totalAcceleration = gravityAccelerationVector.add(emAccelerationVector);
-		return totalAcceleration;
+		this.store.getAx()[focus] += gravityAcceleration * cos + emAcceleration * cos;
+		this.store.getAy()[focus] += gravityAcceleration * sin + emAcceleration * sin;
 	}
 }
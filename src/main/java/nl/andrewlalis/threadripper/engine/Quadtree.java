@@ -0,0 +1,231 @@
+package nl.andrewlalis.threadripper.engine;
+
+import java.util.Arrays;
+
+/**
+ * A quadtree over some of the particles in a store, which records the mass
+ * and charge monopole of every node, for use by the
+ * {@link BarnesHutForceSolver}. The nodes are kept in flat arrays which are
+ * reused from one build to the next, so rebuilding the tree every step does
+ * not allocate once the arrays are large enough.
+ * <p>
+ *     Children are always allocated after their parent, so a node's index is
+ *     always lower than that of any of its descendants.
+ * </p>
+ */
+class Quadtree {
+	/**
+	 * The maximum depth of the tree. Leaves at this depth may hold more than
+	 * one body, which prevents unbounded subdivision for coincident particles.
+	 */
+	static final int MAX_DEPTH = 32;
+	private static final int INITIAL_CAPACITY = 64;
+
+	int nodeCount;
+
+	/**
+	 * The four children of each node, or -1 for a missing child.
+	 */
+	int[] children;
+
+	/**
+	 * For leaf nodes, the first body in the leaf's chain of bodies, or -1 if
+	 * the leaf is empty. Further bodies are linked by the solver's next array.
+	 */
+	int[] firstBody;
+	boolean[] internal;
+	int[] depth;
+
+	double[] centerX;
+	double[] centerY;
+	double[] halfSize;
+
+	/**
+	 * The total mass of each node, and its center of mass.
+	 */
+	double[] mass;
+	double[] massX;
+	double[] massY;
+
+	/**
+	 * The total absolute charge of each node, and its center of charge.
+	 */
+	double[] absCharge;
+	double[] chargeX;
+	double[] chargeY;
+
+	Quadtree() {
+		this.allocateArrays(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Builds the tree from scratch.
+	 * @param store The store containing the particles.
+	 * @param indices An array containing the indices of the particles to add.
+	 * @param from The first position in the indices array to add, inclusive.
+	 * @param to The last position in the indices array to add, exclusive.
+	 * @param centerX The x-coordinate of the center of the tree's root.
+	 * @param centerY The y-coordinate of the center of the tree's root.
+	 * @param halfSize Half of the width of the tree's root.
+	 * @param next Array in which bodies sharing a leaf are linked together.
+	 */
+	void build(
+			ParticleStore store,
+			int[] indices,
+			int from,
+			int to,
+			double centerX,
+			double centerY,
+			double halfSize,
+			int[] next
+	) {
+		this.nodeCount = 0;
+		if (from == to) return;
+		final int root = this.allocateNode(centerX, centerY, halfSize, 0);
+		final double[] x = store.getX();
+		final double[] y = store.getY();
+		for (int k = from; k < to; k++) {
+			this.insert(x, y, root, indices[k], next);
+		}
+		this.computeMoments(store, next);
+	}
+
+	private void insert(double[] x, double[] y, int node, int body, int[] next) {
+		while (true) {
+			if (this.internal[node]) {
+				node = this.childFor(node, x[body], y[body]);
+				continue;
+			}
+			final int existing = this.firstBody[node];
+			if (existing == -1) {
+				this.firstBody[node] = body;
+				next[body] = -1;
+				return;
+			}
+			if (this.depth[node] >= MAX_DEPTH) {
+				next[body] = existing;
+				this.firstBody[node] = body;
+				return;
+			}
+			// Split the leaf, moving its single body down one level, and then
+			// try again to insert the new body into the now-internal node.
+			this.internal[node] = true;
+			this.firstBody[node] = -1;
+			final int child = this.childFor(node, x[existing], y[existing]);
+			this.firstBody[child] = existing;
+			next[existing] = -1;
+		}
+	}
+
+	private int childFor(int node, double px, double py) {
+		final double cx = this.centerX[node];
+		final double cy = this.centerY[node];
+		final int quadrant = (px >= cx ? 1 : 0) | (py >= cy ? 2 : 0);
+		final int slot = node * 4 + quadrant;
+		int child = this.children[slot];
+		if (child == -1) {
+			final double half = this.halfSize[node] / 2.0;
+			child = this.allocateNode(
+					(quadrant & 1) == 0 ? cx - half : cx + half,
+					(quadrant & 2) == 0 ? cy - half : cy + half,
+					half,
+					this.depth[node] + 1
+			);
+			this.children[slot] = child;
+		}
+		return child;
+	}
+
+	/**
+	 * Computes the mass and charge moments of every node, from the leaves up.
+	 */
+	private void computeMoments(ParticleStore store, int[] next) {
+		final double[] x = store.getX();
+		final double[] y = store.getY();
+		final double[] particleMass = store.getMass();
+		final double[] particleCharge = store.getCharge();
+		for (int node = this.nodeCount - 1; node >= 0; node--) {
+			double m = 0.0;
+			double mx = 0.0;
+			double my = 0.0;
+			double q = 0.0;
+			double qx = 0.0;
+			double qy = 0.0;
+			if (this.internal[node]) {
+				for (int quadrant = 0; quadrant < 4; quadrant++) {
+					final int child = this.children[node * 4 + quadrant];
+					if (child == -1) continue;
+					m += this.mass[child];
+					mx += this.mass[child] * this.massX[child];
+					my += this.mass[child] * this.massY[child];
+					q += this.absCharge[child];
+					qx += this.absCharge[child] * this.chargeX[child];
+					qy += this.absCharge[child] * this.chargeY[child];
+				}
+			} else {
+				for (int body = this.firstBody[node]; body != -1; body = next[body]) {
+					final double bodyCharge = Math.abs(particleCharge[body]);
+					m += particleMass[body];
+					mx += particleMass[body] * x[body];
+					my += particleMass[body] * y[body];
+					q += bodyCharge;
+					qx += bodyCharge * x[body];
+					qy += bodyCharge * y[body];
+				}
+			}
+			this.mass[node] = m;
+			this.massX[node] = m > 0.0 ? mx / m : this.centerX[node];
+			this.massY[node] = m > 0.0 ? my / m : this.centerY[node];
+			this.absCharge[node] = q;
+			this.chargeX[node] = q > 0.0 ? qx / q : this.centerX[node];
+			this.chargeY[node] = q > 0.0 ? qy / q : this.centerY[node];
+		}
+	}
+
+	private int allocateNode(double centerX, double centerY, double halfSize, int depth) {
+		if (this.nodeCount == this.depth.length) {
+			this.allocateArrays(this.depth.length * 2);
+		}
+		final int node = this.nodeCount++;
+		Arrays.fill(this.children, node * 4, node * 4 + 4, -1);
+		this.firstBody[node] = -1;
+		this.internal[node] = false;
+		this.depth[node] = depth;
+		this.centerX[node] = centerX;
+		this.centerY[node] = centerY;
+		this.halfSize[node] = halfSize;
+		return node;
+	}
+
+	private void allocateArrays(int capacity) {
+		if (this.depth == null) {
+			this.children = new int[capacity * 4];
+			this.firstBody = new int[capacity];
+			this.internal = new boolean[capacity];
+			this.depth = new int[capacity];
+			this.centerX = new double[capacity];
+			this.centerY = new double[capacity];
+			this.halfSize = new double[capacity];
+			this.mass = new double[capacity];
+			this.massX = new double[capacity];
+			this.massY = new double[capacity];
+			this.absCharge = new double[capacity];
+			this.chargeX = new double[capacity];
+			this.chargeY = new double[capacity];
+		} else {
+			this.children = Arrays.copyOf(this.children, capacity * 4);
+			this.firstBody = Arrays.copyOf(this.firstBody, capacity);
+			this.internal = Arrays.copyOf(this.internal, capacity);
+			this.depth = Arrays.copyOf(this.depth, capacity);
+			this.centerX = Arrays.copyOf(this.centerX, capacity);
+			this.centerY = Arrays.copyOf(this.centerY, capacity);
+			this.halfSize = Arrays.copyOf(this.halfSize, capacity);
+			this.mass = Arrays.copyOf(this.mass, capacity);
+			this.massX = Arrays.copyOf(this.massX, capacity);
+			this.massY = Arrays.copyOf(this.massY, capacity);
+			this.absCharge = Arrays.copyOf(this.absCharge, capacity);
+			this.chargeX = Arrays.copyOf(this.chargeX, capacity);
+			this.chargeY = Arrays.copyOf(this.chargeY, capacity);
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package nl.andrewlalis.threadripper.engine;
+
+/**
+ * Exact force solver which sums the contribution of every other particle
+ * directly over the store's primitive arrays, using only a square root and a
+ * division per pair, instead of the trigonometry and temporary vectors of the
+ * {@link ParticleUpdater}. It gives the same accelerations as the
+ * {@link DirectForceSolver}, up to rounding.
+ * <p>
+ *     This is also the fallback for {@link ForceSolverType#VECTOR}, when the
+ *     vectorized solver is not available.
+ * </p>
+ */
+public class ScalarForceSolver implements ForceSolver {
+	private static final int CHUNK_SIZE = 64;
+
+	@Override
+	public long computeAccelerations(ParticleStore store, StepExecutor executor) {
+		executor.forEach(store.getSize(), CHUNK_SIZE, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				computeAcceleration(store, i);
+			}
+		});
+		final long size = store.getSize();
+		return size * (size - 1);
+	}
+
+	@Override
+	public long computeAccelerations(ParticleStore store, int[] targets, int targetCount, StepExecutor executor) {
+		executor.forEach(targetCount, CHUNK_SIZE, (from, to) -> {
+			for (int k = from; k < to; k++) {
+				computeAcceleration(store, targets[k]);
+			}
+		});
+		return (long) targetCount * (store.getSize() - 1);
+	}
+
+	/**
+	 * Computes the acceleration of one particle due to all the others, and
+	 * writes it into the store.
+	 * @param store The particles.
+	 * @param i The index of the particle.
+	 */
+	static void computeAcceleration(ParticleStore store, int i) {
+		final double[] x = store.getX();
+		final double[] y = store.getY();
+		final double[] mass = store.getMass();
+		final double[] charge = store.getCharge();
+		final double xi = x[i];
+		final double yi = y[i];
+		final double chargeFactor = Constants.Ke * Math.abs(charge[i]) / mass[i];
+		double accelerationX = 0.0;
+		double accelerationY = 0.0;
+		for (int j = 0; j < store.getSize(); j++) {
+			final double dX = x[j] - xi;
+			final double dY = y[j] - yi;
+			final double distanceSquared = dX * dX + dY * dY;
+			// This also skips the particle itself.
+			if (distanceSquared == 0.0) continue;
+			final double inverseDistance = 1.0 / Math.sqrt(distanceSquared);
+			final double magnitude = (Constants.G * mass[j] + chargeFactor * Math.abs(charge[j]))
+					* inverseDistance * inverseDistance * inverseDistance;
+			accelerationX += magnitude * dX;
+			accelerationY += magnitude * dY;
+		}
+		store.getAx()[i] = accelerationX;
+		store.getAy()[i] = accelerationY;
+	}
+}
@@ -0,0 +1,65 @@
+package nl.andrewlalis.threadripper.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes {@link ChamberSnapshot}s from the simulation to any number of
+ * readers, without either side ever waiting for the other. The publisher
+ * keeps a small pool of snapshots: each new frame is written into one which
+ * is neither the latest nor held by a reader, and then swapped in through an
+ * atomic reference. With one reader, three snapshots are enough; the pool
+ * only grows if readers hold on to more frames than that.
+ */
+public class SnapshotPublisher {
+	private static final int INITIAL_POOL_SIZE = 3;
+
+	private final AtomicReference<ChamberSnapshot> latest;
+	private final List<ChamberSnapshot> pool;
+
+	public SnapshotPublisher() {
+		this.pool = new ArrayList<>(INITIAL_POOL_SIZE);
+		for (int i = 0; i < INITIAL_POOL_SIZE; i++) {
+			this.pool.add(new ChamberSnapshot());
+		}
+		this.latest = new AtomicReference<>(this.pool.get(0));
+	}
+
+	/**
+	 * Publishes a copy of the store's particles as the latest snapshot. Only
+	 * the publishing side synchronizes; readers never block.
+	 * @param store The particles to publish.
+	 * @param stepCount The number of steps simulated so far.
+	 * @param simulationTime The simulated time so far, in seconds.
+	 */
+	public synchronized void publish(ParticleStore store, long stepCount, double simulationTime) {
+		final ChamberSnapshot snapshot = this.claimFreeSnapshot();
+		snapshot.fill(store, stepCount, simulationTime);
+		this.latest.set(snapshot);
+	}
+
+	/**
+	 * Takes a reference to the most recently published snapshot. The caller
+	 * must release it when done.
+	 * @return The latest snapshot, which is empty if nothing has been
+	 * published yet.
+	 */
+	public ChamberSnapshot acquire() {
+		while (true) {
+			final ChamberSnapshot snapshot = this.latest.get();
+			if (snapshot.tryAcquire()) return snapshot;
+		}
+	}
+
+	private ChamberSnapshot claimFreeSnapshot() {
+		final ChamberSnapshot current = this.latest.get();
+		for (ChamberSnapshot snapshot : this.pool) {
+			if (snapshot != current && snapshot.tryClaim()) return snapshot;
+		}
+		final ChamberSnapshot snapshot = new ChamberSnapshot();
+		snapshot.tryClaim();
+		this.pool.add(snapshot);
+		return snapshot;
+	}
+}
@@ -0,0 +1,20 @@
+package nl.andrewlalis.threadripper.engine;
+
+/**
+ * Anything which publishes {@link ChamberSnapshot}s to be drawn, such as a
+ * running chamber, or the replay of a recorded one.
+ */
+public interface SnapshotSource {
+	/**
+	 * Takes a reference to the latest snapshot, which the caller must
+	 * release once it's no longer needed. This never blocks.
+	 * @return The latest snapshot.
+	 */
+	ChamberSnapshot acquireSnapshot();
+
+	/**
+	 * @return The number of simulated seconds which currently pass per real
+	 * second, which is zero while paused.
+	 */
+	double getSimulationRate();
+}
@@ -0,0 +1,111 @@
+package nl.andrewlalis.threadripper.engine;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Executes the parallel parts of a simulation step on a work-stealing
+ * {@link ForkJoinPool}. Work is described as a range of indices, which is
+ * recursively split in half until the pieces are no larger than a given chunk
+ * size, so idle threads can steal whole chunks from busy ones. Each call waits
+ * for the entire range with a single join.
+ */
+public class StepExecutor {
+	private ForkJoinPool pool;
+
+	/**
+	 * A piece of work over a contiguous range of indices.
+	 */
+	@FunctionalInterface
+	public interface RangeTask {
+		/**
+		 * @param from The first index to process, inclusive.
+		 * @param to The last index to process, exclusive.
+		 */
+		void run(int from, int to);
+	}
+
+	/**
+	 * Constructs an executor with one thread for each available processor.
+	 */
+	public StepExecutor() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public StepExecutor(int threadCount) {
+		this.pool = new ForkJoinPool(Math.max(1, threadCount));
+	}
+
+	/**
+	 * Sets the number of threads to use. Any work which is already running
+	 * finishes on the old threads.
+	 * @param threadCount The number of threads, which must be positive.
+	 */
+	public synchronized void setThreadCount(int threadCount) {
+		if (threadCount > 0 && threadCount != this.pool.getParallelism()) {
+			final ForkJoinPool oldPool = this.pool;
+			this.pool = new ForkJoinPool(threadCount);
+			oldPool.shutdown();
+		}
+	}
+
+	public synchronized int getThreadCount() {
+		return this.pool.getParallelism();
+	}
+
+	/**
+	 * Runs a task over all indices from 0 to count, in parallel, and waits for
+	 * it to finish. Any exception thrown by the task is rethrown here.
+	 * @param count The number of indices.
+	 * @param chunkSize The largest number of indices to give to one call of
+	 *                  the task.
+	 * @param task The task to run.
+	 */
+	public void forEach(int count, int chunkSize, RangeTask task) {
+		if (count <= 0) return;
+		final int grain = Math.max(1, chunkSize);
+		if (count <= grain) {
+			task.run(0, count);
+			return;
+		}
+		final ForkJoinPool pool;
+		synchronized (this) {
+			pool = this.pool;
+		}
+		pool.invoke(new RangeAction(task, 0, count, grain));
+	}
+
+	/**
+	 * Stops all threads once any current work is finished.
+	 */
+	public synchronized void shutdown() {
+		this.pool.shutdown();
+	}
+
+	private static class RangeAction extends RecursiveAction {
+		private final RangeTask task;
+		private final int from;
+		private final int to;
+		private final int chunkSize;
+
+		RangeAction(RangeTask task, int from, int to, int chunkSize) {
+			this.task = task;
+			this.from = from;
+			this.to = to;
+			this.chunkSize = chunkSize;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from <= this.chunkSize) {
+				this.task.run(this.from, this.to);
+				return;
+			}
+			final int middle = (this.from + this.to) >>> 1;
+			invokeAll(
+					new RangeAction(this.task, this.from, middle, this.chunkSize),
+					new RangeAction(this.task, middle, this.to, this.chunkSize)
+			);
+		}
+	}
+}
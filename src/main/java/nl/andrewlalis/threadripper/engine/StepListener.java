@@ -0,0 +1,17 @@
+package nl.andrewlalis.threadripper.engine;
+
+/**
+ * Receives the snapshot of each step which a {@link ParticleChamber}
+ * simulates, for example to record it.
+ */
+@FunctionalInterface
+public interface StepListener {
+	/**
+	 * Called on the simulating thread at the end of each step. The listener
+	 * is given its own reference to the step's snapshot, which it must
+	 * release, either right away or later on another thread. This should
+	 * return quickly, since the next step waits for it.
+	 * @param snapshot The snapshot which was published for the step.
+	 */
+	void stepCompleted(ChamberSnapshot snapshot);
+}
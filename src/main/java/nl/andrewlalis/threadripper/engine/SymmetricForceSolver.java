@@ -0,0 +1,147 @@
+package nl.andrewlalis.threadripper.engine;
+
+import java.util.Arrays;
+
+/**
+ * Exact force solver which visits each unordered pair of particles only once,
+ * and applies equal and opposite forces to both of them, following Newton's
+ * third law. This does half of the arithmetic of the {@link DirectForceSolver},
+ * and gives the same results up to rounding.
+ * <p>
+ *     Particles are grouped into tiles which fit comfortably in cache, and
+ *     the pair loop runs over pairs of tiles. The rows of tiles are dealt out
+ *     to a fixed number of tasks, each of which sums its forces into its own
+ *     buffer, so that no synchronization is needed. The buffers are added up
+ *     in a fixed order at the end of the step, so the result is the same
+ *     every time for a given thread count.
+ * </p>
+ * <p>
+ *     When only some particles need accelerations, as with the block
+ *     timestep integrator or a domain worker, pairing them up doesn't help,
+ *     so each target's row is summed directly, like the
+ *     {@link ScalarForceSolver} does.
+ * </p>
+ */
+public class SymmetricForceSolver implements ForceSolver {
+	/**
+	 * The number of particles in each tile. Two tiles' worth of positions,
+	 * masses and charges take up 16 KB.
+	 */
+	private static final int TILE_SIZE = 256;
+	private static final int REDUCE_CHUNK_SIZE = 4096;
+	private static final int TARGET_CHUNK_SIZE = 64;
+
+	private double[][] forceX;
+	private double[][] forceY;
+
+	public SymmetricForceSolver() {
+		this.forceX = new double[0][];
+		this.forceY = new double[0][];
+	}
+
+	@Override
+	public long computeAccelerations(ParticleStore store, StepExecutor executor) {
+		final int size = store.getSize();
+		if (size == 0) return 0;
+		final int tileCount = (size + TILE_SIZE - 1) / TILE_SIZE;
+		final int taskCount = Math.max(1, Math.min(tileCount, executor.getThreadCount()));
+		this.ensureBuffers(taskCount, size);
+
+		executor.forEach(taskCount, 1, (from, to) -> {
+			for (int task = from; task < to; task++) {
+				this.accumulateForces(store, task, taskCount, tileCount);
+			}
+		});
+
+		final double[] mass = store.getMass();
+		final double[] ax = store.getAx();
+		final double[] ay = store.getAy();
+		executor.forEach(size, REDUCE_CHUNK_SIZE, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				double fx = 0.0;
+				double fy = 0.0;
+				for (int task = 0; task < taskCount; task++) {
+					fx += this.forceX[task][i];
+					fy += this.forceY[task][i];
+				}
+				ax[i] = fx / mass[i];
+				ay[i] = fy / mass[i];
+			}
+		});
+		return (long) size * (size - 1) / 2;
+	}
+
+	@Override
+	public long computeAccelerations(ParticleStore store, int[] targets, int targetCount, StepExecutor executor) {
+		executor.forEach(targetCount, TARGET_CHUNK_SIZE, (from, to) -> {
+			for (int k = from; k < to; k++) {
+				ScalarForceSolver.computeAcceleration(store, targets[k]);
+			}
+		});
+		return (long) targetCount * (store.getSize() - 1);
+	}
+
+	/**
+	 * Computes the forces for all rows of tiles which belong to one task. Rows
+	 * are dealt out back and forth (0, 1, ..., n-1, n-1, ..., 1, 0, 0, 1, ...)
+	 * because each row has one fewer tile pair than the one before it.
+	 */
+	private void accumulateForces(ParticleStore store, int task, int taskCount, int tileCount) {
+		final double[] fx = this.forceX[task];
+		final double[] fy = this.forceY[task];
+		Arrays.fill(fx, 0, store.getSize(), 0.0);
+		Arrays.fill(fy, 0, store.getSize(), 0.0);
+		for (int row = 0; row < tileCount; row++) {
+			final int position = row % (2 * taskCount);
+			if (position == task || position == 2 * taskCount - 1 - task) {
+				for (int column = row; column < tileCount; column++) {
+					this.accumulateTile(store, fx, fy, row, column);
+				}
+			}
+		}
+	}
+
+	private void accumulateTile(ParticleStore store, double[] fx, double[] fy, int rowTile, int columnTile) {
+		final double[] x = store.getX();
+		final double[] y = store.getY();
+		final double[] mass = store.getMass();
+		final double[] charge = store.getCharge();
+		final int size = store.getSize();
+		final int rowStart = rowTile * TILE_SIZE;
+		final int rowEnd = Math.min(size, rowStart + TILE_SIZE);
+		final int columnStart = columnTile * TILE_SIZE;
+		final int columnEnd = Math.min(size, columnStart + TILE_SIZE);
+
+		for (int i = rowStart; i < rowEnd; i++) {
+			final double xi = x[i];
+			final double yi = y[i];
+			final double gravityI = Constants.G * mass[i];
+			final double chargeI = Constants.Ke * Math.abs(charge[i]);
+			double fxi = 0.0;
+			double fyi = 0.0;
+			for (int j = rowTile == columnTile ? i + 1 : columnStart; j < columnEnd; j++) {
+				final double dX = x[j] - xi;
+				final double dY = y[j] - yi;
+				final double distanceSquared = dX * dX + dY * dY;
+				// Coincident particles exert no well-defined force on each other.
+				if (distanceSquared == 0.0) continue;
+				final double force = (gravityI * mass[j] + chargeI * Math.abs(charge[j]))
+						/ (distanceSquared * Math.sqrt(distanceSquared));
+				fxi += force * dX;
+				fyi += force * dY;
+				fx[j] -= force * dX;
+				fy[j] -= force * dY;
+			}
+			fx[i] += fxi;
+			fy[i] += fyi;
+		}
+	}
+
+	private void ensureBuffers(int taskCount, int size) {
+		if (this.forceX.length != taskCount || this.forceX[0].length < size) {
+			final int capacity = Math.max(size, this.forceX.length > 0 ? this.forceX[0].length : 0);
+			this.forceX = new double[taskCount][capacity];
+			this.forceY = new double[taskCount][capacity];
+		}
+	}
+}
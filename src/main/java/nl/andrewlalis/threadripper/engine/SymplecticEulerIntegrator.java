@@ -0,0 +1,31 @@
+package nl.andrewlalis.threadripper.engine;
+
+/**
+ * The symplectic (semi-implicit) Euler method, which updates each particle's
+ * velocity first, and then moves it with the new velocity. It is only
+ * first-order accurate, but its energy error stays bounded instead of
+ * growing, which makes it a cheap and stable default.
+ */
+public class SymplecticEulerIntegrator implements Integrator {
+	private static final int CHUNK_SIZE = 4096;
+
+	@Override
+	public long step(ParticleStore store, ForceSolver solver, StepExecutor executor, double deltaTime) {
+		final long interactions = solver.computeAccelerations(store, executor);
+		final double[] x = store.getX();
+		final double[] y = store.getY();
+		final double[] vx = store.getVx();
+		final double[] vy = store.getVy();
+		final double[] ax = store.getAx();
+		final double[] ay = store.getAy();
+		executor.forEach(store.getSize(), CHUNK_SIZE, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				vx[i] += ax[i] * deltaTime;
+				vy[i] += ay[i] * deltaTime;
+				x[i] += vx[i] * deltaTime;
+				y[i] += vy[i] * deltaTime;
+			}
+		});
+		return interactions;
+	}
+}
@@ -0,0 +1,37 @@
+package nl.andrewlalis.threadripper.engine;
+
+import nl.andrewlalis.threadripper.metrics.StepMetrics;
+
+/**
+ * Wraps a chamber's force solver to measure how long it takes, since the
+ * forces are computed from inside the integrator.
+ */
+class TimedForceSolver implements ForceSolver {
+	private final ForceSolver solver;
+	private final StepMetrics metrics;
+
+	TimedForceSolver(ForceSolver solver, StepMetrics metrics) {
+		this.solver = solver;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public long computeAccelerations(ParticleStore store, StepExecutor executor) {
+		final long startNanos = System.nanoTime();
+		try {
+			return this.solver.computeAccelerations(store, executor);
+		} finally {
+			this.metrics.recordNestedPhase(StepMetrics.Phase.FORCES, System.nanoTime() - startNanos);
+		}
+	}
+
+	@Override
+	public long computeAccelerations(ParticleStore store, int[] targets, int targetCount, StepExecutor executor) {
+		final long startNanos = System.nanoTime();
+		try {
+			return this.solver.computeAccelerations(store, targets, targetCount, executor);
+		} finally {
+			this.metrics.recordNestedPhase(StepMetrics.Phase.FORCES, System.nanoTime() - startNanos);
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package nl.andrewlalis.threadripper.engine;
+
+/**
+ * The velocity Verlet method, also known as kick-drift-kick leapfrog. Each
+ * step gives every particle half a step of acceleration, moves it for a
+ * whole step, computes the new accelerations, and gives it the other half.
+ * It is second-order accurate and symplectic, so it allows much larger
+ * steps than either Euler method for the same accuracy.
+ * <p>
+ *     The accelerations at the end of one step are reused at the start of
+ *     the next, so there is still only one force evaluation per step. They
+ *     are only computed again when the store has changed in between, for
+ *     example because particles were merged or added.
+ * </p>
+ */
+public class VelocityVerletIntegrator implements Integrator {
+	private static final int CHUNK_SIZE = 4096;
+
+	/**
+	 * The store, solver and store modification count for which the cached
+	 * accelerations were computed.
+	 */
+	private ParticleStore cachedStore;
+	private ForceSolver cachedSolver;
+	private long cachedModificationCount;
+
+	@Override
+	public long step(ParticleStore store, ForceSolver solver, StepExecutor executor, double deltaTime) {
+		long interactions = 0;
+		if (store != this.cachedStore
+				|| solver != this.cachedSolver
+				|| store.getModificationCount() != this.cachedModificationCount) {
+			interactions += solver.computeAccelerations(store, executor);
+		}
+
+		final double halfDeltaTime = deltaTime / 2.0;
+		final double[] x = store.getX();
+		final double[] y = store.getY();
+		final double[] vx = store.getVx();
+		final double[] vy = store.getVy();
+		final double[] ax = store.getAx();
+		final double[] ay = store.getAy();
+		executor.forEach(store.getSize(), CHUNK_SIZE, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				vx[i] += ax[i] * halfDeltaTime;
+				vy[i] += ay[i] * halfDeltaTime;
+				x[i] += vx[i] * deltaTime;
+				y[i] += vy[i] * deltaTime;
+			}
+		});
+
+		interactions += solver.computeAccelerations(store, executor);
+		executor.forEach(store.getSize(), CHUNK_SIZE, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				vx[i] += ax[i] * halfDeltaTime;
+				vy[i] += ay[i] * halfDeltaTime;
+			}
+		});
+
+		this.cachedStore = store;
+		this.cachedSolver = solver;
+		this.cachedModificationCount = store.getModificationCount();
+		return interactions;
+	}
+}
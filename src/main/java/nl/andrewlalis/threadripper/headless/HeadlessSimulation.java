@@ -0,0 +1,626 @@
+package nl.andrewlalis.threadripper.headless;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.andrewlalis.threadripper.distributed.DomainCoordinator;
+import nl.andrewlalis.threadripper.engine.BarnesHutForceSolver;
+import nl.andrewlalis.threadripper.engine.BlockTimestepIntegrator;
+import nl.andrewlalis.threadripper.engine.ChamberSnapshot;
+import nl.andrewlalis.threadripper.engine.FloatForceSolver;
+import nl.andrewlalis.threadripper.engine.ForceSolver;
+import nl.andrewlalis.threadripper.engine.ForceSolverType;
+import nl.andrewlalis.threadripper.engine.Integrator;
+import nl.andrewlalis.threadripper.engine.IntegratorType;
+import nl.andrewlalis.threadripper.engine.NeighbourListForceSolver;
+import nl.andrewlalis.threadripper.engine.ParticleChamber;
+import nl.andrewlalis.threadripper.engine.ParticleMeshForceSolver;
+import nl.andrewlalis.threadripper.engine.ParticleStore;
+import nl.andrewlalis.threadripper.engine.ScalarForceSolver;
+import nl.andrewlalis.threadripper.engine.StepExecutor;
+import nl.andrewlalis.threadripper.engine.SymplecticEulerIntegrator;
+import nl.andrewlalis.threadripper.engine.Vec2;
+import nl.andrewlalis.threadripper.io.ChamberCheckpoint;
+import nl.andrewlalis.threadripper.io.CheckpointScheduler;
+import nl.andrewlalis.threadripper.io.TrajectoryRecorder;
+import nl.andrewlalis.threadripper.metrics.PhaseStatistics;
+import nl.andrewlalis.threadripper.metrics.StepMetrics;
+import nl.andrewlalis.threadripper.particle.ParticleDistribution;
+import nl.andrewlalis.threadripper.particle.ParticleFactory;
+import nl.andrewlalis.threadripper.stream.BroadcastServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Batch entry point which drives a particle chamber as fast as possible,
+ * without any rendering or frame pacing, and reports how fast it ran. This
+ * class does not depend on JavaFX.
+ */
+@Slf4j
+public class HeadlessSimulation {
+	private static final String USAGE = String.join(System.lineSeparator(),
+			"Usage: HeadlessSimulation [options]",
+			"  --particles <n>     Number of particles to generate. Default 1000.",
+			"  --seed <n>          Seed for particle generation. Default 1.",
+			"  --distribution <name>",
+			"                      uniform, plummer or disk. Default uniform.",
+			"  --solver <name>     direct, symmetric, barnes-hut, scalar, vector,",
+			"                      particle-mesh, float or neighbour-list. Default direct.",
+			"  --theta <x>         Opening angle for the barnes-hut solver. Default 0.5.",
+			"  --grid <n>          Grid size for the particle-mesh solver, a power of two.",
+			"                      Default 256.",
+			"  --cutoff <m>        Distance beyond which particles don't interact, for the",
+			"                      neighbour-list solver. Default 25.",
+			"  --skin <m>          Extra distance within which the neighbour-list solver",
+			"                      lists neighbours, so its lists last for several steps.",
+			"                      Default 5.",
+			"  --integrator <name> explicit-euler, symplectic-euler, velocity-verlet or",
+			"                      block-timestep. Default symplectic-euler.",
+			"  --accuracy <x>      Time step accuracy for block-timestep. Default 0.1.",
+			"  --threads <n>       Number of worker threads. Default is one per processor.",
+			"  --compare-precision <bool>",
+			"                      Instead of a normal run, compare the float solver with",
+			"                      the scalar double precision solver: the error of their",
+			"                      accelerations, their speed, and how far apart the",
+			"                      particles are after running both. Default false.",
+			"  --dt <seconds>      Simulated time per step. Default 1/60.",
+			"  --steps <n>         Number of steps to run. Default 1000.",
+			"  --time <seconds>    Simulated time to run for, instead of a step count.",
+			"  --max-charge <c>    Charges are drawn from [-c, c]. Default 0.",
+			"  --collisions <bool> Whether particles merge on collision. Default true.",
+			"  --energy-every <n>  Measure the total energy at the start and end, and",
+			"                      every n steps if n > 0, to report the largest drift.",
+			"                      Each measurement costs about one exact step.",
+			"  --restore <file>    Continue from a checkpoint, instead of generating",
+			"                      particles. The checkpoint's collision setting is used.",
+			"  --checkpoint <file> Write a checkpoint to this file at the end of the run.",
+			"  --checkpoint-every <seconds>",
+			"                      Also write the checkpoint this often, in wall-clock",
+			"                      seconds, while running.",
+			"  --record <file>     Record the run's trajectory to this file, for replay.",
+			"  --record-every <n>  Only record every n-th step. Default 1. Frames are",
+			"                      dropped rather than slowing the run down.",
+			"  --workers <n>       Split the plane into n strips, each simulated by its own",
+			"                      worker process. Only the symplectic-euler integrator is",
+			"                      supported, the particle-mesh and neighbour-list solvers",
+			"                      aren't, and --threads is the number per worker. Every",
+			"                      worker still holds all the particles.",
+			"                      Default 0, which runs in this process.",
+			"  --spawn-workers <bool>",
+			"                      Start the workers as JVMs on this machine. Otherwise,",
+			"                      wait for workers started with DomainWorker --coordinator",
+			"                      <host:port>. Default true.",
+			"  --port <n>          Port for workers to connect to. Default any free port.",
+			"  --rebalance-every <n>",
+			"                      Steps between moving the strips to balance the workers'",
+			"                      loads. Default 50.",
+			"  --serve <port>      Stream the chamber's state to viewers which connect to",
+			"                      this port, such as StreamClient.",
+			"  --serve-fps <x>     Most frames per second to stream. Default 30.",
+			"  --serve-quantum <x> Precision of the streamed positions, in meters.",
+			"                      Default 0.01."
+	);
+
+	private final int particleCount;
+	private final long seed;
+	private final ParticleDistribution distribution;
+	private final double deltaTime;
+	private final double maxCharge;
+	private final long steps;
+	private final ForceSolverType solverType;
+	private final ForceSolver solver;
+	private final IntegratorType integratorType;
+	private final Integrator integrator;
+	private final boolean comparePrecision;
+	private final boolean measureEnergy;
+	private final long energyInterval;
+	private final Path restorePath;
+	private final Path checkpointPath;
+	private final double checkpointInterval;
+	private final Path recordPath;
+	private final int recordInterval;
+	private final boolean allowCollision;
+	private final int threadCount;
+	private final int workerCount;
+	private final boolean spawnWorkers;
+	private final int port;
+	private final int rebalanceInterval;
+	private final int servePort;
+	private final double serveFramesPerSecond;
+	private final double serveQuantum;
+
+	/**
+	 * Reads the simulation's configuration from command-line options.
+	 * @param options The options, as parsed by {@link #parseOptions(String[])}.
+	 * @throws IllegalArgumentException If any option has an invalid value.
+	 */
+	private HeadlessSimulation(Map<String, String> options) {
+		this.particleCount = Integer.parseInt(options.getOrDefault("particles", "1000"));
+		this.seed = Long.parseLong(options.getOrDefault("seed", "1"));
+		this.distribution = ParticleDistribution.fromName(options.getOrDefault("distribution", "uniform"));
+		this.deltaTime = Double.parseDouble(options.getOrDefault("dt", Double.toString(1.0 / 60.0)));
+		this.maxCharge = Double.parseDouble(options.getOrDefault("max-charge", "0"));
+		if (options.containsKey("time")) {
+			this.steps = (long) Math.ceil(Double.parseDouble(options.get("time")) / this.deltaTime);
+		} else {
+			this.steps = Long.parseLong(options.getOrDefault("steps", "1000"));
+		}
+		this.solverType = ForceSolverType.fromName(options.getOrDefault("solver", "direct"));
+		this.solver = this.solverType.create();
+		if (this.solver instanceof BarnesHutForceSolver && options.containsKey("theta")) {
+			((BarnesHutForceSolver) this.solver).setTheta(Double.parseDouble(options.get("theta")));
+		}
+		if (this.solver instanceof ParticleMeshForceSolver && options.containsKey("grid")) {
+			((ParticleMeshForceSolver) this.solver).setGridSize(Integer.parseInt(options.get("grid")));
+		}
+		if (this.solver instanceof NeighbourListForceSolver) {
+			final NeighbourListForceSolver neighbourSolver = (NeighbourListForceSolver) this.solver;
+			neighbourSolver.setCutoff(Double.parseDouble(options.getOrDefault("cutoff", Double.toString(NeighbourListForceSolver.DEFAULT_CUTOFF))));
+			neighbourSolver.setSkin(Double.parseDouble(options.getOrDefault("skin", Double.toString(NeighbourListForceSolver.DEFAULT_SKIN))));
+		}
+		this.integratorType = IntegratorType.fromName(options.getOrDefault("integrator", "symplectic-euler"));
+		this.integrator = this.integratorType.create();
+		if (this.integrator instanceof BlockTimestepIntegrator && options.containsKey("accuracy")) {
+			((BlockTimestepIntegrator) this.integrator).setAccuracy(Double.parseDouble(options.get("accuracy")));
+		}
+		this.comparePrecision = Boolean.parseBoolean(options.getOrDefault("compare-precision", "false"));
+		this.measureEnergy = options.containsKey("energy-every");
+		this.energyInterval = Long.parseLong(options.getOrDefault("energy-every", "0"));
+		this.restorePath = options.containsKey("restore") ? Path.of(options.get("restore")) : null;
+		this.checkpointPath = options.containsKey("checkpoint") ? Path.of(options.get("checkpoint")) : null;
+		this.checkpointInterval = Double.parseDouble(options.getOrDefault("checkpoint-every", "0"));
+		if (this.checkpointInterval > 0 && this.checkpointPath == null) {
+			throw new IllegalArgumentException("--checkpoint-every requires --checkpoint.");
+		}
+		this.recordPath = options.containsKey("record") ? Path.of(options.get("record")) : null;
+		this.recordInterval = Integer.parseInt(options.getOrDefault("record-every", "1"));
+		this.allowCollision = Boolean.parseBoolean(options.getOrDefault("collisions", "true"));
+		this.threadCount = Integer.parseInt(options.getOrDefault("threads", "0"));
+		this.workerCount = Integer.parseInt(options.getOrDefault("workers", "0"));
+		this.spawnWorkers = Boolean.parseBoolean(options.getOrDefault("spawn-workers", "true"));
+		this.port = Integer.parseInt(options.getOrDefault("port", "0"));
+		this.rebalanceInterval = Integer.parseInt(options.getOrDefault("rebalance-every", "50"));
+		this.servePort = Integer.parseInt(options.getOrDefault("serve", "-1"));
+		this.serveFramesPerSecond = Double.parseDouble(options.getOrDefault("serve-fps", "30"));
+		this.serveQuantum = Double.parseDouble(options.getOrDefault("serve-quantum", "0.01"));
+		if (this.workerCount > 0) {
+			if (this.servePort >= 0) {
+				throw new IllegalArgumentException("--workers can't be combined with --serve.");
+			}
+			if (!DomainCoordinator.supports(this.solverType)) {
+				throw new IllegalArgumentException("--workers doesn't support the particle-mesh or neighbour-list solvers.");
+			}
+			if (!(this.integrator instanceof SymplecticEulerIntegrator)) {
+				throw new IllegalArgumentException("--workers only supports the symplectic-euler integrator.");
+			}
+			if (this.recordPath != null || this.checkpointInterval > 0) {
+				throw new IllegalArgumentException("--workers can't be combined with --record or --checkpoint-every.");
+			}
+		}
+	}
+
+	public static void main(String[] args) {
+		final HeadlessSimulation simulation;
+		try {
+			final Map<String, String> options = parseOptions(args);
+			if (options.containsKey("help")) {
+				System.out.println(USAGE);
+				return;
+			}
+			simulation = new HeadlessSimulation(options);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(1);
+			return;
+		}
+		simulation.run();
+	}
+
+	private void run() {
+		final ParticleChamber chamber = new ParticleChamber();
+		chamber.setForceSolver(this.solver);
+		chamber.setIntegrator(this.integrator);
+		chamber.setAllowCollision(this.allowCollision);
+		chamber.getStepMetrics().registerMBean("headless");
+		if (this.threadCount > 0) {
+			chamber.setThreadCount(this.threadCount);
+		}
+
+		final ParticleFactory factory = new ParticleFactory(
+				0.1, 100000000000000.0,
+				-this.maxCharge, this.maxCharge,
+				0.5, 5,
+				new Vec2(0, 0), new Vec2(800, 800),
+				new Vec2(-50, -50), new Vec2(50, 50)
+		);
+		if (this.restorePath != null) {
+			try {
+				ChamberCheckpoint.restore(this.restorePath, chamber);
+			} catch (IOException e) {
+				log.error("Could not restore the checkpoint.", e);
+				chamber.shutdown();
+				return;
+			}
+			log.info("Restored {} particles at step {} from {}.",
+					chamber.getParticleCount(), chamber.getStepCount(), this.restorePath);
+		} else {
+			final long generateStartNanos = System.nanoTime();
+			chamber.generateParticles(factory, this.particleCount, this.distribution, this.seed);
+			log.info("Generated {} particles in {} ms.",
+					this.particleCount, (System.nanoTime() - generateStartNanos) / 1_000_000);
+		}
+		if (this.comparePrecision) {
+			this.comparePrecision(chamber);
+			return;
+		}
+		if (this.workerCount > 0) {
+			this.runDistributed(chamber);
+			return;
+		}
+		TrajectoryRecorder recorder = null;
+		if (this.recordPath != null) {
+			try {
+				recorder = new TrajectoryRecorder(this.recordPath, this.recordInterval);
+				chamber.addStepListener(recorder);
+			} catch (IOException e) {
+				log.error("Could not start recording the trajectory.", e);
+				chamber.shutdown();
+				return;
+			}
+		}
+		BroadcastServer server = null;
+		if (this.servePort >= 0) {
+			try {
+				server = new BroadcastServer(new InetSocketAddress(this.servePort), this.serveFramesPerSecond, this.serveQuantum);
+				chamber.addStepListener(server);
+			} catch (IOException e) {
+				log.error("Could not start the broadcast server.", e);
+				if (recorder != null) {
+					chamber.removeStepListener(recorder);
+					recorder.close();
+				}
+				chamber.shutdown();
+				return;
+			}
+		}
+		final CheckpointScheduler checkpointScheduler = this.checkpointInterval > 0
+				? new CheckpointScheduler(chamber, this.checkpointPath, this.checkpointInterval)
+				: null;
+
+		log.info("Running {} steps of {} seconds with {} particles, using the {} solver and {} integrator.",
+				this.steps, this.deltaTime, chamber.getParticleCount(),
+				this.solver.getClass().getSimpleName(), this.integrator.getClass().getSimpleName());
+		final double initialEnergy = this.measureEnergy ? chamber.computeTotalEnergy() : 0.0;
+		double maxEnergyDrift = 0.0;
+		long measuringNanos = 0L;
+		final long startNanos = System.nanoTime();
+		for (long step = 1; step <= this.steps; step++) {
+			chamber.updateParticles(this.deltaTime);
+			if (this.measureEnergy && this.energyInterval > 0 && step % this.energyInterval == 0 && step < this.steps) {
+				final long measureStartNanos = System.nanoTime();
+				maxEnergyDrift = Math.max(maxEnergyDrift, relativeDrift(initialEnergy, chamber.computeTotalEnergy()));
+				measuringNanos += System.nanoTime() - measureStartNanos;
+			}
+		}
+		final double elapsedSeconds = (System.nanoTime() - startNanos - measuringNanos) / 1_000_000_000.0;
+		final double finalEnergy = this.measureEnergy ? chamber.computeTotalEnergy() : 0.0;
+		final double finalEnergyDrift = relativeDrift(initialEnergy, finalEnergy);
+		maxEnergyDrift = Math.max(maxEnergyDrift, finalEnergyDrift);
+		if (checkpointScheduler != null) {
+			checkpointScheduler.close();
+		}
+		if (recorder != null) {
+			chamber.removeStepListener(recorder);
+			recorder.close();
+		}
+		if (server != null) {
+			chamber.removeStepListener(server);
+			server.close();
+		}
+		chamber.shutdown();
+		this.writeCheckpoint(chamber);
+
+		System.out.printf("Steps:                  %d%n", chamber.getStepCount());
+		System.out.printf("Simulated time:         %.3f s%n", chamber.getSimulationTime());
+		System.out.printf("Wall-clock time:        %.3f s%n", elapsedSeconds);
+		System.out.printf("Final particle count:   %d%n", chamber.getParticleCount());
+		System.out.printf("Steps/sec:              %.2f%n", chamber.getStepCount() / elapsedSeconds);
+		System.out.printf("Interactions:           %d%n", chamber.getInteractionCount());
+		System.out.printf("Interactions/sec:       %.4e%n", chamber.getInteractionCount() / elapsedSeconds);
+		if (recorder != null) {
+			System.out.printf("Recorded frames:        %d%n", recorder.getRecordedFrameCount());
+			System.out.printf("Dropped frames:         %d%n", recorder.getDroppedFrameCount());
+		}
+		if (server != null) {
+			System.out.printf("Streamed frames:        %d, %d sent, %d dropped%n",
+					server.getBroadcastFrameCount(), server.getSentFrameCount(), server.getDroppedFrameCount());
+			System.out.printf("Streamed bytes:         %d%n", server.getSentByteCount());
+		}
+		if (this.solver instanceof NeighbourListForceSolver) {
+			System.out.printf("Neighbour list builds:  %d%n", ((NeighbourListForceSolver) this.solver).getRebuildCount());
+		}
+		printStepMetrics(chamber.getStepMetrics());
+		if (this.measureEnergy) {
+			System.out.printf("Initial energy:         %.6e J%n", initialEnergy);
+			System.out.printf("Final energy:           %.6e J%n", finalEnergy);
+			System.out.printf("Final energy drift:     %.4e%n", finalEnergyDrift);
+			System.out.printf("Largest energy drift:   %.4e%n", maxEnergyDrift);
+		}
+	}
+
+	/**
+	 * Runs the simulation across worker processes, starting from the
+	 * chamber's particles, and puts the final particles back into the
+	 * chamber, so that they can be measured and saved as usual.
+	 */
+	private void runDistributed(ParticleChamber chamber) {
+		final double initialEnergy = this.measureEnergy ? chamber.computeTotalEnergy() : 0.0;
+		final InetSocketAddress address = this.spawnWorkers
+				? new InetSocketAddress(InetAddress.getLoopbackAddress(), this.port)
+				: new InetSocketAddress(this.port);
+		final double elapsedSeconds;
+		final DomainCoordinator coordinator;
+		try {
+			coordinator = new DomainCoordinator(this.workerCount, address);
+		} catch (IOException e) {
+			log.error("Could not start the coordinator.", e);
+			chamber.shutdown();
+			return;
+		}
+		try (coordinator) {
+			coordinator.setForceSolver(
+					this.solverType,
+					this.solver instanceof BarnesHutForceSolver ? ((BarnesHutForceSolver) this.solver).getTheta() : 0.5
+			);
+			coordinator.setDeltaTime(this.deltaTime);
+			coordinator.setAllowCollision(this.allowCollision);
+			coordinator.setThreadsPerWorker(this.threadCount);
+			coordinator.setRebalanceInterval(this.rebalanceInterval);
+			if (this.spawnWorkers) {
+				coordinator.spawnWorkers();
+			} else {
+				log.info("Waiting for {} workers to connect to port {}.",
+						this.workerCount, coordinator.getAddress().getPort());
+			}
+			try (ChamberSnapshot snapshot = chamber.acquireSnapshot()) {
+				coordinator.start(snapshot);
+			}
+			log.info("Running {} steps of {} seconds with {} particles on {} workers, using the {} solver.",
+					this.steps, this.deltaTime, chamber.getParticleCount(), this.workerCount,
+					this.solver.getClass().getSimpleName());
+			final long startNanos = System.nanoTime();
+			coordinator.run(this.steps);
+			elapsedSeconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+			chamber.restore(coordinator.finish(), coordinator.getStepCount(), coordinator.getSimulationTime());
+		} catch (IOException e) {
+			log.error("The distributed run failed.", e);
+			chamber.shutdown();
+			return;
+		}
+		final double finalEnergy = this.measureEnergy ? chamber.computeTotalEnergy() : 0.0;
+		chamber.shutdown();
+		this.writeCheckpoint(chamber);
+
+		System.out.printf("Workers:                %d%n", coordinator.getWorkerCount());
+		System.out.printf("Steps:                  %d%n", coordinator.getStepCount());
+		System.out.printf("Simulated time:         %.3f s%n", coordinator.getSimulationTime());
+		System.out.printf("Wall-clock time:        %.3f s%n", elapsedSeconds);
+		System.out.printf("Final particle count:   %d%n", chamber.getParticleCount());
+		System.out.printf("Steps/sec:              %.2f%n", this.steps / elapsedSeconds);
+		System.out.printf("Interactions:           %d%n", coordinator.getInteractionCount());
+		System.out.printf("Interactions/sec:       %.4e%n", coordinator.getInteractionCount() / elapsedSeconds);
+		System.out.printf("Exchanged bytes/step:   %.0f%n", (double) coordinator.getExchangedBytes() / this.steps);
+		System.out.printf("Rebalances:             %d, last imbalance %.3f%n",
+				coordinator.getRebalanceCount(), coordinator.getLastImbalance());
+		System.out.println("Worker timings (s):     compute exchange collision");
+		for (int rank = 0; rank < coordinator.getWorkerCount(); rank++) {
+			System.out.printf("  %-20d %8.3f %8.3f %8.3f%n", rank,
+					coordinator.getComputeNanos(rank) / 1_000_000_000.0,
+					coordinator.getExchangeNanos(rank) / 1_000_000_000.0,
+					coordinator.getCollisionNanos(rank) / 1_000_000_000.0);
+		}
+		if (this.measureEnergy) {
+			System.out.printf("Initial energy:         %.6e J%n", initialEnergy);
+			System.out.printf("Final energy:           %.6e J%n", finalEnergy);
+			System.out.printf("Final energy drift:     %.4e%n", relativeDrift(initialEnergy, finalEnergy));
+		}
+	}
+
+	/**
+	 * Compares the float solver with the scalar solver, which computes the
+	 * same forces in double precision, starting from the chamber's particles.
+	 * First both compute the accelerations of the same particles, and then
+	 * each runs its own copy of the chamber for the configured steps.
+	 */
+	private void comparePrecision(ParticleChamber chamber) {
+		final ParticleStore doubleStore;
+		final ParticleStore floatStore;
+		try (ChamberSnapshot snapshot = chamber.acquireSnapshot()) {
+			doubleStore = copyOf(snapshot);
+			floatStore = copyOf(snapshot);
+		}
+		chamber.shutdown();
+		final int size = doubleStore.getSize();
+		final StepExecutor executor = this.threadCount > 0 ? new StepExecutor(this.threadCount) : new StepExecutor();
+		final ScalarForceSolver doubleSolver = new ScalarForceSolver();
+		final FloatForceSolver floatSolver = new FloatForceSolver();
+		final double doubleSeconds = timeAccelerations(doubleSolver, doubleStore, executor);
+		final double floatSeconds = timeAccelerations(floatSolver, floatStore, executor);
+		executor.shutdown();
+
+		final double[] errors = new double[size];
+		int errorCount = 0;
+		for (int i = 0; i < size; i++) {
+			final double magnitude = Math.hypot(doubleStore.getAx()[i], doubleStore.getAy()[i]);
+			if (magnitude == 0.0) continue;
+			errors[errorCount++] = Math.hypot(
+					floatStore.getAx()[i] - doubleStore.getAx()[i],
+					floatStore.getAy()[i] - doubleStore.getAy()[i]
+			) / magnitude;
+		}
+		Arrays.sort(errors, 0, errorCount);
+		final double interactions = (double) size * (size - 1);
+
+		System.out.printf("Particles:              %d%n", size);
+		System.out.println("Accelerations:          double    float");
+		System.out.printf("  Interactions/sec      %.3e %.3e (%.2fx)%n",
+				interactions / doubleSeconds, interactions / floatSeconds, doubleSeconds / floatSeconds);
+		System.out.printf("  Relative error        p50 %.3e, p99 %.3e, max %.3e%n",
+				percentile(errors, errorCount, 0.5), percentile(errors, errorCount, 0.99),
+				errorCount > 0 ? errors[errorCount - 1] : 0.0);
+
+		if (this.steps <= 0) return;
+		try (ChamberSnapshot snapshot = chamber.acquireSnapshot()) {
+			final ParticleChamber doubleChamber = this.comparisonChamber(new ScalarForceSolver(), copyOf(snapshot));
+			final ParticleChamber floatChamber = this.comparisonChamber(new FloatForceSolver(), copyOf(snapshot));
+			final double doubleRunSeconds = this.timeSteps(doubleChamber);
+			final double floatRunSeconds = this.timeSteps(floatChamber);
+			try (ChamberSnapshot doubleResult = doubleChamber.acquireSnapshot();
+				 ChamberSnapshot floatResult = floatChamber.acquireSnapshot()) {
+				final Map<Long, Integer> floatIndices = new HashMap<>();
+				for (int i = 0; i < floatResult.getSize(); i++) {
+					floatIndices.put(floatResult.getIds()[i], i);
+				}
+				double squaredDistance = 0.0;
+				double maxDistance = 0.0;
+				int common = 0;
+				for (int i = 0; i < doubleResult.getSize(); i++) {
+					final Integer j = floatIndices.get(doubleResult.getIds()[i]);
+					if (j == null) continue;
+					final double distance = Math.hypot(
+							floatResult.getX()[j] - doubleResult.getX()[i],
+							floatResult.getY()[j] - doubleResult.getY()[i]
+					);
+					squaredDistance += distance * distance;
+					maxDistance = Math.max(maxDistance, distance);
+					common++;
+				}
+				System.out.printf("After %d steps:          double    float%n", this.steps);
+				System.out.printf("  Steps/sec             %9.2f %8.2f%n",
+						this.steps / doubleRunSeconds, this.steps / floatRunSeconds);
+				System.out.printf("  Particles             %9d %8d, %d in both%n",
+						doubleResult.getSize(), floatResult.getSize(), common);
+				System.out.printf("  Position difference   rms %.3e m, max %.3e m%n",
+						common > 0 ? Math.sqrt(squaredDistance / common) : 0.0, maxDistance);
+			}
+			doubleChamber.shutdown();
+			floatChamber.shutdown();
+		}
+	}
+
+	private ParticleChamber comparisonChamber(ForceSolver solver, ParticleStore particles) {
+		final ParticleChamber chamber = new ParticleChamber();
+		chamber.setForceSolver(solver);
+		final Integrator integrator = this.integratorType.create();
+		if (integrator instanceof BlockTimestepIntegrator) {
+			((BlockTimestepIntegrator) integrator).setAccuracy(((BlockTimestepIntegrator) this.integrator).getAccuracy());
+		}
+		chamber.setIntegrator(integrator);
+		chamber.setAllowCollision(this.allowCollision);
+		if (this.threadCount > 0) {
+			chamber.setThreadCount(this.threadCount);
+		}
+		chamber.restore(particles, 0L, 0.0);
+		return chamber;
+	}
+
+	/**
+	 * @return The wall-clock time which the steps took, in seconds.
+	 */
+	private double timeSteps(ParticleChamber chamber) {
+		final long startNanos = System.nanoTime();
+		for (long step = 0; step < this.steps; step++) {
+			chamber.updateParticles(this.deltaTime);
+		}
+		return (System.nanoTime() - startNanos) / 1_000_000_000.0;
+	}
+
+	/**
+	 * Computes the accelerations a few times, after one warm-up.
+	 * @return The mean wall-clock time of one evaluation, in seconds.
+	 */
+	private static double timeAccelerations(ForceSolver solver, ParticleStore store, StepExecutor executor) {
+		final int repetitions = 5;
+		solver.computeAccelerations(store, executor);
+		final long startNanos = System.nanoTime();
+		for (int i = 0; i < repetitions; i++) {
+			solver.computeAccelerations(store, executor);
+		}
+		return (System.nanoTime() - startNanos) / 1_000_000_000.0 / repetitions;
+	}
+
+	private static double percentile(double[] sorted, int count, double fraction) {
+		if (count == 0) return 0.0;
+		return sorted[Math.min(count - 1, (int) (fraction * count))];
+	}
+
+	private static ParticleStore copyOf(ChamberSnapshot snapshot) {
+		final int size = snapshot.getSize();
+		return new ParticleStore(size,
+				Arrays.copyOf(snapshot.getIds(), size),
+				Arrays.copyOf(snapshot.getX(), size),
+				Arrays.copyOf(snapshot.getY(), size),
+				Arrays.copyOf(snapshot.getVx(), size),
+				Arrays.copyOf(snapshot.getVy(), size),
+				Arrays.copyOf(snapshot.getMass(), size),
+				Arrays.copyOf(snapshot.getCharge(), size),
+				Arrays.copyOf(snapshot.getRadius(), size)
+		);
+	}
+
+	private void writeCheckpoint(ParticleChamber chamber) {
+		if (this.checkpointPath == null) return;
+		try {
+			final long checkpointStartNanos = System.nanoTime();
+			ChamberCheckpoint.write(this.checkpointPath, chamber);
+			log.info("Wrote checkpoint to {} in {} ms.",
+					this.checkpointPath, (System.nanoTime() - checkpointStartNanos) / 1_000_000);
+		} catch (IOException e) {
+			log.error("Could not write the checkpoint.", e);
+		}
+	}
+
+	private static void printStepMetrics(StepMetrics metrics) {
+		System.out.println("Phase timings (ms):     mean      p50      p99      max");
+		for (PhaseStatistics phase : metrics.getPhases()) {
+			System.out.printf("  %-20s %8.3f %8.3f %8.3f %8.3f%n",
+					phase.getPhase(), phase.getMeanMillis(), phase.getMedianMillis(),
+					phase.getP99Millis(), phase.getMaxMillis());
+		}
+		System.out.printf("Allocated bytes/step:   %.0f%n", metrics.getMeanAllocatedBytes());
+	}
+
+	/**
+	 * @return The change in energy relative to the initial energy.
+	 */
+	private static double relativeDrift(double initialEnergy, double energy) {
+		return Math.abs(energy - initialEnergy) / Math.max(Math.abs(initialEnergy), Double.MIN_NORMAL);
+	}
+
+	/**
+	 * Parses arguments of the form "--name value" into a map from name to
+	 * value. The only option without a value is "--help".
+	 */
+	private static Map<String, String> parseOptions(String[] args) {
+		final Map<String, String> options = new HashMap<>();
+		for (int i = 0; i < args.length; i++) {
+			if (!args[i].startsWith("--")) {
+				throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+			}
+			final String name = args[i].substring(2);
+			if (name.equals("help")) {
+				options.put(name, "true");
+			} else if (i + 1 < args.length) {
+				options.put(name, args[++i]);
+			} else {
+				throw new IllegalArgumentException("Missing value for option --" + name);
+			}
+		}
+		return options;
+	}
+}
@@ -0,0 +1,227 @@
+package nl.andrewlalis.threadripper.io;
+
+import nl.andrewlalis.threadripper.engine.ChamberSnapshot;
+import nl.andrewlalis.threadripper.engine.ParticleChamber;
+import nl.andrewlalis.threadripper.engine.ParticleStore;
+import nl.andrewlalis.threadripper.particle.Particle;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes checkpoints of a chamber's state, in a compact binary
+ * format which is written and read with memory-mapped files, one whole
+ * column of particle data at a time.
+ * <p>
+ *     A checkpoint starts with a {@value #HEADER_SIZE}-byte header, with all
+ *     values little-endian:
+ * </p>
+ * <pre>
+ *     0   int     magic number, "TRCP"
+ *     4   int     format version
+ *     8   long    particle count, n
+ *     16  long    step count
+ *     24  double  simulated time, in seconds
+ *     32  double  simulation rate
+ *     40  double  time step, in seconds
+ *     48  long    next particle id
+ *     56  int     flags; bit 0 is set if collisions are allowed
+ *     60  int     reserved
+ * </pre>
+ * <p>
+ *     This is followed by n ids as longs, and then n doubles each of x, y,
+ *     vx, vy, mass, charge and radius.
+ * </p>
+ */
+public final class ChamberCheckpoint {
+	public static final int MAGIC = 0x54524350;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 64;
+	private static final int FLAG_ALLOW_COLLISION = 1;
+	private static final int DOUBLE_COLUMNS = 7;
+
+	/**
+	 * The largest number of elements to map at once, which keeps each mapping
+	 * well below the 2 GB limit of a single buffer.
+	 */
+	private static final int MAX_MAPPED_ELEMENTS = 1 << 26;
+
+	private ChamberCheckpoint() {
+	}
+
+	/**
+	 * Writes a checkpoint of a chamber's latest snapshot and settings. This
+	 * does not interrupt the chamber, even while it's running.
+	 * @param path The file to write. It is written under a temporary name
+	 *             first, and then moved into place, so an existing checkpoint
+	 *             is never left half-written.
+	 * @param chamber The chamber to save.
+	 * @throws IOException If the file could not be written.
+	 */
+	public static void write(Path path, ParticleChamber chamber) throws IOException {
+		try (ChamberSnapshot snapshot = chamber.acquireSnapshot()) {
+			write(path, snapshot, chamber.getSimulationRate(), chamber.getTimeStep(), chamber.isAllowCollision());
+		}
+	}
+
+	/**
+	 * Writes a checkpoint of a snapshot, together with the given settings.
+	 * @param path The file to write.
+	 * @param snapshot The particles and clock to save.
+	 * @param simulationRate The chamber's simulation rate.
+	 * @param timeStep The chamber's time step, in seconds.
+	 * @param allowCollision Whether the chamber allows collisions.
+	 * @throws IOException If the file could not be written.
+	 */
+	public static void write(Path path, ChamberSnapshot snapshot, double simulationRate, double timeStep,
+							 boolean allowCollision) throws IOException {
+		final int size = snapshot.getSize();
+		final long length = HEADER_SIZE + (long) size * Long.BYTES * (1 + DOUBLE_COLUMNS);
+		final Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(
+				temporaryPath,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ,
+				StandardOpenOption.WRITE
+		)) {
+			final MappedByteBuffer header = map(channel, FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putLong(size);
+			header.putLong(snapshot.getStepCount());
+			header.putDouble(snapshot.getSimulationTime());
+			header.putDouble(simulationRate);
+			header.putDouble(timeStep);
+			header.putLong(Particle.peekNextId());
+			header.putInt(allowCollision ? FLAG_ALLOW_COLLISION : 0);
+			header.putInt(0);
+			header.force();
+
+			long position = HEADER_SIZE;
+			position = writeColumn(channel, position, snapshot.getIds(), size);
+			position = writeColumn(channel, position, snapshot.getX(), size);
+			position = writeColumn(channel, position, snapshot.getY(), size);
+			position = writeColumn(channel, position, snapshot.getVx(), size);
+			position = writeColumn(channel, position, snapshot.getVy(), size);
+			position = writeColumn(channel, position, snapshot.getMass(), size);
+			position = writeColumn(channel, position, snapshot.getCharge(), size);
+			position = writeColumn(channel, position, snapshot.getRadius(), size);
+			if (position != length) {
+				throw new IllegalStateException("Wrote " + position + " bytes instead of " + length + ".");
+			}
+		}
+		Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Restores a chamber's particles, clock and settings from a checkpoint.
+	 * This must not be called while the chamber's own thread is running.
+	 * @param path The checkpoint file to read.
+	 * @param chamber The chamber to restore.
+	 * @throws IOException If the file could not be read, or is not a valid
+	 * checkpoint.
+	 */
+	public static void restore(Path path, ParticleChamber chamber) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE) {
+				throw new IOException("The file is too short to be a checkpoint: " + path);
+			}
+			final MappedByteBuffer header = map(channel, FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if (header.getInt() != MAGIC) {
+				throw new IOException("The file is not a checkpoint: " + path);
+			}
+			final int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported checkpoint version " + version + " in " + path);
+			}
+			final long count = header.getLong();
+			final long stepCount = header.getLong();
+			final double simulationTime = header.getDouble();
+			final double simulationRate = header.getDouble();
+			final double timeStep = header.getDouble();
+			final long nextId = header.getLong();
+			final int flags = header.getInt();
+			if (count < 0 || count > Integer.MAX_VALUE - 8) {
+				throw new IOException("Invalid particle count " + count + " in " + path);
+			}
+			final int size = (int) count;
+			final long length = HEADER_SIZE + (long) size * Long.BYTES * (1 + DOUBLE_COLUMNS);
+			if (channel.size() != length) {
+				throw new IOException("The checkpoint should be " + length + " bytes, but is " + channel.size());
+			}
+
+			final int capacity = Math.max(1, size);
+			final long[] ids = new long[capacity];
+			final double[][] columns = new double[DOUBLE_COLUMNS][capacity];
+			long position = readColumn(channel, HEADER_SIZE, ids, size);
+			for (double[] column : columns) {
+				position = readColumn(channel, position, column, size);
+			}
+
+			Particle.advanceNextId(nextId);
+			chamber.restore(
+					new ParticleStore(size, ids, columns[0], columns[1], columns[2], columns[3], columns[4], columns[5], columns[6]),
+					stepCount,
+					simulationTime
+			);
+			chamber.setSimulationRate(simulationRate);
+			chamber.setTimeStep(timeStep);
+			chamber.setAllowCollision((flags & FLAG_ALLOW_COLLISION) != 0);
+		}
+	}
+
+	private static long writeColumn(FileChannel channel, long position, long[] values, int count) throws IOException {
+		for (int offset = 0; offset < count; offset += MAX_MAPPED_ELEMENTS) {
+			final int length = Math.min(MAX_MAPPED_ELEMENTS, count - offset);
+			final MappedByteBuffer buffer = map(channel, FileChannel.MapMode.READ_WRITE, position, (long) length * Long.BYTES);
+			buffer.asLongBuffer().put(values, offset, length);
+			buffer.force();
+			position += (long) length * Long.BYTES;
+		}
+		return position;
+	}
+
+	private static long writeColumn(FileChannel channel, long position, double[] values, int count) throws IOException {
+		for (int offset = 0; offset < count; offset += MAX_MAPPED_ELEMENTS) {
+			final int length = Math.min(MAX_MAPPED_ELEMENTS, count - offset);
+			final MappedByteBuffer buffer = map(channel, FileChannel.MapMode.READ_WRITE, position, (long) length * Double.BYTES);
+			buffer.asDoubleBuffer().put(values, offset, length);
+			buffer.force();
+			position += (long) length * Double.BYTES;
+		}
+		return position;
+	}
+
+	private static long readColumn(FileChannel channel, long position, long[] values, int count) throws IOException {
+		for (int offset = 0; offset < count; offset += MAX_MAPPED_ELEMENTS) {
+			final int length = Math.min(MAX_MAPPED_ELEMENTS, count - offset);
+			map(channel, FileChannel.MapMode.READ_ONLY, position, (long) length * Long.BYTES)
+					.asLongBuffer().get(values, offset, length);
+			position += (long) length * Long.BYTES;
+		}
+		return position;
+	}
+
+	private static long readColumn(FileChannel channel, long position, double[] values, int count) throws IOException {
+		for (int offset = 0; offset < count; offset += MAX_MAPPED_ELEMENTS) {
+			final int length = Math.min(MAX_MAPPED_ELEMENTS, count - offset);
+			map(channel, FileChannel.MapMode.READ_ONLY, position, (long) length * Double.BYTES)
+					.asDoubleBuffer().get(values, offset, length);
+			position += (long) length * Double.BYTES;
+		}
+		return position;
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long position, long size) throws IOException {
+		final MappedByteBuffer buffer = channel.map(mode, position, size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+}
@@ -0,0 +1,75 @@
+package nl.andrewlalis.threadripper.io;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.andrewlalis.threadripper.engine.ParticleChamber;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically writes a checkpoint of a chamber on a background thread. Each
+ * checkpoint is taken from the chamber's latest published snapshot, so the
+ * simulation thread is never paused, however long the write takes.
+ */
+@Slf4j
+public class CheckpointScheduler implements AutoCloseable {
+	private final ParticleChamber chamber;
+	private final Path path;
+	private final ScheduledExecutorService executor;
+
+	/**
+	 * Starts writing checkpoints.
+	 * @param chamber The chamber to save.
+	 * @param path The file to write each checkpoint to, replacing the
+	 *             previous one.
+	 * @param intervalSeconds The number of seconds between checkpoints.
+	 */
+	public CheckpointScheduler(ParticleChamber chamber, Path path, double intervalSeconds) {
+		if (intervalSeconds <= 0) {
+			throw new IllegalArgumentException("The checkpoint interval must be positive.");
+		}
+		this.chamber = chamber;
+		this.path = path;
+		this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			final Thread thread = new Thread(runnable, "checkpoint-writer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		final long intervalNanos = (long) (intervalSeconds * 1_000_000_000.0);
+		this.executor.scheduleWithFixedDelay(this::writeCheckpoint, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Writes a checkpoint right away, on the calling thread.
+	 * @throws IOException If the checkpoint could not be written.
+	 */
+	public void writeNow() throws IOException {
+		ChamberCheckpoint.write(this.path, this.chamber);
+	}
+
+	private void writeCheckpoint() {
+		try {
+			final long startNanos = System.nanoTime();
+			this.writeNow();
+			log.info("Wrote checkpoint to {} in {} ms.", this.path, (System.nanoTime() - startNanos) / 1_000_000);
+		} catch (IOException | RuntimeException e) {
+			log.error("Could not write checkpoint to {}.", this.path, e);
+		}
+	}
+
+	/**
+	 * Stops writing checkpoints, and waits for any write in progress.
+	 */
+	@Override
+	public void close() {
+		this.executor.shutdown();
+		try {
+			this.executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,208 @@
+package nl.andrewlalis.threadripper.io;
+
+import nl.andrewlalis.threadripper.engine.ChamberSnapshot;
+import nl.andrewlalis.threadripper.engine.ParticleStore;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * Encodes and decodes the frames of a trajectory, which are stored in
+ * chunks. The first frame of a chunk is stored in full, and every following
+ * frame only as the difference from the frame before it, so a chunk can be
+ * decoded without reading any other chunk.
+ * <p>
+ *     A frame starts with its step count (long), simulated time (double) and
+ *     particle count (int), followed by the ids, x, y, vx, vy, mass, charge
+ *     and radius columns. Each value is XOR-ed with the raw bits of the value
+ *     at the same index in the previous frame, or with zero if there was
+ *     none. Values that barely change then leave mostly zero bits, and
+ *     columns which don't change at all, such as mass, become all zeros.
+ *     Each column's bytes are stored as eight planes, first the most
+ *     significant byte of every value, then the next, and so on, which
+ *     groups the zeros together for the compressor.
+ * </p>
+ * <p>
+ *     A codec keeps the previous frame, so it must only be used for one
+ *     stream of frames at a time.
+ * </p>
+ */
+class TrajectoryCodec {
+	static final int DATA_MAGIC = 0x54524A44;
+	static final int INDEX_MAGIC = 0x54524A49;
+	static final int VERSION = 1;
+
+	/**
+	 * Both the data and index files start with a magic number, the format
+	 * version and eight reserved bytes.
+	 */
+	static final int FILE_HEADER_SIZE = 16;
+
+	/**
+	 * Each frame's index entry holds its step count (long), simulated time
+	 * (double), the file offset of its chunk (long), its position within the
+	 * chunk (int) and its particle count (int).
+	 */
+	static final int INDEX_ENTRY_SIZE = 32;
+
+	private static final int FRAME_HEADER_SIZE = Long.BYTES + Double.BYTES + Integer.BYTES;
+	private static final int COLUMN_COUNT = 8;
+
+	/**
+	 * The raw bits of the last frame, one array per column.
+	 */
+	private final long[][] previous;
+	private int previousSize;
+	private final ByteBuffer header;
+	private byte[] buffer;
+
+	private long stepCount;
+	private double simulationTime;
+
+	TrajectoryCodec() {
+		this.previous = new long[COLUMN_COUNT][0];
+		this.header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+		this.buffer = new byte[0];
+	}
+
+	/**
+	 * @param path A trajectory's data file.
+	 * @return The index file which belongs to it.
+	 */
+	static Path indexPath(Path path) {
+		return path.resolveSibling(path.getFileName() + ".idx");
+	}
+
+	/**
+	 * Forgets the previous frame, so the next frame is encoded or decoded in
+	 * full. This is done at the start of each chunk.
+	 */
+	void reset() {
+		this.previousSize = 0;
+	}
+
+	/**
+	 * Writes a snapshot as the next frame.
+	 * @return The number of bytes written, before compression.
+	 */
+	long writeFrame(OutputStream out, ChamberSnapshot snapshot) throws IOException {
+		final int size = snapshot.getSize();
+		this.ensureCapacity(size);
+		this.header.clear();
+		this.header.putLong(snapshot.getStepCount());
+		this.header.putDouble(snapshot.getSimulationTime());
+		this.header.putInt(size);
+		out.write(this.header.array(), 0, FRAME_HEADER_SIZE);
+
+		final long[] ids = snapshot.getIds();
+		final long[] bits = this.previous[0];
+		for (int i = 0; i < size; i++) {
+			this.putDelta(i, size, ids[i] ^ (i < this.previousSize ? bits[i] : 0L));
+			bits[i] = ids[i];
+		}
+		out.write(this.buffer, 0, size * Long.BYTES);
+		this.writeColumn(out, 1, snapshot.getX(), size);
+		this.writeColumn(out, 2, snapshot.getY(), size);
+		this.writeColumn(out, 3, snapshot.getVx(), size);
+		this.writeColumn(out, 4, snapshot.getVy(), size);
+		this.writeColumn(out, 5, snapshot.getMass(), size);
+		this.writeColumn(out, 6, snapshot.getCharge(), size);
+		this.writeColumn(out, 7, snapshot.getRadius(), size);
+		this.previousSize = size;
+		return FRAME_HEADER_SIZE + (long) size * Long.BYTES * COLUMN_COUNT;
+	}
+
+	/**
+	 * Reads the next frame, which then becomes the previous frame.
+	 */
+	void readFrame(DataInputStream in) throws IOException {
+		this.stepCount = in.readLong();
+		this.simulationTime = in.readDouble();
+		final int size = in.readInt();
+		if (size < 0) {
+			throw new IOException("Invalid particle count " + size + " in trajectory frame.");
+		}
+		this.ensureCapacity(size);
+		for (int column = 0; column < COLUMN_COUNT; column++) {
+			in.readFully(this.buffer, 0, size * Long.BYTES);
+			final long[] bits = this.previous[column];
+			for (int i = 0; i < size; i++) {
+				bits[i] = this.getDelta(i, size) ^ (i < this.previousSize ? bits[i] : 0L);
+			}
+		}
+		this.previousSize = size;
+	}
+
+	/**
+	 * Replaces the store's particles with those of the last frame which was
+	 * read.
+	 */
+	void copyTo(ParticleStore store) {
+		store.clear();
+		for (int i = 0; i < this.previousSize; i++) {
+			store.add(
+					this.previous[0][i],
+					Double.longBitsToDouble(this.previous[1][i]),
+					Double.longBitsToDouble(this.previous[2][i]),
+					Double.longBitsToDouble(this.previous[3][i]),
+					Double.longBitsToDouble(this.previous[4][i]),
+					Double.longBitsToDouble(this.previous[5][i]),
+					Double.longBitsToDouble(this.previous[6][i]),
+					Double.longBitsToDouble(this.previous[7][i])
+			);
+		}
+	}
+
+	/**
+	 * @return The step count of the last frame which was read.
+	 */
+	long getStepCount() {
+		return this.stepCount;
+	}
+
+	/**
+	 * @return The simulated time of the last frame which was read.
+	 */
+	double getSimulationTime() {
+		return this.simulationTime;
+	}
+
+	private void writeColumn(OutputStream out, int column, double[] values, int size) throws IOException {
+		final long[] bits = this.previous[column];
+		for (int i = 0; i < size; i++) {
+			final long value = Double.doubleToRawLongBits(values[i]);
+			this.putDelta(i, size, value ^ (i < this.previousSize ? bits[i] : 0L));
+			bits[i] = value;
+		}
+		out.write(this.buffer, 0, size * Long.BYTES);
+	}
+
+	private void putDelta(int index, int size, long delta) {
+		for (int plane = 0; plane < Long.BYTES; plane++) {
+			this.buffer[plane * size + index] = (byte) (delta >>> (56 - 8 * plane));
+		}
+	}
+
+	private long getDelta(int index, int size) {
+		long delta = 0L;
+		for (int plane = 0; plane < Long.BYTES; plane++) {
+			delta = (delta << 8) | (this.buffer[plane * size + index] & 0xFFL);
+		}
+		return delta;
+	}
+
+	private void ensureCapacity(int size) {
+		if (this.previous[0].length < size) {
+			final int capacity = Math.max(size, this.previous[0].length + (this.previous[0].length >> 1));
+			for (int column = 0; column < COLUMN_COUNT; column++) {
+				final long[] bits = new long[capacity];
+				System.arraycopy(this.previous[column], 0, bits, 0, this.previousSize);
+				this.previous[column] = bits;
+			}
+			this.buffer = new byte[capacity * Long.BYTES];
+		}
+	}
+}
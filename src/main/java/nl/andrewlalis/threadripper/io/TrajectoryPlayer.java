@@ -0,0 +1,148 @@
+package nl.andrewlalis.threadripper.io;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.andrewlalis.threadripper.engine.ChamberSnapshot;
+import nl.andrewlalis.threadripper.engine.FrameScheduler;
+import nl.andrewlalis.threadripper.engine.ParticleStore;
+import nl.andrewlalis.threadripper.engine.SnapshotPublisher;
+import nl.andrewlalis.threadripper.engine.SnapshotSource;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Replays a recorded trajectory in place of a running chamber, so that it
+ * can be drawn by the same renderer. Playback follows the frames' simulated
+ * time, scaled by the playback rate, and can be paused and moved to any
+ * frame at any time from other threads.
+ */
+@Slf4j
+public class TrajectoryPlayer implements Runnable, SnapshotSource {
+	private static final double DEFAULT_FPS = 60.0;
+
+	private final TrajectoryReader reader;
+	private final SnapshotPublisher snapshotPublisher;
+	private final ParticleStore particles;
+
+	private volatile boolean running;
+	private volatile boolean playing;
+	private volatile double playbackRate = 1.0;
+	private volatile int currentFrame = -1;
+
+	/**
+	 * The frame to move to, or -1 if no move was requested.
+	 */
+	private final AtomicInteger requestedFrame;
+
+	/**
+	 * Constructs a player, which starts paused at the first frame.
+	 * @param reader The trajectory to play. The player only reads from it on
+	 *               its own thread.
+	 */
+	public TrajectoryPlayer(TrajectoryReader reader) {
+		this.reader = reader;
+		this.snapshotPublisher = new SnapshotPublisher();
+		this.particles = new ParticleStore();
+		this.requestedFrame = new AtomicInteger(0);
+	}
+
+	public synchronized void setRunning(boolean running) {
+		this.running = running;
+	}
+
+	public synchronized void setPlaying(boolean playing) {
+		this.playing = playing;
+	}
+
+	public boolean isPlaying() {
+		return this.playing;
+	}
+
+	/**
+	 * Sets how many simulated seconds are played per real second.
+	 * @param playbackRate The playback rate, which must be positive.
+	 */
+	public synchronized void setPlaybackRate(double playbackRate) {
+		if (playbackRate > 0) {
+			this.playbackRate = playbackRate;
+		}
+	}
+
+	/**
+	 * Moves playback to a frame, which is shown on the player's next frame.
+	 * @param frame The index of the frame, which is clamped to the
+	 *              trajectory.
+	 */
+	public void seek(int frame) {
+		this.requestedFrame.set(Math.max(0, Math.min(frame, this.reader.getFrameCount() - 1)));
+	}
+
+	/**
+	 * @return The index of the frame which was published last, or -1 if
+	 * none has been published yet.
+	 */
+	public int getCurrentFrame() {
+		return this.currentFrame;
+	}
+
+	public int getFrameCount() {
+		return this.reader.getFrameCount();
+	}
+
+	@Override
+	public ChamberSnapshot acquireSnapshot() {
+		return this.snapshotPublisher.acquire();
+	}
+
+	@Override
+	public double getSimulationRate() {
+		return this.playing ? this.playbackRate : 0.0;
+	}
+
+	@Override
+	public void run() {
+		this.running = true;
+		final FrameScheduler scheduler = new FrameScheduler(DEFAULT_FPS, FrameScheduler.OverrunPolicy.DROP);
+		final int frameCount = this.reader.getFrameCount();
+		double playbackTime = 0.0;
+
+		log.info("Starting trajectory player with {} frames.", frameCount);
+		while (this.running) {
+			final double elapsedSeconds = scheduler.awaitNextFrame() / 1_000_000_000.0;
+			if (frameCount == 0) continue;
+			final int requestedFrame = this.requestedFrame.getAndSet(-1);
+			final int frame;
+			if (requestedFrame >= 0) {
+				frame = requestedFrame;
+				playbackTime = this.reader.getSimulationTime(frame);
+			} else if (this.playing) {
+				playbackTime += elapsedSeconds * this.playbackRate;
+				frame = this.reader.findFrame(playbackTime);
+				if (frame == frameCount - 1) {
+					this.playing = false;
+				}
+			} else {
+				continue;
+			}
+			if (frame != this.currentFrame) {
+				this.showFrame(frame);
+			}
+		}
+		log.info("Trajectory player stopped.");
+	}
+
+	private void showFrame(int frame) {
+		try {
+			this.reader.readFrame(frame, this.particles);
+			this.snapshotPublisher.publish(
+					this.particles,
+					this.reader.getStepCount(frame),
+					this.reader.getSimulationTime(frame)
+			);
+			this.currentFrame = frame;
+		} catch (IOException | RuntimeException e) {
+			log.error("Could not read frame {} of the trajectory.", frame, e);
+			this.playing = false;
+		}
+	}
+}
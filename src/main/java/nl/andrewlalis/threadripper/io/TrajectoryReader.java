@@ -0,0 +1,194 @@
+package nl.andrewlalis.threadripper.io;
+
+import nl.andrewlalis.threadripper.engine.ParticleStore;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads the frames of a trajectory which was written by a
+ * {@link TrajectoryRecorder}, in any order. The whole frame index is loaded
+ * up front, so any frame can be found without reading the data file, and
+ * reading it only means decoding its own chunk up to that frame. Reading
+ * frames in order decodes each one only once.
+ * <p>
+ *     A reader is not thread-safe.
+ * </p>
+ */
+public class TrajectoryReader implements AutoCloseable {
+	private static final int STREAM_BUFFER_SIZE = 1 << 16;
+
+	private final FileChannel channel;
+	private final Inflater inflater;
+	private final TrajectoryCodec codec;
+
+	private final long[] stepCounts;
+	private final double[] simulationTimes;
+	private final long[] chunkOffsets;
+	private final int[] chunkPositions;
+
+	private DataInputStream chunkStream;
+	private long chunkStreamOffset;
+	private int decodedFrame;
+
+	/**
+	 * Opens a trajectory, and reads its index.
+	 * @param path The trajectory's data file.
+	 * @throws IOException If the files could not be read, or are not a
+	 * trajectory.
+	 */
+	public TrajectoryReader(Path path) throws IOException {
+		final ByteBuffer index;
+		try (FileChannel indexChannel = FileChannel.open(TrajectoryCodec.indexPath(path), StandardOpenOption.READ)) {
+			final long indexSize = indexChannel.size();
+			if (indexSize < TrajectoryCodec.FILE_HEADER_SIZE || indexSize > Integer.MAX_VALUE) {
+				throw new IOException("Invalid trajectory index for " + path);
+			}
+			index = ByteBuffer.allocate((int) indexSize);
+			while (index.hasRemaining() && indexChannel.read(index) >= 0) {
+				// Keep reading until the whole index is in memory.
+			}
+			index.flip();
+		}
+		checkFileHeader(index, TrajectoryCodec.INDEX_MAGIC, path);
+		// A partly written last entry is ignored.
+		final int frameCount = index.remaining() / TrajectoryCodec.INDEX_ENTRY_SIZE;
+		this.stepCounts = new long[frameCount];
+		this.simulationTimes = new double[frameCount];
+		this.chunkOffsets = new long[frameCount];
+		this.chunkPositions = new int[frameCount];
+		for (int frame = 0; frame < frameCount; frame++) {
+			this.stepCounts[frame] = index.getLong();
+			this.simulationTimes[frame] = index.getDouble();
+			this.chunkOffsets[frame] = index.getLong();
+			this.chunkPositions[frame] = index.getInt();
+			index.getInt();
+		}
+
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			final ByteBuffer header = ByteBuffer.allocate(TrajectoryCodec.FILE_HEADER_SIZE);
+			while (header.hasRemaining() && this.channel.read(header) >= 0) {
+				// Keep reading until the header is complete.
+			}
+			header.flip();
+			checkFileHeader(header, TrajectoryCodec.DATA_MAGIC, path);
+		} catch (IOException e) {
+			this.channel.close();
+			throw e;
+		}
+		this.inflater = new Inflater();
+		this.codec = new TrajectoryCodec();
+		this.decodedFrame = -1;
+	}
+
+	public int getFrameCount() {
+		return this.stepCounts.length;
+	}
+
+	/**
+	 * @param frame The index of a frame.
+	 * @return The number of steps which the chamber had simulated when the
+	 * frame was recorded.
+	 */
+	public long getStepCount(int frame) {
+		return this.stepCounts[frame];
+	}
+
+	/**
+	 * @param frame The index of a frame.
+	 * @return The chamber's simulated time when the frame was recorded, in
+	 * seconds.
+	 */
+	public double getSimulationTime(int frame) {
+		return this.simulationTimes[frame];
+	}
+
+	/**
+	 * Finds the last frame which was recorded at or before a given time.
+	 * @param simulationTime The simulated time, in seconds.
+	 * @return The index of the frame, or 0 if every frame is later.
+	 */
+	public int findFrame(double simulationTime) {
+		int low = 0;
+		int high = this.simulationTimes.length - 1;
+		while (low < high) {
+			final int middle = (low + high + 1) >>> 1;
+			if (this.simulationTimes[middle] <= simulationTime) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Reads a frame's particles into a store, replacing whatever the store
+	 * contained.
+	 * @param frame The index of the frame to read.
+	 * @param store The store to read the particles into.
+	 * @throws IOException If the frame could not be read.
+	 */
+	public void readFrame(int frame, ParticleStore store) throws IOException {
+		if (frame < 0 || frame >= this.getFrameCount()) {
+			throw new IndexOutOfBoundsException("Frame " + frame + " is not in the trajectory.");
+		}
+		final long chunkOffset = this.chunkOffsets[frame];
+		if (this.chunkStream == null || this.chunkStreamOffset != chunkOffset || this.decodedFrame > frame) {
+			this.openChunk(chunkOffset, frame - this.chunkPositions[frame]);
+		}
+		try {
+			while (this.decodedFrame < frame) {
+				this.codec.readFrame(this.chunkStream);
+				this.decodedFrame++;
+			}
+		} catch (IOException e) {
+			// Start the chunk over next time, instead of reading on from the middle of a frame.
+			this.chunkStream = null;
+			throw e;
+		}
+		this.codec.copyTo(store);
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.inflater.end();
+		this.channel.close();
+	}
+
+	/**
+	 * Starts decoding a chunk from its first frame.
+	 */
+	private void openChunk(long offset, int firstFrame) throws IOException {
+		this.channel.position(offset);
+		this.inflater.reset();
+		// The streams are never closed, since that would close the channel.
+		this.chunkStream = new DataInputStream(new InflaterInputStream(
+				Channels.newInputStream(this.channel),
+				this.inflater,
+				STREAM_BUFFER_SIZE
+		));
+		this.chunkStreamOffset = offset;
+		this.decodedFrame = firstFrame - 1;
+		this.codec.reset();
+	}
+
+	private static void checkFileHeader(ByteBuffer header, int magic, Path path) throws IOException {
+		if (header.remaining() < TrajectoryCodec.FILE_HEADER_SIZE || header.getInt() != magic) {
+			throw new IOException("The file is not a trajectory: " + path);
+		}
+		final int version = header.getInt();
+		if (version != TrajectoryCodec.VERSION) {
+			throw new IOException("Unsupported trajectory version " + version + " in " + path);
+		}
+		header.getLong();
+	}
+}
@@ -0,0 +1,220 @@
+package nl.andrewlalis.threadripper.io;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.andrewlalis.threadripper.engine.ChamberSnapshot;
+import nl.andrewlalis.threadripper.engine.StepListener;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Records a chamber's steps to a trajectory file, which can be read back
+ * with a {@link TrajectoryReader}. Add the recorder to a chamber as a
+ * {@link StepListener}, and close it once the chamber has stopped.
+ * <p>
+ *     The chamber only hands each step's snapshot to a bounded queue, and a
+ *     background thread encodes, compresses and writes it, so recording
+ *     never slows the simulation down. If the writer falls behind and the
+ *     queue is full, frames are dropped instead, and counted.
+ * </p>
+ * <p>
+ *     Frames are encoded by a {@link TrajectoryCodec} and grouped into
+ *     chunks of about {@value #CHUNK_BYTES} bytes, each of which is a
+ *     separate deflate stream appended to the data file. Once a chunk is
+ *     complete, the index entries of its frames are appended to the index
+ *     file, so a recording which is cut short still has a valid index of
+ *     every complete chunk.
+ * </p>
+ */
+@Slf4j
+public class TrajectoryRecorder implements StepListener, AutoCloseable {
+	private static final int QUEUE_CAPACITY = 8;
+
+	/**
+	 * The amount of uncompressed frame data after which a chunk is finished.
+	 * A reader may have to decode this much to reach a frame.
+	 */
+	private static final long CHUNK_BYTES = 32L << 20;
+	private static final int MAX_CHUNK_FRAMES = 64;
+	private static final long POLL_MILLIS = 100;
+
+	private final Path path;
+	private final int recordInterval;
+	private final BlockingQueue<ChamberSnapshot> queue;
+	private final AtomicLong droppedFrameCount;
+	private final Thread writerThread;
+	private volatile boolean closed;
+	private volatile long recordedFrameCount;
+
+	private final FileChannel dataChannel;
+	private final FileChannel indexChannel;
+	private final TrajectoryCodec codec;
+	private final Deflater deflater;
+
+	private DeflaterOutputStream chunkStream;
+	private long chunkOffset;
+	private int chunkFrameCount;
+	private long chunkBytes;
+	private final ByteBuffer pendingIndex;
+
+	/**
+	 * Creates the trajectory's data and index files, replacing any existing
+	 * ones, and starts the background writer.
+	 * @param path The data file to write. The index is written next to it,
+	 *             with ".idx" appended to the name.
+	 * @param recordInterval Only steps whose count is a multiple of this are
+	 *                       recorded.
+	 * @throws IOException If the files could not be created.
+	 */
+	public TrajectoryRecorder(Path path, int recordInterval) throws IOException {
+		if (recordInterval < 1) {
+			throw new IllegalArgumentException("The record interval must be positive.");
+		}
+		this.path = path;
+		this.recordInterval = recordInterval;
+		this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		this.droppedFrameCount = new AtomicLong();
+		this.codec = new TrajectoryCodec();
+		this.deflater = new Deflater(Deflater.BEST_SPEED);
+		this.pendingIndex = ByteBuffer.allocate(MAX_CHUNK_FRAMES * TrajectoryCodec.INDEX_ENTRY_SIZE);
+
+		this.dataChannel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		this.indexChannel = FileChannel.open(TrajectoryCodec.indexPath(path), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		writeFileHeader(this.dataChannel, TrajectoryCodec.DATA_MAGIC);
+		writeFileHeader(this.indexChannel, TrajectoryCodec.INDEX_MAGIC);
+
+		this.writerThread = new Thread(this::writeFrames, "trajectory-recorder");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	@Override
+	public void stepCompleted(ChamberSnapshot snapshot) {
+		if (this.closed || snapshot.getStepCount() % this.recordInterval != 0) {
+			snapshot.release();
+		} else if (!this.queue.offer(snapshot)) {
+			snapshot.release();
+			this.droppedFrameCount.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return The number of frames which have been written so far.
+	 */
+	public long getRecordedFrameCount() {
+		return this.recordedFrameCount;
+	}
+
+	/**
+	 * @return The number of frames which were dropped because the writer
+	 * could not keep up.
+	 */
+	public long getDroppedFrameCount() {
+		return this.droppedFrameCount.get();
+	}
+
+	/**
+	 * Stops recording, and waits until every queued frame has been written.
+	 * Frames which arrive after this are ignored.
+	 */
+	@Override
+	public void close() {
+		this.closed = true;
+		try {
+			this.writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void writeFrames() {
+		try {
+			while (!this.closed || !this.queue.isEmpty()) {
+				final ChamberSnapshot snapshot = this.queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (snapshot == null) continue;
+				try {
+					this.writeFrame(snapshot);
+				} finally {
+					snapshot.release();
+				}
+			}
+			this.finishChunk();
+		} catch (IOException | RuntimeException e) {
+			log.error("Could not record trajectory to {}.", this.path, e);
+		} catch (InterruptedException e) {
+			log.warn("Trajectory recorder was interrupted.");
+		} finally {
+			this.closed = true;
+			ChamberSnapshot snapshot;
+			while ((snapshot = this.queue.poll()) != null) {
+				snapshot.release();
+			}
+			this.deflater.end();
+			try {
+				this.dataChannel.close();
+				this.indexChannel.close();
+			} catch (IOException e) {
+				log.error("Could not close trajectory files.", e);
+			}
+		}
+	}
+
+	private void writeFrame(ChamberSnapshot snapshot) throws IOException {
+		if (this.chunkStream == null) {
+			this.chunkOffset = this.dataChannel.position();
+			this.chunkFrameCount = 0;
+			this.chunkBytes = 0;
+			this.deflater.reset();
+			this.chunkStream = new DeflaterOutputStream(Channels.newOutputStream(this.dataChannel), this.deflater, 1 << 16);
+			this.codec.reset();
+		}
+		this.chunkBytes += this.codec.writeFrame(this.chunkStream, snapshot);
+		this.pendingIndex.putLong(snapshot.getStepCount());
+		this.pendingIndex.putDouble(snapshot.getSimulationTime());
+		this.pendingIndex.putLong(this.chunkOffset);
+		this.pendingIndex.putInt(this.chunkFrameCount);
+		this.pendingIndex.putInt(snapshot.getSize());
+		this.chunkFrameCount++;
+		if (this.chunkFrameCount >= MAX_CHUNK_FRAMES || this.chunkBytes >= CHUNK_BYTES) {
+			this.finishChunk();
+		}
+	}
+
+	/**
+	 * Ends the current chunk's deflate stream, and then appends its frames
+	 * to the index.
+	 */
+	private void finishChunk() throws IOException {
+		if (this.chunkStream == null) return;
+		// Finishing flushes the stream without closing the channel beneath it.
+		this.chunkStream.finish();
+		this.chunkStream = null;
+		this.pendingIndex.flip();
+		while (this.pendingIndex.hasRemaining()) {
+			this.indexChannel.write(this.pendingIndex);
+		}
+		this.pendingIndex.clear();
+		this.recordedFrameCount += this.chunkFrameCount;
+	}
+
+	private static void writeFileHeader(FileChannel channel, int magic) throws IOException {
+		final ByteBuffer header = ByteBuffer.allocate(TrajectoryCodec.FILE_HEADER_SIZE);
+		header.putInt(magic);
+		header.putInt(TrajectoryCodec.VERSION);
+		header.putLong(0L);
+		header.flip();
+		while (header.hasRemaining()) {
+			channel.write(header);
+		}
+	}
+}
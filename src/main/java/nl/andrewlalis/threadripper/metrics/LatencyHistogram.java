@@ -0,0 +1,119 @@
+package nl.andrewlalis.threadripper.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative long values, such as durations in nanoseconds
+ * or amounts of bytes, with a fixed relative precision over the whole range
+ * of longs. Like an HDR histogram, the buckets are log-linear: each power of
+ * two is split into {@value #SUB_BUCKET_COUNT} equal buckets, so any value is
+ * reported within about 3% of its true size, and recording a value is just
+ * a few shifts and one counter increment, with no allocation.
+ * <p>
+ *     Values are meant to be recorded by one thread at a time, while any
+ *     thread may read the statistics. A reader may see a recording which is
+ *     only partly done, which is harmless for monitoring.
+ * </p>
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray counts;
+	private final AtomicLong count;
+	private final AtomicLong sum;
+	private final AtomicLong max;
+
+	public LatencyHistogram() {
+		this.counts = new AtomicLongArray(BUCKET_COUNT);
+		this.count = new AtomicLong();
+		this.sum = new AtomicLong();
+		this.max = new AtomicLong();
+	}
+
+	/**
+	 * Records a value. Negative values are recorded as zero.
+	 * @param value The value to record.
+	 */
+	public void record(long value) {
+		final long v = Math.max(0L, value);
+		this.counts.incrementAndGet(bucketOf(v));
+		this.count.incrementAndGet();
+		this.sum.addAndGet(v);
+		if (v > this.max.get()) {
+			this.max.set(v);
+		}
+	}
+
+	/**
+	 * Removes all recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			this.counts.set(i, 0L);
+		}
+		this.count.set(0L);
+		this.sum.set(0L);
+		this.max.set(0L);
+	}
+
+	public long getCount() {
+		return this.count.get();
+	}
+
+	/**
+	 * @return The exact mean of the recorded values, or 0 if there are none.
+	 */
+	public double getMean() {
+		final long count = this.count.get();
+		return count == 0 ? 0.0 : (double) this.sum.get() / count;
+	}
+
+	/**
+	 * @return The exact largest recorded value, or 0 if there are none.
+	 */
+	public long getMax() {
+		return this.max.get();
+	}
+
+	/**
+	 * Finds the value below which a given percentage of the recorded values
+	 * fall.
+	 * @param percentile The percentage, from 0 to 100.
+	 * @return The middle of the bucket which holds that value, or 0 if no
+	 * values have been recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		final long count = this.count.get();
+		if (count == 0) return 0L;
+		final long rank = Math.max(1L, (long) Math.ceil(Math.min(100.0, Math.max(0.0, percentile)) / 100.0 * count));
+		long seen = 0L;
+		for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+			seen += this.counts.get(bucket);
+			if (seen >= rank) {
+				return Math.min(middleOf(bucket), this.max.get());
+			}
+		}
+		return this.max.get();
+	}
+
+	/**
+	 * Values below {@value #SUB_BUCKET_COUNT} each have their own bucket.
+	 * Above that, a value's highest set bit selects a block of buckets, and
+	 * the next {@value #SUB_BUCKET_BITS} bits select the bucket in it.
+	 */
+	private static int bucketOf(long value) {
+		if (value < SUB_BUCKET_COUNT) return (int) value;
+		final int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+	}
+
+	private static long middleOf(int bucket) {
+		if (bucket < SUB_BUCKET_COUNT) return bucket;
+		final int shift = bucket / SUB_BUCKET_COUNT - 1;
+		final long lowest = (long) (SUB_BUCKET_COUNT + bucket % SUB_BUCKET_COUNT) << shift;
+		return lowest + ((1L << shift) >>> 1);
+	}
+}
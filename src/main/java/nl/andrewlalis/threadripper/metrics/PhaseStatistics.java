@@ -0,0 +1,26 @@
+package nl.andrewlalis.threadripper.metrics;
+
+import lombok.Getter;
+
+/**
+ * Summary statistics of how long one phase of a step has taken, in
+ * milliseconds, as reported through JMX.
+ */
+@Getter
+public class PhaseStatistics {
+	private final String phase;
+	private final long count;
+	private final double meanMillis;
+	private final double medianMillis;
+	private final double p99Millis;
+	private final double maxMillis;
+
+	public PhaseStatistics(String phase, LatencyHistogram histogram) {
+		this.phase = phase;
+		this.count = histogram.getCount();
+		this.meanMillis = histogram.getMean() / 1_000_000.0;
+		this.medianMillis = histogram.getValueAtPercentile(50.0) / 1_000_000.0;
+		this.p99Millis = histogram.getValueAtPercentile(99.0) / 1_000_000.0;
+		this.maxMillis = histogram.getMax() / 1_000_000.0;
+	}
+}
@@ -0,0 +1,139 @@
+package nl.andrewlalis.threadripper.metrics;
+
+import jdk.jfr.AnnotationElement;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.EventFactory;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import jdk.jfr.ValueDescriptor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+/**
+ * Emits a JDK Flight Recorder event for each simulated step, so that slow
+ * steps can be lined up against garbage collections, safepoints and other
+ * JVM events in a recording. The event's own duration is the whole step.
+ * <p>
+ *     The event type is defined with an {@link EventFactory}, and its
+ *     methods are called through method handles, instead of subclassing
+ *     jdk.jfr.Event, because javac can't resolve that class's supertype
+ *     when compiling for release 12 on newer JDKs. If anything goes wrong
+ *     setting this up, no events are emitted.
+ * </p>
+ */
+@Slf4j
+final class StepEvents {
+	private static final EventFactory FACTORY;
+	private static final MethodHandle BEGIN;
+	private static final MethodHandle SHOULD_COMMIT;
+	private static final MethodHandle SET;
+	private static final MethodHandle COMMIT;
+
+	static {
+		EventFactory factory = null;
+		MethodHandle begin = null;
+		MethodHandle shouldCommit = null;
+		MethodHandle set = null;
+		MethodHandle commit = null;
+		try {
+			factory = EventFactory.create(
+					List.of(
+							new AnnotationElement(Name.class, "nl.andrewlalis.threadripper.Step"),
+							new AnnotationElement(Label.class, "Simulation Step"),
+							new AnnotationElement(Category.class, new String[]{"ThreadRipper"}),
+							new AnnotationElement(Description.class, "One step of a particle chamber, broken down by phase.")
+					),
+					List.of(
+							field(long.class, "stepCount", "Step Count"),
+							field(int.class, "particleCount", "Particle Count"),
+							field(long.class, "interactions", "Interactions"),
+							timespan("forceNanos", "Forces"),
+							timespan("integrationNanos", "Integration"),
+							timespan("collisionDetectionNanos", "Collision Detection"),
+							timespan("mergeNanos", "Merge"),
+							timespan("publishNanos", "Publish"),
+							new ValueDescriptor(long.class, "allocatedBytes", List.of(
+									new AnnotationElement(Label.class, "Allocated"),
+									new AnnotationElement(DataAmount.class, DataAmount.BYTES)
+							))
+					)
+			);
+			final Class<?> eventClass = Class.forName("jdk.jfr.Event");
+			final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			begin = lookup.findVirtual(eventClass, "begin", MethodType.methodType(void.class));
+			shouldCommit = lookup.findVirtual(eventClass, "shouldCommit", MethodType.methodType(boolean.class));
+			set = lookup.findVirtual(eventClass, "set", MethodType.methodType(void.class, int.class, Object.class));
+			commit = lookup.findVirtual(eventClass, "commit", MethodType.methodType(void.class));
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			log.warn("Flight recorder step events are not available.", e);
+			factory = null;
+		}
+		FACTORY = factory;
+		BEGIN = begin;
+		SHOULD_COMMIT = shouldCommit;
+		SET = set;
+		COMMIT = commit;
+	}
+
+	private StepEvents() {
+	}
+
+	/**
+	 * Starts timing a step's event.
+	 * @return The event, or null if events are not available.
+	 */
+	static Object begin() {
+		if (FACTORY == null) return null;
+		try {
+			final Object event = FACTORY.newEvent();
+			BEGIN.invoke(event);
+			return event;
+		} catch (Throwable e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Ends a step's event, and commits it if a recording wants it.
+	 * @param event The event from {@link #begin()}, or null.
+	 * @param phaseNanos The duration of each phase, by the ordinal of its
+	 *                   {@link StepMetrics.Phase}.
+	 */
+	static void commit(Object event, long stepCount, int particleCount, long interactions, long[] phaseNanos,
+					   long allocatedBytes) {
+		if (event == null) return;
+		try {
+			if (!(boolean) SHOULD_COMMIT.invoke(event)) return;
+			SET.invoke(event, 0, stepCount);
+			SET.invoke(event, 1, particleCount);
+			SET.invoke(event, 2, interactions);
+			SET.invoke(event, 3, phaseNanos[StepMetrics.Phase.FORCES.ordinal()]);
+			SET.invoke(event, 4, phaseNanos[StepMetrics.Phase.INTEGRATION.ordinal()]);
+			SET.invoke(event, 5, phaseNanos[StepMetrics.Phase.COLLISION_DETECTION.ordinal()]);
+			SET.invoke(event, 6, phaseNanos[StepMetrics.Phase.MERGE.ordinal()]);
+			SET.invoke(event, 7, phaseNanos[StepMetrics.Phase.PUBLISH.ordinal()]);
+			SET.invoke(event, 8, allocatedBytes);
+			COMMIT.invoke(event);
+		} catch (Throwable e) {
+			log.debug("Could not commit step event.", e);
+		}
+	}
+
+	private static ValueDescriptor field(Class<?> type, String name, String label) {
+		return new ValueDescriptor(type, name, List.of(new AnnotationElement(Label.class, label)));
+	}
+
+	private static ValueDescriptor timespan(String name, String label) {
+		return new ValueDescriptor(long.class, name, List.of(
+				new AnnotationElement(Label.class, label),
+				new AnnotationElement(Timespan.class, Timespan.NANOSECONDS)
+		));
+	}
+}
@@ -0,0 +1,252 @@
+package nl.andrewlalis.threadripper.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures where the time of each simulated step goes. The stepping thread
+ * marks the start of a step, the end of each phase and the end of the step,
+ * and the durations go into a {@link LatencyHistogram} per phase, along
+ * with the bytes which the stepping thread allocated during the step.
+ * <p>
+ *     Every step is also committed as an event for the JDK Flight Recorder,
+ *     which costs next to nothing unless a recording is running,
+ *     and the statistics can be registered as an MXBean with
+ *     {@link #registerMBean(String)}.
+ * </p>
+ * <p>
+ *     Only one thread may record steps at a time, while any thread may read
+ *     the statistics.
+ * </p>
+ */
+@Slf4j
+public class StepMetrics implements StepMetricsMXBean {
+	/**
+	 * The parts which a step is made up of, in order.
+	 */
+	public enum Phase {
+		/**
+		 * Computing every particle's acceleration, which happens inside the
+		 * integration phase, but is measured separately.
+		 */
+		FORCES,
+		/**
+		 * Advancing the particles, not counting the forces.
+		 */
+		INTEGRATION,
+		COLLISION_DETECTION,
+		MERGE,
+		/**
+		 * Publishing the step's snapshot, and handing it to step listeners.
+		 */
+		PUBLISH
+	}
+
+	private static final Phase[] PHASES = Phase.values();
+
+	private final Map<Phase, LatencyHistogram> phaseHistograms;
+	private final LatencyHistogram stepHistogram;
+	private final LatencyHistogram allocationHistogram;
+	private final ThreadMXBean threadBean;
+
+	private volatile long stepCount;
+	private volatile int particleCount;
+	private volatile long interactionCount;
+
+	// The state of the step being recorded, which only the stepping thread uses.
+	private final long[] currentNanos;
+	private final long[] nestedNanos;
+	private long stepStartNanos;
+	private long markNanos;
+	private long stepStartBytes;
+	private Object event;
+
+	public StepMetrics() {
+		this.phaseHistograms = new EnumMap<>(Phase.class);
+		for (Phase phase : PHASES) {
+			this.phaseHistograms.put(phase, new LatencyHistogram());
+		}
+		this.stepHistogram = new LatencyHistogram();
+		this.allocationHistogram = new LatencyHistogram();
+		this.threadBean = ManagementFactory.getThreadMXBean();
+		this.currentNanos = new long[PHASES.length];
+		this.nestedNanos = new long[PHASES.length];
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server, under the name
+	 * "nl.andrewlalis.threadripper:type=StepMetrics,name=...". Failure is
+	 * logged, but is not an error.
+	 * @param name The name to tell this chamber's metrics apart by.
+	 */
+	public void registerMBean(String name) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+					this,
+					new ObjectName("nl.andrewlalis.threadripper:type=StepMetrics,name=" + ObjectName.quote(name))
+			);
+		} catch (JMException e) {
+			log.warn("Could not register step metrics as an MBean.", e);
+		}
+	}
+
+	/**
+	 * Marks the start of a step, and of its first phase.
+	 */
+	public void beginStep() {
+		this.event = StepEvents.begin();
+		Arrays.fill(this.currentNanos, 0L);
+		Arrays.fill(this.nestedNanos, 0L);
+		this.stepStartBytes = this.getAllocatedBytes();
+		this.stepStartNanos = System.nanoTime();
+		this.markNanos = this.stepStartNanos;
+	}
+
+	/**
+	 * Marks the end of a phase, which is taken to have run since the end of
+	 * the previous phase, or the start of the step. The time of any nested
+	 * phases recorded since then is not counted towards it.
+	 * @param phase The phase which ended.
+	 */
+	public void endPhase(Phase phase) {
+		final long now = System.nanoTime();
+		long nested = 0L;
+		for (int i = 0; i < PHASES.length; i++) {
+			nested += this.nestedNanos[i];
+			this.currentNanos[i] += this.nestedNanos[i];
+			this.nestedNanos[i] = 0L;
+		}
+		this.currentNanos[phase.ordinal()] += now - this.markNanos - nested;
+		this.markNanos = now;
+	}
+
+	/**
+	 * Records time spent in a phase which ran inside another one, such as
+	 * the forces, which the integrator computes. The time is taken out of
+	 * the next phase to end.
+	 * @param phase The nested phase.
+	 * @param nanos How long it took, in nanoseconds.
+	 */
+	public void recordNestedPhase(Phase phase, long nanos) {
+		this.nestedNanos[phase.ordinal()] += nanos;
+	}
+
+	/**
+	 * Marks the end of a step, and records all of its measurements.
+	 * @param stepCount The number of steps which have now been simulated.
+	 * @param particleCount The number of particles after the step.
+	 * @param interactions The number of interactions which the step's force
+	 *                     solver evaluated.
+	 */
+	public void endStep(long stepCount, int particleCount, long interactions) {
+		final long stepNanos = System.nanoTime() - this.stepStartNanos;
+		final long allocatedBytes = Math.max(0L, this.getAllocatedBytes() - this.stepStartBytes);
+		for (Phase phase : PHASES) {
+			this.phaseHistograms.get(phase).record(this.currentNanos[phase.ordinal()]);
+		}
+		this.stepHistogram.record(stepNanos);
+		this.allocationHistogram.record(allocatedBytes);
+		this.stepCount = stepCount;
+		this.particleCount = particleCount;
+		this.interactionCount += interactions;
+
+		StepEvents.commit(this.event, stepCount, particleCount, interactions, this.currentNanos, allocatedBytes);
+		this.event = null;
+	}
+
+	/**
+	 * @param phase A phase of the step.
+	 * @return The histogram of the phase's durations, in nanoseconds.
+	 */
+	public LatencyHistogram getPhaseHistogram(Phase phase) {
+		return this.phaseHistograms.get(phase);
+	}
+
+	/**
+	 * @return The histogram of whole steps' durations, in nanoseconds.
+	 */
+	public LatencyHistogram getStepHistogram() {
+		return this.stepHistogram;
+	}
+
+	/**
+	 * @return The histogram of the number of bytes which the stepping thread
+	 * allocated in each step.
+	 */
+	public LatencyHistogram getAllocationHistogram() {
+		return this.allocationHistogram;
+	}
+
+	@Override
+	public long getStepCount() {
+		return this.stepCount;
+	}
+
+	@Override
+	public int getParticleCount() {
+		return this.particleCount;
+	}
+
+	@Override
+	public long getInteractionCount() {
+		return this.interactionCount;
+	}
+
+	@Override
+	public double getMeanStepMillis() {
+		return this.stepHistogram.getMean() / 1_000_000.0;
+	}
+
+	@Override
+	public double getP99StepMillis() {
+		return this.stepHistogram.getValueAtPercentile(99.0) / 1_000_000.0;
+	}
+
+	@Override
+	public double getMeanAllocatedBytes() {
+		return this.allocationHistogram.getMean();
+	}
+
+	@Override
+	public List<PhaseStatistics> getPhases() {
+		final List<PhaseStatistics> phases = new ArrayList<>(PHASES.length + 1);
+		for (Phase phase : PHASES) {
+			phases.add(new PhaseStatistics(phase.name(), this.phaseHistograms.get(phase)));
+		}
+		phases.add(new PhaseStatistics("STEP", this.stepHistogram));
+		return phases;
+	}
+
+	@Override
+	public void reset() {
+		for (LatencyHistogram histogram : this.phaseHistograms.values()) {
+			histogram.reset();
+		}
+		this.stepHistogram.reset();
+		this.allocationHistogram.reset();
+	}
+
+	/**
+	 * Only the stepping thread's own allocations are counted, since those
+	 * of the executor's worker threads would cost a call per thread to
+	 * collect.
+	 * @return The number of bytes which the current thread has allocated,
+	 * or 0 if the JVM can't tell.
+	 */
+	private long getAllocatedBytes() {
+		if (this.threadBean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) this.threadBean)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0L;
+	}
+}
@@ -0,0 +1,35 @@
+package nl.andrewlalis.threadripper.metrics;
+
+import java.util.List;
+
+/**
+ * The management interface of {@link StepMetrics}, which tools such as
+ * JConsole and VisualVM can read while the simulation is running.
+ */
+public interface StepMetricsMXBean {
+	long getStepCount();
+
+	int getParticleCount();
+
+	long getInteractionCount();
+
+	double getMeanStepMillis();
+
+	double getP99StepMillis();
+
+	/**
+	 * @return The mean number of bytes which the stepping thread allocated
+	 * per step, or 0 if the JVM can't measure it.
+	 */
+	double getMeanAllocatedBytes();
+
+	/**
+	 * @return The statistics of each phase of a step.
+	 */
+	List<PhaseStatistics> getPhases();
+
+	/**
+	 * Clears all histograms, to start measuring afresh.
+	 */
+	void reset();
+}
@@ -4,13 +4,14 @@ import lombok.Getter;
 import nl.andrewlalis.threadripper.engine.Vec2;
 
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents a single particle that exists in a simulation.
  */
 @Getter
 public class Particle {
-	private static long NEXT_PARTICLE_ID = 1L;
+	private static final AtomicLong NEXT_PARTICLE_ID = new AtomicLong(1L);
 
 	/**
 	 * Unique id for this particle.
@@ -51,14 +52,55 @@ public class Particle {
 	}
 
 	public Particle(Vec2 position, Vec2 velocity, double mass, double charge, double radius) {
+		this(nextId(), position, velocity, mass, charge, radius);
+	}
+
+	/**
+	 * Constructs a particle with an already-assigned id. This is used when
+	 * creating views of particles which live in a chamber's storage.
+	 */
+	public Particle(long id, Vec2 position, Vec2 velocity, double mass, double charge, double radius) {
+		this.id = id;
 		this.position = position;
 		this.velocity = velocity;
 		this.mass = mass;
 		this.charge = charge;
 		this.radius = radius;
+	}
+
+	/**
+	 * Takes the next unused particle id.
+	 * @return A new particle id.
+	 */
+	public static long nextId() {
+		return NEXT_PARTICLE_ID.getAndIncrement();
+	}
+
+	/**
+	 * Takes a block of consecutive unused particle ids at once, so that
+	 * particles which are generated together get ids in the same order as
+	 * they're stored, no matter which thread generates them.
+	 * @param count The number of ids to take.
+	 * @return The first id of the block.
+	 */
+	public static long reserveIds(int count) {
+		return NEXT_PARTICLE_ID.getAndAdd(count);
+	}
 
-		this.id = NEXT_PARTICLE_ID;
-		NEXT_PARTICLE_ID++;
+	/**
+	 * @return The id which the next particle will get, without taking it.
+	 */
+	public static long peekNextId() {
+		return NEXT_PARTICLE_ID.get();
+	}
+
+	/**
+	 * Makes sure that no id below the given one is given out again, for
+	 * example after restoring particles which already have ids.
+	 * @param nextId The lowest id which may be given out next.
+	 */
+	public static void advanceNextId(long nextId) {
+		NEXT_PARTICLE_ID.accumulateAndGet(nextId, Math::max);
 	}
 
 	/**
@@ -108,6 +150,7 @@ public class Particle {
 
 	public Particle getCopy() {
 		return new Particle(
+				this.getId(),
 				this.getPosition().getCopy(),
 				this.getVelocity().getCopy(),
 				this.getMass(),
@@ -116,19 +159,27 @@ public class Particle {
 		);
 	}
 
+	/**
+	 * Combines this particle with another one. The result is at their centre
+	 * of mass, and moves with their combined momentum, while their masses,
+	 * charges and radii are added up.
+	 * @param other The other particle.
+	 * @return A new particle, with a new id.
+	 */
 	public Particle combine(Particle other) {
+		final double totalMass = this.getMass() + other.getMass();
 		final Vec2 position = new Vec2(
-				(this.getPosition().getX() + other.getPosition().getX()) / 2.0,
-				(this.getPosition().getY() + other.getPosition().getY()) / 2.0
+				(this.getMass() * this.getPosition().getX() + other.getMass() * other.getPosition().getX()) / totalMass,
+				(this.getMass() * this.getPosition().getY() + other.getMass() * other.getPosition().getY()) / totalMass
 		);
 		final Vec2 velocity = new Vec2(
-				(this.getVelocity().getX() + other.getVelocity().getX()) / 2.0,
-				(this.getVelocity().getY() + other.getVelocity().getY()) / 2.0
+				(this.getMass() * this.getVelocity().getX() + other.getMass() * other.getVelocity().getX()) / totalMass,
+				(this.getMass() * this.getVelocity().getY() + other.getMass() * other.getVelocity().getY()) / totalMass
 		);
 		return new Particle(
 				position,
 				velocity,
-				this.getMass() + other.getMass(),
+				totalMass,
 				this.getCharge() + other.getCharge(),
 				this.getRadius() + other.getRadius()
 		);
@@ -0,0 +1,39 @@
+package nl.andrewlalis.threadripper.particle;
+
+/**
+ * The ways in which a {@link ParticleFactory} can place particles, and set
+ * their velocities, when generating many of them at once. The clustered
+ * distributions are centered on the middle of the factory's position range,
+ * and stay within the largest circle which fits inside it.
+ */
+public enum ParticleDistribution {
+	/**
+	 * Positions and velocities are drawn uniformly from the factory's ranges.
+	 */
+	UNIFORM,
+	/**
+	 * A Plummer sphere, seen from above: the surface density falls off as
+	 * (1 + r^2 / a^2)^-2, with a scale radius a of a quarter of the circle's
+	 * radius. Velocities are random, with the dispersion of a Plummer sphere
+	 * of the generated particles' total mass, so that the cluster stays
+	 * roughly bound under gravity.
+	 */
+	PLUMMER,
+	/**
+	 * A uniformly filled disk, rotating counter-clockwise, where each
+	 * particle circles at the speed which balances the gravity of the mass
+	 * inside its radius.
+	 */
+	DISK;
+
+	/**
+	 * Finds a distribution by name, ignoring case.
+	 * @param name The name of the distribution.
+	 * @return The distribution.
+	 * @throws IllegalArgumentException If there is no distribution with the
+	 * given name.
+	 */
+	public static ParticleDistribution fromName(String name) {
+		return valueOf(name.trim().toUpperCase().replace('-', '_'));
+	}
+}
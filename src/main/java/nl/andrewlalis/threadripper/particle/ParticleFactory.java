@@ -1,10 +1,27 @@
 package nl.andrewlalis.threadripper.particle;
 
+import nl.andrewlalis.threadripper.engine.Constants;
+import nl.andrewlalis.threadripper.engine.ParticleStore;
+import nl.andrewlalis.threadripper.engine.StepExecutor;
 import nl.andrewlalis.threadripper.engine.Vec2;
 
+import java.util.SplittableRandom;
 import java.util.concurrent.ThreadLocalRandom;
 
 public class ParticleFactory {
+	/**
+	 * The number of particles which are generated from one random number
+	 * generator. The blocks are fixed, so that the generated particles only
+	 * depend on the seed, and not on the number of threads.
+	 */
+	private static final int GENERATE_BLOCK_SIZE = 4096;
+
+	/**
+	 * The scale radius of a Plummer sphere, relative to the radius at which
+	 * it's cut off.
+	 */
+	private static final double PLUMMER_SCALE = 0.25;
+
 	private final double minMass;
 	private final double maxMass;
 	private final double minCharge;
@@ -41,7 +58,16 @@ public class ParticleFactory {
 	}
 
 	public Particle build() {
-		ThreadLocalRandom random = ThreadLocalRandom.current();
+		return this.build(new SplittableRandom(ThreadLocalRandom.current().nextLong()));
+	}
+
+	/**
+	 * Builds a particle using the given source of randomness, so that a
+	 * seeded generator always produces the same sequence of particles.
+	 * @param random The random number generator to use.
+	 * @return A new particle.
+	 */
+	public Particle build(SplittableRandom random) {
 		final Vec2 position = new Vec2(
 				random.nextDouble(this.minPosition.getX(), this.maxPosition.getX()),
 				random.nextDouble(this.minPosition.getY(), this.maxPosition.getY())
@@ -68,4 +94,146 @@ public class ParticleFactory {
 		);
 	}
 
+	/**
+	 * Generates many particles straight into a store, in parallel, without
+	 * creating any particle objects. The particles get consecutive ids, in
+	 * the order in which they're stored, and are the same for a given seed
+	 * no matter how many threads the executor has.
+	 * @param store The store to add the particles to.
+	 * @param count The number of particles to generate.
+	 * @param distribution How to place the particles and set their
+	 *                     velocities.
+	 * @param seed The seed for the random number generators.
+	 * @param executor The executor to generate the particles on.
+	 */
+	public void generate(ParticleStore store, int count, ParticleDistribution distribution, long seed, StepExecutor executor) {
+		if (count <= 0) return;
+		final int first = store.append(count);
+		final long firstId = Particle.reserveIds(count);
+		final int blockCount = (count + GENERATE_BLOCK_SIZE - 1) / GENERATE_BLOCK_SIZE;
+		final SplittableRandom root = new SplittableRandom(seed);
+		final SplittableRandom[] randoms = new SplittableRandom[blockCount];
+		for (int block = 0; block < blockCount; block++) {
+			randoms[block] = root.split();
+		}
+		// The clustered distributions' velocities depend on the total mass,
+		// which is estimated from the mass range, so blocks stay independent.
+		final double totalMass = count * (this.minMass + this.maxMass) / 2.0;
+		executor.forEach(blockCount, 1, (from, to) -> {
+			for (int block = from; block < to; block++) {
+				final int start = block * GENERATE_BLOCK_SIZE;
+				final int end = Math.min(count, start + GENERATE_BLOCK_SIZE);
+				this.generateBlock(store, first + start, first + end, firstId + start,
+						distribution, totalMass, randoms[block]);
+			}
+		});
+	}
+
+	private void generateBlock(
+			ParticleStore store,
+			int from,
+			int to,
+			long firstId,
+			ParticleDistribution distribution,
+			double totalMass,
+			SplittableRandom random
+	) {
+		final long[] ids = store.getIds();
+		final double[] x = store.getX();
+		final double[] y = store.getY();
+		final double[] vx = store.getVx();
+		final double[] vy = store.getVy();
+		final double[] mass = store.getMass();
+		final double[] charge = store.getCharge();
+		final double[] radius = store.getRadius();
+
+		final double centerX = (this.minPosition.getX() + this.maxPosition.getX()) / 2.0;
+		final double centerY = (this.minPosition.getY() + this.maxPosition.getY()) / 2.0;
+		final double driftX = (this.minVelocity.getX() + this.maxVelocity.getX()) / 2.0;
+		final double driftY = (this.minVelocity.getY() + this.maxVelocity.getY()) / 2.0;
+		final double maxRadius = Math.min(
+				this.maxPosition.getX() - this.minPosition.getX(),
+				this.maxPosition.getY() - this.minPosition.getY()
+		) / 2.0;
+		final double gm = Constants.G * totalMass;
+		final double plummerScale = PLUMMER_SCALE * maxRadius;
+		// The fraction of a Plummer sphere's mass inside the cut-off radius.
+		final double plummerMaxFraction = maxRadius * maxRadius / (maxRadius * maxRadius + plummerScale * plummerScale);
+		final double diskSpeedFactor = Math.sqrt(4.0 * gm / (Math.PI * maxRadius));
+
+		for (int i = from; i < to; i++) {
+			ids[i] = firstId + (i - from);
+			mass[i] = uniform(random, this.minMass, this.maxMass);
+			charge[i] = uniform(random, this.minCharge, this.maxCharge);
+			radius[i] = uniform(random, this.minRadius, this.maxRadius);
+			if (distribution == ParticleDistribution.UNIFORM) {
+				x[i] = uniform(random, this.minPosition.getX(), this.maxPosition.getX());
+				y[i] = uniform(random, this.minPosition.getY(), this.maxPosition.getY());
+				vx[i] = uniform(random, this.minVelocity.getX(), this.maxVelocity.getX());
+				vy[i] = uniform(random, this.minVelocity.getY(), this.maxVelocity.getY());
+				continue;
+			}
+			final double angle = random.nextDouble(2.0 * Math.PI);
+			final double cos = Math.cos(angle);
+			final double sin = Math.sin(angle);
+			if (distribution == ParticleDistribution.PLUMMER) {
+				// Inverts the mass fraction inside r, r^2 / (r^2 + a^2).
+				final double fraction = random.nextDouble() * plummerMaxFraction;
+				final double r = plummerScale * Math.sqrt(fraction / (1.0 - fraction));
+				x[i] = centerX + r * cos;
+				y[i] = centerY + r * sin;
+				// A pair of normal samples, by the Box-Muller transform.
+				final double sigma = Math.sqrt(gm / (6.0 * Math.sqrt(r * r + plummerScale * plummerScale)));
+				final double gaussian = sigma * Math.sqrt(-2.0 * Math.log(1.0 - random.nextDouble()));
+				final double gaussianAngle = random.nextDouble(2.0 * Math.PI);
+				vx[i] = driftX + gaussian * Math.cos(gaussianAngle);
+				vy[i] = driftY + gaussian * Math.sin(gaussianAngle);
+			} else {
+				final double r = maxRadius * Math.sqrt(random.nextDouble());
+				x[i] = centerX + r * cos;
+				y[i] = centerY + r * sin;
+				// The speed at which the disk's pull at r keeps the particle
+				// on a circle, so the inside turns faster than the edge.
+				final double speed = diskSpeedFactor * Math.sqrt(diskField(r / maxRadius));
+				vx[i] = driftX - speed * sin;
+				vy[i] = driftY + speed * cos;
+			}
+		}
+	}
+
+	/**
+	 * The pull towards the center of a uniform disk, in its own plane, at a
+	 * fraction k of its radius. Unlike in a sphere, the mass outside k also
+	 * pulls, so this isn't the pull of the mass inside k: it grows about
+	 * linearly near the center, and steeply near the edge. The circular
+	 * speed at k is sqrt(4 G M / (pi R) * diskField(k)).
+	 * @param k The distance from the center, as a fraction of the radius,
+	 *          in [0, 1).
+	 * @return K(k) - E(k), of the complete elliptic integrals of the first
+	 * and second kind, computed with the arithmetic-geometric mean.
+	 */
+	private static double diskField(double k) {
+		double a = 1.0;
+		double b = Math.sqrt(1.0 - k * k);
+		double c = k;
+		double weight = 0.5;
+		double sum = weight * c * c;
+		while (c > 1e-15 * a) {
+			final double nextA = (a + b) / 2.0;
+			c = (a - b) / 2.0;
+			b = Math.sqrt(a * b);
+			a = nextA;
+			weight *= 2.0;
+			sum += weight * c * c;
+		}
+		return Math.PI / (2.0 * a) * sum;
+	}
+
+	/**
+	 * @return A uniformly random value in [min, max), or min if the range is
+	 * empty.
+	 */
+	private static double uniform(SplittableRandom random, double min, double max) {
+		return max > min ? random.nextDouble(min, max) : min;
+	}
 }
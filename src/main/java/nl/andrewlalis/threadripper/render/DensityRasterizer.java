@@ -0,0 +1,261 @@
+package nl.andrewlalis.threadripper.render;
+
+import nl.andrewlalis.threadripper.engine.ChamberSnapshot;
+import nl.andrewlalis.threadripper.engine.StepExecutor;
+
+import java.util.Arrays;
+
+/**
+ * Draws a snapshot as a heat map of how much mass lies under each small
+ * cell of the screen, for views with far too many particles to draw one by
+ * one. Only the binning depends on the number of particles; drawing the
+ * heat map depends only on the number of pixels.
+ * <p>
+ *     A cell's brightness is the logarithm of its mass, relative to the
+ *     heaviest cell, and its colour follows the same convention as the
+ *     {@link ParticleRasterizer}: blue where the charge is positive, red
+ *     where it's negative or zero, and shades in between where it's mixed.
+ * </p>
+ * <p>
+ *     Binning runs in parallel, as a counting sort of the particles by band
+ *     of cell rows: each task finds the cells of its own range of particles
+ *     and counts them per band, and after a prefix sum over those counts,
+ *     each task writes its particles into their bands. Then each band is
+ *     summed up by a single task, so no two tasks write to the same cell,
+ *     and every particle is only visited once per pass.
+ * </p>
+ */
+public class DensityRasterizer {
+	/**
+	 * The width and height of a cell, in pixels.
+	 */
+	public static final int CELL_SIZE = 2;
+	private static final int PARTICLE_CHUNK_SIZE = 16384;
+	/**
+	 * The number of cell rows per task, when filling in the pixels.
+	 */
+	private static final int CELL_ROW_CHUNK_SIZE = 8;
+
+	private static final int POSITIVE_RGB = ParticleRasterizer.POSITIVE_COLOR & 0xFFFFFF;
+	private static final int NEGATIVE_RGB = ParticleRasterizer.NEGATIVE_COLOR & 0xFFFFFF;
+	private static final int BACKGROUND_RGB = ParticleRasterizer.BACKGROUND_COLOR & 0xFFFFFF;
+
+	private int[] particleCells;
+	/**
+	 * The indices of the visible particles, ordered by band.
+	 */
+	private int[] bandParticles;
+	/**
+	 * Each range of particles' count of particles per band, which the prefix
+	 * sum turns into the index in {@link #bandParticles} to write the next
+	 * one to.
+	 */
+	private int[] chunkBandOffsets;
+	/**
+	 * The index in {@link #bandParticles} at which each band starts, with
+	 * the number of visible particles at the end.
+	 */
+	private int[] bandStart;
+	private double[] cellMass;
+	private double[] cellCharge;
+	private double[] cellAbsoluteCharge;
+	private double[] bandMaxMass;
+
+	public DensityRasterizer() {
+		this.particleCells = new int[0];
+		this.bandParticles = new int[0];
+		this.chunkBandOffsets = new int[0];
+		this.bandStart = new int[1];
+		this.cellMass = new double[0];
+		this.cellCharge = new double[0];
+		this.cellAbsoluteCharge = new double[0];
+		this.bandMaxMass = new double[0];
+	}
+
+	/**
+	 * Draws a frame, replacing everything in the pixel array. The parameters
+	 * are the same as for {@link ParticleRasterizer#draw}.
+	 * @param executor The executor to bin the particles on.
+	 * @return The number of particles which were visible.
+	 */
+	public int draw(ChamberSnapshot snapshot, double extrapolationSeconds, int[] pixels, int width, int height,
+					double offsetX, double offsetY, double scale, StepExecutor executor) {
+		final int columns = (width + CELL_SIZE - 1) / CELL_SIZE;
+		final int rows = (height + CELL_SIZE - 1) / CELL_SIZE;
+		final int size = snapshot.getSize();
+		// One band of cell rows per thread.
+		final int threadCount = Math.max(1, executor.getThreadCount());
+		final int rowsPerBand = Math.max(1, (rows + threadCount - 1) / threadCount);
+		final int bandCount = (rows + rowsPerBand - 1) / rowsPerBand;
+		final int chunkCount = Math.max(1, (size + PARTICLE_CHUNK_SIZE - 1) / PARTICLE_CHUNK_SIZE);
+		this.ensureCapacity(size, columns * rows, bandCount, chunkCount);
+
+		// Find each particle's cell, or -1 if it's off the screen, and count
+		// the particles in each band, per range of particles.
+		final double[] x = snapshot.getX();
+		final double[] y = snapshot.getY();
+		final double[] vx = snapshot.getVx();
+		final double[] vy = snapshot.getVy();
+		final int[] particleCells = this.particleCells;
+		final int[] chunkBandOffsets = this.chunkBandOffsets;
+		final double cellScale = scale / CELL_SIZE;
+		Arrays.fill(chunkBandOffsets, 0, chunkCount * bandCount, 0);
+		executor.forEach(chunkCount, 1, (fromChunk, toChunk) -> {
+			for (int chunk = fromChunk; chunk < toChunk; chunk++) {
+				final int counts = chunk * bandCount;
+				final int end = Math.min(size, (chunk + 1) * PARTICLE_CHUNK_SIZE);
+				for (int i = chunk * PARTICLE_CHUNK_SIZE; i < end; i++) {
+					final double cellX = (x[i] + vx[i] * extrapolationSeconds + offsetX) * cellScale;
+					final double cellY = (y[i] + vy[i] * extrapolationSeconds + offsetY) * cellScale;
+					if (cellX >= 0 && cellX < columns && cellY >= 0 && cellY < rows) {
+						particleCells[i] = (int) cellY * columns + (int) cellX;
+						chunkBandOffsets[counts + (int) cellY / rowsPerBand]++;
+					} else {
+						particleCells[i] = -1;
+					}
+				}
+			}
+		});
+
+		// Turn the counts into offsets, band by band, and within each band in
+		// the order of the particles, so the sums don't depend on scheduling.
+		final int[] bandStart = this.bandStart;
+		int offset = 0;
+		for (int band = 0; band < bandCount; band++) {
+			bandStart[band] = offset;
+			for (int chunk = 0; chunk < chunkCount; chunk++) {
+				final int count = chunkBandOffsets[chunk * bandCount + band];
+				chunkBandOffsets[chunk * bandCount + band] = offset;
+				offset += count;
+			}
+		}
+		bandStart[bandCount] = offset;
+		final int visibleCount = offset;
+
+		// Write each visible particle into its band.
+		final int[] bandParticles = this.bandParticles;
+		executor.forEach(chunkCount, 1, (fromChunk, toChunk) -> {
+			for (int chunk = fromChunk; chunk < toChunk; chunk++) {
+				final int offsets = chunk * bandCount;
+				final int end = Math.min(size, (chunk + 1) * PARTICLE_CHUNK_SIZE);
+				for (int i = chunk * PARTICLE_CHUNK_SIZE; i < end; i++) {
+					final int cell = particleCells[i];
+					if (cell >= 0) {
+						bandParticles[chunkBandOffsets[offsets + cell / columns / rowsPerBand]++] = i;
+					}
+				}
+			}
+		});
+
+		// Sum up each band of cell rows.
+		final double[] mass = snapshot.getMass();
+		final double[] charge = snapshot.getCharge();
+		final double[] cellMass = this.cellMass;
+		final double[] cellCharge = this.cellCharge;
+		final double[] cellAbsoluteCharge = this.cellAbsoluteCharge;
+		executor.forEach(bandCount, 1, (from, to) -> {
+			for (int band = from; band < to; band++) {
+				final int firstCell = band * rowsPerBand * columns;
+				final int endCell = Math.min(rows, (band + 1) * rowsPerBand) * columns;
+				Arrays.fill(cellMass, firstCell, endCell, 0.0);
+				Arrays.fill(cellCharge, firstCell, endCell, 0.0);
+				Arrays.fill(cellAbsoluteCharge, firstCell, endCell, 0.0);
+				for (int k = bandStart[band]; k < bandStart[band + 1]; k++) {
+					final int i = bandParticles[k];
+					final int cell = particleCells[i];
+					cellMass[cell] += mass[i];
+					cellCharge[cell] += charge[i];
+					cellAbsoluteCharge[cell] += Math.abs(charge[i]);
+				}
+				double maxMass = 0.0;
+				for (int cell = firstCell; cell < endCell; cell++) {
+					maxMass = Math.max(maxMass, cellMass[cell]);
+				}
+				this.bandMaxMass[band] = maxMass;
+			}
+		});
+		double maxMass = 0.0;
+		for (int band = 0; band < bandCount; band++) {
+			maxMass = Math.max(maxMass, this.bandMaxMass[band]);
+		}
+
+		// Map each cell to a colour, and fill in its pixels.
+		final double referenceMass = referenceMass(maxMass);
+		final double logMaxMass = Math.log1p(maxMass / referenceMass);
+		// Each task owns whole cell rows, so a cell's colour is computed once,
+		// in its first pixel row, and the rest of its pixel rows are copies.
+		executor.forEach(rows, CELL_ROW_CHUNK_SIZE, (from, to) -> {
+			for (int cellRow = from; cellRow < to; cellRow++) {
+				final int firstRow = cellRow * CELL_SIZE;
+				final int firstRowStart = firstRow * width;
+				for (int cellColumn = 0; cellColumn < columns; cellColumn++) {
+					final int cell = cellRow * columns + cellColumn;
+					final int color = colorOf(
+							cellMass[cell], cellCharge[cell], cellAbsoluteCharge[cell], referenceMass, logMaxMass
+					);
+					final int firstColumn = cellColumn * CELL_SIZE;
+					final int endColumn = Math.min(width, firstColumn + CELL_SIZE);
+					for (int column = firstColumn; column < endColumn; column++) {
+						pixels[firstRowStart + column] = color;
+					}
+				}
+				final int endRow = Math.min(height, firstRow + CELL_SIZE);
+				for (int row = firstRow + 1; row < endRow; row++) {
+					System.arraycopy(pixels, firstRowStart, pixels, row * width, width);
+				}
+			}
+		});
+		return visibleCount;
+	}
+
+	/**
+	 * The mass below which cells fade out, which keeps a few very heavy
+	 * cells from making all the others invisible.
+	 */
+	private static double referenceMass(double maxMass) {
+		return Math.max(maxMass * 1e-6, Double.MIN_NORMAL);
+	}
+
+	private static int colorOf(double mass, double charge, double absoluteCharge, double referenceMass, double logMaxMass) {
+		if (mass <= 0.0 || logMaxMass <= 0.0) return ParticleRasterizer.BACKGROUND_COLOR;
+		// The fraction of full intensity, with a floor so that any mass at all is visible.
+		final double intensity = 0.15 + 0.85 * Math.min(1.0, Math.log1p(mass / referenceMass) / logMaxMass);
+		final double positiveFraction = absoluteCharge > 0.0 ? 0.5 + 0.5 * charge / absoluteCharge : 0.0;
+		final int base = mix(NEGATIVE_RGB, POSITIVE_RGB, positiveFraction);
+		return 0xFF000000 | mix(BACKGROUND_RGB, base, intensity);
+	}
+
+	/**
+	 * Blends two RGB colours.
+	 * @param fraction How much of the second colour to use, from 0 to 1.
+	 */
+	private static int mix(int from, int to, double fraction) {
+		int result = 0;
+		for (int shift = 0; shift <= 16; shift += 8) {
+			final int a = (from >> shift) & 0xFF;
+			final int b = (to >> shift) & 0xFF;
+			result |= ((int) Math.round(a + (b - a) * fraction) & 0xFF) << shift;
+		}
+		return result;
+	}
+
+	private void ensureCapacity(int particleCount, int cellCount, int bandCount, int chunkCount) {
+		if (this.particleCells.length < particleCount) {
+			final int capacity = Math.max(particleCount, this.particleCells.length + (this.particleCells.length >> 1));
+			this.particleCells = new int[capacity];
+			this.bandParticles = new int[capacity];
+		}
+		if (this.chunkBandOffsets.length < chunkCount * bandCount) {
+			this.chunkBandOffsets = new int[chunkCount * bandCount];
+		}
+		if (this.cellMass.length < cellCount) {
+			this.cellMass = new double[cellCount];
+			this.cellCharge = new double[cellCount];
+			this.cellAbsoluteCharge = new double[cellCount];
+		}
+		if (this.bandMaxMass.length < bandCount) {
+			this.bandMaxMass = new double[bandCount];
+			this.bandStart = new int[bandCount + 1];
+		}
+	}
+}
@@ -3,44 +3,118 @@ package nl.andrewlalis.threadripper.render;
 import javafx.application.Platform;
 import javafx.scene.canvas.Canvas;
 import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 import lombok.extern.slf4j.Slf4j;
-import nl.andrewlalis.threadripper.engine.ParticleChamber;
+import nl.andrewlalis.threadripper.engine.ChamberSnapshot;
+import nl.andrewlalis.threadripper.engine.FrameScheduler;
+import nl.andrewlalis.threadripper.engine.SnapshotSource;
+import nl.andrewlalis.threadripper.engine.StepExecutor;
 import nl.andrewlalis.threadripper.engine.Vec2;
-import nl.andrewlalis.threadripper.particle.Particle;
 
-import java.util.LinkedList;
-import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The renderer is responsible for drawing a particle chamber's contents to
- * a canvas.
+ * a canvas. It draws from any {@link SnapshotSource}, so the same renderer
+ * shows both a running chamber and the replay of a recorded one.
+ * <p>
+ *     Each frame is rasterized into an array of pixels on the renderer's own
+ *     thread, by a {@link ParticleRasterizer}. The JavaFX thread only copies
+ *     a finished frame into an image and draws it. Only the newest finished
+ *     frame is kept: if the JavaFX thread falls behind, older frames are
+ *     skipped rather than queued up.
+ * </p>
+ * <p>
+ *     When more than {@value #DENSITY_MODE_THRESHOLD} particles per pixel
+ *     are on the screen, the renderer switches to drawing a heat map of
+ *     their density with a {@link DensityRasterizer}, and it switches back
+ *     once the density drops below half of that.
+ * </p>
  */
 @Slf4j
 public class ParticleChamberRenderer implements Runnable {
 	private static final double DEFAULT_FPS = 60.0;
 	private static final int FPS_READING_COUNT = 360;
+	private static final double DENSITY_MODE_THRESHOLD = 0.05;
 
-	private final ParticleChamber chamber;
+	/**
+	 * How the particles are drawn.
+	 */
+	public enum RenderMode {
+		/**
+		 * Each particle is drawn as a disc, coloured by its charge.
+		 */
+		PARTICLES,
+		/**
+		 * The particles' mass and charge are binned into a heat map.
+		 */
+		DENSITY
+	}
+
+	private final SnapshotSource source;
 	private final Canvas canvas;
+	private final ParticleRasterizer rasterizer;
+	private final DensityRasterizer densityRasterizer;
+	private final StepExecutor executor;
+	private volatile RenderMode renderMode;
+
+	private volatile double targetFps;
+	private volatile boolean running;
 
-	private double targetFps;
-	private boolean running;
+	private volatile Vec2 offset;
+	private volatile double scale;
 
-	private Vec2 offset;
-	private double scale;
+	/**
+	 * The canvas' size in pixels, which the JavaFX thread keeps up to date.
+	 */
+	private volatile int viewWidth;
+	private volatile int viewHeight;
 
-	private LinkedList<Double> recentFpsReadings;
+	/**
+	 * The newest finished frame, which the JavaFX thread hasn't shown yet.
+	 */
+	private final AtomicReference<RasterFrame> readyFrame;
+	private final AtomicBoolean swapScheduled;
+	private final Queue<RasterFrame> freeFrames;
+	private final AtomicLong skippedFrameCount;
+	private WritableImage image;
 
-	public ParticleChamberRenderer(ParticleChamber chamber, Canvas canvas) {
-		this.chamber = chamber;
+	/**
+	 * The most recent FPS readings, as a ring buffer with a running sum.
+	 */
+	private final double[] recentFpsReadings;
+	private int fpsReadingCount;
+	private int nextFpsReading;
+	private volatile double fpsReadingSum;
+
+	public ParticleChamberRenderer(SnapshotSource source, Canvas canvas) {
+		this.source = source;
 		this.canvas = canvas;
+		this.rasterizer = new ParticleRasterizer();
+		this.densityRasterizer = new DensityRasterizer();
+		this.executor = new StepExecutor(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+		this.renderMode = RenderMode.PARTICLES;
 
 		this.targetFps = DEFAULT_FPS;
-		this.recentFpsReadings = new LinkedList<>();
+		this.recentFpsReadings = new double[FPS_READING_COUNT];
 
 		this.offset = new Vec2(0, 0);
 		this.scale = 1.0;
+
+		this.readyFrame = new AtomicReference<>();
+		this.swapScheduled = new AtomicBoolean(false);
+		this.freeFrames = new ConcurrentLinkedQueue<>();
+		this.skippedFrameCount = new AtomicLong();
+		this.viewWidth = (int) canvas.getWidth();
+		this.viewHeight = (int) canvas.getHeight();
+		canvas.widthProperty().addListener((observable, oldValue, newValue) -> this.viewWidth = newValue.intValue());
+		canvas.heightProperty().addListener((observable, oldValue, newValue) -> this.viewHeight = newValue.intValue());
 	}
 
 	public synchronized void setRunning(boolean running) {
@@ -57,84 +131,174 @@ public class ParticleChamberRenderer implements Runnable {
 		this.offset = offset;
 	}
 
+	public Vec2 getOffset() {
+		return this.offset;
+	}
+
+	public double getScale() {
+		return this.scale;
+	}
+
+	/**
+	 * Sets the zoom of the view.
+	 * @param scale The number of pixels per meter, which must be positive.
+	 */
 	public synchronized void setScale(double scale) {
 		if (scale > 0) {
 			this.scale = scale;
 		}
 	}
 
+	public RenderMode getRenderMode() {
+		return this.renderMode;
+	}
+
+	/**
+	 * @return The number of frames which were drawn, but replaced by a newer
+	 * frame before the JavaFX thread could show them.
+	 */
+	public long getSkippedFrameCount() {
+		return this.skippedFrameCount.get();
+	}
+
 	@Override
 	public void run() {
 		this.running = true;
-		long previousTimeMilliseconds = System.currentTimeMillis();
-		long millisecondsSinceLastFrame = 0L;
+		final FrameScheduler scheduler = new FrameScheduler(this.targetFps, FrameScheduler.OverrunPolicy.DROP);
 
 		log.info("Starting particle chamber renderer.");
 		while (this.running) {
-			final long currentTimeMilliseconds = System.currentTimeMillis();
-			final long elapsedMilliseconds = currentTimeMilliseconds - previousTimeMilliseconds;
-
-			millisecondsSinceLastFrame += elapsedMilliseconds;
-
-			final double millisecondsPerFrame = 1000.0 / this.targetFps;
-
-			if (millisecondsSinceLastFrame > millisecondsPerFrame) {
-				final double currentFps = 1000.0 / millisecondsSinceLastFrame;
-				this.updateFpsReading(currentFps);
-				this.draw();
-				millisecondsSinceLastFrame = 0L;
-			}
-
-			previousTimeMilliseconds = currentTimeMilliseconds;
+			scheduler.setFramesPerSecond(this.targetFps);
+			final long elapsedNanos = scheduler.awaitNextFrame();
+			this.updateFpsReading(1_000_000_000.0 / elapsedNanos);
+			this.draw();
 		}
+		this.executor.shutdown();
 		log.info("Particle chamber renderer stopped.");
 	}
 
+	/**
+	 * Rasterizes the latest snapshot into a free frame, and hands it to the
+	 * JavaFX thread, replacing any frame which it hasn't shown yet.
+	 */
 	private void draw() {
-		final double secondsSinceLastUpdate = this.chamber.getSecondsSinceLastUpdate();
-		final Set<Particle> particles = this.chamber.getCopyOfParticles();
-		Platform.runLater(() -> {
-			GraphicsContext gc = this.canvas.getGraphicsContext2D();
-			gc.setFill(Color.WHITE);
-			gc.clearRect(0, 0, this.canvas.getWidth(), this.canvas.getHeight());
-
-
-			for (Particle particle : particles) {
-				particle.updatePosition(secondsSinceLastUpdate);
-				Vec2 pos = particle.getPosition().add(this.offset);
-				if (particle.getCharge() > 0) {
-					gc.setFill(Color.BLUE);
-				} else {
-					gc.setFill(Color.RED);
-				}
-				gc.fillOval(
-						pos.getX() - particle.getRadius(),
-						pos.getY() - particle.getRadius(),
-						particle.getRadius() * 2,
-						particle.getRadius() * 2
+		final int width = this.viewWidth;
+		final int height = this.viewHeight;
+		if (width <= 0 || height <= 0) return;
+		RasterFrame frame = this.freeFrames.poll();
+		if (frame == null || frame.pixels.length < width * height) {
+			frame = new RasterFrame(width * height);
+		}
+		final Vec2 offset = this.offset;
+		try (ChamberSnapshot snapshot = this.source.acquireSnapshot()) {
+			// Extrapolate each particle's position to the present.
+			final double extrapolationSeconds = (System.nanoTime() - snapshot.getPublishedNanos()) / 1_000_000_000.0
+					* this.source.getSimulationRate();
+			final RenderMode renderMode = this.renderMode;
+			if (renderMode == RenderMode.DENSITY) {
+				frame.visibleCount = this.densityRasterizer.draw(
+						snapshot, extrapolationSeconds, frame.pixels, width, height,
+						offset.getX(), offset.getY(), this.scale, this.executor
+				);
+			} else {
+				frame.visibleCount = this.rasterizer.draw(
+						snapshot, extrapolationSeconds, frame.pixels, width, height,
+						offset.getX(), offset.getY(), this.scale
 				);
 			}
+			frame.particleCount = snapshot.getSize();
+			frame.renderMode = renderMode;
+		}
+		this.updateRenderMode(frame.visibleCount, width * height);
+		frame.width = width;
+		frame.height = height;
+
+		final RasterFrame replaced = this.readyFrame.getAndSet(frame);
+		if (replaced != null) {
+			this.skippedFrameCount.incrementAndGet();
+			this.freeFrames.offer(replaced);
+		}
+		if (this.swapScheduled.compareAndSet(false, true)) {
+			Platform.runLater(this::showReadyFrame);
+		}
+	}
+
+	/**
+	 * Picks the mode for the next frame from how crowded this one was, with
+	 * some hysteresis, so that the view doesn't flicker between modes.
+	 */
+	private void updateRenderMode(int visibleCount, int pixelCount) {
+		final double density = (double) visibleCount / pixelCount;
+		if (density > DENSITY_MODE_THRESHOLD) {
+			this.renderMode = RenderMode.DENSITY;
+		} else if (density < DENSITY_MODE_THRESHOLD / 2) {
+			this.renderMode = RenderMode.PARTICLES;
+		}
+	}
 
+	/**
+	 * Shows the newest finished frame, on the JavaFX thread.
+	 */
+	private void showReadyFrame() {
+		this.swapScheduled.set(false);
+		final RasterFrame frame = this.readyFrame.getAndSet(null);
+		if (frame == null) return;
+		try {
+			if (this.image == null || this.image.getWidth() != frame.width || this.image.getHeight() != frame.height) {
+				this.image = new WritableImage(frame.width, frame.height);
+			}
+			this.image.getPixelWriter().setPixels(
+					0, 0, frame.width, frame.height,
+					PixelFormat.getIntArgbPreInstance(), frame.pixels, 0, frame.width
+			);
+			GraphicsContext gc = this.canvas.getGraphicsContext2D();
+			gc.clearRect(0, 0, this.canvas.getWidth(), this.canvas.getHeight());
+			gc.drawImage(this.image, 0, 0);
 			gc.setFill(Color.BLACK);
 			gc.fillText(String.format("FPS: %.2f", this.getAverageFps()), 10, 10);
-		});
+			gc.fillText(String.format("Particles: %d (%d visible)", frame.particleCount, frame.visibleCount), 10, 25);
+			if (frame.renderMode == RenderMode.DENSITY) {
+				gc.fillText("Density view", 10, 40);
+			}
+		} finally {
+			this.freeFrames.offer(frame);
+		}
 	}
 
 	private void updateFpsReading(double recentFpsReading) {
-		this.recentFpsReadings.addFirst(recentFpsReading);
-		if (this.recentFpsReadings.size() > FPS_READING_COUNT) {
-			this.recentFpsReadings.removeLast();
+		double sum = this.fpsReadingSum - this.recentFpsReadings[this.nextFpsReading] + recentFpsReading;
+		this.recentFpsReadings[this.nextFpsReading] = recentFpsReading;
+		this.nextFpsReading = (this.nextFpsReading + 1) % FPS_READING_COUNT;
+		if (this.fpsReadingCount < FPS_READING_COUNT) {
+			this.fpsReadingCount++;
+		} else if (this.nextFpsReading == 0) {
+			// Start over from the exact readings once per lap, so rounding errors don't build up.
+			sum = 0.0;
+			for (double reading : this.recentFpsReadings) {
+				sum += reading;
+			}
 		}
+		this.fpsReadingSum = sum;
 	}
 
 	public double getAverageFps() {
-		if (this.recentFpsReadings.size() == 0) {
-			return 0.0;
-		}
-		double sum = 0.0;
-		for (double reading : this.recentFpsReadings) {
-			sum += reading;
+		final int count = this.fpsReadingCount;
+		return count == 0 ? 0.0 : this.fpsReadingSum / count;
+	}
+
+	/**
+	 * A frame's worth of pixels, which is reused once it has been shown.
+	 */
+	private static class RasterFrame {
+		private final int[] pixels;
+		private int width;
+		private int height;
+		private int particleCount;
+		private int visibleCount;
+		private RenderMode renderMode;
+
+		RasterFrame(int pixelCount) {
+			this.pixels = new int[pixelCount];
 		}
-		return sum / this.recentFpsReadings.size();
 	}
 }
@@ -0,0 +1,92 @@
+package nl.andrewlalis.threadripper.render;
+
+import nl.andrewlalis.threadripper.engine.ChamberSnapshot;
+
+import java.util.Arrays;
+
+/**
+ * Draws a snapshot's particles as filled discs into a plain array of ARGB
+ * pixels, so that a whole frame can be drawn on any thread, and then handed
+ * to JavaFX in one call. This has no JavaFX dependencies.
+ * <p>
+ *     A particle at (x, y) is drawn at ((x + offsetX) * scale,
+ *     (y + offsetY) * scale) on the screen, with its radius scaled too, and
+ *     particles whose disc lies entirely outside the frame are skipped.
+ * </p>
+ */
+public class ParticleRasterizer {
+	public static final int BACKGROUND_COLOR = 0xFFFFFFFF;
+	public static final int POSITIVE_COLOR = 0xFF0000FF;
+	public static final int NEGATIVE_COLOR = 0xFFFF0000;
+
+	/**
+	 * Discs smaller than this radius, in pixels, are drawn as one pixel.
+	 */
+	private static final double MIN_DISC_RADIUS = 0.75;
+
+	/**
+	 * Draws a frame, replacing everything in the pixel array.
+	 * @param snapshot The particles to draw.
+	 * @param extrapolationSeconds How far to move each particle along its
+	 *                             velocity before drawing it, in seconds.
+	 * @param pixels The pixels, row by row, which must hold at least
+	 *               width * height values.
+	 * @param width The width of the frame, in pixels.
+	 * @param height The height of the frame, in pixels.
+	 * @param offsetX The x offset of the view, in meters.
+	 * @param offsetY The y offset of the view, in meters.
+	 * @param scale The number of pixels per meter.
+	 * @return The number of particles which were visible.
+	 */
+	public int draw(ChamberSnapshot snapshot, double extrapolationSeconds, int[] pixels, int width, int height,
+					double offsetX, double offsetY, double scale) {
+		Arrays.fill(pixels, 0, width * height, BACKGROUND_COLOR);
+		final double[] x = snapshot.getX();
+		final double[] y = snapshot.getY();
+		final double[] vx = snapshot.getVx();
+		final double[] vy = snapshot.getVy();
+		final double[] charge = snapshot.getCharge();
+		final double[] radius = snapshot.getRadius();
+		int visibleCount = 0;
+		for (int i = 0; i < snapshot.getSize(); i++) {
+			final double screenX = (x[i] + vx[i] * extrapolationSeconds + offsetX) * scale;
+			final double screenY = (y[i] + vy[i] * extrapolationSeconds + offsetY) * scale;
+			final double screenRadius = radius[i] * scale;
+			// Cull particles which are entirely outside the frame.
+			if (screenX + screenRadius < 0 || screenX - screenRadius >= width
+					|| screenY + screenRadius < 0 || screenY - screenRadius >= height) {
+				continue;
+			}
+			visibleCount++;
+			final int color = charge[i] > 0 ? POSITIVE_COLOR : NEGATIVE_COLOR;
+			if (screenRadius < MIN_DISC_RADIUS) {
+				final int column = (int) screenX;
+				final int row = (int) screenY;
+				if (column >= 0 && column < width && row >= 0 && row < height) {
+					pixels[row * width + column] = color;
+				}
+			} else {
+				fillDisc(pixels, width, height, screenX, screenY, screenRadius, color);
+			}
+		}
+		return visibleCount;
+	}
+
+	/**
+	 * Fills every pixel whose center lies inside a disc, one row at a time.
+	 */
+	private static void fillDisc(int[] pixels, int width, int height, double centerX, double centerY, double radius, int color) {
+		final int firstRow = Math.max(0, (int) Math.ceil(centerY - radius - 0.5));
+		final int lastRow = Math.min(height - 1, (int) Math.floor(centerY + radius - 0.5));
+		final double radiusSquared = radius * radius;
+		for (int row = firstRow; row <= lastRow; row++) {
+			final double dy = row + 0.5 - centerY;
+			final double halfWidth = Math.sqrt(Math.max(0.0, radiusSquared - dy * dy));
+			final int firstColumn = Math.max(0, (int) Math.ceil(centerX - halfWidth - 0.5));
+			final int lastColumn = Math.min(width - 1, (int) Math.floor(centerX + halfWidth - 0.5));
+			if (firstColumn <= lastColumn) {
+				Arrays.fill(pixels, row * width + firstColumn, row * width + lastColumn + 1, color);
+			}
+		}
+	}
+}
@@ -0,0 +1,353 @@
+package nl.andrewlalis.threadripper.stream;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.andrewlalis.threadripper.engine.ChamberSnapshot;
+import nl.andrewlalis.threadripper.engine.StepListener;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Streams a chamber's state live to any number of remote viewers, over
+ * plain TCP. Add the server to a chamber as a {@link StepListener}, and
+ * close it once the chamber has stopped.
+ * <p>
+ *     The simulating thread only swaps each step's snapshot into a single
+ *     slot, and wakes the server's own thread, so it never waits on the
+ *     network. Steps which arrive faster than the frame rate are released
+ *     right away. The server's thread encodes the latest snapshot with a
+ *     {@link StreamEncoder}, once for all clients, and serves every
+ *     connection with non-blocking channels and a single selector.
+ * </p>
+ * <p>
+ *     Each client has a queue of at most {@value #QUEUE_CAPACITY} frames.
+ *     When a slow client's queue is full, the frames which it hasn't started
+ *     receiving yet are dropped, and it is sent a keyframe of the newest
+ *     step instead, since the deltas after a gap wouldn't apply. New clients
+ *     also start with a keyframe.
+ * </p>
+ */
+@Slf4j
+public class BroadcastServer implements StepListener, AutoCloseable {
+	private static final int QUEUE_CAPACITY = 4;
+	private static final int READ_BUFFER_SIZE = 256;
+
+	private final ServerSocketChannel server;
+	private final Selector selector;
+	private final StreamEncoder encoder;
+	private final long frameIntervalNanos;
+	private final List<Client> clients;
+	private final ByteBuffer readBuffer;
+	private final Thread serverThread;
+
+	/**
+	 * The newest snapshot which hasn't been broadcast yet.
+	 */
+	private final AtomicReference<ChamberSnapshot> pending;
+	/**
+	 * The earliest time at which the next frame may be taken, which is
+	 * checked on the simulating thread to skip steps cheaply.
+	 */
+	private volatile long nextFrameNanos;
+	private volatile boolean closed;
+
+	private volatile int clientCount;
+	private final AtomicLong broadcastFrameCount;
+	private final AtomicLong sentFrameCount;
+	private final AtomicLong droppedFrameCount;
+	private final AtomicLong sentByteCount;
+
+	/**
+	 * Opens the server socket and starts the server's thread.
+	 * @param address The address to listen on.
+	 * @param framesPerSecond The largest number of frames to send per second.
+	 * @param quantum The precision of the streamed positions, in meters.
+	 * @throws IOException If the server socket could not be opened.
+	 */
+	public BroadcastServer(InetSocketAddress address, double framesPerSecond, double quantum) throws IOException {
+		if (!(framesPerSecond > 0)) {
+			throw new IllegalArgumentException("The frame rate must be positive.");
+		}
+		this.encoder = new StreamEncoder(quantum);
+		this.frameIntervalNanos = (long) (1_000_000_000.0 / framesPerSecond);
+		this.clients = new ArrayList<>();
+		this.readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		this.pending = new AtomicReference<>();
+		this.broadcastFrameCount = new AtomicLong();
+		this.sentFrameCount = new AtomicLong();
+		this.droppedFrameCount = new AtomicLong();
+		this.sentByteCount = new AtomicLong();
+
+		this.selector = Selector.open();
+		this.server = ServerSocketChannel.open();
+		try {
+			this.server.bind(address);
+			this.server.configureBlocking(false);
+			this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+		} catch (IOException e) {
+			this.server.close();
+			this.selector.close();
+			throw e;
+		}
+		this.serverThread = new Thread(this::serve, "Broadcast server");
+		this.serverThread.setDaemon(true);
+		this.serverThread.start();
+		log.info("Streaming chamber state on {}.", this.getAddress());
+	}
+
+	@Override
+	public void stepCompleted(ChamberSnapshot snapshot) {
+		if (this.closed || System.nanoTime() < this.nextFrameNanos) {
+			snapshot.close();
+			return;
+		}
+		final ChamberSnapshot replaced = this.pending.getAndSet(snapshot);
+		if (replaced != null) {
+			// The server's thread was already woken up for the replaced one.
+			replaced.close();
+		} else {
+			this.selector.wakeup();
+		}
+	}
+
+	/**
+	 * The server's thread, which accepts clients, takes the pending snapshot,
+	 * and writes to whichever clients are ready.
+	 */
+	private void serve() {
+		try {
+			while (!this.closed) {
+				this.selector.select();
+				final Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) continue;
+					if (key.isAcceptable()) {
+						this.accept();
+					} else {
+						final Client client = (Client) key.attachment();
+						if (key.isReadable()) {
+							this.read(client);
+						}
+						if (key.isValid() && key.isWritable()) {
+							this.flush(client);
+						}
+					}
+				}
+				final ChamberSnapshot snapshot = this.pending.getAndSet(null);
+				if (snapshot != null) {
+					this.nextFrameNanos = System.nanoTime() + this.frameIntervalNanos;
+					try (snapshot) {
+						this.broadcast(snapshot);
+					}
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			log.error("The broadcast server stopped unexpectedly.", e);
+		} finally {
+			for (Client client : new ArrayList<>(this.clients)) {
+				this.disconnect(client);
+			}
+			final ChamberSnapshot snapshot = this.pending.getAndSet(null);
+			if (snapshot != null) {
+				snapshot.close();
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		final SocketChannel channel = this.server.accept();
+		if (channel == null) return;
+		channel.configureBlocking(false);
+		channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		final Client client = new Client(channel);
+		client.key = channel.register(this.selector, SelectionKey.OP_READ, client);
+		this.clients.add(client);
+		this.clientCount = this.clients.size();
+		log.info("Stream client {} connected.", client.address);
+	}
+
+	/**
+	 * Clients don't send anything, so this only notices when they leave.
+	 */
+	private void read(Client client) {
+		try {
+			this.readBuffer.clear();
+			if (client.channel.read(this.readBuffer) < 0) {
+				this.disconnect(client);
+			}
+		} catch (IOException e) {
+			this.disconnect(client);
+		}
+	}
+
+	/**
+	 * Queues a snapshot's frame for every client, encoding a keyframe only
+	 * if some client needs one. Clients whose connection fails are removed
+	 * while flushing, so this loops over a copy of the list.
+	 */
+	private void broadcast(ChamberSnapshot snapshot) {
+		final ByteBuffer delta = this.encoder.encodeDelta(snapshot);
+		final boolean deltaIsKeyframe = delta.get(Integer.BYTES) == StreamFrames.KEYFRAME;
+		ByteBuffer keyframe = deltaIsKeyframe ? delta : null;
+		this.broadcastFrameCount.incrementAndGet();
+		for (Client client : new ArrayList<>(this.clients)) {
+			if (client.needsKeyframe || client.queue.size() >= QUEUE_CAPACITY) {
+				this.dropUnsentFrames(client);
+				if (keyframe == null) {
+					keyframe = this.encoder.encodeKeyframe(snapshot);
+				}
+				client.queue.add(keyframe.duplicate());
+				client.needsKeyframe = false;
+			} else {
+				client.queue.add(delta.duplicate());
+			}
+			this.flush(client);
+		}
+	}
+
+	/**
+	 * Drops every queued frame except one which is partly sent, since the
+	 * rest of that one must still follow.
+	 */
+	private void dropUnsentFrames(Client client) {
+		final ByteBuffer head = client.queue.peekFirst();
+		final boolean keepHead = head != null && head.position() > 0;
+		final int dropped = client.queue.size() - (keepHead ? 1 : 0);
+		client.queue.clear();
+		if (keepHead) {
+			client.queue.add(head);
+		}
+		this.droppedFrameCount.addAndGet(dropped);
+		client.droppedFrameCount += dropped;
+	}
+
+	/**
+	 * Writes as many of a client's queued frames as its socket accepts
+	 * without blocking, and only asks to be told when it's writable again
+	 * while frames are left.
+	 */
+	private void flush(Client client) {
+		try {
+			while (!client.queue.isEmpty()) {
+				final ByteBuffer frame = client.queue.peekFirst();
+				this.sentByteCount.addAndGet(client.channel.write(frame));
+				if (frame.hasRemaining()) break;
+				client.queue.removeFirst();
+				this.sentFrameCount.incrementAndGet();
+			}
+			client.key.interestOps(client.queue.isEmpty()
+					? SelectionKey.OP_READ
+					: SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		} catch (IOException e) {
+			this.disconnect(client);
+		}
+	}
+
+	private void disconnect(Client client) {
+		if (!this.clients.remove(client)) return;
+		this.clientCount = this.clients.size();
+		client.key.cancel();
+		try {
+			client.channel.close();
+		} catch (IOException e) {
+			log.debug("Could not close the connection to {}.", client.address, e);
+		}
+		log.info("Stream client {} disconnected, after {} frames were dropped for it.",
+				client.address, client.droppedFrameCount);
+	}
+
+	/**
+	 * @return The address which clients can connect to.
+	 */
+	public InetSocketAddress getAddress() {
+		try {
+			return (InetSocketAddress) this.server.getLocalAddress();
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	public int getClientCount() {
+		return this.clientCount;
+	}
+
+	/**
+	 * @return The number of snapshots which were encoded and queued for the
+	 * connected clients.
+	 */
+	public long getBroadcastFrameCount() {
+		return this.broadcastFrameCount.get();
+	}
+
+	/**
+	 * @return The number of frames which were fully sent, over all clients.
+	 */
+	public long getSentFrameCount() {
+		return this.sentFrameCount.get();
+	}
+
+	/**
+	 * @return The number of frames which were dropped because a client
+	 * couldn't keep up, over all clients.
+	 */
+	public long getDroppedFrameCount() {
+		return this.droppedFrameCount.get();
+	}
+
+	public long getSentByteCount() {
+		return this.sentByteCount.get();
+	}
+
+	/**
+	 * Stops the server's thread, and disconnects every client.
+	 */
+	@Override
+	public void close() {
+		this.closed = true;
+		this.selector.wakeup();
+		try {
+			this.serverThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			this.server.close();
+			this.selector.close();
+		} catch (IOException e) {
+			log.warn("Could not close the broadcast server.", e);
+		}
+	}
+
+	/**
+	 * A connected viewer, and the frames which are waiting to be sent to it.
+	 */
+	private static class Client {
+		private final SocketChannel channel;
+		private final String address;
+		private final ArrayDeque<ByteBuffer> queue;
+		private SelectionKey key;
+		private boolean needsKeyframe;
+		private long droppedFrameCount;
+
+		Client(SocketChannel channel) throws IOException {
+			this.channel = channel;
+			this.address = String.valueOf(channel.getRemoteAddress());
+			this.queue = new ArrayDeque<>(QUEUE_CAPACITY + 1);
+			this.needsKeyframe = true;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package nl.andrewlalis.threadripper.stream;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A headless viewer of a live state stream, which decodes every frame it
+ * receives from a {@link BroadcastServer} and prints how much it received
+ * each second. It's meant for checking a server, and measuring its
+ * bandwidth, without a renderer.
+ */
+@Slf4j
+public class StreamClient implements Closeable {
+	private static final String USAGE = String.join(System.lineSeparator(),
+			"Usage: StreamClient --port <n> [options]",
+			"  --host <name>       Host of the broadcast server. Default localhost.",
+			"  --port <n>          Port of the broadcast server.",
+			"  --seconds <x>       Stop after this many seconds. Default is to run until",
+			"                      the server disconnects."
+	);
+	private static final int MAX_FRAME_SIZE = 1 << 30;
+
+	private final SocketChannel channel;
+	private final StreamDecoder decoder;
+	private final ByteBuffer lengthBuffer;
+	private ByteBuffer frameBuffer;
+
+	/**
+	 * Connects to a broadcast server.
+	 * @param address The server's address.
+	 * @throws IOException If the connection fails.
+	 */
+	public StreamClient(InetSocketAddress address) throws IOException {
+		this.channel = SocketChannel.open(address);
+		this.decoder = new StreamDecoder();
+		this.lengthBuffer = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		this.frameBuffer = ByteBuffer.allocate(0);
+	}
+
+	public static void main(String[] args) {
+		String host = "localhost";
+		int port = -1;
+		double seconds = Double.POSITIVE_INFINITY;
+		try {
+			for (int i = 0; i < args.length; i += 2) {
+				if (i + 1 >= args.length) {
+					throw new IllegalArgumentException("Missing value for option " + args[i]);
+				}
+				if (args[i].equals("--host")) {
+					host = args[i + 1];
+				} else if (args[i].equals("--port")) {
+					port = Integer.parseInt(args[i + 1]);
+				} else if (args[i].equals("--seconds")) {
+					seconds = Double.parseDouble(args[i + 1]);
+				} else {
+					throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+				}
+			}
+			if (port < 0) {
+				throw new IllegalArgumentException("--port is required.");
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(1);
+			return;
+		}
+		try (StreamClient client = new StreamClient(new InetSocketAddress(host, port))) {
+			client.run((long) Math.min(seconds * 1_000_000_000.0, Long.MAX_VALUE));
+		} catch (IOException | RuntimeException e) {
+			log.error("The stream failed.", e);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Receives and decodes frames, printing statistics once per second.
+	 * @param durationNanos How long to receive for.
+	 * @throws IOException If the connection fails.
+	 */
+	public void run(long durationNanos) throws IOException {
+		final long startNanos = System.nanoTime();
+		long reportNanos = startNanos;
+		long frames = 0L;
+		long keyframes = 0L;
+		long bytes = 0L;
+		try {
+			while (System.nanoTime() - startNanos < durationNanos) {
+				final ByteBuffer frame = this.receiveFrame();
+				if (this.decoder.decode(frame) == StreamFrames.KEYFRAME) {
+					keyframes++;
+				}
+				frames++;
+				bytes += Integer.BYTES + frame.limit();
+				final long now = System.nanoTime();
+				if (now - reportNanos >= 1_000_000_000L) {
+					final double interval = (now - reportNanos) / 1_000_000_000.0;
+					System.out.printf("Step %d, %d particles: %d frames (%d keyframes), %.1f kB/s%n",
+							this.decoder.getStepCount(), this.decoder.getSize(),
+							frames, keyframes, bytes / 1000.0 / interval);
+					reportNanos = now;
+					frames = 0L;
+					keyframes = 0L;
+					bytes = 0L;
+				}
+			}
+		} catch (EOFException e) {
+			log.info("The server closed the stream.");
+		}
+	}
+
+	/**
+	 * Receives and decodes the next frame, after which the decoder holds its
+	 * particles.
+	 * @return The type of the frame.
+	 * @throws EOFException If the server closed the connection.
+	 * @throws IOException If the connection fails.
+	 */
+	public byte receive() throws IOException {
+		return this.decoder.decode(this.receiveFrame());
+	}
+
+	/**
+	 * Reads one frame, without its length prefix.
+	 * @return A buffer with the frame, which is reused by the next call.
+	 * @throws EOFException If the server closed the connection.
+	 */
+	private ByteBuffer receiveFrame() throws IOException {
+		this.lengthBuffer.clear();
+		this.readFully(this.lengthBuffer);
+		final int length = this.lengthBuffer.getInt(0);
+		if (length < StreamFrames.HEADER_SIZE || length > MAX_FRAME_SIZE) {
+			throw new IOException("Invalid frame length " + length + ".");
+		}
+		if (this.frameBuffer.capacity() < length) {
+			this.frameBuffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		this.frameBuffer.clear().limit(length);
+		this.readFully(this.frameBuffer);
+		return this.frameBuffer.flip();
+	}
+
+	private void readFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (this.channel.read(buffer) < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+
+	/**
+	 * @return The decoder, which holds the particles of the latest frame.
+	 */
+	public StreamDecoder getDecoder() {
+		return this.decoder;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+}
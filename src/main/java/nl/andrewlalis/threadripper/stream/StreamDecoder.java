@@ -0,0 +1,158 @@
+package nl.andrewlalis.threadripper.stream;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decodes the frames of a live state stream, as described by
+ * {@link StreamFrames}, keeping the particles of the latest frame, which
+ * the next delta frame applies to. Only the first {@link #getSize()}
+ * elements of each array are valid, and they are overwritten by the next
+ * frame.
+ */
+@Getter
+public class StreamDecoder {
+	private int size;
+	private long stepCount;
+	private double simulationTime;
+	private double quantum;
+
+	private long[] ids;
+	private double[] x;
+	private double[] y;
+	private double[] radius;
+	/**
+	 * The sign of each particle's charge: -1, 0 or 1.
+	 */
+	private byte[] chargeSign;
+
+	/**
+	 * Whether a keyframe has been decoded yet, since a delta frame can't be
+	 * decoded without one.
+	 */
+	private boolean synced;
+
+	@Getter(AccessLevel.NONE)
+	private long[] qx;
+	@Getter(AccessLevel.NONE)
+	private long[] qy;
+	@Getter(AccessLevel.NONE)
+	private long[] nextIds;
+	@Getter(AccessLevel.NONE)
+	private long[] nextQx;
+	@Getter(AccessLevel.NONE)
+	private long[] nextQy;
+	@Getter(AccessLevel.NONE)
+	private double[] nextRadius;
+	@Getter(AccessLevel.NONE)
+	private byte[] nextChargeSign;
+
+	public StreamDecoder() {
+		this.ids = new long[0];
+		this.x = new double[0];
+		this.y = new double[0];
+		this.radius = new double[0];
+		this.chargeSign = new byte[0];
+		this.qx = new long[0];
+		this.qy = new long[0];
+		this.nextIds = new long[0];
+		this.nextQx = new long[0];
+		this.nextQy = new long[0];
+		this.nextRadius = new double[0];
+		this.nextChargeSign = new byte[0];
+	}
+
+	/**
+	 * Decodes one frame.
+	 * @param frame The frame's bytes, without its length prefix. The buffer is
+	 *              switched to little-endian order.
+	 * @return The type of the frame.
+	 * @throws IllegalArgumentException If the frame is malformed, or is a
+	 * delta frame which doesn't apply to the previous frame.
+	 */
+	public byte decode(ByteBuffer frame) {
+		frame.order(ByteOrder.LITTLE_ENDIAN);
+		final byte type = frame.get();
+		if (type != StreamFrames.KEYFRAME && type != StreamFrames.DELTA) {
+			throw new IllegalArgumentException("Unknown frame type " + type + ".");
+		}
+		if (type == StreamFrames.DELTA && !this.synced) {
+			throw new IllegalArgumentException("A delta frame arrived before any keyframe.");
+		}
+		final long stepCount = frame.getLong();
+		final double simulationTime = frame.getDouble();
+		final double quantum = frame.getDouble();
+		final int size = frame.getInt();
+		this.ensureCapacity(size);
+		int cursor = 0;
+		for (int i = 0; i < size; i++) {
+			if (type == StreamFrames.DELTA) {
+				final long tag = StreamFrames.getVarLong(frame);
+				if ((tag & 1) == 0) {
+					cursor += (int) (tag >>> 1);
+					if (cursor >= this.size) {
+						throw new IllegalArgumentException("A delta frame refers to a particle which doesn't exist.");
+					}
+					this.nextIds[i] = this.ids[cursor];
+					this.nextQx[i] = this.qx[cursor] + StreamFrames.getZigzag(frame);
+					this.nextQy[i] = this.qy[cursor] + StreamFrames.getZigzag(frame);
+					this.nextRadius[i] = this.radius[cursor];
+					this.nextChargeSign[i] = this.chargeSign[cursor];
+					cursor++;
+					continue;
+				}
+			}
+			this.nextIds[i] = StreamFrames.getVarLong(frame);
+			this.nextQx[i] = StreamFrames.getZigzag(frame);
+			this.nextQy[i] = StreamFrames.getZigzag(frame);
+			this.nextRadius[i] = StreamFrames.getVarLong(frame) * quantum;
+			this.nextChargeSign[i] = frame.get();
+		}
+		this.swap();
+		for (int i = 0; i < size; i++) {
+			this.x[i] = this.qx[i] * quantum;
+			this.y[i] = this.qy[i] * quantum;
+		}
+		this.size = size;
+		this.stepCount = stepCount;
+		this.simulationTime = simulationTime;
+		this.quantum = quantum;
+		this.synced = true;
+		return type;
+	}
+
+	private void swap() {
+		long[] longs = this.ids;
+		this.ids = this.nextIds;
+		this.nextIds = longs;
+		longs = this.qx;
+		this.qx = this.nextQx;
+		this.nextQx = longs;
+		longs = this.qy;
+		this.qy = this.nextQy;
+		this.nextQy = longs;
+		final double[] doubles = this.radius;
+		this.radius = this.nextRadius;
+		this.nextRadius = doubles;
+		final byte[] bytes = this.chargeSign;
+		this.chargeSign = this.nextChargeSign;
+		this.nextChargeSign = bytes;
+	}
+
+	private void ensureCapacity(int size) {
+		if (this.nextIds.length < size) {
+			this.nextIds = new long[size];
+			this.nextQx = new long[size];
+			this.nextQy = new long[size];
+			this.nextRadius = new double[size];
+			this.nextChargeSign = new byte[size];
+		}
+		if (this.x.length < size) {
+			this.x = new double[size];
+			this.y = new double[size];
+		}
+	}
+}
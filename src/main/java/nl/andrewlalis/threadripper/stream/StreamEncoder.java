@@ -0,0 +1,193 @@
+package nl.andrewlalis.threadripper.stream;
+
+import nl.andrewlalis.threadripper.engine.ChamberSnapshot;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Encodes snapshots into the frames of a live state stream, as described by
+ * {@link StreamFrames}. The encoder remembers the quantized particles of the
+ * last frame it encoded, so that the next frame can be sent as a delta.
+ * Encoded frames are new buffers, which may be shared between clients.
+ */
+public class StreamEncoder {
+	private final double quantum;
+
+	private int size;
+	private long[] ids;
+	private long[] qx;
+	private long[] qy;
+	private long maxId;
+	private boolean hasPrevious;
+
+	private int nextSize;
+	private long[] nextIds;
+	private long[] nextQx;
+	private long[] nextQy;
+
+	private ByteBuffer scratch;
+
+	/**
+	 * @param quantum The size of one position unit, in meters, which must be
+	 *                positive. Positions are rounded to a multiple of this.
+	 */
+	public StreamEncoder(double quantum) {
+		if (!(quantum > 0)) {
+			throw new IllegalArgumentException("The quantum must be positive.");
+		}
+		this.quantum = quantum;
+		this.ids = new long[0];
+		this.qx = new long[0];
+		this.qy = new long[0];
+		this.nextIds = new long[0];
+		this.nextQx = new long[0];
+		this.nextQy = new long[0];
+		this.scratch = ByteBuffer.allocate(0);
+	}
+
+	/**
+	 * Encodes a snapshot as a delta against the previous frame, or as a
+	 * keyframe if there is no previous frame, or if the particles can't be
+	 * matched up with it, for example after a chamber was restored.
+	 * @param snapshot The snapshot to encode.
+	 * @return The frame, including its length prefix.
+	 */
+	public ByteBuffer encodeDelta(ChamberSnapshot snapshot) {
+		this.quantize(snapshot);
+		ByteBuffer frame = null;
+		if (this.hasPrevious) {
+			frame = this.writeDelta(snapshot);
+		}
+		if (frame == null) {
+			frame = this.writeKeyframe(snapshot);
+		}
+		this.advance();
+		return frame;
+	}
+
+	/**
+	 * Encodes a snapshot as a keyframe, which can be decoded on its own. If
+	 * this is the same snapshot which was last given to
+	 * {@link #encodeDelta(ChamberSnapshot)}, then the delta of the next
+	 * snapshot applies to this keyframe too.
+	 * @param snapshot The snapshot to encode.
+	 * @return The frame, including its length prefix.
+	 */
+	public ByteBuffer encodeKeyframe(ChamberSnapshot snapshot) {
+		this.quantize(snapshot);
+		return this.writeKeyframe(snapshot);
+	}
+
+	/**
+	 * Rounds the snapshot's positions to quanta, into the next frame's arrays.
+	 */
+	private void quantize(ChamberSnapshot snapshot) {
+		final int size = snapshot.getSize();
+		if (this.nextIds.length < size) {
+			this.nextIds = new long[size];
+			this.nextQx = new long[size];
+			this.nextQy = new long[size];
+		}
+		final long[] ids = snapshot.getIds();
+		final double[] x = snapshot.getX();
+		final double[] y = snapshot.getY();
+		for (int i = 0; i < size; i++) {
+			this.nextIds[i] = ids[i];
+			this.nextQx[i] = Math.round(x[i] / this.quantum);
+			this.nextQy[i] = Math.round(y[i] / this.quantum);
+		}
+		this.nextSize = size;
+	}
+
+	/**
+	 * Makes the frame which was just encoded the previous frame.
+	 */
+	private void advance() {
+		long[] swap = this.ids;
+		this.ids = this.nextIds;
+		this.nextIds = swap;
+		swap = this.qx;
+		this.qx = this.nextQx;
+		this.nextQx = swap;
+		swap = this.qy;
+		this.qy = this.nextQy;
+		this.nextQy = swap;
+		this.size = this.nextSize;
+		this.maxId = Long.MIN_VALUE;
+		for (int i = 0; i < this.size; i++) {
+			this.maxId = Math.max(this.maxId, this.ids[i]);
+		}
+		this.hasPrevious = true;
+	}
+
+	private ByteBuffer writeKeyframe(ChamberSnapshot snapshot) {
+		final ByteBuffer buffer = this.startFrame(StreamFrames.KEYFRAME, snapshot);
+		for (int i = 0; i < this.nextSize; i++) {
+			this.putParticle(buffer, snapshot, i);
+		}
+		return this.finishFrame(buffer);
+	}
+
+	/**
+	 * @return The delta frame, or null if a particle which isn't new can't be
+	 * found in the previous frame.
+	 */
+	private ByteBuffer writeDelta(ChamberSnapshot snapshot) {
+		final ByteBuffer buffer = this.startFrame(StreamFrames.DELTA, snapshot);
+		int cursor = 0;
+		for (int i = 0; i < this.nextSize; i++) {
+			final long id = this.nextIds[i];
+			if (id > this.maxId) {
+				StreamFrames.putVarLong(buffer, 1);
+				this.putParticle(buffer, snapshot, i);
+				continue;
+			}
+			int previous = cursor;
+			while (previous < this.size && this.ids[previous] != id) {
+				previous++;
+			}
+			if (previous == this.size) return null;
+			StreamFrames.putVarLong(buffer, (long) (previous - cursor) << 1);
+			StreamFrames.putZigzag(buffer, this.nextQx[i] - this.qx[previous]);
+			StreamFrames.putZigzag(buffer, this.nextQy[i] - this.qy[previous]);
+			cursor = previous + 1;
+		}
+		return this.finishFrame(buffer);
+	}
+
+	private void putParticle(ByteBuffer buffer, ChamberSnapshot snapshot, int i) {
+		StreamFrames.putVarLong(buffer, this.nextIds[i]);
+		StreamFrames.putZigzag(buffer, this.nextQx[i]);
+		StreamFrames.putZigzag(buffer, this.nextQy[i]);
+		StreamFrames.putVarLong(buffer, Math.max(0L, Math.round(snapshot.getRadius()[i] / this.quantum)));
+		buffer.put((byte) Math.signum(snapshot.getCharge()[i]));
+	}
+
+	private ByteBuffer startFrame(byte type, ChamberSnapshot snapshot) {
+		final int capacity = Integer.BYTES + StreamFrames.HEADER_SIZE + this.nextSize * StreamFrames.MAX_PARTICLE_SIZE;
+		if (this.scratch.capacity() < capacity) {
+			this.scratch = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		final ByteBuffer buffer = this.scratch;
+		buffer.clear();
+		buffer.putInt(0);
+		buffer.put(type);
+		buffer.putLong(snapshot.getStepCount());
+		buffer.putDouble(snapshot.getSimulationTime());
+		buffer.putDouble(this.quantum);
+		buffer.putInt(this.nextSize);
+		return buffer;
+	}
+
+	/**
+	 * Copies the frame out of the scratch buffer, into a buffer of its own.
+	 */
+	private ByteBuffer finishFrame(ByteBuffer buffer) {
+		buffer.putInt(0, buffer.position() - Integer.BYTES);
+		buffer.flip();
+		final ByteBuffer frame = ByteBuffer.allocate(buffer.limit()).order(ByteOrder.LITTLE_ENDIAN);
+		frame.put(buffer);
+		return frame.flip();
+	}
+}
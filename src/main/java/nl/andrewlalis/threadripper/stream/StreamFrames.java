@@ -0,0 +1,80 @@
+package nl.andrewlalis.threadripper.stream;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The wire format of a live state stream, which a {@link BroadcastServer}
+ * sends and a {@link StreamDecoder} reads. A stream is a sequence of frames,
+ * each of which is an int length, followed by that many bytes:
+ * <pre>
+ *     0   byte    frame type, {@link #KEYFRAME} or {@link #DELTA}
+ *     1   long    step count
+ *     9   double  simulated time, in seconds
+ *     17  double  quantum, the size of one position unit, in meters
+ *     25  int     particle count, n
+ *     29  ...     n particles
+ * </pre>
+ * <p>
+ *     All fixed-size values are little-endian. Positions and radii are sent
+ *     as whole multiples of the quantum, as variable-length integers, where
+ *     signed values are zigzag-encoded first, so that small magnitudes take
+ *     few bytes. In a keyframe, each particle is a new particle:
+ * </p>
+ * <pre>
+ *     varint  id
+ *     varint  x, zigzag
+ *     varint  y, zigzag
+ *     varint  radius
+ *     byte    sign of the charge: -1, 0 or 1
+ * </pre>
+ * <p>
+ *     A delta frame describes its particles relative to the previous frame.
+ *     The particles which survive from one frame to the next keep their
+ *     relative order, so each particle starts with a varint tag of
+ *     (skip &lt;&lt; 1) | new, where skip is the number of the previous
+ *     frame's particles which have disappeared since the last surviving
+ *     one. A new particle is then written as in a keyframe, and a surviving
+ *     one only as its zigzag-encoded change in x and y, in quanta. Since the
+ *     changes are between quantized positions, they never drift.
+ * </p>
+ */
+public final class StreamFrames {
+	public static final byte KEYFRAME = 1;
+	public static final byte DELTA = 2;
+	public static final int HEADER_SIZE = 1 + Long.BYTES + 2 * Double.BYTES + Integer.BYTES;
+
+	/**
+	 * The largest number of bytes a particle can take in any frame.
+	 */
+	static final int MAX_PARTICLE_SIZE = 5 * 10 + 1;
+
+	private StreamFrames() {
+	}
+
+	static void putVarLong(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	static long getVarLong(ByteBuffer buffer) {
+		long value = 0L;
+		for (int shift = 0; shift < Long.SIZE; shift += 7) {
+			final byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) return value;
+		}
+		throw new IllegalArgumentException("Malformed variable-length integer.");
+	}
+
+	static void putZigzag(ByteBuffer buffer, long value) {
+		putVarLong(buffer, (value << 1) ^ (value >> 63));
+	}
+
+	static long getZigzag(ByteBuffer buffer) {
+		final long value = getVarLong(buffer);
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
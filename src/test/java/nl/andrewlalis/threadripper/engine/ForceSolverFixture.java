@@ -0,0 +1,82 @@
+package nl.andrewlalis.threadripper.engine;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Shared setup for the force solver tests: an executor for each test, and
+ * stores of random particles which are the same for the same seed.
+ * <p>
+ *     The stores come in two kinds, since the solvers sum gravity and the
+ *     electric force with different factors. In a massive store, gravity is
+ *     about twelve orders of magnitude stronger than the electric force,
+ *     and in a charged store, it's the other way around.
+ * </p>
+ */
+abstract class ForceSolverFixture {
+	static final int PARTICLE_COUNT = 1500;
+
+	StepExecutor executor;
+
+	@BeforeEach
+	void setUp() {
+		this.executor = new StepExecutor(4);
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.executor.shutdown();
+	}
+
+	/**
+	 * @param seed The seed.
+	 * @param size The width and height of the square the particles are in.
+	 * @return A store of particles with masses from 1e10 to 1e14 kilograms,
+	 * and charges up to a milliCoulomb, so that gravity dominates.
+	 */
+	static ParticleStore massiveStore(long seed, double size) {
+		return randomStore(seed, size, 1e10, 1e14);
+	}
+
+	/**
+	 * @param seed The seed.
+	 * @param size The width and height of the square the particles are in.
+	 * @return A store of particles with masses from 0.5 to 2 kilograms, and
+	 * charges up to a milliCoulomb, so that the electric force dominates.
+	 */
+	static ParticleStore chargedStore(long seed, double size) {
+		return randomStore(seed, size, 0.5, 2.0);
+	}
+
+	private static ParticleStore randomStore(long seed, double size, double minMass, double maxMass) {
+		final SplittableRandom random = new SplittableRandom(seed);
+		final ParticleStore store = new ParticleStore();
+		for (int i = 0; i < PARTICLE_COUNT; i++) {
+			store.add(
+					i,
+					random.nextDouble(0.0, size),
+					random.nextDouble(0.0, size),
+					random.nextDouble(-10.0, 10.0),
+					random.nextDouble(-10.0, 10.0),
+					random.nextDouble(minMass, maxMass),
+					random.nextDouble(-1e-3, 1e-3),
+					1.0
+			);
+		}
+		return store;
+	}
+
+	/**
+	 * Checks a particle's acceleration, relative to the size of the expected
+	 * acceleration.
+	 */
+	static void assertAccelerationEquals(ParticleStore expected, ParticleStore actual, int i, double tolerance) {
+		final double magnitude = Math.hypot(expected.getAx()[i], expected.getAy()[i]);
+		assertEquals(expected.getAx()[i], actual.getAx()[i], tolerance * magnitude, "ax of particle " + i);
+		assertEquals(expected.getAy()[i], actual.getAy()[i], tolerance * magnitude, "ay of particle " + i);
+	}
+}
@@ -0,0 +1,131 @@
+package nl.andrewlalis.threadripper.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks the neighbour list solver's forces, and when it rebuilds its lists.
+ * Most tests use particles in a square of 400 meters, dense enough that
+ * each has a couple of dozen neighbours within the 25 meter cutoff.
+ */
+class NeighbourListForceSolverTest extends ForceSolverFixture {
+	private static final double SIZE = 400.0;
+	private static final double CUTOFF = 25.0;
+
+	@Test
+	void largeCutoffMatchesDirect() {
+		// With the cutoff this far away, shifting the force changes it by
+		// less than (r / cutoff)^2, which is about 1e-8 here.
+		this.assertLargeCutoffMatchesDirect(massiveStore(42, 1000.0));
+		this.assertLargeCutoffMatchesDirect(chargedStore(42, 1000.0));
+	}
+
+	@Test
+	void matchesAllPairsWithinTheCutoff() {
+		final ParticleStore expected = chargedStore(5, SIZE);
+		computeAllPairsWithinCutoff(expected, CUTOFF);
+		final ParticleStore actual = chargedStore(5, SIZE);
+		new NeighbourListForceSolver(CUTOFF, 4.0).computeAccelerations(actual, this.executor);
+		for (int i = 0; i < PARTICLE_COUNT; i++) {
+			assertAccelerationEquals(expected, actual, i, 1e-9);
+		}
+	}
+
+	@Test
+	void listsAreOnlyRebuiltAfterMovingMoreThanHalfTheSkin() {
+		final ParticleStore store = chargedStore(1, SIZE);
+		final NeighbourListForceSolver solver = new NeighbourListForceSolver(CUTOFF, 4.0);
+		solver.computeAccelerations(store, this.executor);
+		assertEquals(1, solver.getRebuildCount());
+
+		store.getX()[0] += 1.9;
+		solver.computeAccelerations(store, this.executor);
+		assertEquals(1, solver.getRebuildCount(), "Rebuilt before moving half the skin.");
+
+		store.getX()[0] += 0.2;
+		solver.computeAccelerations(store, this.executor);
+		assertEquals(2, solver.getRebuildCount(), "Not rebuilt after moving more than half the skin.");
+
+		solver.computeAccelerations(store, this.executor);
+		assertEquals(2, solver.getRebuildCount());
+
+		store.setMass(0, 2 * store.getMass()[0]);
+		solver.computeAccelerations(store, this.executor);
+		assertEquals(3, solver.getRebuildCount(), "Not rebuilt after the store was modified.");
+
+		solver.setSkin(6.0);
+		solver.computeAccelerations(store, this.executor);
+		assertEquals(4, solver.getRebuildCount(), "Not rebuilt after the skin changed.");
+	}
+
+	@Test
+	void reusedListsGiveTheSameForcesAsFreshOnes() {
+		final ParticleStore store = chargedStore(3, SIZE);
+		final NeighbourListForceSolver reused = new NeighbourListForceSolver(CUTOFF, 4.0);
+		reused.computeAccelerations(store, this.executor);
+		final SplittableRandom random = new SplittableRandom(4);
+		for (int step = 0; step < 10; step++) {
+			// Every particle moves less than half the skin in total.
+			for (int i = 0; i < PARTICLE_COUNT; i++) {
+				store.getX()[i] += random.nextDouble(-0.1, 0.1);
+				store.getY()[i] += random.nextDouble(-0.1, 0.1);
+			}
+			reused.computeAccelerations(store, this.executor);
+			final ParticleStore fresh = copyOf(store);
+			new NeighbourListForceSolver(CUTOFF, 4.0).computeAccelerations(fresh, this.executor);
+			for (int i = 0; i < PARTICLE_COUNT; i++) {
+				assertAccelerationEquals(fresh, store, i, 1e-12);
+			}
+		}
+		assertEquals(1, reused.getRebuildCount());
+	}
+
+	private void assertLargeCutoffMatchesDirect(ParticleStore store) {
+		final ParticleStore expected = copyOf(store);
+		new DirectForceSolver().computeAccelerations(expected, this.executor);
+		new NeighbourListForceSolver(1e7, 0.0).computeAccelerations(store, this.executor);
+		for (int i = 0; i < PARTICLE_COUNT; i++) {
+			assertAccelerationEquals(expected, store, i, 1e-6);
+		}
+	}
+
+	/**
+	 * Sums the solver's shifted force law over every pair within the cutoff,
+	 * without any cells or lists.
+	 */
+	private static void computeAllPairsWithinCutoff(ParticleStore store, double cutoff) {
+		final double[] x = store.getX();
+		final double[] y = store.getY();
+		final double[] mass = store.getMass();
+		final double[] charge = store.getCharge();
+		final double cutoffSquared = cutoff * cutoff;
+		for (int i = 0; i < store.getSize(); i++) {
+			double accelerationX = 0.0;
+			double accelerationY = 0.0;
+			for (int j = 0; j < store.getSize(); j++) {
+				final double dX = x[j] - x[i];
+				final double dY = y[j] - y[i];
+				final double distanceSquared = dX * dX + dY * dY;
+				if (j == i || distanceSquared >= cutoffSquared) continue;
+				final double distance = Math.sqrt(distanceSquared);
+				final double magnitude = (Constants.G * mass[j] + Constants.Ke * Math.abs(charge[i] * charge[j]) / mass[i])
+						* (1.0 / distanceSquared - 1.0 / cutoffSquared) / distance;
+				accelerationX += magnitude * dX;
+				accelerationY += magnitude * dY;
+			}
+			store.getAx()[i] = accelerationX;
+			store.getAy()[i] = accelerationY;
+		}
+	}
+
+	private static ParticleStore copyOf(ParticleStore store) {
+		final ParticleStore copy = new ParticleStore();
+		for (int i = 0; i < store.getSize(); i++) {
+			copy.add(store.get(i));
+		}
+		return copy;
+	}
+}
@@ -0,0 +1,70 @@
+package nl.andrewlalis.threadripper.engine;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.function.LongFunction;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Checks that the all-pairs kernels give the same accelerations as the
+ * {@link DirectForceSolver}, up to the rounding of their different
+ * summation orders, both when gravity dominates and when the electric force
+ * does.
+ */
+class ScalarForceSolverTest extends ForceSolverFixture {
+	private static final double TOLERANCE = 1e-9;
+
+	@Test
+	void scalarMatchesDirect() {
+		this.assertMatchesDirect(new ScalarForceSolver());
+	}
+
+	@Test
+	void vectorMatchesDirect() {
+		final ForceSolver vector;
+		try {
+			vector = (ForceSolver) Class.forName("nl.andrewlalis.threadripper.engine.VectorForceSolver")
+					.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			assumeTrue(false, "The vectorized solver isn't in this build: " + e);
+			return;
+		}
+		this.assertMatchesDirect(vector);
+	}
+
+	@Test
+	void scalarSubsetMatchesDirect() {
+		this.assertSubsetMatchesDirect(seed -> massiveStore(seed, 1000.0));
+		this.assertSubsetMatchesDirect(seed -> chargedStore(seed, 1000.0));
+	}
+
+	private void assertMatchesDirect(ForceSolver solver) {
+		this.assertMatchesDirect(solver, seed -> massiveStore(seed, 1000.0));
+		this.assertMatchesDirect(solver, seed -> chargedStore(seed, 1000.0));
+	}
+
+	private void assertMatchesDirect(ForceSolver solver, LongFunction<ParticleStore> stores) {
+		final ParticleStore expected = stores.apply(42);
+		new DirectForceSolver().computeAccelerations(expected, this.executor);
+		final ParticleStore actual = stores.apply(42);
+		solver.computeAccelerations(actual, this.executor);
+		for (int i = 0; i < PARTICLE_COUNT; i++) {
+			assertAccelerationEquals(expected, actual, i, TOLERANCE);
+		}
+	}
+
+	private void assertSubsetMatchesDirect(LongFunction<ParticleStore> stores) {
+		final ParticleStore expected = stores.apply(7);
+		new DirectForceSolver().computeAccelerations(expected, this.executor);
+		final ParticleStore actual = stores.apply(7);
+		final int[] targets = new int[PARTICLE_COUNT / 3];
+		for (int k = 0; k < targets.length; k++) {
+			targets[k] = 3 * k + 1;
+		}
+		new ScalarForceSolver().computeAccelerations(actual, targets, targets.length, this.executor);
+		for (int target : targets) {
+			assertAccelerationEquals(expected, actual, target, TOLERANCE);
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package nl.andrewlalis.threadripper.particle;
+
+import nl.andrewlalis.threadripper.engine.ParticleStore;
+import nl.andrewlalis.threadripper.engine.StepExecutor;
+import nl.andrewlalis.threadripper.engine.Vec2;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Checks that {@link ParticleFactory#generate} depends only on its seed, and
+ * not on the number of threads it runs on.
+ */
+class ParticleFactoryTest {
+	/**
+	 * Not a multiple of the generator's block size, so the last block is
+	 * partly filled.
+	 */
+	private static final int COUNT = 3 * 4096 + 123;
+	private static final int THREADS = 4;
+
+	private final ParticleFactory factory = new ParticleFactory(
+			1e10, 1e12,
+			-1e-3, 1e-3,
+			0.5, 5.0,
+			new Vec2(0, 0), new Vec2(800, 800),
+			new Vec2(-50, -50), new Vec2(50, 50)
+	);
+
+	@Test
+	void sameOutputForAnyThreadCount() {
+		for (ParticleDistribution distribution : ParticleDistribution.values()) {
+			final ParticleStore single = new ParticleStore();
+			final long singleFirstId = this.generate(single, distribution, 1, 7L);
+			final ParticleStore parallel = new ParticleStore();
+			final long parallelFirstId = this.generate(parallel, distribution, THREADS, 7L);
+
+			final String message = distribution + " with " + THREADS + " threads";
+			assertEquals(single.getSize(), parallel.getSize(), message);
+			assertArrayEquals(columnOf(single.getX()), columnOf(parallel.getX()), message);
+			assertArrayEquals(columnOf(single.getY()), columnOf(parallel.getY()), message);
+			assertArrayEquals(columnOf(single.getVx()), columnOf(parallel.getVx()), message);
+			assertArrayEquals(columnOf(single.getVy()), columnOf(parallel.getVy()), message);
+			assertArrayEquals(columnOf(single.getMass()), columnOf(parallel.getMass()), message);
+			assertArrayEquals(columnOf(single.getCharge()), columnOf(parallel.getCharge()), message);
+			assertArrayEquals(columnOf(single.getRadius()), columnOf(parallel.getRadius()), message);
+			// Ids come from a process-wide counter, so each run reserves its
+			// own block, but within it they're in the same order.
+			for (int i = 0; i < COUNT; i++) {
+				assertEquals(singleFirstId + i, single.getIds()[i + 1], message);
+				assertEquals(parallelFirstId + i, parallel.getIds()[i + 1], message);
+			}
+		}
+	}
+
+	@Test
+	void differentSeedsGiveDifferentParticles() {
+		final ParticleStore a = new ParticleStore();
+		this.generate(a, ParticleDistribution.UNIFORM, THREADS, 1L);
+		final ParticleStore b = new ParticleStore();
+		this.generate(b, ParticleDistribution.UNIFORM, THREADS, 2L);
+		assertFalse(Arrays.equals(columnOf(a.getX()), columnOf(b.getX())));
+	}
+
+	/**
+	 * Generates the particles into a store which already holds one particle,
+	 * and checks that they get a fresh block of ids.
+	 * @return The first id which was reserved for the generated particles.
+	 */
+	private long generate(ParticleStore store, ParticleDistribution distribution, int threads, long seed) {
+		store.add(new Particle(new Vec2(-1, -1)));
+		final StepExecutor executor = new StepExecutor(threads);
+		try {
+			final long firstId = Particle.peekNextId();
+			this.factory.generate(store, COUNT, distribution, seed, executor);
+			assertEquals(firstId + COUNT, Particle.peekNextId());
+			return firstId;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * @return The generated particles' values of a column, without the
+	 * store's first particle.
+	 */
+	private static double[] columnOf(double[] column) {
+		return Arrays.copyOfRange(column, 1, 1 + COUNT);
+	}
+}
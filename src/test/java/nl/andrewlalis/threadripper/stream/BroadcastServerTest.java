@@ -0,0 +1,171 @@
+package nl.andrewlalis.threadripper.stream;
+
+import nl.andrewlalis.threadripper.engine.ParticleStore;
+import nl.andrewlalis.threadripper.engine.SnapshotPublisher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.SplittableRandom;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Streams a store's particles through a {@link BroadcastServer} on the
+ * loopback interface, and checks what a {@link StreamClient} decodes.
+ */
+@Timeout(60)
+class BroadcastServerTest {
+	private static final double QUANTUM = 0.01;
+
+	private ParticleStore store;
+	private SnapshotPublisher publisher;
+	private SplittableRandom random;
+	private BroadcastServer server;
+	private long stepCount;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		this.store = new ParticleStore();
+		this.publisher = new SnapshotPublisher();
+		this.random = new SplittableRandom(1);
+		// A frame rate this high never skips a step.
+		this.server = new BroadcastServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1e9, QUANTUM);
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.server.close();
+	}
+
+	@Test
+	void decodedPositionsAreWithinHalfAQuantum() throws Exception {
+		this.addParticles(500);
+		try (StreamClient client = this.connect(1)) {
+			this.broadcast();
+			assertEquals(StreamFrames.KEYFRAME, client.receive());
+			this.assertDecoded(client.getDecoder());
+			for (int step = 0; step < 20; step++) {
+				this.moveParticles(2.0);
+				this.broadcast();
+				assertEquals(StreamFrames.DELTA, client.receive());
+				this.assertDecoded(client.getDecoder());
+			}
+		}
+	}
+
+	@Test
+	void pausedClientDropsFramesAndResyncsOnAKeyframe() throws Exception {
+		// Large, noisy moves make big deltas, to fill the socket buffers.
+		this.addParticles(20000);
+		try (StreamClient client = this.connect(1)) {
+			int broadcasts = 0;
+			while (this.server.getDroppedFrameCount() == 0) {
+				if (broadcasts++ > 5000) {
+					fail("No frames were dropped for a client which doesn't read.");
+				}
+				this.moveParticles(1000.0);
+				this.broadcast();
+			}
+			this.moveParticles(1000.0);
+			this.broadcast();
+			final long lastStep = this.stepCount;
+
+			int frames = 0;
+			int keyframes = 0;
+			while (client.getDecoder().getStepCount() != lastStep) {
+				if (client.receive() == StreamFrames.KEYFRAME) {
+					keyframes++;
+				}
+				frames++;
+			}
+			assertTrue(frames < broadcasts, "Every frame arrived, although some were dropped.");
+			assertTrue(keyframes >= 2, "There was no keyframe after the initial one.");
+			this.assertDecoded(client.getDecoder());
+		}
+	}
+
+	@Test
+	void disconnectingClientDoesNotStopTheOthers() throws Exception {
+		this.addParticles(100);
+		try (StreamClient staying = this.connect(1)) {
+			final StreamClient leaving = this.connect(2);
+			this.broadcast();
+			leaving.close();
+			for (int step = 0; step < 50; step++) {
+				this.moveParticles(1.0);
+				this.broadcast();
+			}
+			while (staying.getDecoder().getStepCount() != this.stepCount) {
+				staying.receive();
+			}
+			this.assertDecoded(staying.getDecoder());
+			waitFor(() -> this.server.getClientCount() == 1);
+		}
+	}
+
+	private StreamClient connect(int expectedClients) throws IOException {
+		final StreamClient client = new StreamClient(this.server.getAddress());
+		waitFor(() -> this.server.getClientCount() == expectedClients);
+		return client;
+	}
+
+	private void addParticles(int count) {
+		for (int i = 0; i < count; i++) {
+			this.store.add(
+					i,
+					this.random.nextDouble(-500.0, 500.0),
+					this.random.nextDouble(-500.0, 500.0),
+					0.0,
+					0.0,
+					1.0,
+					this.random.nextDouble(-1.0, 1.0),
+					this.random.nextDouble(0.5, 5.0)
+			);
+		}
+	}
+
+	private void moveParticles(double distance) {
+		for (int i = 0; i < this.store.getSize(); i++) {
+			this.store.getX()[i] += this.random.nextDouble(-distance, distance);
+			this.store.getY()[i] += this.random.nextDouble(-distance, distance);
+		}
+	}
+
+	/**
+	 * Publishes the store as the next step, and waits until the server has
+	 * queued it for its clients.
+	 */
+	private void broadcast() {
+		final long broadcasts = this.server.getBroadcastFrameCount();
+		this.stepCount++;
+		this.publisher.publish(this.store, this.stepCount, this.stepCount / 60.0);
+		this.server.stepCompleted(this.publisher.acquire());
+		waitFor(() -> this.server.getBroadcastFrameCount() > broadcasts);
+	}
+
+	private void assertDecoded(StreamDecoder decoder) {
+		assertEquals(this.stepCount, decoder.getStepCount());
+		assertEquals(this.store.getSize(), decoder.getSize());
+		for (int i = 0; i < this.store.getSize(); i++) {
+			assertEquals(this.store.getIds()[i], decoder.getIds()[i]);
+			assertEquals(this.store.getX()[i], decoder.getX()[i], QUANTUM / 2 + 1e-9, "x of particle " + i);
+			assertEquals(this.store.getY()[i], decoder.getY()[i], QUANTUM / 2 + 1e-9, "y of particle " + i);
+			assertEquals((byte) Math.signum(this.store.getCharge()[i]), decoder.getChargeSign()[i]);
+		}
+	}
+
+	private static void waitFor(BooleanSupplier condition) {
+		while (!condition.getAsBoolean()) {
+			Thread.onSpinWait();
+			Thread.yield();
+		}
+	}
+}
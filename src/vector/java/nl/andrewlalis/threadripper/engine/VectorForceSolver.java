@@ -0,0 +1,91 @@
+package nl.andrewlalis.threadripper.engine;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Exact force solver which uses the incubating Vector API to compute the
+ * effect of a whole vector's width of particles on one particle at a time.
+ * It gives the same accelerations as the {@link ScalarForceSolver}, up to
+ * the order in which they are summed.
+ * <p>
+ *     This class is only compiled by the "vector" profile, and needs
+ *     "--add-modules jdk.incubator.vector" at runtime. Use
+ *     {@link ForceSolverType#VECTOR} to get it where possible, and the scalar
+ *     solver otherwise.
+ * </p>
+ */
+public class VectorForceSolver implements ForceSolver {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	private static final int CHUNK_SIZE = 64;
+
+	@Override
+	public long computeAccelerations(ParticleStore store, StepExecutor executor) {
+		executor.forEach(store.getSize(), CHUNK_SIZE, (from, to) -> {
+			for (int i = from; i < to; i++) {
+				computeAcceleration(store, i);
+			}
+		});
+		final long size = store.getSize();
+		return size * (size - 1);
+	}
+
+	@Override
+	public long computeAccelerations(ParticleStore store, int[] targets, int targetCount, StepExecutor executor) {
+		executor.forEach(targetCount, CHUNK_SIZE, (from, to) -> {
+			for (int k = from; k < to; k++) {
+				computeAcceleration(store, targets[k]);
+			}
+		});
+		return (long) targetCount * (store.getSize() - 1);
+	}
+
+	private static void computeAcceleration(ParticleStore store, int i) {
+		final double[] x = store.getX();
+		final double[] y = store.getY();
+		final double[] mass = store.getMass();
+		final double[] charge = store.getCharge();
+		final int size = store.getSize();
+		final double xi = x[i];
+		final double yi = y[i];
+		final double chargeFactor = Constants.Ke * Math.abs(charge[i]) / mass[i];
+
+		final DoubleVector zero = DoubleVector.zero(SPECIES);
+		final DoubleVector one = DoubleVector.broadcast(SPECIES, 1.0);
+		DoubleVector accelerationX = zero;
+		DoubleVector accelerationY = zero;
+		final int vectorEnd = SPECIES.loopBound(size);
+		int j = 0;
+		for (; j < vectorEnd; j += SPECIES.length()) {
+			final DoubleVector dX = DoubleVector.fromArray(SPECIES, x, j).sub(xi);
+			final DoubleVector dY = DoubleVector.fromArray(SPECIES, y, j).sub(yi);
+			final DoubleVector distanceSquared = dX.fma(dX, dY.mul(dY));
+			// Coincident particles, including the particle itself, exert no force.
+			final VectorMask<Double> apart = distanceSquared.compare(VectorOperators.GT, 0.0);
+			final DoubleVector inverseDistance = one.div(distanceSquared.sqrt()).blend(zero, apart.not());
+			final DoubleVector magnitude = DoubleVector.fromArray(SPECIES, mass, j).mul(Constants.G)
+					.add(DoubleVector.fromArray(SPECIES, charge, j).abs().mul(chargeFactor))
+					.mul(inverseDistance.mul(inverseDistance).mul(inverseDistance));
+			accelerationX = magnitude.fma(dX, accelerationX);
+			accelerationY = magnitude.fma(dY, accelerationY);
+		}
+
+		double sumX = accelerationX.reduceLanes(VectorOperators.ADD);
+		double sumY = accelerationY.reduceLanes(VectorOperators.ADD);
+		for (; j < size; j++) {
+			final double dX = x[j] - xi;
+			final double dY = y[j] - yi;
+			final double distanceSquared = dX * dX + dY * dY;
+			if (distanceSquared == 0.0) continue;
+			final double inverseDistance = 1.0 / Math.sqrt(distanceSquared);
+			final double magnitude = (Constants.G * mass[j] + chargeFactor * Math.abs(charge[j]))
+					* inverseDistance * inverseDistance * inverseDistance;
+			sumX += magnitude * dX;
+			sumY += magnitude * dY;
+		}
+		store.getAx()[i] = sumX;
+		store.getAy()[i] = sumY;
+	}
+}